@@ -0,0 +1,195 @@
+/**
+Licensed to the Apache Software Foundation (ASF) under one
+or more contributor license agreements.  See the NOTICE file
+distributed with this work for additional information
+regarding copyright ownership.  The ASF licenses this file
+to you under the Apache License, Version 2.0 (the
+"License"); you may not use this file except in compliance
+with the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an
+"AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+KIND, either express or implied.  See the License for the
+specific language governing permissions and limitations
+under the License.
+ */
+package com.heliosapm.tsdb.grapi;
+
+import static com.heliosapm.tsdb.grapi.server.http.Constants.DEFAULT_BOSUN_CORS_DOMAIN;
+import static com.heliosapm.tsdb.grapi.server.http.Constants.DEFAULT_BOSUN_CORS_HEADERS;
+import static com.heliosapm.tsdb.grapi.server.http.Constants.DEFAULT_HTTP_CACHE_MAXAGE;
+import static com.heliosapm.tsdb.grapi.server.http.Constants.PROPERTY_BOSUN_CORS_DOMAIN;
+import static com.heliosapm.tsdb.grapi.server.http.Constants.PROPERTY_BOSUN_CORS_HEADERS;
+import static com.heliosapm.tsdb.grapi.server.http.Constants.PROPERTY_HTTP_CACHE_MAXAGE;
+import static com.heliosapm.tsdb.grapi.server.http.Constants.PROPERTY_HTTP_CORS_DOMAIN;
+import static com.heliosapm.tsdb.grapi.server.http.Constants.PROPERTY_HTTP_CORS_HEADERS;
+
+import java.nio.charset.Charset;
+import java.util.Properties;
+
+import org.jboss.netty.channel.Channel;
+import org.jboss.netty.channel.ChannelHandlerContext;
+import org.jboss.netty.handler.codec.http.DefaultHttpResponse;
+import org.jboss.netty.handler.codec.http.HttpHeaders;
+import org.jboss.netty.handler.codec.http.HttpRequest;
+import org.jboss.netty.handler.codec.http.HttpResponse;
+import org.jboss.netty.handler.codec.http.HttpResponseStatus;
+import org.jboss.netty.handler.codec.http.HttpVersion;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.heliosapm.tsdb.grapi.functions.GraphiteFunction;
+import com.heliosapm.tsdb.grapi.netty.DirectMemoryBudget;
+import com.heliosapm.tsdb.grapi.server.http.ChunkedResponseWriter;
+import com.heliosapm.tsdb.grapi.server.http.HttpServer;
+import com.heliosapm.tsdb.grapi.server.http.ResponseWriter;
+import com.heliosapm.tsdb.grapi.stats.RequestStats;
+import com.heliosapm.utils.config.ConfigurationHelper;
+
+/**
+ * <p>Title: AbstractGraphiteAdapter</p>
+ * <p>Description: Base class for {@link GraphiteAdapter}s providing the CORS configuration
+ * the response writers and the request stats shared by all adapters.</p> 
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>com.heliosapm.tsdb.grapi.AbstractGraphiteAdapter</code></p>
+ */
+
+public abstract class AbstractGraphiteAdapter implements GraphiteAdapter {
+	/** Instance logger */
+	protected final Logger log = LoggerFactory.getLogger(getClass());
+	/** The CORS headers */
+	protected final String corsHeaders;
+	/** The CORS domain */
+	protected final String corsDomain;
+	/** The Cache-Control header of responses */
+	protected final String cacheControl;
+	/** This adapter's request counters and latency histograms */
+	protected final RequestStats stats = new RequestStats();
+
+	/** The UTF8 character set */
+	public static final Charset UTF8 = Charset.forName("UTF8");	
+	/** The shared JSON factory used to stream JSON in and out of channel buffers */
+	protected static final JsonFactory jsonFactory = ResponseWriter.JSON_FACTORY;
+	/** Empty route array const */
+	protected static final String[] NO_ROUTES = {};
+	/** Empty function array const */
+	protected static final GraphiteFunction[] NO_FUNCTIONS = {};
+
+	/**
+	 * {@inheritDoc}
+	 * @see com.heliosapm.tsdb.grapi.GraphiteAdapter#getStats()
+	 */
+	@Override
+	public RequestStats getStats() {
+		return stats;
+	}
+	
+	/**
+	 * Creates a new AbstractGraphiteAdapter
+	 * @param config The optional configuration properties
+	 */
+	protected AbstractGraphiteAdapter(final Properties config) {
+		// the bosun keys predate the adapter neutral ones and are still honoured when those are not set
+		corsHeaders = ConfigurationHelper.getSystemThenEnvProperty(PROPERTY_HTTP_CORS_HEADERS, 
+				ConfigurationHelper.getSystemThenEnvProperty(PROPERTY_BOSUN_CORS_HEADERS, DEFAULT_BOSUN_CORS_HEADERS, config), config);
+		corsDomain = ConfigurationHelper.getSystemThenEnvProperty(PROPERTY_HTTP_CORS_DOMAIN, 
+				ConfigurationHelper.getSystemThenEnvProperty(PROPERTY_BOSUN_CORS_DOMAIN, DEFAULT_BOSUN_CORS_DOMAIN, config), config);
+		final int maxAge = ConfigurationHelper.getIntSystemThenEnvProperty(PROPERTY_HTTP_CACHE_MAXAGE, DEFAULT_HTTP_CACHE_MAXAGE, config);
+		// responses may be stored either way, and are revalidated with their entity tags once stale
+		cacheControl = maxAge > 0 ? "max-age=" + maxAge : HttpHeaders.Values.NO_CACHE;
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 * <p>Default implementation declares no routes, so the adapter is routed by {@link #match(String)}.</p>
+	 * @see com.heliosapm.tsdb.grapi.GraphiteAdapter#getRoutes()
+	 */
+	@Override
+	public String[] getRoutes() {
+		return NO_ROUTES;
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 * <p>Default implementation contributes no functions.</p>
+	 * @see com.heliosapm.tsdb.grapi.GraphiteAdapter#getFunctions()
+	 */
+	@Override
+	public GraphiteFunction[] getFunctions() {
+		return NO_FUNCTIONS;
+	}
+	
+	/**
+	 * Creates a new HTTP response for the passed version and adds the CORS, content-type and cache control headers.
+	 * The response writers add the entity tag that callers revalidate the response with.
+	 * @param version The http version of the response to create
+	 * @return the new Http response
+	 */
+	protected HttpResponse newCORSResponse(final HttpVersion version) {
+		final HttpResponse resp = new DefaultHttpResponse(version, HttpResponseStatus.OK);
+    resp.headers().add("Access-Control-Allow-Origin", corsDomain);
+    resp.headers().add("Access-Control-Allow-Headers", corsHeaders);
+    resp.headers().add("Content-Type", "application/json");		
+    resp.headers().add(HttpHeaders.Names.CACHE_CONTROL, cacheControl);
+    return resp;
+	}
+	
+	/**
+	 * Creates a new writer for a CORS response to the passed request, 
+	 * whose content is written into a buffer from the server's buffer factory, compressed by the server's compressor, and which is recorded with this adapter's stats
+	 * @param request The original http request
+	 * @param channel The channel to respond to the caller on
+	 * @param ctx The channel's handler context
+	 * @return the new response writer
+	 */
+	protected ResponseWriter newResponseWriter(final HttpRequest request, final Channel channel, final ChannelHandlerContext ctx) {
+		final HttpServer server = HttpServer.getInstance();
+		return new ResponseWriter(request, channel, ctx, newCORSResponse(request.getProtocolVersion()), server.getBufferFactory(), stats, server.getCompressor());
+	}
+	
+	/**
+	 * Creates a new writer for a CORS response to the passed request whose body is streamed in chunks, 
+	 * each written into a buffer from the server's buffer factory, cut at the server's chunk size when streamed, and compressed by the server's compressor, 
+	 * and which is recorded with this adapter's stats
+	 * @param request The original http request
+	 * @param channel The channel to respond to the caller on
+	 * @param ctx The channel's handler context
+	 * @return the new chunked response writer
+	 */
+	protected ChunkedResponseWriter newChunkedResponseWriter(final HttpRequest request, final Channel channel, final ChannelHandlerContext ctx) {
+		final HttpServer server = HttpServer.getInstance();
+		return new ChunkedResponseWriter(request, channel, ctx, newCORSResponse(request.getProtocolVersion()), server.getBufferFactory(), stats, server.getCompressor(), server.getChunkSize());
+	}
+	
+	/**
+	 * Writes an empty response with the passed status back to the caller
+	 * @param request The original http request
+	 * @param channel The channel to respond to the caller on
+	 * @param ctx The channel's handler context
+	 * @param status The response status
+	 */
+	protected void sendError(final HttpRequest request, final Channel channel, final ChannelHandlerContext ctx, final HttpResponseStatus status) {
+		newResponseWriter(request, channel, ctx).sendError(status);
+	}
+	
+	/**
+	 * Sheds the request with an empty 503 asking the caller to retry after a second, if any direct memory budget is under pressure.
+	 * Adapters call this once they know a request needs upstream or TSDB work, so cached responses and 304s are still served under pressure.
+	 * @param writer The writer of the response to the request
+	 * @return true if the request was shed, false if it should be processed
+	 */
+	protected boolean shedUnderPressure(final ResponseWriter writer) {
+		if(!DirectMemoryBudget.isAnyUnderPressure()) return false;
+		DirectMemoryBudget.recordRejection();
+		stats.recordRejection();
+		writer.getResponse().headers().set(HttpHeaders.Names.RETRY_AFTER, "1");
+		writer.sendError(HttpResponseStatus.SERVICE_UNAVAILABLE);
+		return true;
+	}
+
+}
@@ -30,6 +30,7 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.stumbleupon.async.Deferred;
+import com.heliosapm.tsdb.grapi.index.MetricNamespace;
 import com.heliosapm.tsdb.grapi.server.http.HttpServer;
 
 /**
@@ -42,6 +43,8 @@ import com.heliosapm.tsdb.grapi.server.http.HttpServer;
  */
 
 public class GraphiteAPIService extends RpcPlugin {
+	/** The TSDB instance the plugin was initialized with, made available to adapters that query the TSDB directly */
+	private static volatile TSDB tsdbInstance = null;
 	/** Instance logger */
 	protected final Logger log = LoggerFactory.getLogger(getClass());
 	/** The TSDB instance */
@@ -49,6 +52,14 @@ public class GraphiteAPIService extends RpcPlugin {
 	/** The TSDB's configuration */
 	protected Config config = null;
 	
+	/**
+	 * Returns the TSDB instance the plugin was initialized with
+	 * @return the TSDB instance or null if not running as an initialized OpenTSDB plugin
+	 */
+	public static TSDB getTSDB() {
+		return tsdbInstance;
+	}
+	
 	/**
 	 * Creates a new GraphiteAPIService
 	 */
@@ -63,6 +74,7 @@ public class GraphiteAPIService extends RpcPlugin {
 	@Override
 	public void initialize(final TSDB tsdb) {
 		this.tsdb = tsdb;
+		tsdbInstance = tsdb;
 		config = tsdb.getConfig();
 		final Properties p = new Properties();
 		for(Map.Entry<String, String> entry : config.getMap().entrySet()) {
@@ -82,6 +94,7 @@ public class GraphiteAPIService extends RpcPlugin {
 	@Override
 	public Deferred<Object> shutdown() {
 		// TODO Implement generalized shutdown
+		MetricNamespace.stopShared();
 		return Deferred.fromResult(null);
 	}
 
@@ -100,8 +113,8 @@ public class GraphiteAPIService extends RpcPlugin {
 	 */
 	@Override
 	public void collectStats(final StatsCollector collector) {
-		// TODO Gather stats from all adapters
-
+		if(tsdb==null) return;
+		HttpServer.getInstance().getRequestHandler().collectStats(collector);
 	}
 
 }
@@ -22,6 +22,9 @@ import org.jboss.netty.channel.Channel;
 import org.jboss.netty.channel.ChannelHandlerContext;
 import org.jboss.netty.handler.codec.http.HttpRequest;
 
+import com.heliosapm.tsdb.grapi.functions.GraphiteFunction;
+import com.heliosapm.tsdb.grapi.stats.RequestStats;
+
 /**
  * <p>Title: GraphiteAdapter</p>
  * <p>Description: Defines an adapter that accepts requests for data from the core plugin service 
@@ -37,20 +40,44 @@ public interface GraphiteAdapter {
 	public static final String META_URI = "/metrics/find?query=";
 	
 	/**
-	 * Processes the passed query, returning the results as an array of objects
+	 * Processes the passed query, returning the results as an array of objects.
+	 * Exactly one response must be written for every request, since responses on a connection are sent in request order.
+	 * Unless the adapter is configured to run on the I/O threads, this is called on a thread of the adapter's own bulkhead.
 	 * @param request The Http request
 	 * @param channel The channel to write the response to
-	 * @param ctx The channel handler context
+	 * @param ctx The channel handler context of this request, which the response writers are created with
 	 */
 	public void processQuery(HttpRequest request, final Channel channel, final ChannelHandlerContext ctx);
 	
 	/**
-	 * Interrogation from the request handler to determine if this adapter can handle this qery
+	 * Interrogation from the request handler to determine if this adapter can handle this qery.
+	 * Only consulted for adapters that declare no {@link #getRoutes() routes}.
 	 * @param queryURI The URI of the request
 	 * @return true for a match, false to punt to someone else
 	 */
 	public boolean match(final String queryURI);
 	
+	/**
+	 * Returns the URI prefixes this adapter handles. The request handler routes each request to the adapter
+	 * with the longest case-insensitively matching prefix.
+	 * @return the route prefixes, or an empty array to be routed by {@link #match(String)} instead
+	 */
+	public String[] getRoutes();
+	
+	/**
+	 * Returns this adapter's request counters and latency histograms, reported with the TSDB's stats tagged with the adapter's simple class name
+	 * @return the adapter's stats
+	 */
+	public RequestStats getStats();
+	
+	/**
+	 * Returns the render functions this adapter contributes. The request handler registers them with the 
+	 * {@link com.heliosapm.tsdb.grapi.functions.FunctionRegistry} once all adapters are configured, and the first adapter 
+	 * to contribute a function name keeps it.
+	 * @return the functions, or an empty array if the adapter contributes none
+	 */
+	public GraphiteFunction[] getFunctions();
+	
 }
 
 
@@ -20,33 +20,33 @@ package com.heliosapm.tsdb.grapi.adapters;
 
 import java.net.URL;
 import java.net.URLDecoder;
-import java.nio.charset.Charset;
 import java.util.Properties;
+import java.util.concurrent.TimeUnit;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
-import org.jboss.netty.buffer.ChannelBuffers;
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.buffer.ChannelBufferInputStream;
 import org.jboss.netty.channel.Channel;
-import org.jboss.netty.channel.ChannelFuture;
-import org.jboss.netty.channel.ChannelFutureListener;
 import org.jboss.netty.channel.ChannelHandlerContext;
-import org.jboss.netty.channel.Channels;
-import org.jboss.netty.channel.DownstreamMessageEvent;
-import org.jboss.netty.handler.codec.http.DefaultHttpResponse;
-import org.jboss.netty.handler.codec.http.HttpHeaders;
 import org.jboss.netty.handler.codec.http.HttpRequest;
-import org.jboss.netty.handler.codec.http.HttpResponse;
 import org.jboss.netty.handler.codec.http.HttpResponseStatus;
-import org.jboss.netty.handler.codec.http.HttpVersion;
-import org.json.JSONArray;
-import org.json.JSONObject;
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
 
-import com.heliosapm.tsdb.grapi.GraphiteAdapter;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.heliosapm.tsdb.grapi.AbstractGraphiteAdapter;
+import com.google.common.base.Function;
+import com.heliosapm.tsdb.grapi.cache.CachedResponse;
+import com.heliosapm.tsdb.grapi.cache.ParseCache;
+import com.heliosapm.tsdb.grapi.cache.ResponseCache;
 import com.heliosapm.tsdb.grapi.client.http.AsyncResponseHandler;
 import com.heliosapm.tsdb.grapi.client.http.DefaultAsyncResponse;
 import com.heliosapm.tsdb.grapi.client.http.HttpClient;
+import com.heliosapm.tsdb.grapi.index.NameMatcher;
+import com.heliosapm.tsdb.grapi.index.NameMatchers;
+import com.heliosapm.tsdb.grapi.server.http.ContentCompressor;
+import com.heliosapm.tsdb.grapi.server.http.ResponseWriter;
 import com.heliosapm.utils.config.ConfigurationHelper;
 import com.heliosapm.utils.lang.StringHelper;
 import static com.heliosapm.tsdb.grapi.server.http.Constants.*;
@@ -59,24 +59,26 @@ import static com.heliosapm.tsdb.grapi.server.http.Constants.*;
  * <p><code>com.heliosapm.tsdb.grapi.adapters.BosunValuesForTagKeyAdapter</code></p>
  */
 
-public class BosunValuesForTagKeyAdapter implements GraphiteAdapter {
+public class BosunValuesForTagKeyAdapter extends AbstractGraphiteAdapter {
 	/** The bosun root URL */
 	protected final URL bosunUrl;
-	/** Instance logger */
-	protected final Logger log = LoggerFactory.getLogger(getClass());
 	/** The http client */
 	protected final HttpClient client = HttpClient.getInstance();
-	/** The CORS headers */
-	protected final String corsHeaders;
-	/** The CORS domain */
-	protected final String corsDomain;
 	/** The default maximum numer of items to return to the caller */
 	protected final int defaultMaxItems;
+	/** The cache of raw bosun responses keyed by bosun URL */
+	protected final ResponseCache responseCache;
+	/** The cache of transformed responses keyed by raw request URI, held compressed as well so hits are not compressed again */
+	protected final ResponseCache renderedCache;
+	/** The compressor transformed responses are compressed with when they are cached */
+	protected final ContentCompressor compressor;
+	/** The cache of compiled filter expressions keyed by expression */
+	protected final ParseCache<NameMatcher> filterCache;
+	/** The cache of parsed queries keyed by raw request URI */
+	protected final ParseCache<BosunQuery> queryCache;
 
 	/** If the match challenge starts with this, we take it */
-	protected static final String startsWithMatch = META_URI.toLowerCase() + "tagv=";	
-	/** The UTF8 character set */
-	public static final Charset UTF8 = Charset.forName("UTF8");	
+	protected static final String startsWithMatch = META_URI + "tagv=";	
 	/** We split the URI on this to get the actual query */
 	protected static final String actualQueryDelim = "?query=";	
 	/** The length of the delim */
@@ -85,8 +87,8 @@ public class BosunValuesForTagKeyAdapter implements GraphiteAdapter {
 	
 	/** The pattern of the max items specifier */
 	public static final Pattern MAX_PATTERN = Pattern.compile("/max=(\\d+)", Pattern.CASE_INSENSITIVE);
-	/** The pattern of the filter items specifier */
-	public static final Pattern FILTER_PATTERN = Pattern.compile("/filter=\\[(.*?)\\]", Pattern.CASE_INSENSITIVE);
+	/** The pattern of the filter items specifier. The filter ends at the last bracket before the next path element so it may contain brackets itself. */
+	public static final Pattern FILTER_PATTERN = Pattern.compile("/filter=\\[(.*?)\\](?=/|\\?|$)", Pattern.CASE_INSENSITIVE);
 
 	
 	/**
@@ -94,11 +96,31 @@ public class BosunValuesForTagKeyAdapter implements GraphiteAdapter {
 	 * @param config The optional configuration properties 
 	 */
 	public BosunValuesForTagKeyAdapter(final Properties config) {
+		super(config);
 		bosunUrl = ConfigurationHelper.getURLSystemThenEnvProperty(PROPERTY_BOSUN_URL, DEFAULT_BOSUN_URL, config);
-		corsHeaders = ConfigurationHelper.getSystemThenEnvProperty(PROPERTY_BOSUN_CORS_HEADERS, DEFAULT_BOSUN_CORS_HEADERS, config);
-		corsDomain = ConfigurationHelper.getSystemThenEnvProperty(PROPERTY_BOSUN_CORS_DOMAIN, DEFAULT_BOSUN_CORS_DOMAIN, config);
 		defaultMaxItems = ConfigurationHelper.getIntSystemThenEnvProperty(PROPERTY_BOSUN_MAXITEMS, DEFAULT_BOSUN_MAXITEMS, config);
-		log.info(StringHelper.banner("%s Configuration\n\tBosun URL:%s\n\tCORS Headers:%s\n\tCORS Domain:%s\n\tDefault Max Items:%s", getClass().getSimpleName(), bosunUrl, corsHeaders, corsDomain, defaultMaxItems));
+		final int cacheMaxEntries = ConfigurationHelper.getIntSystemThenEnvProperty(PROPERTY_BOSUN_CACHE_MAXENTRIES, DEFAULT_BOSUN_CACHE_MAXENTRIES, config);
+		final int cacheMaxBytes = ConfigurationHelper.getIntSystemThenEnvProperty(PROPERTY_BOSUN_CACHE_MAXBYTES, DEFAULT_BOSUN_CACHE_MAXBYTES, config);
+		final int cacheTtl = ConfigurationHelper.getIntSystemThenEnvProperty(PROPERTY_BOSUN_CACHE_TTL, DEFAULT_BOSUN_CACHE_TTL, config);
+		responseCache = new ResponseCache(getClass().getSimpleName(), cacheMaxEntries, cacheMaxBytes, TimeUnit.SECONDS.toMillis(cacheTtl));
+		// transformed responses are derived from the raw responses, so they are cached with the same limits and TTL
+		renderedCache = new ResponseCache(getClass().getSimpleName() + "Rendered", cacheMaxEntries, cacheMaxBytes, TimeUnit.SECONDS.toMillis(cacheTtl));
+		compressor = ContentCompressor.getInstance(config);
+		final int filterCacheMaxEntries = ConfigurationHelper.getIntSystemThenEnvProperty(PROPERTY_BOSUN_FILTERCACHE_MAXENTRIES, DEFAULT_BOSUN_FILTERCACHE_MAXENTRIES, config);
+		final int queryCacheMaxEntries = ConfigurationHelper.getIntSystemThenEnvProperty(PROPERTY_BOSUN_QUERYCACHE_MAXENTRIES, DEFAULT_BOSUN_QUERYCACHE_MAXENTRIES, config);
+		filterCache = new ParseCache<NameMatcher>(getClass().getSimpleName() + "Filters", filterCacheMaxEntries, new Function<String, NameMatcher>() {
+			@Override
+			public NameMatcher apply(final String expression) {
+				return NameMatchers.forFilter(expression);
+			}
+		});
+		queryCache = new ParseCache<BosunQuery>(getClass().getSimpleName() + "Queries", queryCacheMaxEntries, new Function<String, BosunQuery>() {
+			@Override
+			public BosunQuery apply(final String uri) {
+				return parseQuery(uri);
+			}
+		});
+		log.info(StringHelper.banner("%s Configuration\n\tBosun URL:%s\n\tCORS Headers:%s\n\tCORS Domain:%s\n\tDefault Max Items:%s\n\tCache Max Entries:%s\n\tCache Max Bytes:%s\n\tCache TTL (s):%s\n\tFilter Cache Max Entries:%s\n\tQuery Cache Max Entries:%s", getClass().getSimpleName(), bosunUrl, corsHeaders, corsDomain, defaultMaxItems, cacheMaxEntries, cacheMaxBytes, cacheTtl, filterCacheMaxEntries, queryCacheMaxEntries));
 	}
 	
 	/**
@@ -114,8 +136,17 @@ public class BosunValuesForTagKeyAdapter implements GraphiteAdapter {
 	 */
 	@Override
 	public boolean match(final String queryURI) {
-		if(queryURI==null || queryURI.trim().isEmpty()) return false;
-		return queryURI.toLowerCase().startsWith(startsWithMatch);
+		if(queryURI==null) return false;
+		return queryURI.regionMatches(true, 0, startsWithMatch, 0, startsWithMatch.length());
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 * @see com.heliosapm.tsdb.grapi.AbstractGraphiteAdapter#getRoutes()
+	 */
+	@Override
+	public String[] getRoutes() {
+		return new String[]{startsWithMatch};
 	}
 	
 	/**
@@ -150,118 +181,240 @@ public class BosunValuesForTagKeyAdapter implements GraphiteAdapter {
 	 */
 	@Override
 	public void processQuery(final HttpRequest request, final Channel channel, final ChannelHandlerContext ctx) {
+		// the writer is created while the handler context still refers to this request, before any pipelined request is dispatched
+		final ResponseWriter writer = newResponseWriter(request, channel, ctx);
+		try {
+			final String uri = request.getUri();
+			final CachedResponse rendered = renderedCache.get(uri);
+			if(rendered!=null) {
+				log.debug("Serving cached response: [{}]", uri);
+				writer.send(rendered);
+				return;
+			}
+			final BosunQuery query = queryCache.get(uri);
+			final String url = query.url;
+			final CachedResponse cached = responseCache.get(url);
+			if(cached!=null) {
+				log.debug("Serving cached bosun response: [{}] with max items: [{}] and filter [{}]", url, query.maxItems, (query.itemFilter==null ? "<none>" : query.itemFilter.pattern()));
+				writeResponse(writer, cached.asChannelBuffer(), query.maxItems, query.itemFilter, uri);
+				return;
+			}
+			if(shedUnderPressure(writer)) return;
+			log.debug("Issuing query to bosun: [{}] with max items: [{}] and filter [{}]", url, query.maxItems, (query.itemFilter==null ? "<none>" : query.itemFilter.pattern()));
+			client.request(newARH(writer, uri, url, query.maxItems, query.itemFilter)).setUrl(url).execute();
+		} catch (IllegalArgumentException iex) {
+			log.debug("Rejected bosun query [{}]: {}", request.getUri(), iex.getMessage());
+			if(!writer.isSent()) writer.sendError(HttpResponseStatus.BAD_REQUEST);
+		} catch (Exception ex) {
+			stats.recordError();
+			log.error("processQuery failed", ex);
+			if(!writer.isSent()) writer.sendError(HttpResponseStatus.INTERNAL_SERVER_ERROR);
+		}
+	}
+	
+	/**
+	 * Parses a raw request URI into the bosun URL to query, the maximum number of items and the item filter.
+	 * Results are cached by {@link #queryCache} so repeated URIs are only parsed once.
+	 * @param rawUri The raw (encoded) request URI
+	 * @return the parsed query
+	 */
+	protected BosunQuery parseQuery(final String rawUri) {
 		try {
 			int maxItems = defaultMaxItems;
-			Pattern itemFilter = null;
-			final String uri = URLDecoder.decode(request.getUri(), UTF8.name());
+			NameMatcher itemFilter = null;
+			final String uri = URLDecoder.decode(rawUri, UTF8.name());
 			final int index = uri.indexOf("?query=");
 			String query = uri.substring(index + delimLength);
 			final Matcher m = MAX_PATTERN.matcher(query);			
 			if(m.find()) {
 				maxItems = Integer.parseInt(m.group(1));
-				query = query.replace("/max=" + maxItems, "");
+				query = query.replace(m.group(0), "");
 			}
 			final Matcher mf = FILTER_PATTERN.matcher(query);
 			if(mf.find()) {
-				itemFilter = Pattern.compile(mf.group(1));
+				itemFilter = filterCache.get(mf.group(1));
 				query = query.replace(mf.group(0), "");
 			}
 			final int eindex = query.indexOf('=');
-			final String qkey = query.substring(0, eindex);
-			final String remainder = query.substring(eindex+1);			
-			if("tagv".equalsIgnoreCase(qkey)) {
-				final String url = getUrlForTagvTagk(qkey.toLowerCase(), remainder);
-				log.debug("Issuing query to bosun: [{}] with max items: [{}] and filter [{}]", url, maxItems, (itemFilter==null ? "<none>" : itemFilter.pattern()));
-				client.request(newARH(request, channel, ctx, maxItems, itemFilter)).setUrl(url).execute();
-			} else {
-				throw new RuntimeException("First arg [" + qkey + "] not recognized");
+			final String qkey = eindex==-1 ? query : query.substring(0, eindex);
+			if(eindex==-1 || !"tagv".equalsIgnoreCase(qkey)) {
+				throw new IllegalArgumentException("First arg [" + qkey + "] not recognized");
 			}
+			return new BosunQuery(getUrlForTagvTagk(qkey.toLowerCase(), query.substring(eindex+1)), maxItems, itemFilter);
+		} catch (IllegalArgumentException iex) {
+			throw iex;
 		} catch (Exception ex) {
-			log.error("processQuery failed", ex);
+			throw new IllegalArgumentException("Failed to parse query [" + rawUri + "]", ex);
 		}
 	}
 	
 	/**
-	 * Creates a new HTTP response for the passed version and adds the CORS and content-type headers
-	 * @param version The http version of the response to create
-	 * @return the new Http response
-	 */
-	protected HttpResponse newCORSResponse(final HttpVersion version) {
-		final HttpResponse resp = new DefaultHttpResponse(version, HttpResponseStatus.OK);
-    resp.headers().add("Access-Control-Allow-Origin", corsDomain);
-    resp.headers().add("Access-Control-Allow-Headers", corsHeaders);
-    resp.headers().add("Content-Type", "application/json");		
-    return resp;
-	}
-	
-	/**
-	 * Transforms the content returned by the client call to Graphite compliant JSON
-	 * @param response The client's async response
+	 * Transforms the content returned by the client call to Graphite compliant JSON.
+	 * The bosun JSON array is streamed straight out of the content buffer and the result
+	 * is streamed straight into the passed generator, so neither side is ever materialized as a String or DOM.
+	 * Reading stops as soon as <b><code>maxItems</code></b> items have been written.
+	 * Items are filtered and copied from the parser's character buffer, so no String is created per item.
+	 * @param content The bosun response content
 	 * @param maxItems The maximum number of items to return to the caller
-	 * @return the byte content to return to the caller
-	 * @param itemFilter An optional pattern to filter in items returned by the bosun query
+	 * @param itemFilter An optional matcher to filter in items returned by the bosun query
+	 * @param gen The generator to write the transformed content to. Flushed but not closed.
 	 */
-	protected byte[] transform(final DefaultAsyncResponse response, final int maxItems, final Pattern itemFilter) {
+	protected void transform(final ChannelBuffer content, final int maxItems, final NameMatcher itemFilter, final JsonGenerator gen) {
+		JsonParser parser = null;
 		try {
-			final String jsonText = response.getBuffer().toString(UTF8);
-			final JSONArray ja = new JSONArray(jsonText);
-			final JSONArray ra = new JSONArray();
+			// duplicate so the content buffer's reader index is left untouched
+			parser = jsonFactory.createParser(new ChannelBufferInputStream(content.duplicate()));
+			if(parser.nextToken()!=JsonToken.START_ARRAY) {
+				throw new RuntimeException("Expected a JSON array but found [" + parser.getCurrentToken() + "]");
+			}
+			gen.writeStartArray();
 			int addedMatches = 0;
-			for(int i = 0; i < ja.length(); i++) {
-				if(addedMatches >= maxItems) break;
-				final JSONObject rez = new JSONObject();
-				final String item = ja.getString(i);
-				if(itemFilter!=null && !itemFilter.matcher(item).matches()) {
+			JsonToken token = null;
+			while(addedMatches < maxItems && (token = parser.nextToken())!=JsonToken.END_ARRAY) {
+				if(token==null) throw new RuntimeException("Unexpected end of bosun response");
+				if(token.isStructStart()) {
+					parser.skipChildren();
 					continue;
 				}
-				rez.put("text", item);
-				ra.put(rez);	
+				final char[] chars = parser.getTextCharacters();
+				final int offset = parser.getTextOffset();
+				final int length = parser.getTextLength();
+				if(itemFilter!=null && !itemFilter.matches(chars, offset, length)) {
+					continue;
+				}
+				gen.writeStartObject();
+				gen.writeFieldName("text");
+				gen.writeString(chars, offset, length);
+				gen.writeEndObject();
 				addedMatches++;
 			}
-			return ra.toString().getBytes(UTF8);
+			gen.writeEndArray();
+			gen.flush();
 		} catch (Exception ex) {			
 			throw new RuntimeException("Failed to transform query result", ex);
+		} finally {
+			if(parser!=null) try { parser.close(); } catch (Exception x) {/* No Op */}
 		}
 	}
 	
 	/**
-	 * Creates a new async response handler to handle the response to the query issued against bosun
-	 * @param request The original http request dispatched to bosun 
-	 * @param channel The channel to respond to the original caller on
-	 * @param ctx The channel's handler context
+	 * Transforms the passed bosun content and writes the result back to the original caller.
+	 * When a cache key is passed, the result is cached, along with its compressed form, before it is sent.
+	 * @param writer The writer of the response to the original caller
+	 * @param bosunContent The raw bosun response content
 	 * @param maxItems The maximum number of items to return to the caller
-	 * @param itemFilter An optional pattern to filter in items returned by the bosun query
+	 * @param itemFilter An optional matcher to filter in items returned by the bosun query
+	 * @param cacheKey The key to cache the result with, or null if the result is not cacheable
+	 */
+	protected void writeResponse(final ResponseWriter writer, final ChannelBuffer bosunContent, final int maxItems, final NameMatcher itemFilter, final String cacheKey) {
+		final long start = System.nanoTime();
+		try {
+			transform(bosunContent, maxItems, itemFilter, writer.getJsonGenerator());
+			stats.recordTransform(start);
+		} catch (Exception x) {
+			log.error("Failed to transform bosun response", x);
+			writer.sendError(HttpResponseStatus.INTERNAL_SERVER_ERROR);
+			return;
+		}
+		if(cacheKey==null || renderedCache.getMaxEntries() < 1) {
+			writer.send();
+			return;
+		}
+		final ChannelBuffer result = writer.getBuffer();
+		final byte[] bytes = new byte[result.readableBytes()];
+		result.getBytes(result.readerIndex(), bytes);
+		writer.send(renderedCache.put(cacheKey, bytes, compressor.gzip(bytes)));
+	}
+	
+	/**
+	 * Creates a new async response handler to handle the response to the query issued against bosun.
+	 * Successful bosun responses are cached before being transformed.
+	 * The time from the handler's creation, just before the query is issued, to the response is recorded as the upstream time.
+	 * @param writer The writer of the response to the original caller
+	 * @param uri The original request URI, which the transformed response is cached by
+	 * @param url The bosun URL the query was issued to
+	 * @param maxItems The maximum number of items to return to the caller
+	 * @param itemFilter An optional matcher to filter in items returned by the bosun query
 	 * @return the new response handler
 	 */
-	protected AsyncResponseHandler newARH(final HttpRequest request, final Channel channel, final ChannelHandlerContext ctx, final int maxItems, final Pattern itemFilter) {
+	protected AsyncResponseHandler newARH(final ResponseWriter writer, final String uri, final String url, final int maxItems, final NameMatcher itemFilter) {
+		final long start = System.nanoTime();
 		return new AsyncResponseHandler() {
 			@Override
 			public void onResponse(final DefaultAsyncResponse response) {
-				final HttpResponse fresp = newCORSResponse(request.getProtocolVersion());
-				final ChannelFuture cf = Channels.future(channel);
-				cf.addListener(new ChannelFutureListener() {
-					@Override
-					public void operationComplete(final ChannelFuture f) throws Exception {
-						if(f.isSuccess()) {
-							log.debug("Completed Response Write [{}]", fresp);
-						} else {
-							log.error("Response Write Failed", f.getCause());
-						}
-					}
-				});				
-				try {
-					final byte[] content = transform(response, maxItems, itemFilter);
-					fresp.setContent(ChannelBuffers.wrappedBuffer(content));
-					HttpHeaders.setContentLength(fresp, content.length);
-					ctx.sendDownstream(new DownstreamMessageEvent(channel, cf, fresp, channel.getRemoteAddress()));
-				} catch (Exception x) {
-					final HttpResponse resp = new DefaultHttpResponse(request.getProtocolVersion(), HttpResponseStatus.INTERNAL_SERVER_ERROR);
-					ctx.sendDownstream(new DownstreamMessageEvent(channel, cf, resp, channel.getRemoteAddress()));					
+				stats.recordUpstream(start);
+				if(response.isSuccess()) {
+					final ChannelBuffer buff = response.getBuffer();
+					final byte[] bytes = new byte[buff.readableBytes()];
+					buff.getBytes(buff.readerIndex(), bytes);
+					writeResponse(writer, responseCache.put(url, bytes).asChannelBuffer(), maxItems, itemFilter, uri);
+				} else {
+					writeResponse(writer, response.getBuffer(), maxItems, itemFilter, null);
 				}
 			}
 		};
 	}
 	
+	/**
+	 * Returns the bosun response cache
+	 * @return the bosun response cache
+	 */
+	public ResponseCache getResponseCache() {
+		return responseCache;
+	}
+	
+	/**
+	 * Returns the transformed response cache
+	 * @return the transformed response cache
+	 */
+	public ResponseCache getRenderedCache() {
+		return renderedCache;
+	}
+	
+	/**
+	 * Returns the compiled filter cache
+	 * @return the compiled filter cache
+	 */
+	public ParseCache<NameMatcher> getFilterCache() {
+		return filterCache;
+	}
+	
+	/**
+	 * Returns the parsed query cache
+	 * @return the parsed query cache
+	 */
+	public ParseCache<BosunQuery> getQueryCache() {
+		return queryCache;
+	}
+	
+	/**
+	 * <p>Title: BosunQuery</p>
+	 * <p>Description: An immutable parsed tag value query</p> 
+	 * <p>Company: Helios Development Group LLC</p>
+	 * @author Whitehead (nwhitehead AT heliosdev DOT org)
+	 * <p><code>com.heliosapm.tsdb.grapi.adapters.BosunValuesForTagKeyAdapter.BosunQuery</code></p>
+	 */
+	public static class BosunQuery {
+		/** The bosun URL to query */
+		public final String url;
+		/** The maximum number of items to return to the caller */
+		public final int maxItems;
+		/** The optional item filter */
+		public final NameMatcher itemFilter;
+		
+		/**
+		 * Creates a new BosunQuery
+		 * @param url The bosun URL to query
+		 * @param maxItems The maximum number of items to return to the caller
+		 * @param itemFilter The optional item filter
+		 */
+		public BosunQuery(final String url, final int maxItems, final NameMatcher itemFilter) {
+			this.url = url;
+			this.maxItems = maxItems;
+			this.itemFilter = itemFilter;
+		}
+	}
+	
 /*	
 	Example from a graphite loaded browser.
 	=======================================
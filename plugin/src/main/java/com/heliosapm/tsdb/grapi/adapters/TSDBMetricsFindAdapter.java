@@ -0,0 +1,345 @@
+/**
+Licensed to the Apache Software Foundation (ASF) under one
+or more contributor license agreements.  See the NOTICE file
+distributed with this work for additional information
+regarding copyright ownership.  The ASF licenses this file
+to you under the Apache License, Version 2.0 (the
+"License"); you may not use this file except in compliance
+with the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an
+"AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+KIND, either express or implied.  See the License for the
+specific language governing permissions and limitations
+under the License.
+ */
+package com.heliosapm.tsdb.grapi.adapters;
+
+import static com.heliosapm.tsdb.grapi.server.http.Constants.DEFAULT_TSDB_FIND_MAXSUGGEST;
+import static com.heliosapm.tsdb.grapi.server.http.Constants.DEFAULT_TSDB_FIND_STREAMNODES;
+import static com.heliosapm.tsdb.grapi.server.http.Constants.DEFAULT_TSDB_TRIE_ENABLED;
+import static com.heliosapm.tsdb.grapi.server.http.Constants.DEFAULT_TSDB_TRIE_MAXNAMES;
+import static com.heliosapm.tsdb.grapi.server.http.Constants.DEFAULT_TSDB_TRIE_REFRESH;
+import static com.heliosapm.tsdb.grapi.server.http.Constants.PROPERTY_TSDB_FIND_MAXSUGGEST;
+import static com.heliosapm.tsdb.grapi.server.http.Constants.PROPERTY_TSDB_FIND_STREAMNODES;
+import static com.heliosapm.tsdb.grapi.server.http.Constants.PROPERTY_TSDB_TRIE_ENABLED;
+import static com.heliosapm.tsdb.grapi.server.http.Constants.PROPERTY_TSDB_TRIE_MAXNAMES;
+import static com.heliosapm.tsdb.grapi.server.http.Constants.PROPERTY_TSDB_TRIE_REFRESH;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+
+import net.opentsdb.core.TSDB;
+
+import org.jboss.netty.channel.Channel;
+import org.jboss.netty.channel.ChannelHandlerContext;
+import org.jboss.netty.handler.codec.http.HttpRequest;
+import org.jboss.netty.handler.codec.http.HttpResponseStatus;
+import org.jboss.netty.handler.codec.http.QueryStringDecoder;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.heliosapm.tsdb.grapi.AbstractGraphiteAdapter;
+import com.heliosapm.tsdb.grapi.GraphiteAPIService;
+import com.heliosapm.tsdb.grapi.cache.EntityTags;
+import com.heliosapm.tsdb.grapi.index.GlobMatcher;
+import com.heliosapm.tsdb.grapi.index.GraphitePaths;
+import com.heliosapm.tsdb.grapi.index.MetricNamespace;
+import com.heliosapm.tsdb.grapi.index.NamespaceTrie;
+import com.heliosapm.tsdb.grapi.server.http.ChunkedResponseWriter;
+import com.heliosapm.tsdb.grapi.server.http.HttpServer;
+import com.heliosapm.tsdb.grapi.server.http.ResponseWriter;
+import com.heliosapm.utils.config.ConfigurationHelper;
+import com.heliosapm.utils.lang.StringHelper;
+
+/**
+ * <p>Title: TSDBMetricsFindAdapter</p>
+ * <p>Description: Answers Graphite <b><code>/metrics/find</code></b> metric name queries directly from the 
+ * in-process TSDB's metric UID table, so no external service is involved. Only available when running as an OpenTSDB plugin.
+ * Results with more nodes than the configured limit are streamed in chunks as they are encoded rather than encoded as a whole. 
+ * With the namespace trie, the nodes of a streamed result are walked by a trie cursor as the channel takes them, so no more than 
+ * the configured limit of nodes is held per response. Without it, the matching nodes of the metric names retrieved from the UID table, 
+ * at most the configured maximum suggest count, are collected before they are written.</p> 
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>com.heliosapm.tsdb.grapi.adapters.TSDBMetricsFindAdapter</code></p>
+ */
+
+public class TSDBMetricsFindAdapter extends AbstractGraphiteAdapter {
+	/** The TSDB to resolve metric names from */
+	protected final TSDB tsdb;
+	/** The maximum number of metric names to retrieve from the UID table per query */
+	protected final int maxSuggest;
+	/** The number of nodes above which a response is streamed in chunks */
+	protected final int streamNodes;
+	/** The in-memory metric namespace, null if disabled */
+	protected final MetricNamespace namespace;
+	
+	/** The tag value query prefix, which is left to the tag value adapters */
+	protected static final String TAGV_URI = META_URI + "tagv=";
+	/** The node flag for a node with children */
+	protected static final int BRANCH = NamespaceTrie.BRANCH;
+	/** The node flag for a node that is a complete metric name */
+	protected static final int LEAF = NamespaceTrie.LEAF;
+
+	/**
+	 * Creates a new TSDBMetricsFindAdapter
+	 * @param config The optional configuration properties
+	 */
+	public TSDBMetricsFindAdapter(final Properties config) {
+		super(config);
+		tsdb = GraphiteAPIService.getTSDB();
+		if(tsdb==null) throw new IllegalStateException("No TSDB instance available. " + getClass().getSimpleName() + " can only be used in the OpenTSDB plugin");
+		maxSuggest = ConfigurationHelper.getIntSystemThenEnvProperty(PROPERTY_TSDB_FIND_MAXSUGGEST, DEFAULT_TSDB_FIND_MAXSUGGEST, config);
+		streamNodes = ConfigurationHelper.getIntSystemThenEnvProperty(PROPERTY_TSDB_FIND_STREAMNODES, DEFAULT_TSDB_FIND_STREAMNODES, config);
+		if(ConfigurationHelper.getBooleanSystemThenEnvProperty(PROPERTY_TSDB_TRIE_ENABLED, DEFAULT_TSDB_TRIE_ENABLED, config)) {
+			namespace = MetricNamespace.getShared(tsdb, 
+				ConfigurationHelper.getIntSystemThenEnvProperty(PROPERTY_TSDB_TRIE_MAXNAMES, DEFAULT_TSDB_TRIE_MAXNAMES, config),
+				ConfigurationHelper.getIntSystemThenEnvProperty(PROPERTY_TSDB_TRIE_REFRESH, DEFAULT_TSDB_TRIE_REFRESH, config)
+			);
+		} else {
+			namespace = null;
+		}
+		log.info(StringHelper.banner("%s Configuration\n\tMax Suggest:%s\n\tStream Nodes:%s\n\tNamespace Trie:%s\n\tCORS Headers:%s\n\tCORS Domain:%s", getClass().getSimpleName(), maxSuggest, streamNodes, namespace!=null, corsHeaders, corsDomain));
+	}
+	
+	/**
+	 * Creates a new TSDBMetricsFindAdapter
+	 */
+	public TSDBMetricsFindAdapter() {
+		this(null);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see com.heliosapm.tsdb.grapi.GraphiteAdapter#match(java.lang.String)
+	 */
+	@Override
+	public boolean match(final String queryURI) {
+		if(queryURI==null) return false;
+		return queryURI.regionMatches(true, 0, META_URI, 0, META_URI.length()) 
+				&& !queryURI.regionMatches(true, 0, TAGV_URI, 0, TAGV_URI.length());
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 * <p>Tag value queries are claimed by the longer tag value adapter routes.</p>
+	 * @see com.heliosapm.tsdb.grapi.AbstractGraphiteAdapter#getRoutes()
+	 */
+	@Override
+	public String[] getRoutes() {
+		return new String[]{META_URI};
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see com.heliosapm.tsdb.grapi.GraphiteAdapter#processQuery(org.jboss.netty.handler.codec.http.HttpRequest, org.jboss.netty.channel.Channel, org.jboss.netty.channel.ChannelHandlerContext)
+	 */
+	@Override
+	public void processQuery(final HttpRequest request, final Channel channel, final ChannelHandlerContext ctx) {
+		try {
+			final List<String> queries = new QueryStringDecoder(request.getUri()).getParameters().get("query");
+			if(queries==null || queries.isEmpty() || queries.get(0).trim().isEmpty()) {
+				sendError(request, channel, ctx, HttpResponseStatus.BAD_REQUEST);
+				return;
+			}
+			final String query = queries.get(0).trim();
+			log.debug("Finding metrics for [{}]", query);
+			final ResponseWriter writer = newResponseWriter(request, channel, ctx);
+			// Trie lookups only change when the trie is rebuilt, so the trie's generation tags them without running the lookup.
+			// The lookup runs on the trie of the same snapshot, so a rebuild in between cannot pair new nodes with the old tag.
+			final MetricNamespace.Snapshot snapshot = namespace==null ? null : namespace.getSnapshot();
+			if(snapshot!=null && writer.notModified(EntityTags.ofVersion(snapshot.getGeneration()))) {
+				return;
+			}
+			if(shedUnderPressure(writer)) return;
+			try {
+				final long start = System.nanoTime();
+				final Iterator<Map.Entry<String, Integer>> nodes = find(query, snapshot==null ? null : snapshot.getTrie());
+				// only the head of the result is looked up before deciding to stream, the rest is looked up as it is written
+				final List<Map.Entry<String, Integer>> head = new ArrayList<Map.Entry<String, Integer>>();
+				while(head.size() <= streamNodes && nodes.hasNext()) {
+					head.add(nodes.next());
+				}
+				stats.recordUpstream(start);
+				if(head.size() > streamNodes) {
+					log.debug("Streaming more than {} nodes for [{}]", streamNodes, query);
+					writer.toChunked(HttpServer.getInstance().getChunkSize()).stream(new NodeProducer(head, nodes));
+					return;
+				}
+				final long encodeStart = System.nanoTime();
+				writeNodes(head, writer.getJsonGenerator());
+				stats.recordTransform(encodeStart);
+			} catch (Exception ex) {
+				log.error("Find failed for [{}]", query, ex);
+				writer.sendError(HttpResponseStatus.INTERNAL_SERVER_ERROR);
+				return;
+			}
+			writer.send();
+		} catch (Exception ex) {
+			log.error("processQuery failed", ex);
+			sendError(request, channel, ctx, HttpResponseStatus.INTERNAL_SERVER_ERROR);
+		}
+	}
+	
+	/**
+	 * Finds the nodes matching the passed graphite path expression at the expression's depth. 
+	 * Walks the passed namespace trie with a cursor if there is one, and scans the UID table otherwise.
+	 * @param query The graphite path expression, e.g. <b><code>sys.cpu-*.idle</code></b>
+	 * @param trie The namespace trie, or null if disabled or not built yet
+	 * @return an iterator over the node flags keyed by the full node path
+	 */
+	protected Iterator<Map.Entry<String, Integer>> find(final String query, final NamespaceTrie trie) {
+		return trie!=null ? trie.cursor(query) : scan(query).entrySet().iterator();
+	}
+	
+	/**
+	 * Finds the nodes matching the passed graphite path expression by scanning the metric names 
+	 * in the UID table that start with the expression's literal prefix
+	 * @param query The graphite path expression
+	 * @return a map of node flags keyed by the full node path
+	 */
+	protected Map<String, Integer> scan(final String query) {
+		final String[] segments = GraphitePaths.splitPath(query);
+		final GlobMatcher[] matchers = new GlobMatcher[segments.length];
+		for(int i = 0; i < segments.length; i++) {
+			matchers[i] = GlobMatcher.compile(segments[i]);
+		}
+		final List<String> metrics = tsdb.suggestMetrics(GraphitePaths.literalPrefix(query), maxSuggest);
+		final Map<String, Integer> nodes = new TreeMap<String, Integer>();
+		for(String metric: metrics) {
+			final int end = matchDepth(metric, matchers);
+			if(end==-1) continue;
+			final String id = metric.substring(0, end);
+			final int flag = end==metric.length() ? LEAF : BRANCH;
+			final Integer prior = nodes.get(id);
+			nodes.put(id, prior==null ? flag : (prior | flag));
+		}
+		return nodes;
+	}
+	
+	/**
+	 * Matches the leading segments of the passed metric name against the per segment matchers
+	 * @param metric The metric name
+	 * @param matchers The per segment matchers
+	 * @return the end index of the last matched segment in the metric name, or -1 if the metric did not match
+	 */
+	protected static int matchDepth(final String metric, final GlobMatcher[] matchers) {
+		int start = 0;
+		for(int i = 0; i < matchers.length; i++) {
+			if(start > metric.length()) return -1;
+			int end = metric.indexOf('.', start);
+			if(end==-1) end = metric.length();
+			if(!matchers[i].matches(metric, start, end)) return -1;
+			if(i==matchers.length-1) return end;
+			start = end + 1;
+		}
+		return -1;
+	}
+	
+	/**
+	 * Writes the passed nodes as Graphite tree JSON. A node that is both a metric and has children
+	 * is written once as a leaf and once as a branch.
+	 * @param nodes The node flags keyed by node id
+	 * @param gen The generator to write the JSON to
+	 */
+	protected void writeNodes(final List<Map.Entry<String, Integer>> nodes, final JsonGenerator gen) {
+		try {
+			gen.writeStartArray();
+			for(Map.Entry<String, Integer> node: nodes) {
+				writeNodes(gen, node.getKey(), node.getValue());
+			}
+			gen.writeEndArray();
+		} catch (Exception ex) {
+			throw new RuntimeException("Failed to write find response", ex);
+		}
+	}
+	
+	/**
+	 * Writes the Graphite tree nodes of one node id, a leaf, a branch or both
+	 * @param gen The JSON generator to write with
+	 * @param id The full node path
+	 * @param flags The node flags
+	 * @throws Exception thrown on any error writing the nodes
+	 */
+	protected static void writeNodes(final JsonGenerator gen, final String id, final int flags) throws Exception {
+		final String text = id.substring(id.lastIndexOf('.') + 1);
+		if((flags & BRANCH)!=0) writeNode(gen, id, text, false);
+		if((flags & LEAF)!=0) writeNode(gen, id, text, true);
+	}
+	
+	/**
+	 * Writes one Graphite tree node
+	 * @param gen The JSON generator to write with
+	 * @param id The full node path
+	 * @param text The last segment of the node path
+	 * @param leaf true for a leaf, false for a branch
+	 * @throws Exception thrown on any error writing the node
+	 */
+	protected static void writeNode(final JsonGenerator gen, final String id, final String text, final boolean leaf) throws Exception {
+		gen.writeStartObject();
+		gen.writeNumberField("leaf", leaf ? 1 : 0);
+		gen.writeObjectFieldStart("context");
+		gen.writeEndObject();
+		gen.writeStringField("text", text);
+		gen.writeNumberField("expandable", leaf ? 0 : 1);
+		gen.writeStringField("id", id);
+		gen.writeNumberField("allowChildren", leaf ? 0 : 1);
+		gen.writeEndObject();
+	}
+
+	/**
+	 * <p>Title: NodeProducer</p>
+	 * <p>Description: Streams the nodes of a large find result as Graphite tree JSON, one node id at a time, 
+	 * first the nodes looked up before streaming and then those of the lookup it continues</p> 
+	 * <p>Company: Helios Development Group LLC</p>
+	 * @author Whitehead (nwhitehead AT heliosdev DOT org)
+	 * <p><code>com.heliosapm.tsdb.grapi.adapters.TSDBMetricsFindAdapter.NodeProducer</code></p>
+	 */
+	protected static class NodeProducer implements ChunkedResponseWriter.ChunkProducer {
+		/** The nodes looked up before streaming still to write, null once written */
+		private Iterator<Map.Entry<String, Integer>> head;
+		/** The lookup of the remaining nodes */
+		private final Iterator<Map.Entry<String, Integer>> rest;
+		/** Indicates if the array has been started */
+		private boolean started = false;
+		
+		/**
+		 * Creates a new NodeProducer
+		 * @param head The nodes already looked up
+		 * @param rest The lookup of the remaining nodes
+		 */
+		NodeProducer(final List<Map.Entry<String, Integer>> head, final Iterator<Map.Entry<String, Integer>> rest) {
+			this.head = head.iterator();
+			this.rest = rest;
+		}
+
+		/**
+		 * {@inheritDoc}
+		 * @see com.heliosapm.tsdb.grapi.server.http.ChunkedResponseWriter.ChunkProducer#produce(com.fasterxml.jackson.core.JsonGenerator)
+		 */
+		@Override
+		public boolean produce(final JsonGenerator gen) throws Exception {
+			if(!started) {
+				gen.writeStartArray();
+				started = true;
+			}
+			if(head!=null && !head.hasNext()) head = null;
+			final Iterator<Map.Entry<String, Integer>> nodes = head!=null ? head : rest;
+			if(!nodes.hasNext()) {
+				gen.writeEndArray();
+				return false;
+			}
+			final Map.Entry<String, Integer> node = nodes.next();
+			writeNodes(gen, node.getKey(), node.getValue());
+			return true;
+		}
+	}
+
+}
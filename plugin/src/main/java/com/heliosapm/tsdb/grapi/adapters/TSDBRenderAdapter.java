@@ -0,0 +1,869 @@
+/**
+Licensed to the Apache Software Foundation (ASF) under one
+or more contributor license agreements.  See the NOTICE file
+distributed with this work for additional information
+regarding copyright ownership.  The ASF licenses this file
+to you under the Apache License, Version 2.0 (the
+"License"); you may not use this file except in compliance
+with the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an
+"AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+KIND, either express or implied.  See the License for the
+specific language governing permissions and limitations
+under the License.
+ */
+package com.heliosapm.tsdb.grapi.adapters;
+
+import static com.heliosapm.tsdb.grapi.server.http.Constants.DEFAULT_TSDB_FIND_MAXSUGGEST;
+import static com.heliosapm.tsdb.grapi.server.http.Constants.DEFAULT_TSDB_RENDER_AGGREGATOR;
+import static com.heliosapm.tsdb.grapi.server.http.Constants.DEFAULT_TSDB_RENDER_CACHE_ALIGNMENT;
+import static com.heliosapm.tsdb.grapi.server.http.Constants.DEFAULT_TSDB_RENDER_CACHE_MAXENTRIES;
+import static com.heliosapm.tsdb.grapi.server.http.Constants.DEFAULT_TSDB_RENDER_CACHE_MAXPOINTS;
+import static com.heliosapm.tsdb.grapi.server.http.Constants.DEFAULT_TSDB_RENDER_CACHE_TTL;
+import static com.heliosapm.tsdb.grapi.server.http.Constants.DEFAULT_TSDB_RENDER_CONSOLIDATION;
+import static com.heliosapm.tsdb.grapi.server.http.Constants.DEFAULT_TSDB_RENDER_MAXQUEUED;
+import static com.heliosapm.tsdb.grapi.server.http.Constants.DEFAULT_TSDB_RENDER_MAXSERIES;
+import static com.heliosapm.tsdb.grapi.server.http.Constants.DEFAULT_TSDB_RENDER_TARGETCACHE_MAXENTRIES;
+import static com.heliosapm.tsdb.grapi.server.http.Constants.DEFAULT_TSDB_TRIE_ENABLED;
+import static com.heliosapm.tsdb.grapi.server.http.Constants.DEFAULT_TSDB_TRIE_MAXNAMES;
+import static com.heliosapm.tsdb.grapi.server.http.Constants.DEFAULT_TSDB_TRIE_REFRESH;
+import static com.heliosapm.tsdb.grapi.server.http.Constants.PROPERTY_TSDB_FIND_MAXSUGGEST;
+import static com.heliosapm.tsdb.grapi.server.http.Constants.PROPERTY_TSDB_RENDER_AGGREGATOR;
+import static com.heliosapm.tsdb.grapi.server.http.Constants.PROPERTY_TSDB_RENDER_CACHE_ALIGNMENT;
+import static com.heliosapm.tsdb.grapi.server.http.Constants.PROPERTY_TSDB_RENDER_CACHE_MAXENTRIES;
+import static com.heliosapm.tsdb.grapi.server.http.Constants.PROPERTY_TSDB_RENDER_CACHE_MAXPOINTS;
+import static com.heliosapm.tsdb.grapi.server.http.Constants.PROPERTY_TSDB_RENDER_CACHE_TTL;
+import static com.heliosapm.tsdb.grapi.server.http.Constants.PROPERTY_TSDB_RENDER_CONSOLIDATION;
+import static com.heliosapm.tsdb.grapi.server.http.Constants.PROPERTY_TSDB_RENDER_MAXQUEUED;
+import static com.heliosapm.tsdb.grapi.server.http.Constants.PROPERTY_TSDB_RENDER_MAXSERIES;
+import static com.heliosapm.tsdb.grapi.server.http.Constants.PROPERTY_TSDB_RENDER_TARGETCACHE_MAXENTRIES;
+import static com.heliosapm.tsdb.grapi.server.http.Constants.PROPERTY_TSDB_TRIE_ENABLED;
+import static com.heliosapm.tsdb.grapi.server.http.Constants.PROPERTY_TSDB_TRIE_MAXNAMES;
+import static com.heliosapm.tsdb.grapi.server.http.Constants.PROPERTY_TSDB_TRIE_REFRESH;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import net.opentsdb.core.Aggregator;
+import net.opentsdb.core.Aggregators;
+import net.opentsdb.core.DataPoints;
+import net.opentsdb.core.Query;
+import net.opentsdb.core.TSDB;
+import net.opentsdb.uid.NoSuchUniqueName;
+
+import org.jboss.netty.channel.Channel;
+import org.jboss.netty.channel.ChannelHandlerContext;
+import org.jboss.netty.handler.codec.http.HttpRequest;
+import org.jboss.netty.handler.codec.http.HttpResponseStatus;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.google.common.base.Function;
+import com.heliosapm.tsdb.grapi.AbstractGraphiteAdapter;
+import com.heliosapm.tsdb.grapi.GraphiteAPIService;
+import com.heliosapm.tsdb.grapi.cache.CachedSeries;
+import com.heliosapm.tsdb.grapi.cache.ParseCache;
+import com.heliosapm.tsdb.grapi.cache.RenderCache;
+import com.heliosapm.tsdb.grapi.functions.BuiltinFunctions;
+import com.heliosapm.tsdb.grapi.functions.EvaluationContext;
+import com.heliosapm.tsdb.grapi.functions.FunctionEngine;
+import com.heliosapm.tsdb.grapi.functions.GraphiteFunction;
+import com.heliosapm.tsdb.grapi.functions.Target;
+import com.heliosapm.tsdb.grapi.functions.TargetParser;
+import com.heliosapm.tsdb.grapi.index.GlobMatcher;
+import com.heliosapm.tsdb.grapi.index.GraphitePaths;
+import com.heliosapm.tsdb.grapi.index.MetricNamespace;
+import com.heliosapm.tsdb.grapi.index.NamespaceTrie;
+import com.heliosapm.tsdb.grapi.netty.DirectMemoryBudget;
+import com.heliosapm.tsdb.grapi.render.Consolidation;
+import com.heliosapm.tsdb.grapi.render.Downsampler;
+import com.heliosapm.tsdb.grapi.render.RenderRequest;
+import com.heliosapm.tsdb.grapi.render.Series;
+import com.heliosapm.tsdb.grapi.server.http.ChunkedResponseWriter;
+import com.heliosapm.utils.config.ConfigurationHelper;
+import com.heliosapm.utils.lang.StringHelper;
+import com.stumbleupon.async.Callback;
+
+/**
+ * <p>Title: TSDBRenderAdapter</p>
+ * <p>Description: Answers Graphite <b><code>/render</code></b> graph data requests directly from the in-process TSDB. 
+ * Each target path, which may contain globs, is resolved to metric names through the shared metric namespace, and each metric 
+ * is queried for the requested window with its tagged series combined by the configured aggregator into one Graphite series.
+ * The queries run concurrently and each series is encoded and written to the channel as a chunk as soon as its query completes.
+ * Only a bounded number of series are fetched or waiting to be written at a time, and the next queries are only issued as the channel 
+ * takes the series already fetched, so the result set as a whole is never held in memory. When the caller sends <b><code>maxDataPoints</code></b>, each series is 
+ * {@link Downsampler downsampled} to it before encoding, so the payload scales with the panel width rather than the data volume.
+ * Only available when running as an OpenTSDB plugin.</p>
+ * <p>Targets are parsed by the {@link TargetParser} through a cache keyed by the raw target, so the expressions dashboards send 
+ * on every refresh are only parsed once. Targets calling render functions are evaluated on the {@link FunctionEngine} once the series 
+ * of all the paths they reference have been fetched, over a grid with the coarsest step of the fetched series, and the results are then streamed in bounded chunks, 
+ * encoding the next series only as the channel keeps up.</p>
+ * <p>Fetched series are kept in a {@link RenderCache} keyed by metric, so a dashboard refreshing a relative window 
+ * only fetches the tail of each series from the TSDB and the rest is served from memory.</p> 
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>com.heliosapm.tsdb.grapi.adapters.TSDBRenderAdapter</code></p>
+ */
+
+public class TSDBRenderAdapter extends AbstractGraphiteAdapter {
+	/** The TSDB to query */
+	protected final TSDB tsdb;
+	/** The maximum number of metric names to retrieve from the UID table per glob when the namespace is not available */
+	protected final int maxSuggest;
+	/** The maximum number of series a request may resolve to */
+	protected final int maxSeries;
+	/** The maximum number of series of one streamed request being fetched or waiting to be written at a time */
+	protected final int maxQueued;
+	/** The aggregator combining the tagged series of a metric */
+	protected final Aggregator aggregator;
+	/** The consolidation used to honour maxDataPoints when the request does not specify one */
+	protected final Consolidation consolidation;
+	/** The shared in-memory metric namespace, null if disabled */
+	protected final MetricNamespace namespace;
+	/** The cache of parsed render targets, keyed by the raw target */
+	protected final ParseCache<Target> targetCache;
+	/** The engine evaluating function targets */
+	protected final FunctionEngine engine;
+	/** The cache of fetched series, refreshed by fetching only their tail, null if disabled */
+	protected final RenderCache renderCache;
+	
+	/** The render URI prefix */
+	public static final String RENDER_URI = "/render";
+	/** The function evaluation step used when no fetched series has enough points to infer one, in seconds */
+	public static final int DEFAULT_STEP = 60;
+	/** The maximum number of slots of the function evaluation grid */
+	public static final long MAX_GRID_SLOTS = 1 << 20;
+	/** The most bytes one encoded data point can take, <b><code>[-1.2345678901234567E-300,1234567890123],</code></b> with room to spare */
+	public static final int MAX_POINT_BYTES = 48;
+
+	/**
+	 * Creates a new TSDBRenderAdapter
+	 * @param config The optional configuration properties
+	 */
+	public TSDBRenderAdapter(final Properties config) {
+		super(config);
+		tsdb = GraphiteAPIService.getTSDB();
+		if(tsdb==null) throw new IllegalStateException("No TSDB instance available. " + getClass().getSimpleName() + " can only be used in the OpenTSDB plugin");
+		maxSuggest = ConfigurationHelper.getIntSystemThenEnvProperty(PROPERTY_TSDB_FIND_MAXSUGGEST, DEFAULT_TSDB_FIND_MAXSUGGEST, config);
+		maxSeries = ConfigurationHelper.getIntSystemThenEnvProperty(PROPERTY_TSDB_RENDER_MAXSERIES, DEFAULT_TSDB_RENDER_MAXSERIES, config);
+		maxQueued = Math.max(1, ConfigurationHelper.getIntSystemThenEnvProperty(PROPERTY_TSDB_RENDER_MAXQUEUED, DEFAULT_TSDB_RENDER_MAXQUEUED, config));
+		aggregator = Aggregators.get(ConfigurationHelper.getSystemThenEnvProperty(PROPERTY_TSDB_RENDER_AGGREGATOR, DEFAULT_TSDB_RENDER_AGGREGATOR, config).trim().toLowerCase());
+		consolidation = Consolidation.decode(ConfigurationHelper.getSystemThenEnvProperty(PROPERTY_TSDB_RENDER_CONSOLIDATION, DEFAULT_TSDB_RENDER_CONSOLIDATION, config));
+		if(ConfigurationHelper.getBooleanSystemThenEnvProperty(PROPERTY_TSDB_TRIE_ENABLED, DEFAULT_TSDB_TRIE_ENABLED, config)) {
+			namespace = MetricNamespace.getShared(tsdb, 
+				ConfigurationHelper.getIntSystemThenEnvProperty(PROPERTY_TSDB_TRIE_MAXNAMES, DEFAULT_TSDB_TRIE_MAXNAMES, config),
+				ConfigurationHelper.getIntSystemThenEnvProperty(PROPERTY_TSDB_TRIE_REFRESH, DEFAULT_TSDB_TRIE_REFRESH, config)
+			);
+		} else {
+			namespace = null;
+		}
+		final int targetCacheMaxEntries = ConfigurationHelper.getIntSystemThenEnvProperty(PROPERTY_TSDB_RENDER_TARGETCACHE_MAXENTRIES, DEFAULT_TSDB_RENDER_TARGETCACHE_MAXENTRIES, config);
+		targetCache = new ParseCache<Target>(getClass().getSimpleName() + "Targets", targetCacheMaxEntries, new Function<String, Target>() {
+			@Override
+			public Target apply(final String target) {
+				return TargetParser.parse(target);
+			}
+		});
+		engine = FunctionEngine.getInstance(config);
+		final int renderCacheMaxEntries = ConfigurationHelper.getIntSystemThenEnvProperty(PROPERTY_TSDB_RENDER_CACHE_MAXENTRIES, DEFAULT_TSDB_RENDER_CACHE_MAXENTRIES, config);
+		if(renderCacheMaxEntries > 0) {
+			renderCache = new RenderCache(getClass().getSimpleName(), renderCacheMaxEntries, 
+				ConfigurationHelper.getLongSystemThenEnvProperty(PROPERTY_TSDB_RENDER_CACHE_MAXPOINTS, DEFAULT_TSDB_RENDER_CACHE_MAXPOINTS, config),
+				TimeUnit.SECONDS.toMillis(ConfigurationHelper.getIntSystemThenEnvProperty(PROPERTY_TSDB_RENDER_CACHE_TTL, DEFAULT_TSDB_RENDER_CACHE_TTL, config)),
+				ConfigurationHelper.getIntSystemThenEnvProperty(PROPERTY_TSDB_RENDER_CACHE_ALIGNMENT, DEFAULT_TSDB_RENDER_CACHE_ALIGNMENT, config)
+			);
+		} else {
+			renderCache = null;
+		}
+		log.info(StringHelper.banner("%s Configuration\n\tAggregator:%s\n\tConsolidation:%s\n\tMax Series:%s\n\tMax Queued:%s\n\tMax Suggest:%s\n\tNamespace Trie:%s\n\tTarget Cache Max Entries:%s\n\tRender Cache:%s\n\tCORS Headers:%s\n\tCORS Domain:%s", getClass().getSimpleName(), aggregator, consolidation, maxSeries, maxQueued, maxSuggest, namespace!=null, targetCacheMaxEntries, renderCache, corsHeaders, corsDomain));
+	}
+	
+	/**
+	 * Creates a new TSDBRenderAdapter
+	 */
+	public TSDBRenderAdapter() {
+		this(null);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see com.heliosapm.tsdb.grapi.GraphiteAdapter#match(java.lang.String)
+	 */
+	@Override
+	public boolean match(final String queryURI) {
+		return queryURI!=null && queryURI.regionMatches(true, 0, RENDER_URI, 0, RENDER_URI.length());
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 * @see com.heliosapm.tsdb.grapi.AbstractGraphiteAdapter#getRoutes()
+	 */
+	@Override
+	public String[] getRoutes() {
+		return new String[]{RENDER_URI};
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 * <p>Contributes the {@link BuiltinFunctions builtin} render functions.</p>
+	 * @see com.heliosapm.tsdb.grapi.AbstractGraphiteAdapter#getFunctions()
+	 */
+	@Override
+	public GraphiteFunction[] getFunctions() {
+		return BuiltinFunctions.all();
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see com.heliosapm.tsdb.grapi.GraphiteAdapter#processQuery(org.jboss.netty.handler.codec.http.HttpRequest, org.jboss.netty.channel.Channel, org.jboss.netty.channel.ChannelHandlerContext)
+	 */
+	@Override
+	public void processQuery(final HttpRequest request, final Channel channel, final ChannelHandlerContext ctx) {
+		final RenderRequest renderRequest;
+		final List<Target> targets;
+		final Map<String, List<String>> resolved;
+		try {
+			renderRequest = RenderRequest.parse(request);
+			if(!"json".equals(renderRequest.getFormat())) {
+				throw new IllegalArgumentException("Unsupported format [" + renderRequest.getFormat() + "]");
+			}
+			targets = parseTargets(renderRequest.getTargets());
+			resolved = resolve(targets);
+		} catch (IllegalArgumentException iex) {
+			log.debug("Rejected render request [{}]: {}", request.getUri(), iex.getMessage());
+			sendError(request, channel, ctx, HttpResponseStatus.BAD_REQUEST);
+			return;
+		} catch (Exception ex) {
+			log.error("Failed to resolve render request [{}]", request.getUri(), ex);
+			sendError(request, channel, ctx, HttpResponseStatus.INTERNAL_SERVER_ERROR);
+			return;
+		}
+		final Set<String> metrics = new LinkedHashSet<String>();
+		for(List<String> pathMetrics: resolved.values()) {
+			metrics.addAll(pathMetrics);
+		}
+		// under pressure, only requests the render cache can answer without querying the TSDB are served
+		if(DirectMemoryBudget.isAnyUnderPressure() && !isCached(metrics, renderRequest) && shedUnderPressure(newResponseWriter(request, channel, ctx))) {
+			return;
+		}
+		final ChunkedResponseWriter writer = newChunkedResponseWriter(request, channel, ctx);
+		if(!isPlainPaths(targets)) {
+			log.debug("Evaluating {} targets over {} series for {}", targets.size(), metrics.size(), renderRequest);
+			final FunctionRender render = new FunctionRender(writer, renderRequest, targets, resolved, metrics.size());
+			if(metrics.isEmpty()) {
+				engine.getPool().execute(render);
+				return;
+			}
+			for(String metric: metrics) {
+				query(metric, renderRequest, render);
+			}
+			return;
+		}
+		log.debug("Rendering {} series for {}", metrics.size(), renderRequest);
+		final RenderStream stream = new RenderStream(writer, metrics, renderRequest, maxQueued);
+		// streamed before the queries are issued, so every arriving series finds the writer ready to resume
+		writer.stream(stream);
+		stream.issue();
+	}
+	
+	/**
+	 * Parses the passed raw targets through the target cache and checks that the functions they call are registered
+	 * @param rawTargets The raw target expressions
+	 * @return the parsed targets
+	 * @throws IllegalArgumentException thrown if a target is invalid or calls an unknown function
+	 */
+	protected List<Target> parseTargets(final List<String> rawTargets) {
+		final List<Target> targets = new ArrayList<Target>(rawTargets.size());
+		for(String raw: rawTargets) {
+			final Target target = targetCache.get(raw);
+			engine.validate(target);
+			targets.add(target);
+		}
+		return targets;
+	}
+	
+	/**
+	 * Indicates if all the passed targets are plain paths, which are streamed as their series arrive rather than evaluated
+	 * @param targets The targets
+	 * @return true if all the targets are paths, false if any is a function call or literal
+	 */
+	protected static boolean isPlainPaths(final List<Target> targets) {
+		for(Target target: targets) {
+			if(!(target instanceof Target.Path)) return false;
+		}
+		return true;
+	}
+	
+	/**
+	 * Resolves the paths referenced by the passed targets to metric names, in target order and without duplicates.
+	 * Resolution stops once the maximum number of series is reached.
+	 * @param targets The targets
+	 * @return the metric names of each path, keyed by path
+	 */
+	protected Map<String, List<String>> resolve(final List<Target> targets) {
+		final Set<String> paths = new LinkedHashSet<String>();
+		for(Target target: targets) {
+			target.collectPaths(paths);
+		}
+		final Map<String, List<String>> resolved = new LinkedHashMap<String, List<String>>(paths.size());
+		final Set<String> metrics = new HashSet<String>();
+		final NamespaceTrie trie = namespace==null ? null : namespace.getTrie();
+		for(String path: paths) {
+			final List<String> pathMetrics = new ArrayList<String>();
+			if(GraphitePaths.isLiteral(path)) {
+				pathMetrics.add(path);
+			} else if(trie!=null) {
+				for(final NamespaceTrie.Cursor cursor = trie.cursor(path); cursor.hasNext();) {
+					final Map.Entry<String, Integer> node = cursor.next();
+					if((node.getValue() & NamespaceTrie.LEAF)!=0) pathMetrics.add(node.getKey());
+				}
+			} else {
+				pathMetrics.addAll(scan(path));
+			}
+			for(Iterator<String> iter = pathMetrics.iterator(); iter.hasNext();) {
+				final String metric = iter.next();
+				if(metrics.size() >= maxSeries && !metrics.contains(metric)) {
+					iter.remove();
+				} else {
+					metrics.add(metric);
+				}
+			}
+			resolved.put(path, pathMetrics);
+			if(metrics.size() >= maxSeries) {
+				log.warn("Render targets {} resolved to more than the maximum of {} series. Extra series are dropped.", targets, maxSeries);
+				break;
+			}
+		}
+		return resolved;
+	}
+	
+	/**
+	 * Finds the metric names fully matching the passed glob path by scanning the metric names 
+	 * in the UID table that start with the path's literal prefix
+	 * @param target The glob path
+	 * @return the matching metric names
+	 */
+	protected List<String> scan(final String target) {
+		final String[] segments = GraphitePaths.splitPath(target);
+		final GlobMatcher[] matchers = new GlobMatcher[segments.length];
+		for(int i = 0; i < segments.length; i++) {
+			matchers[i] = GlobMatcher.compile(segments[i]);
+		}
+		final List<String> matches = new ArrayList<String>();
+		for(String metric: tsdb.suggestMetrics(GraphitePaths.literalPrefix(target), maxSuggest)) {
+			if(TSDBMetricsFindAdapter.matchDepth(metric, matchers)==metric.length()) matches.add(metric);
+		}
+		return matches;
+	}
+	
+	/**
+	 * Infers the step of the grid function targets are evaluated over from the passed series: the coarsest average 
+	 * interval between the points of any one series, so no series has gaps on the grid, 
+	 * raised if needed to keep the grid within {@link #MAX_GRID_SLOTS} slots
+	 * @param series The fetched series
+	 * @param renderRequest The render request
+	 * @return the step in seconds
+	 */
+	protected static int inferStep(final Collection<Series> series, final RenderRequest renderRequest) {
+		long step = 0;
+		for(Series s: series) {
+			final int size = s.size();
+			if(size < 2) continue;
+			final long[] ts = s.getTimestamps();
+			step = Math.max(step, (ts[size-1] - ts[0]) / (size - 1));
+		}
+		if(step < 1) step = DEFAULT_STEP;
+		final long window = renderRequest.getUntil() - renderRequest.getFrom();
+		if(window / step > MAX_GRID_SLOTS) step = (window + MAX_GRID_SLOTS - 1) / MAX_GRID_SLOTS;
+		return (int)Math.min(Integer.MAX_VALUE, step);
+	}
+	
+	/**
+	 * Indicates if the render cache holds fresh series of all the passed metrics over the requested window
+	 * @param metrics The metric names
+	 * @param renderRequest The render request
+	 * @return true if all the series can be served without querying the TSDB
+	 */
+	protected boolean isCached(final Set<String> metrics, final RenderRequest renderRequest) {
+		if(renderCache==null) return metrics.isEmpty();
+		final long until = renderRequest.getUntil();
+		for(String metric: metrics) {
+			final CachedSeries cached = renderCache.get(metric, renderRequest.getFrom(), until);
+			if(cached==null || !renderCache.isFresh(cached, until)) return false;
+		}
+		return true;
+	}
+	
+	/**
+	 * Queries the TSDB for the passed metric over the requested window and hands the resulting series to the sink.
+	 * A metric that is unknown to the TSDB or whose query fails is handed over as null.
+	 * @param metric The metric name
+	 * @param renderRequest The render request
+	 * @param sink The sink to hand the series to
+	 */
+	protected void query(final String metric, final RenderRequest renderRequest, final SeriesSink sink) {
+		final long until = renderRequest.getUntil();
+		final CachedSeries cached = renderCache==null ? null : renderCache.get(metric, renderRequest.getFrom(), until);
+		if(cached!=null && renderCache.isFresh(cached, until)) {
+			sink.onSeries(metric, cached.slice(renderRequest.getFrom(), until));
+			return;
+		}
+		// a cached series only needs its tail, otherwise the window is fetched from the aligned start so the following windows fall within it
+		final long fetchFrom;
+		if(cached!=null) fetchFrom = renderCache.getRefreshFrom(cached);
+		else if(renderCache!=null) fetchFrom = renderCache.alignFrom(renderRequest.getFrom());
+		else fetchFrom = renderRequest.getFrom();
+		final long start = System.nanoTime();
+		try {
+			final Query query = tsdb.newQuery();
+			query.setStartTime(fetchFrom * 1000L);
+			query.setEndTime(until * 1000L);
+			query.setTimeSeries(metric, new HashMap<String, String>(0), aggregator, false);
+			query.runAsync().addCallbacks(
+				new Callback<Void, DataPoints[]>() {
+					@Override
+					public Void call(final DataPoints[] result) throws Exception {
+						stats.recordUpstream(start);
+						final Series fetched = Series.from(metric, result.length==0 ? null : result[0]);
+						sink.onSeries(metric, renderCache==null ? fetched : cache(cached, fetched, fetchFrom, renderRequest));
+						return null;
+					}
+				}, 
+				new Callback<Void, Exception>() {
+					@Override
+					public Void call(final Exception ex) throws Exception {
+						stats.recordUpstream(start);
+						log.warn("Render query failed for metric [{}]", metric, ex);
+						sink.onSeries(metric, null);
+						return null;
+					}
+				}
+			);
+		} catch (NoSuchUniqueName nex) {
+			log.debug("No such metric [{}]", metric);
+			sink.onSeries(metric, null);
+		} catch (Exception ex) {
+			log.warn("Failed to issue render query for metric [{}]", metric, ex);
+			sink.onSeries(metric, null);
+		}
+	}
+	
+	/**
+	 * Caches the passed fetched series, spliced onto the cached series of the metric if only its tail was fetched, 
+	 * and returns the requested window of the result
+	 * @param cached The cached series whose tail was fetched, or null if the whole window was fetched
+	 * @param fetched The fetched series
+	 * @param fetchFrom The start of the fetched window in unix epoch seconds
+	 * @param renderRequest The render request
+	 * @return a copy of the requested window of the updated cached series
+	 */
+	protected Series cache(final CachedSeries cached, final Series fetched, final long fetchFrom, final RenderRequest renderRequest) {
+		// data is only complete up to now, so a window ending in the future is only cached up to now
+		final long coveredUntil = Math.min(renderRequest.getUntil(), System.currentTimeMillis() / 1000L);
+		final CachedSeries updated = cached==null ? new CachedSeries(fetched, fetchFrom, coveredUntil) : cached.splice(fetched, fetchFrom, coveredUntil);
+		renderCache.put(updated);
+		return updated.slice(renderRequest.getFrom(), renderRequest.getUntil());
+	}
+	
+	/**
+	 * Returns the cache of fetched series
+	 * @return the render cache, or null if disabled
+	 */
+	public RenderCache getRenderCache() {
+		return renderCache;
+	}
+	
+	/**
+	 * Returns the cache of parsed render targets
+	 * @return the target cache
+	 */
+	public ParseCache<Target> getTargetCache() {
+		return targetCache;
+	}
+	
+	/**
+	 * <p>Title: SeriesSink</p>
+	 * <p>Description: Receives the series of each queried metric, on the TSDB's callback threads</p> 
+	 * <p>Company: Helios Development Group LLC</p>
+	 * @author Whitehead (nwhitehead AT heliosdev DOT org)
+	 * <p><code>com.heliosapm.tsdb.grapi.adapters.TSDBRenderAdapter.SeriesSink</code></p>
+	 */
+	protected static interface SeriesSink {
+		/**
+		 * Receives the series of a queried metric
+		 * @param metric The metric name
+		 * @param series The series, or null if the metric is unknown or its query failed
+		 */
+		public void onSeries(String metric, Series series);
+	}
+	
+	/**
+	 * <p>Title: SeriesArrayProducer</p>
+	 * <p>Description: Streams render series as a JSON array, writing the points of each series over as many calls as it takes 
+	 * to keep each call's output below a chunk, so a series of any size is written at the pace of the channel.</p> 
+	 * <p>Company: Helios Development Group LLC</p>
+	 * @author Whitehead (nwhitehead AT heliosdev DOT org)
+	 * <p><code>com.heliosapm.tsdb.grapi.adapters.TSDBRenderAdapter.SeriesArrayProducer</code></p>
+	 */
+	protected abstract class SeriesArrayProducer implements ChunkedResponseWriter.ChunkProducer {
+		/** The number of points written per call, sized so the points of one call fit in a chunk */
+		private final int pointsPerPiece;
+		/** The series being written, or null between series */
+		protected volatile Series current = null;
+		/** The index of the next point of the current series to write */
+		private int point = 0;
+		/** Indicates if the array has been started */
+		private boolean started = false;
+		
+		/**
+		 * Creates a new SeriesArrayProducer
+		 * @param chunkSize The chunk size of the response writer in bytes
+		 */
+		SeriesArrayProducer(final int chunkSize) {
+			pointsPerPiece = Math.max(1, chunkSize / MAX_POINT_BYTES);
+		}
+		
+		/**
+		 * Returns the next series to write, downsampled
+		 * @return the next series, or null if there is none to write now
+		 */
+		protected abstract Series nextSeries();
+		
+		/**
+		 * Indicates if no more series will become available once those available now are written. 
+		 * Checked before {@link #nextSeries()}, so a series that arrives in between is not lost.
+		 * @return true if the series available now are the last
+		 */
+		protected abstract boolean isComplete();
+
+		/**
+		 * {@inheritDoc}
+		 * <p>Writes the next piece of the current series, or starts the next series, or ends the array once the last series is written.</p>
+		 * @see com.heliosapm.tsdb.grapi.server.http.ChunkedResponseWriter.ChunkProducer#produce(com.fasterxml.jackson.core.JsonGenerator)
+		 */
+		@Override
+		public boolean produce(final JsonGenerator gen) throws Exception {
+			if(!started) {
+				gen.writeStartArray();
+				started = true;
+			}
+			Series s = current;
+			if(s==null) {
+				final boolean complete = isComplete();
+				s = nextSeries();
+				if(s==null) {
+					if(!complete) return true;
+					gen.writeEndArray();
+					return false;
+				}
+				s.writeJsonStart(gen);
+				point = 0;
+				current = s;
+			}
+			final int end = Math.min(s.size(), point + pointsPerPiece);
+			s.writeJsonPoints(gen, point, end);
+			point = end;
+			if(point==s.size()) {
+				s.writeJsonEnd(gen);
+				current = null;
+			}
+			return true;
+		}
+	}
+	
+	/**
+	 * <p>Title: RenderStream</p>
+	 * <p>Description: Queries the series of one render request and streams them as a JSON array as they arrive, in any order, 
+	 * and finishes the response when the last series has been written. Each series is downsampled to the requested maximum 
+	 * number of points, with its own consolidation if it has one, as it arrives, and queued until the writer asks for it, 
+	 * so the series are encoded at the pace of the channel. At most a maximum number of series are being fetched or queued at a time, 
+	 * and a further query is only issued when the writer takes a queued series or a query returns nothing, so a slow channel 
+	 * throttles the queries instead of letting the fetched series pile up.</p> 
+	 * <p>Company: Helios Development Group LLC</p>
+	 * @author Whitehead (nwhitehead AT heliosdev DOT org)
+	 * <p><code>com.heliosapm.tsdb.grapi.adapters.TSDBRenderAdapter.RenderStream</code></p>
+	 */
+	protected class RenderStream extends SeriesArrayProducer implements SeriesSink, ChunkedResponseWriter.AsyncChunkProducer {
+		/** The response writer */
+		private final ChunkedResponseWriter writer;
+		/** The maximum number of points per series */
+		private final int maxPoints;
+		/** The consolidation for series that do not have their own */
+		private final Consolidation mode;
+		/** The render request */
+		private final RenderRequest renderRequest;
+		/** The metrics still to query, only accessed by the thread holding {@link #issuing} */
+		private final Iterator<String> metrics;
+		/** The number of metrics still to query */
+		private final AtomicInteger unissued;
+		/** The number of further series that may be fetched or queued */
+		private final AtomicInteger slots;
+		/** Indicates if a thread is issuing queries */
+		private final AtomicBoolean issuing = new AtomicBoolean(false);
+		/** The series that have arrived and are waiting to be written */
+		private final ConcurrentLinkedQueue<Series> arrived = new ConcurrentLinkedQueue<Series>();
+		/** The number of series still expected to arrive */
+		private final AtomicInteger pending;
+		
+		/**
+		 * Creates a new RenderStream. The queries are issued by {@link #issue()} once the stream is being written.
+		 * @param writer The response writer
+		 * @param metrics The metrics to query
+		 * @param renderRequest The render request
+		 * @param maxQueued The maximum number of series being fetched or waiting to be written at a time
+		 */
+		RenderStream(final ChunkedResponseWriter writer, final Collection<String> metrics, final RenderRequest renderRequest, final int maxQueued) {
+			super(writer.getChunkSize());
+			this.writer = writer;
+			this.renderRequest = renderRequest;
+			this.metrics = metrics.iterator();
+			unissued = new AtomicInteger(metrics.size());
+			slots = new AtomicInteger(Math.max(1, maxQueued));
+			pending = new AtomicInteger(metrics.size());
+			maxPoints = renderRequest.getMaxDataPoints();
+			mode = renderRequest.getConsolidation()==null ? consolidation : renderRequest.getConsolidation();
+		}
+		
+		/**
+		 * Issues queries for the next metrics while there are free slots, unless another thread is already doing so.
+		 * A slot freed while this thread is leaving is picked up by checking again once the flag is released.
+		 */
+		void issue() {
+			while(unissued.get() > 0 && slots.get() > 0) {
+				if(!issuing.compareAndSet(false, true)) return;
+				try {
+					while(unissued.get() > 0 && slots.get() > 0) {
+						slots.decrementAndGet();
+						unissued.decrementAndGet();
+						// a series answered from the cache arrives on this thread, and a missing one frees its slot for this loop
+						query(metrics.next(), renderRequest, this);
+					}
+				} finally {
+					issuing.set(false);
+				}
+			}
+		}
+		
+		/**
+		 * {@inheritDoc}
+		 * <p>Downsamples the series, queues it and resumes the writer. A missing series frees its slot for the next query.</p>
+		 * @see com.heliosapm.tsdb.grapi.adapters.TSDBRenderAdapter.SeriesSink#onSeries(java.lang.String, com.heliosapm.tsdb.grapi.render.Series)
+		 */
+		@Override
+		public void onSeries(final String metric, final Series series) {
+			if(series!=null) {
+				final long start = System.nanoTime();
+				Downsampler.downsample(series, maxPoints, series.getConsolidation()==null ? mode : series.getConsolidation());
+				stats.recordTransform(start);
+				arrived.add(series);
+			}
+			// queued before the count drops, so a producer that sees the last arrival also sees its series
+			pending.decrementAndGet();
+			if(series==null) {
+				slots.incrementAndGet();
+				issue();
+			}
+			writer.resume();
+		}
+		
+		/**
+		 * {@inheritDoc}
+		 * @see com.heliosapm.tsdb.grapi.server.http.ChunkedResponseWriter.AsyncChunkProducer#isAvailable()
+		 */
+		@Override
+		public boolean isAvailable() {
+			return current!=null || !arrived.isEmpty() || pending.get()==0;
+		}
+
+		/**
+		 * {@inheritDoc}
+		 * @see com.heliosapm.tsdb.grapi.adapters.TSDBRenderAdapter.SeriesArrayProducer#nextSeries()
+		 */
+		@Override
+		protected Series nextSeries() {
+			final Series series = arrived.poll();
+			if(series!=null) {
+				slots.incrementAndGet();
+				issue();
+			}
+			return series;
+		}
+
+		/**
+		 * {@inheritDoc}
+		 * @see com.heliosapm.tsdb.grapi.adapters.TSDBRenderAdapter.SeriesArrayProducer#isComplete()
+		 */
+		@Override
+		protected boolean isComplete() {
+			return pending.get()==0;
+		}
+	}
+	
+	/**
+	 * <p>Title: FunctionRender</p>
+	 * <p>Description: Collects the series of every metric the targets of one render request reference and, once all have arrived, 
+	 * evaluates the targets on the {@link FunctionEngine}'s pool and streams the results.</p> 
+	 * <p>Company: Helios Development Group LLC</p>
+	 * @author Whitehead (nwhitehead AT heliosdev DOT org)
+	 * <p><code>com.heliosapm.tsdb.grapi.adapters.TSDBRenderAdapter.FunctionRender</code></p>
+	 */
+	protected class FunctionRender implements SeriesSink, FunctionEngine.SeriesSource, Runnable {
+		/** The response writer */
+		private final ChunkedResponseWriter writer;
+		/** The render request */
+		private final RenderRequest renderRequest;
+		/** The targets to evaluate */
+		private final List<Target> targets;
+		/** The metric names of each path referenced by the targets, keyed by path */
+		private final Map<String, List<String>> resolved;
+		/** The fetched series keyed by metric name */
+		private final ConcurrentHashMap<String, Series> fetched = new ConcurrentHashMap<String, Series>();
+		/** The number of metrics still expected */
+		private final AtomicInteger remaining;
+		
+		/**
+		 * Creates a new FunctionRender
+		 * @param writer The response writer
+		 * @param renderRequest The render request
+		 * @param targets The targets to evaluate
+		 * @param resolved The metric names of each path referenced by the targets, keyed by path
+		 * @param expected The number of distinct metrics that will be handed over
+		 */
+		FunctionRender(final ChunkedResponseWriter writer, final RenderRequest renderRequest, final List<Target> targets, final Map<String, List<String>> resolved, final int expected) {
+			this.writer = writer;
+			this.renderRequest = renderRequest;
+			this.targets = targets;
+			this.resolved = resolved;
+			remaining = new AtomicInteger(expected);
+		}
+
+		/**
+		 * {@inheritDoc}
+		 * <p>Keeps the series and starts the evaluation once the last one has arrived.</p>
+		 * @see com.heliosapm.tsdb.grapi.adapters.TSDBRenderAdapter.SeriesSink#onSeries(java.lang.String, com.heliosapm.tsdb.grapi.render.Series)
+		 */
+		@Override
+		public void onSeries(final String metric, final Series series) {
+			if(series!=null) fetched.put(metric, series);
+			if(remaining.decrementAndGet()==0) {
+				engine.getPool().execute(this);
+			}
+		}
+
+		/**
+		 * {@inheritDoc}
+		 * @see com.heliosapm.tsdb.grapi.functions.FunctionEngine.SeriesSource#getSeries(java.lang.String)
+		 */
+		@Override
+		public List<Series> getSeries(final String path) {
+			final List<String> metrics = resolved.get(path);
+			if(metrics==null) return Collections.emptyList();
+			final List<Series> series = new ArrayList<Series>(metrics.size());
+			for(String metric: metrics) {
+				final Series s = fetched.get(metric);
+				if(s!=null) series.add(s);
+			}
+			return series;
+		}
+
+		/**
+		 * Evaluates the targets and streams the resulting series
+		 * @see java.lang.Runnable#run()
+		 */
+		@Override
+		public void run() {
+			final long start = System.nanoTime();
+			final List<List<Series>> results;
+			try {
+				final EvaluationContext ectx = engine.newContext(renderRequest.getFrom(), renderRequest.getUntil(), inferStep(fetched.values(), renderRequest));
+				results = engine.evaluate(targets, this, ectx);
+			} catch (IllegalArgumentException iex) {
+				log.debug("Rejected render targets {}: {}", targets, iex.getMessage());
+				writer.sendError(HttpResponseStatus.BAD_REQUEST);
+				return;
+			} catch (Exception ex) {
+				log.error("Failed to evaluate render targets {}", targets, ex);
+				writer.sendError(HttpResponseStatus.INTERNAL_SERVER_ERROR);
+				return;
+			}
+			stats.recordTransform(start);
+			writer.stream(new SeriesProducer(results, renderRequest, writer.getChunkSize()));
+		}
+	}
+	
+	/**
+	 * <p>Title: SeriesProducer</p>
+	 * <p>Description: Streams the evaluated series of one render request as a JSON array, 
+	 * so the encoding keeps pace with the channel. Each series is downsampled just before it is written.</p> 
+	 * <p>Company: Helios Development Group LLC</p>
+	 * @author Whitehead (nwhitehead AT heliosdev DOT org)
+	 * <p><code>com.heliosapm.tsdb.grapi.adapters.TSDBRenderAdapter.SeriesProducer</code></p>
+	 */
+	protected class SeriesProducer extends SeriesArrayProducer {
+		/** The result lists still to write */
+		private final Iterator<List<Series>> results;
+		/** The series of the current result list still to write */
+		private Iterator<Series> series = Collections.<Series>emptyList().iterator();
+		/** The maximum number of points per series */
+		private final int maxPoints;
+		/** The consolidation for series that do not have their own */
+		private final Consolidation mode;
+		
+		/**
+		 * Creates a new SeriesProducer
+		 * @param results The series of each target
+		 * @param renderRequest The render request
+		 * @param chunkSize The chunk size of the response writer in bytes
+		 */
+		SeriesProducer(final List<List<Series>> results, final RenderRequest renderRequest, final int chunkSize) {
+			super(chunkSize);
+			this.results = results.iterator();
+			maxPoints = renderRequest.getMaxDataPoints();
+			mode = renderRequest.getConsolidation()==null ? consolidation : renderRequest.getConsolidation();
+		}
+
+		/**
+		 * {@inheritDoc}
+		 * @see com.heliosapm.tsdb.grapi.adapters.TSDBRenderAdapter.SeriesArrayProducer#nextSeries()
+		 */
+		@Override
+		protected Series nextSeries() {
+			while(!series.hasNext()) {
+				if(!results.hasNext()) return null;
+				series = results.next().iterator();
+			}
+			final Series s = series.next();
+			Downsampler.downsample(s, maxPoints, s.getConsolidation()==null ? mode : s.getConsolidation());
+			return s;
+		}
+
+		/**
+		 * {@inheritDoc}
+		 * <p>The results are all evaluated before they are streamed.</p>
+		 * @see com.heliosapm.tsdb.grapi.adapters.TSDBRenderAdapter.SeriesArrayProducer#isComplete()
+		 */
+		@Override
+		protected boolean isComplete() {
+			return true;
+		}
+	}
+
+}
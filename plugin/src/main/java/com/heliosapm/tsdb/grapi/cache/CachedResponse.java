@@ -0,0 +1,130 @@
+/**
+Licensed to the Apache Software Foundation (ASF) under one
+or more contributor license agreements.  See the NOTICE file
+distributed with this work for additional information
+regarding copyright ownership.  The ASF licenses this file
+to you under the Apache License, Version 2.0 (the
+"License"); you may not use this file except in compliance
+with the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an
+"AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+KIND, either express or implied.  See the License for the
+specific language governing permissions and limitations
+under the License.
+ */
+package com.heliosapm.tsdb.grapi.cache;
+
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.buffer.ChannelBuffers;
+
+/**
+ * <p>Title: CachedResponse</p>
+ * <p>Description: An immutable cached response body and the time it was cached, optionally with the body already compressed with gzip
+ * so callers that accept gzip are served without compressing it on every hit. The body's {@link EntityTags entity tag} is computed once, when it is cached.</p> 
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>com.heliosapm.tsdb.grapi.cache.CachedResponse</code></p>
+ */
+
+public class CachedResponse {
+	/** The cached content */
+	protected final byte[] content;
+	/** The cached content compressed with gzip, or null */
+	protected final byte[] gzipped;
+	/** The entity tag of the content */
+	protected final String etag;
+	/** The timestamp the content was cached at in ms. */
+	protected final long timestamp;
+
+	/**
+	 * Creates a new CachedResponse
+	 * @param content The content to cache. Not copied, so the caller must not modify it afterwards.
+	 */
+	public CachedResponse(final byte[] content) {
+		this(content, null);
+	}
+	
+	/**
+	 * Creates a new CachedResponse with precompressed content
+	 * @param content The content to cache. Not copied, so the caller must not modify it afterwards.
+	 * @param gzipped The content compressed with gzip, or null. Not copied either.
+	 */
+	public CachedResponse(final byte[] content, final byte[] gzipped) {
+		if(content==null) throw new IllegalArgumentException("The passed content was null");
+		this.content = content;
+		this.gzipped = gzipped;
+		this.etag = EntityTags.of(content);
+		this.timestamp = System.currentTimeMillis();
+	}
+	
+	/**
+	 * Returns a read-only buffer wrapping the cached content
+	 * @return a buffer wrapping the cached content
+	 */
+	public ChannelBuffer asChannelBuffer() {
+		return ChannelBuffers.unmodifiableBuffer(ChannelBuffers.wrappedBuffer(content));
+	}
+
+	/**
+	 * Returns a read-only buffer wrapping the cached content compressed with gzip
+	 * @return a buffer wrapping the compressed content, or null if the content was not cached compressed
+	 */
+	public ChannelBuffer asGzippedChannelBuffer() {
+		return gzipped==null ? null : ChannelBuffers.unmodifiableBuffer(ChannelBuffers.wrappedBuffer(gzipped));
+	}
+	
+	/**
+	 * Indicates if the content was cached compressed with gzip as well
+	 * @return true if the compressed content is available
+	 */
+	public boolean isGzipped() {
+		return gzipped!=null;
+	}
+
+	/**
+	 * Returns the entity tag of the cached content
+	 * @return the entity tag
+	 */
+	public String getETag() {
+		return etag;
+	}
+
+	/**
+	 * Returns the size of the cached content in bytes
+	 * @return the size of the cached content
+	 */
+	public int size() {
+		return content.length;
+	}
+	
+	/**
+	 * Returns the number of bytes held by this entry, the content and its compressed form
+	 * @return the number of bytes held
+	 */
+	public int footprint() {
+		return gzipped==null ? content.length : content.length + gzipped.length;
+	}
+
+	/**
+	 * Returns the timestamp the content was cached at
+	 * @return the timestamp in ms.
+	 */
+	public long getTimestamp() {
+		return timestamp;
+	}
+	
+	/**
+	 * Indicates if this response is older than the passed TTL
+	 * @param ttl The time to live in ms.
+	 * @param now The current time in ms.
+	 * @return true if expired, false otherwise
+	 */
+	public boolean isExpired(final long ttl, final long now) {
+		return now - timestamp > ttl;
+	}
+
+}
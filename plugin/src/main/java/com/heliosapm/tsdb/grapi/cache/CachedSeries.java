@@ -0,0 +1,203 @@
+/**
+Licensed to the Apache Software Foundation (ASF) under one
+or more contributor license agreements.  See the NOTICE file
+distributed with this work for additional information
+regarding copyright ownership.  The ASF licenses this file
+to you under the Apache License, Version 2.0 (the
+"License"); you may not use this file except in compliance
+with the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an
+"AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+KIND, either express or implied.  See the License for the
+specific language governing permissions and limitations
+under the License.
+ */
+package com.heliosapm.tsdb.grapi.cache;
+
+import java.util.Arrays;
+
+import com.heliosapm.tsdb.grapi.render.Series;
+
+/**
+ * <p>Title: CachedSeries</p>
+ * <p>Description: An immutable cached render series of one metric, covering a window from an aligned start to the time it was last fetched up to. 
+ * A refresh {@link #splice(Series, long, long) splices} a freshly fetched tail onto a copy, dropping the points that have aged out of the window, 
+ * and requests are served {@link #slice(long, long) slices} copied out of it, so the cached arrays are never modified.</p> 
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>com.heliosapm.tsdb.grapi.cache.CachedSeries</code></p>
+ */
+
+public class CachedSeries {
+	/** The metric name */
+	protected final String metric;
+	/** The timestamps in unix epoch seconds, ascending */
+	protected final long[] timestamps;
+	/** The values */
+	protected final double[] values;
+	/** The start of the covered window in unix epoch seconds */
+	protected final long from;
+	/** The end of the covered window in unix epoch seconds */
+	protected final long until;
+	/** The length of the window kept as the tail advances, in seconds */
+	protected final long span;
+	/** The timestamp the series was last fetched at in ms. */
+	protected final long timestamp;
+	
+	/**
+	 * Creates a new CachedSeries from a freshly fetched series
+	 * @param series The fetched series, which is copied
+	 * @param from The start of the fetched window in unix epoch seconds
+	 * @param until The end of the fetched window in unix epoch seconds, no later than now
+	 */
+	public CachedSeries(final Series series, final long from, final long until) {
+		this(series.getName(), Arrays.copyOf(series.getTimestamps(), series.size()), Arrays.copyOf(series.getValues(), series.size()), from, until, until - from);
+	}
+	
+	/**
+	 * Creates a new CachedSeries over the passed arrays, which are not copied
+	 * @param metric The metric name
+	 * @param timestamps The timestamps in unix epoch seconds, ascending
+	 * @param values The values
+	 * @param from The start of the covered window in unix epoch seconds
+	 * @param until The end of the covered window in unix epoch seconds
+	 * @param span The length of the window kept as the tail advances, in seconds
+	 */
+	private CachedSeries(final String metric, final long[] timestamps, final double[] values, final long from, final long until, final long span) {
+		this.metric = metric;
+		this.timestamps = timestamps;
+		this.values = values;
+		this.from = from;
+		this.until = until;
+		this.span = span;
+		this.timestamp = System.currentTimeMillis();
+	}
+	
+	/**
+	 * Creates a new CachedSeries with the points of this one before the passed tail start, followed by the points of the passed tail,
+	 * followed by the points of this one after the tail end if this series ends later, and without the points that have aged out 
+	 * of the window as the end advanced
+	 * @param tail The freshly fetched tail
+	 * @param tailFrom The start of the window the tail was fetched for, in unix epoch seconds, not after this series' end
+	 * @param tailUntil The end of the window the tail was fetched for, in unix epoch seconds, no later than now
+	 * @return the new cached series
+	 */
+	public CachedSeries splice(final Series tail, final long tailFrom, final long tailUntil) {
+		final long newUntil = Math.max(until, tailUntil);
+		final long newFrom = Math.max(from, newUntil - span);
+		final int head = indexOf(timestamps, timestamps.length, newFrom);
+		final int mid = Math.max(head, indexOf(timestamps, timestamps.length, tailFrom));
+		final int keep = mid - head;
+		// the cached points after the tail window, when the tail was fetched for an earlier end than this series'
+		final int after = Math.max(mid, indexOf(timestamps, timestamps.length, tailUntil + 1));
+		final int afterCount = timestamps.length - after;
+		final long[] tailTimestamps = tail.getTimestamps();
+		final int tailSize = tail.size();
+		final int tailStart = indexOf(tailTimestamps, tailSize, Math.max(tailFrom, newFrom));
+		final int tailEnd = afterCount==0 ? tailSize : Math.max(tailStart, indexOf(tailTimestamps, tailSize, timestamps[after]));
+		final int tailCount = tailEnd - tailStart;
+		final int size = keep + tailCount + afterCount;
+		final long[] ts = new long[size];
+		final double[] vs = new double[size];
+		System.arraycopy(timestamps, head, ts, 0, keep);
+		System.arraycopy(values, head, vs, 0, keep);
+		System.arraycopy(tailTimestamps, tailStart, ts, keep, tailCount);
+		System.arraycopy(tail.getValues(), tailStart, vs, keep, tailCount);
+		System.arraycopy(timestamps, after, ts, keep + tailCount, afterCount);
+		System.arraycopy(values, after, vs, keep + tailCount, afterCount);
+		return new CachedSeries(metric, ts, vs, newFrom, newUntil, span);
+	}
+	
+	/**
+	 * Copies the points in the passed window into a new series
+	 * @param sliceFrom The window start in unix epoch seconds, inclusive
+	 * @param sliceUntil The window end in unix epoch seconds, inclusive
+	 * @return the new series, named after the metric
+	 */
+	public Series slice(final long sliceFrom, final long sliceUntil) {
+		final int lo = indexOf(timestamps, timestamps.length, sliceFrom);
+		final int hi = indexOf(timestamps, timestamps.length, sliceUntil + 1);
+		final int size = Math.max(0, hi - lo);
+		return new Series(metric, Arrays.copyOfRange(timestamps, lo, lo + size), Arrays.copyOfRange(values, lo, lo + size), size);
+	}
+	
+	/**
+	 * Returns the index of the first of the passed timestamps that is not before the passed time
+	 * @param timestamps The ascending timestamps
+	 * @param size The number of timestamps
+	 * @param time The time to search for
+	 * @return the index, which is the size if all timestamps are before the time
+	 */
+	private static int indexOf(final long[] timestamps, final int size, final long time) {
+		int lo = 0, hi = size;
+		while(lo < hi) {
+			final int mid = (lo + hi) >>> 1;
+			if(timestamps[mid] < time) lo = mid + 1;
+			else hi = mid;
+		}
+		return lo;
+	}
+	
+	/**
+	 * Indicates if this entry has expired
+	 * @param ttl The time to live in ms.
+	 * @param now The current time in ms.
+	 * @return true if expired, false otherwise
+	 */
+	public boolean isExpired(final long ttl, final long now) {
+		return now - timestamp > ttl;
+	}
+
+	/**
+	 * Returns the metric name
+	 * @return the metric name
+	 */
+	public String getMetric() {
+		return metric;
+	}
+
+	/**
+	 * Returns the start of the covered window
+	 * @return the start of the covered window in unix epoch seconds
+	 */
+	public long getFrom() {
+		return from;
+	}
+
+	/**
+	 * Returns the end of the covered window
+	 * @return the end of the covered window in unix epoch seconds
+	 */
+	public long getUntil() {
+		return until;
+	}
+
+	/**
+	 * Returns the number of cached points
+	 * @return the number of cached points
+	 */
+	public int size() {
+		return timestamps.length;
+	}
+
+	/**
+	 * Returns the timestamp the series was last fetched at
+	 * @return the timestamp the series was last fetched at in ms.
+	 */
+	public long getTimestamp() {
+		return timestamp;
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 * @see java.lang.Object#toString()
+	 */
+	@Override
+	public String toString() {
+		return "CachedSeries [" + metric + ", from=" + from + ", until=" + until + ", size=" + timestamps.length + "]";
+	}
+}
@@ -0,0 +1,123 @@
+/**
+Licensed to the Apache Software Foundation (ASF) under one
+or more contributor license agreements.  See the NOTICE file
+distributed with this work for additional information
+regarding copyright ownership.  The ASF licenses this file
+to you under the Apache License, Version 2.0 (the
+"License"); you may not use this file except in compliance
+with the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an
+"AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+KIND, either express or implied.  See the License for the
+specific language governing permissions and limitations
+under the License.
+ */
+package com.heliosapm.tsdb.grapi.cache;
+
+import java.util.zip.CRC32;
+
+import org.jboss.netty.buffer.ChannelBuffer;
+
+/**
+ * <p>Title: EntityTags</p>
+ * <p>Description: Computes the weak entity tags (<b><code>ETag</code></b>) that let callers revalidate a response they already hold, 
+ * and matches them against a request's <b><code>If-None-Match</code></b> header. A tag is either a cheap hash of the content, 
+ * its length and CRC32, or a version of the data the content was produced from, which lets a response be revalidated before it is produced. 
+ * Tags are weak since the same content is sent with different content encodings.</p> 
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>com.heliosapm.tsdb.grapi.cache.EntityTags</code></p>
+ */
+
+public class EntityTags {
+	/** The weak tag prefix */
+	private static final String WEAK = "W/";
+	/** The size of the scratch array buffer content is hashed through */
+	private static final int SCRATCH_SIZE = 8192;
+	/** The per thread scratch array buffer content is hashed through */
+	private static final ThreadLocal<byte[]> SCRATCH = new ThreadLocal<byte[]>() {
+		@Override
+		protected byte[] initialValue() {
+			return new byte[SCRATCH_SIZE];
+		}
+	};
+	
+	/**
+	 * Returns the entity tag of the passed content
+	 * @param content The content
+	 * @return the entity tag
+	 */
+	public static String of(final byte[] content) {
+		final CRC32 crc = new CRC32();
+		crc.update(content, 0, content.length);
+		return tag(content.length, crc.getValue());
+	}
+	
+	/**
+	 * Returns the entity tag of the readable bytes of the passed buffer, without moving its reader index
+	 * @param content The content
+	 * @return the entity tag
+	 */
+	public static String of(final ChannelBuffer content) {
+		final CRC32 crc = new CRC32();
+		final byte[] scratch = SCRATCH.get();
+		final int end = content.writerIndex();
+		for(int index = content.readerIndex(); index < end;) {
+			final int n = Math.min(SCRATCH_SIZE, end - index);
+			content.getBytes(index, scratch, 0, n);
+			crc.update(scratch, 0, n);
+			index += n;
+		}
+		return tag(content.readableBytes(), crc.getValue());
+	}
+	
+	/**
+	 * Returns the entity tag of content produced from the passed version of its source data
+	 * @param version The version of the source data, such as the generation of a rebuilt index
+	 * @return the entity tag
+	 */
+	public static String ofVersion(final long version) {
+		return WEAK + "\"v" + Long.toHexString(version) + "\"";
+	}
+	
+	/**
+	 * Formats a content entity tag
+	 * @param length The content length
+	 * @param crc The content CRC32
+	 * @return the entity tag
+	 */
+	private static String tag(final int length, final long crc) {
+		return WEAK + "\"" + Integer.toHexString(length) + "-" + Long.toHexString(crc) + "\"";
+	}
+	
+	/**
+	 * Indicates if the passed <b><code>If-None-Match</code></b> header matches the passed entity tag, using the weak comparison
+	 * @param ifNoneMatch The header value, a comma separated list of tags or <b><code>*</code></b>. May be null.
+	 * @param etag The entity tag of the current content
+	 * @return true if the caller already holds the current content
+	 */
+	public static boolean matches(final String ifNoneMatch, final String etag) {
+		if(ifNoneMatch==null || ifNoneMatch.isEmpty() || etag==null) return false;
+		final String opaque = opaque(etag);
+		for(String candidate: ifNoneMatch.split(",")) {
+			final String c = candidate.trim();
+			if("*".equals(c) || opaque.equals(opaque(c))) return true;
+		}
+		return false;
+	}
+	
+	/**
+	 * Strips the weak prefix from an entity tag
+	 * @param etag The entity tag
+	 * @return the quoted opaque tag
+	 */
+	private static String opaque(final String etag) {
+		return etag.startsWith(WEAK) ? etag.substring(WEAK.length()) : etag;
+	}
+	
+	private EntityTags() {}
+}
@@ -0,0 +1,202 @@
+/**
+Licensed to the Apache Software Foundation (ASF) under one
+or more contributor license agreements.  See the NOTICE file
+distributed with this work for additional information
+regarding copyright ownership.  The ASF licenses this file
+to you under the Apache License, Version 2.0 (the
+"License"); you may not use this file except in compliance
+with the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an
+"AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+KIND, either express or implied.  See the License for the
+specific language governing permissions and limitations
+under the License.
+ */
+package com.heliosapm.tsdb.grapi.cache;
+
+import java.lang.management.ManagementFactory;
+
+import javax.management.ObjectName;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Function;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.CacheStats;
+import com.google.common.cache.LoadingCache;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+import com.heliosapm.utils.jmx.JMXHelper;
+
+/**
+ * <p>Title: ParseCache</p>
+ * <p>Description: A concurrent, size bounded cache of the results of parsing or compiling strings, 
+ * such as filter expressions and query URIs, so repeated inputs skip the parsing entirely.</p> 
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>com.heliosapm.tsdb.grapi.cache.ParseCache</code></p>
+ * @param <V> The type of the parsed values
+ */
+
+public class ParseCache<V> implements ParseCacheMBean {
+	/** Instance logger */
+	protected final Logger log = LoggerFactory.getLogger(getClass());
+	/** The cache name */
+	protected final String name;
+	/** The maximum number of entries */
+	protected final int maxEntries;
+	/** The underlying cache */
+	protected final LoadingCache<String, V> cache;
+	
+	/** The JMX ObjectName template for parse caches */
+	public static final String OBJECT_NAME_TEMPLATE = "com.heliosapm.tsdb.grapi:service=ParseCache,name=%s";
+	
+	/**
+	 * Creates a new ParseCache and registers its management interface
+	 * @param name The cache name
+	 * @param maxEntries The maximum number of entries
+	 * @param parser The function that parses a key into its value. Should throw an IllegalArgumentException for invalid keys.
+	 */
+	public ParseCache(final String name, final int maxEntries, final Function<String, V> parser) {
+		if(name==null || name.trim().isEmpty()) throw new IllegalArgumentException("The passed name was null or empty");
+		if(parser==null) throw new IllegalArgumentException("The passed parser was null");
+		this.name = name.trim();
+		this.maxEntries = maxEntries;
+		cache = CacheBuilder.newBuilder()
+			.maximumSize(Math.max(0, maxEntries))
+			.concurrencyLevel(Runtime.getRuntime().availableProcessors())
+			.recordStats()
+			.build(CacheLoader.from(parser));
+		final ObjectName on = JMXHelper.objectName(String.format(OBJECT_NAME_TEMPLATE, ObjectName.quote(this.name)));
+		try {
+			if(!ManagementFactory.getPlatformMBeanServer().isRegistered(on)) {
+				ManagementFactory.getPlatformMBeanServer().registerMBean(this, on);
+			}
+		} catch (Exception ex) {
+			log.warn("Failed to register management interface for ParseCache [{}]", this.name, ex);
+		}
+	}
+	
+	/**
+	 * Returns the parsed value for the passed key, parsing and caching it if it is not cached
+	 * @param key The key to parse
+	 * @return the parsed value
+	 * @throws RuntimeException the exception thrown by the parser if the key could not be parsed
+	 */
+	public V get(final String key) {
+		if(key==null) throw new IllegalArgumentException("The passed key was null");
+		try {
+			return cache.getUnchecked(key);
+		} catch (UncheckedExecutionException uex) {
+			final Throwable cause = uex.getCause();
+			if(cause instanceof RuntimeException) throw (RuntimeException)cause;
+			throw uex;
+		}
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see com.heliosapm.tsdb.grapi.cache.ParseCacheMBean#getName()
+	 */
+	@Override
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see com.heliosapm.tsdb.grapi.cache.ParseCacheMBean#getSize()
+	 */
+	@Override
+	public long getSize() {
+		return cache.size();
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see com.heliosapm.tsdb.grapi.cache.ParseCacheMBean#getMaxEntries()
+	 */
+	@Override
+	public int getMaxEntries() {
+		return maxEntries;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see com.heliosapm.tsdb.grapi.cache.ParseCacheMBean#getHits()
+	 */
+	@Override
+	public long getHits() {
+		return cache.stats().hitCount();
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see com.heliosapm.tsdb.grapi.cache.ParseCacheMBean#getMisses()
+	 */
+	@Override
+	public long getMisses() {
+		return cache.stats().missCount();
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see com.heliosapm.tsdb.grapi.cache.ParseCacheMBean#getEvictions()
+	 */
+	@Override
+	public long getEvictions() {
+		return cache.stats().evictionCount();
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see com.heliosapm.tsdb.grapi.cache.ParseCacheMBean#getParseFailures()
+	 */
+	@Override
+	public long getParseFailures() {
+		return cache.stats().loadExceptionCount();
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see com.heliosapm.tsdb.grapi.cache.ParseCacheMBean#getAverageParseTime()
+	 */
+	@Override
+	public double getAverageParseTime() {
+		return cache.stats().averageLoadPenalty();
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see com.heliosapm.tsdb.grapi.cache.ParseCacheMBean#getHitRate()
+	 */
+	@Override
+	public int getHitRate() {
+		final CacheStats stats = cache.stats();
+		return stats.requestCount()==0 ? 0 : (int)(stats.hitRate() * 100);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see com.heliosapm.tsdb.grapi.cache.ParseCacheMBean#clear()
+	 */
+	@Override
+	public void clear() {
+		cache.invalidateAll();
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 * @see java.lang.Object#toString()
+	 */
+	@Override
+	public String toString() {
+		return "ParseCache [name=" + name + ", size=" + cache.size() + ", stats=" + cache.stats() + "]";
+	}
+
+}
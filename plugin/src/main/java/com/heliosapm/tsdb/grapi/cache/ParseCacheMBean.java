@@ -0,0 +1,88 @@
+/**
+Licensed to the Apache Software Foundation (ASF) under one
+or more contributor license agreements.  See the NOTICE file
+distributed with this work for additional information
+regarding copyright ownership.  The ASF licenses this file
+to you under the Apache License, Version 2.0 (the
+"License"); you may not use this file except in compliance
+with the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an
+"AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+KIND, either express or implied.  See the License for the
+specific language governing permissions and limitations
+under the License.
+ */
+package com.heliosapm.tsdb.grapi.cache;
+
+/**
+ * <p>Title: ParseCacheMBean</p>
+ * <p>Description: JMX management interface for {@link ParseCache} instances</p> 
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>com.heliosapm.tsdb.grapi.cache.ParseCacheMBean</code></p>
+ */
+
+public interface ParseCacheMBean {
+	/**
+	 * Returns the name of the cache
+	 * @return the name of the cache
+	 */
+	public String getName();
+	
+	/**
+	 * Returns the number of entries in the cache
+	 * @return the number of entries in the cache
+	 */
+	public long getSize();
+	
+	/**
+	 * Returns the maximum number of entries
+	 * @return the maximum number of entries
+	 */
+	public int getMaxEntries();
+	
+	/**
+	 * Returns the cumulative number of cache hits
+	 * @return the cumulative number of cache hits
+	 */
+	public long getHits();
+	
+	/**
+	 * Returns the cumulative number of cache misses
+	 * @return the cumulative number of cache misses
+	 */
+	public long getMisses();
+	
+	/**
+	 * Returns the cumulative number of evictions
+	 * @return the cumulative number of evictions
+	 */
+	public long getEvictions();
+	
+	/**
+	 * Returns the cumulative number of keys that failed to parse
+	 * @return the cumulative number of parse failures
+	 */
+	public long getParseFailures();
+	
+	/**
+	 * Returns the average time spent parsing a key that was not cached
+	 * @return the average parse time in ns.
+	 */
+	public double getAverageParseTime();
+	
+	/**
+	 * Returns the hit rate as a percentage of all lookups
+	 * @return the hit rate percentage
+	 */
+	public int getHitRate();
+	
+	/**
+	 * Discards all entries
+	 */
+	public void clear();
+}
@@ -0,0 +1,366 @@
+/**
+Licensed to the Apache Software Foundation (ASF) under one
+or more contributor license agreements.  See the NOTICE file
+distributed with this work for additional information
+regarding copyright ownership.  The ASF licenses this file
+to you under the Apache License, Version 2.0 (the
+"License"); you may not use this file except in compliance
+with the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an
+"AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+KIND, either express or implied.  See the License for the
+specific language governing permissions and limitations
+under the License.
+ */
+package com.heliosapm.tsdb.grapi.cache;
+
+import java.lang.management.ManagementFactory;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.management.ObjectName;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.heliosapm.utils.jmx.JMXHelper;
+
+/**
+ * <p>Title: RenderCache</p>
+ * <p>Description: A bounded cache of fetched render series keyed by metric, with a TTL and LRU eviction, limited on both 
+ * the number of series and the total number of points. The windows fetched for a metric start aligned down to the alignment, 
+ * so the sliding windows of repeated relative requests such as <b><code>from=-6h</code></b> stay within the cached window. 
+ * When such a request finds the cached series, only the tail from one alignment before the cached end is fetched and 
+ * {@link CachedSeries#splice(com.heliosapm.tsdb.grapi.render.Series, long, long) spliced} on, so a refreshing dashboard 
+ * only fetches new data. Re-fetching that last interval picks up points that arrived late or were still being aggregated.</p> 
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>com.heliosapm.tsdb.grapi.cache.RenderCache</code></p>
+ */
+
+public class RenderCache implements RenderCacheMBean {
+	/** Instance logger */
+	protected final Logger log = LoggerFactory.getLogger(getClass());
+	/** The cache name */
+	protected final String name;
+	/** The maximum number of entries */
+	protected final int maxEntries;
+	/** The maximum total number of points */
+	protected final long maxPoints;
+	/** The entry time to live in ms. */
+	protected final long ttl;
+	/** The alignment of fetched windows in seconds */
+	protected final int alignment;
+	/** The access ordered entries. All access is guarded by this map's monitor */
+	private final LinkedHashMap<String, CachedSeries> entries = new LinkedHashMap<String, CachedSeries>(128, 0.75f, true);
+	/** The total number of points currently cached. Guarded by the entries monitor */
+	private long points = 0L;
+	
+	/** The hit counter */
+	protected final AtomicLong hits = new AtomicLong(0L);
+	/** The tail refresh counter */
+	protected final AtomicLong refreshes = new AtomicLong(0L);
+	/** The miss counter */
+	protected final AtomicLong misses = new AtomicLong(0L);
+	/** The eviction counter */
+	protected final AtomicLong evictions = new AtomicLong(0L);
+	/** The expiration counter */
+	protected final AtomicLong expirations = new AtomicLong(0L);
+	
+	/** The JMX ObjectName template for render caches */
+	public static final String OBJECT_NAME_TEMPLATE = "com.heliosapm.tsdb.grapi:service=RenderCache,name=%s";
+	
+	/**
+	 * Creates a new RenderCache and registers its management interface
+	 * @param name The cache name
+	 * @param maxEntries The maximum number of entries
+	 * @param maxPoints The maximum total number of cached points
+	 * @param ttl The time in ms. an entry stays cached without being refreshed
+	 * @param alignment The alignment of fetched windows in seconds
+	 */
+	public RenderCache(final String name, final int maxEntries, final long maxPoints, final long ttl, final int alignment) {
+		if(name==null || name.trim().isEmpty()) throw new IllegalArgumentException("The passed name was null or empty");
+		this.name = name.trim();
+		this.maxEntries = maxEntries;
+		this.maxPoints = maxPoints;
+		this.ttl = ttl;
+		this.alignment = Math.max(1, alignment);
+		final ObjectName on = JMXHelper.objectName(String.format(OBJECT_NAME_TEMPLATE, ObjectName.quote(this.name)));
+		try {
+			if(!ManagementFactory.getPlatformMBeanServer().isRegistered(on)) {
+				ManagementFactory.getPlatformMBeanServer().registerMBean(this, on);
+			}
+		} catch (Exception ex) {
+			log.warn("Failed to register management interface for RenderCache [{}]", this.name, ex);
+		}
+	}
+	
+	/**
+	 * Returns the cached series of the passed metric if it can serve the passed window, which is when it covers the window start. 
+	 * The lookup is counted as a hit if the series is {@link #isFresh(CachedSeries, long) fresh} up to the window end, 
+	 * as a tail refresh if it is not, and as a miss if there is no such series.
+	 * @param metric The metric name
+	 * @param from The window start in unix epoch seconds
+	 * @param until The window end in unix epoch seconds
+	 * @return the cached series or null if there is none that can serve the window
+	 */
+	public CachedSeries get(final String metric, final long from, final long until) {
+		if(metric==null) return null;
+		CachedSeries cs;
+		synchronized(entries) {
+			cs = entries.get(metric);
+			if(cs!=null && cs.isExpired(ttl, System.currentTimeMillis())) {
+				entries.remove(metric);
+				points -= cs.size();
+				expirations.incrementAndGet();
+				cs = null;
+			}
+		}
+		if(cs==null || cs.getFrom() > from || cs.getUntil() < from) {
+			misses.incrementAndGet();
+			return null;
+		}
+		if(isFresh(cs, until)) hits.incrementAndGet();
+		else refreshes.incrementAndGet();
+		return cs;
+	}
+	
+	/**
+	 * Indicates if the passed cached series can serve a window ending at the passed time without fetching its tail, 
+	 * which is when the window ends before the last, re-fetched, interval of the series
+	 * @param cs The cached series
+	 * @param until The window end in unix epoch seconds
+	 * @return true if the tail does not need to be fetched
+	 */
+	public boolean isFresh(final CachedSeries cs, final long until) {
+		return until <= getRefreshFrom(cs);
+	}
+	
+	/**
+	 * Returns the start of the tail to fetch to refresh the passed cached series
+	 * @param cs The cached series
+	 * @return the tail start in unix epoch seconds
+	 */
+	public long getRefreshFrom(final CachedSeries cs) {
+		return cs.getUntil() - alignment;
+	}
+	
+	/**
+	 * Aligns the passed window start down to the alignment
+	 * @param from The window start in unix epoch seconds
+	 * @return the aligned start
+	 */
+	public long alignFrom(final long from) {
+		return from - ((from % alignment) + alignment) % alignment;
+	}
+	
+	/**
+	 * Caches the passed series, evicting the least recently used entries if the entry or point limits are exceeded.
+	 * A series with more points than the maximum is not cached, and neither is one ending before the series already cached for 
+	 * the metric, so a request for an older window does not displace the series a refreshing dashboard is advancing.
+	 * @param cs The series to cache
+	 * @return true if the series was cached
+	 */
+	public boolean put(final CachedSeries cs) {
+		if(cs.size() > maxPoints || maxEntries < 1) return false;
+		synchronized(entries) {
+			final CachedSeries prior = entries.get(cs.getMetric());
+			if(prior!=null && prior.getUntil() > cs.getUntil()) return false;
+			entries.put(cs.getMetric(), cs);
+			if(prior!=null) points -= prior.size();
+			points += cs.size();
+			if(entries.size() > maxEntries || points > maxPoints) {
+				final long now = System.currentTimeMillis();
+				for(Iterator<Map.Entry<String, CachedSeries>> iter = entries.entrySet().iterator(); iter.hasNext();) {
+					if(entries.size() <= maxEntries && points <= maxPoints) break;
+					final CachedSeries eldest = iter.next().getValue();
+					if(eldest==cs) continue;
+					iter.remove();
+					points -= eldest.size();
+					if(eldest.isExpired(ttl, now)) expirations.incrementAndGet();
+					else evictions.incrementAndGet();
+				}
+			}
+		}
+		return true;
+	}
+	
+	/**
+	 * Removes the entry for the passed metric
+	 * @param metric The metric to remove
+	 * @return the removed entry or null if there was no entry for the metric
+	 */
+	public CachedSeries invalidate(final String metric) {
+		if(metric==null) return null;
+		synchronized(entries) {
+			final CachedSeries cs = entries.remove(metric);
+			if(cs!=null) points -= cs.size();
+			return cs;
+		}
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see com.heliosapm.tsdb.grapi.cache.RenderCacheMBean#clear()
+	 */
+	@Override
+	public void clear() {
+		synchronized(entries) {
+			entries.clear();
+			points = 0L;
+		}
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 * @see com.heliosapm.tsdb.grapi.cache.RenderCacheMBean#resetCounters()
+	 */
+	@Override
+	public void resetCounters() {
+		hits.set(0L);
+		refreshes.set(0L);
+		misses.set(0L);
+		evictions.set(0L);
+		expirations.set(0L);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see com.heliosapm.tsdb.grapi.cache.RenderCacheMBean#getName()
+	 */
+	@Override
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see com.heliosapm.tsdb.grapi.cache.RenderCacheMBean#getSize()
+	 */
+	@Override
+	public int getSize() {
+		synchronized(entries) {
+			return entries.size();
+		}
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see com.heliosapm.tsdb.grapi.cache.RenderCacheMBean#getPoints()
+	 */
+	@Override
+	public long getPoints() {
+		synchronized(entries) {
+			return points;
+		}
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see com.heliosapm.tsdb.grapi.cache.RenderCacheMBean#getMaxEntries()
+	 */
+	@Override
+	public int getMaxEntries() {
+		return maxEntries;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see com.heliosapm.tsdb.grapi.cache.RenderCacheMBean#getMaxPoints()
+	 */
+	@Override
+	public long getMaxPoints() {
+		return maxPoints;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see com.heliosapm.tsdb.grapi.cache.RenderCacheMBean#getTtl()
+	 */
+	@Override
+	public long getTtl() {
+		return ttl;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see com.heliosapm.tsdb.grapi.cache.RenderCacheMBean#getAlignment()
+	 */
+	@Override
+	public int getAlignment() {
+		return alignment;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see com.heliosapm.tsdb.grapi.cache.RenderCacheMBean#getHits()
+	 */
+	@Override
+	public long getHits() {
+		return hits.get();
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see com.heliosapm.tsdb.grapi.cache.RenderCacheMBean#getRefreshes()
+	 */
+	@Override
+	public long getRefreshes() {
+		return refreshes.get();
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see com.heliosapm.tsdb.grapi.cache.RenderCacheMBean#getMisses()
+	 */
+	@Override
+	public long getMisses() {
+		return misses.get();
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see com.heliosapm.tsdb.grapi.cache.RenderCacheMBean#getEvictions()
+	 */
+	@Override
+	public long getEvictions() {
+		return evictions.get();
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see com.heliosapm.tsdb.grapi.cache.RenderCacheMBean#getExpirations()
+	 */
+	@Override
+	public long getExpirations() {
+		return expirations.get();
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see com.heliosapm.tsdb.grapi.cache.RenderCacheMBean#getHitRate()
+	 */
+	@Override
+	public int getHitRate() {
+		final long served = hits.get() + refreshes.get();
+		final long total = served + misses.get();
+		if(total==0L) return 0;
+		return (int)(served * 100 / total);
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 * @see java.lang.Object#toString()
+	 */
+	@Override
+	public String toString() {
+		return String.format("RenderCache [name:%s, size:%s, points:%s, hits:%s, refreshes:%s, misses:%s, evictions:%s]", name, getSize(), getPoints(), hits.get(), refreshes.get(), misses.get(), evictions.get());
+	}
+
+}
@@ -0,0 +1,117 @@
+/**
+Licensed to the Apache Software Foundation (ASF) under one
+or more contributor license agreements.  See the NOTICE file
+distributed with this work for additional information
+regarding copyright ownership.  The ASF licenses this file
+to you under the Apache License, Version 2.0 (the
+"License"); you may not use this file except in compliance
+with the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an
+"AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+KIND, either express or implied.  See the License for the
+specific language governing permissions and limitations
+under the License.
+ */
+package com.heliosapm.tsdb.grapi.cache;
+
+/**
+ * <p>Title: RenderCacheMBean</p>
+ * <p>Description: JMX management interface for {@link RenderCache} instances</p> 
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>com.heliosapm.tsdb.grapi.cache.RenderCacheMBean</code></p>
+ */
+
+public interface RenderCacheMBean {
+	/**
+	 * Returns the name of the cache
+	 * @return the name of the cache
+	 */
+	public String getName();
+	
+	/**
+	 * Returns the number of cached series
+	 * @return the number of cached series
+	 */
+	public int getSize();
+	
+	/**
+	 * Returns the total number of cached points
+	 * @return the total number of cached points
+	 */
+	public long getPoints();
+	
+	/**
+	 * Returns the maximum number of cached series
+	 * @return the maximum number of cached series
+	 */
+	public int getMaxEntries();
+	
+	/**
+	 * Returns the maximum total number of cached points
+	 * @return the maximum total number of cached points
+	 */
+	public long getMaxPoints();
+	
+	/**
+	 * Returns the time a series stays cached without being refreshed
+	 * @return the time to live in ms.
+	 */
+	public long getTtl();
+	
+	/**
+	 * Returns the alignment of fetched windows, which is also the length of the tail refetched on each refresh
+	 * @return the alignment in seconds
+	 */
+	public int getAlignment();
+	
+	/**
+	 * Returns the cumulative number of requests served entirely from the cache
+	 * @return the cumulative number of hits
+	 */
+	public long getHits();
+	
+	/**
+	 * Returns the cumulative number of requests served from the cache after fetching only the tail
+	 * @return the cumulative number of tail refreshes
+	 */
+	public long getRefreshes();
+	
+	/**
+	 * Returns the cumulative number of requests that had to fetch the whole window
+	 * @return the cumulative number of misses
+	 */
+	public long getMisses();
+	
+	/**
+	 * Returns the cumulative number of evictions
+	 * @return the cumulative number of evictions
+	 */
+	public long getEvictions();
+	
+	/**
+	 * Returns the cumulative number of expirations
+	 * @return the cumulative number of expirations
+	 */
+	public long getExpirations();
+	
+	/**
+	 * Returns the percentage of requests served without fetching the whole window
+	 * @return the hit and refresh rate percentage
+	 */
+	public int getHitRate();
+	
+	/**
+	 * Discards all entries
+	 */
+	public void clear();
+	
+	/**
+	 * Resets the counters
+	 */
+	public void resetCounters();
+}
@@ -0,0 +1,320 @@
+/**
+Licensed to the Apache Software Foundation (ASF) under one
+or more contributor license agreements.  See the NOTICE file
+distributed with this work for additional information
+regarding copyright ownership.  The ASF licenses this file
+to you under the Apache License, Version 2.0 (the
+"License"); you may not use this file except in compliance
+with the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an
+"AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+KIND, either express or implied.  See the License for the
+specific language governing permissions and limitations
+under the License.
+ */
+package com.heliosapm.tsdb.grapi.cache;
+
+import java.lang.management.ManagementFactory;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.management.ObjectName;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.heliosapm.utils.jmx.JMXHelper;
+
+/**
+ * <p>Title: ResponseCache</p>
+ * <p>Description: A bounded response cache with a TTL and LRU eviction, limited on both the number of
+ * entries and the total number of cached bytes.</p> 
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>com.heliosapm.tsdb.grapi.cache.ResponseCache</code></p>
+ */
+
+public class ResponseCache implements ResponseCacheMBean {
+	/** Instance logger */
+	protected final Logger log = LoggerFactory.getLogger(getClass());
+	/** The cache name */
+	protected final String name;
+	/** The maximum number of entries */
+	protected final int maxEntries;
+	/** The maximum total number of bytes */
+	protected final long maxBytes;
+	/** The entry time to live in ms. */
+	protected final long ttl;
+	/** The access ordered entries. All access is guarded by this map's monitor */
+	private final LinkedHashMap<String, CachedResponse> entries = new LinkedHashMap<String, CachedResponse>(128, 0.75f, true);
+	/** The total number of bytes currently cached. Guarded by the entries monitor */
+	private long bytes = 0L;
+	
+	/** The hit counter */
+	protected final AtomicLong hits = new AtomicLong(0L);
+	/** The miss counter */
+	protected final AtomicLong misses = new AtomicLong(0L);
+	/** The eviction counter */
+	protected final AtomicLong evictions = new AtomicLong(0L);
+	/** The expiration counter */
+	protected final AtomicLong expirations = new AtomicLong(0L);
+	
+	/** The JMX ObjectName template for response caches */
+	public static final String OBJECT_NAME_TEMPLATE = "com.heliosapm.tsdb.grapi:service=ResponseCache,name=%s";
+	
+	/**
+	 * Creates a new ResponseCache and registers its management interface
+	 * @param name The cache name
+	 * @param maxEntries The maximum number of entries
+	 * @param maxBytes The maximum total number of cached bytes
+	 * @param ttl The entry time to live in ms.
+	 */
+	public ResponseCache(final String name, final int maxEntries, final long maxBytes, final long ttl) {
+		if(name==null || name.trim().isEmpty()) throw new IllegalArgumentException("The passed name was null or empty");
+		this.name = name.trim();
+		this.maxEntries = maxEntries;
+		this.maxBytes = maxBytes;
+		this.ttl = ttl;
+		final ObjectName on = JMXHelper.objectName(String.format(OBJECT_NAME_TEMPLATE, ObjectName.quote(this.name)));
+		try {
+			if(!ManagementFactory.getPlatformMBeanServer().isRegistered(on)) {
+				ManagementFactory.getPlatformMBeanServer().registerMBean(this, on);
+			}
+		} catch (Exception ex) {
+			log.warn("Failed to register management interface for ResponseCache [{}]", this.name, ex);
+		}
+	}
+	
+	/**
+	 * Returns the cached response for the passed key.
+	 * Expired entries are discarded and reported as a miss.
+	 * @param key The cache key
+	 * @return the cached response or null if there was no live entry
+	 */
+	public CachedResponse get(final String key) {
+		if(key==null) return null;
+		synchronized(entries) {
+			final CachedResponse cr = entries.get(key);
+			if(cr==null) {
+				misses.incrementAndGet();
+				return null;
+			}
+			if(cr.isExpired(ttl, System.currentTimeMillis())) {
+				entries.remove(key);
+				bytes -= cr.footprint();
+				expirations.incrementAndGet();
+				misses.incrementAndGet();
+				return null;
+			}
+			hits.incrementAndGet();
+			return cr;
+		}
+	}
+	
+	/**
+	 * Caches the passed content, evicting the least recently used entries if the entry or byte limits are exceeded.
+	 * Content larger than the maximum number of bytes is not cached, and replaces any entry already cached for the key, which is removed.
+	 * @param key The cache key
+	 * @param content The content to cache. Not copied, so the caller must not modify it afterwards.
+	 * @return the new cached response
+	 */
+	public CachedResponse put(final String key, final byte[] content) {
+		return put(key, content, null);
+	}
+	
+	/**
+	 * Caches the passed content along with its gzip compressed form, which counts towards the byte limit as well
+	 * @param key The cache key
+	 * @param content The content to cache. Not copied, so the caller must not modify it afterwards.
+	 * @param gzipped The content compressed with gzip, or null. Not copied either.
+	 * @return the new cached response
+	 * @see #put(String, byte[])
+	 */
+	public CachedResponse put(final String key, final byte[] content, final byte[] gzipped) {
+		if(key==null) throw new IllegalArgumentException("The passed key was null");
+		final CachedResponse cr = new CachedResponse(content, gzipped);
+		if(cr.footprint() > maxBytes || maxEntries < 1) {
+			// the cached entry is stale once newer content exists, even if the newer content can not be cached
+			invalidate(key);
+			return cr;
+		}
+		synchronized(entries) {
+			final CachedResponse prior = entries.put(key, cr);
+			if(prior!=null) bytes -= prior.footprint();
+			bytes += cr.footprint();
+			if(entries.size() > maxEntries || bytes > maxBytes) {
+				final long now = System.currentTimeMillis();
+				for(Iterator<Map.Entry<String, CachedResponse>> iter = entries.entrySet().iterator(); iter.hasNext();) {
+					if(entries.size() <= maxEntries && bytes <= maxBytes) break;
+					final CachedResponse eldest = iter.next().getValue();
+					if(eldest==cr) continue;
+					iter.remove();
+					bytes -= eldest.footprint();
+					if(eldest.isExpired(ttl, now)) expirations.incrementAndGet();
+					else evictions.incrementAndGet();
+				}
+			}
+		}
+		return cr;
+	}
+	
+	/**
+	 * Removes the entry for the passed key
+	 * @param key The key to remove
+	 * @return the removed entry or null if there was no entry for the key
+	 */
+	public CachedResponse invalidate(final String key) {
+		if(key==null) return null;
+		synchronized(entries) {
+			final CachedResponse cr = entries.remove(key);
+			if(cr!=null) bytes -= cr.footprint();
+			return cr;
+		}
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see com.heliosapm.tsdb.grapi.cache.ResponseCacheMBean#clear()
+	 */
+	@Override
+	public void clear() {
+		synchronized(entries) {
+			entries.clear();
+			bytes = 0L;
+		}
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 * @see com.heliosapm.tsdb.grapi.cache.ResponseCacheMBean#resetCounters()
+	 */
+	@Override
+	public void resetCounters() {
+		hits.set(0L);
+		misses.set(0L);
+		evictions.set(0L);
+		expirations.set(0L);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see com.heliosapm.tsdb.grapi.cache.ResponseCacheMBean#getName()
+	 */
+	@Override
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see com.heliosapm.tsdb.grapi.cache.ResponseCacheMBean#getSize()
+	 */
+	@Override
+	public int getSize() {
+		synchronized(entries) {
+			return entries.size();
+		}
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see com.heliosapm.tsdb.grapi.cache.ResponseCacheMBean#getBytes()
+	 */
+	@Override
+	public long getBytes() {
+		synchronized(entries) {
+			return bytes;
+		}
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see com.heliosapm.tsdb.grapi.cache.ResponseCacheMBean#getMaxEntries()
+	 */
+	@Override
+	public int getMaxEntries() {
+		return maxEntries;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see com.heliosapm.tsdb.grapi.cache.ResponseCacheMBean#getMaxBytes()
+	 */
+	@Override
+	public long getMaxBytes() {
+		return maxBytes;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see com.heliosapm.tsdb.grapi.cache.ResponseCacheMBean#getTtl()
+	 */
+	@Override
+	public long getTtl() {
+		return ttl;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see com.heliosapm.tsdb.grapi.cache.ResponseCacheMBean#getHits()
+	 */
+	@Override
+	public long getHits() {
+		return hits.get();
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see com.heliosapm.tsdb.grapi.cache.ResponseCacheMBean#getMisses()
+	 */
+	@Override
+	public long getMisses() {
+		return misses.get();
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see com.heliosapm.tsdb.grapi.cache.ResponseCacheMBean#getEvictions()
+	 */
+	@Override
+	public long getEvictions() {
+		return evictions.get();
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see com.heliosapm.tsdb.grapi.cache.ResponseCacheMBean#getExpirations()
+	 */
+	@Override
+	public long getExpirations() {
+		return expirations.get();
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see com.heliosapm.tsdb.grapi.cache.ResponseCacheMBean#getHitRate()
+	 */
+	@Override
+	public int getHitRate() {
+		final long h = hits.get();
+		final long total = h + misses.get();
+		if(total==0L) return 0;
+		return (int)(h * 100 / total);
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 * @see java.lang.Object#toString()
+	 */
+	@Override
+	public String toString() {
+		return String.format("ResponseCache [name:%s, size:%s, bytes:%s, hits:%s, misses:%s, evictions:%s]", name, getSize(), getBytes(), hits.get(), misses.get(), evictions.get());
+	}
+
+}
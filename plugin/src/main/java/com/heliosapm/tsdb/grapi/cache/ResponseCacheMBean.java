@@ -0,0 +1,105 @@
+/**
+Licensed to the Apache Software Foundation (ASF) under one
+or more contributor license agreements.  See the NOTICE file
+distributed with this work for additional information
+regarding copyright ownership.  The ASF licenses this file
+to you under the Apache License, Version 2.0 (the
+"License"); you may not use this file except in compliance
+with the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an
+"AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+KIND, either express or implied.  See the License for the
+specific language governing permissions and limitations
+under the License.
+ */
+package com.heliosapm.tsdb.grapi.cache;
+
+/**
+ * <p>Title: ResponseCacheMBean</p>
+ * <p>Description: JMX management interface for {@link ResponseCache} instances</p> 
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>com.heliosapm.tsdb.grapi.cache.ResponseCacheMBean</code></p>
+ */
+
+public interface ResponseCacheMBean {
+	/**
+	 * Returns the name of the cache
+	 * @return the name of the cache
+	 */
+	public String getName();
+	
+	/**
+	 * Returns the number of entries in the cache
+	 * @return the number of entries in the cache
+	 */
+	public int getSize();
+	
+	/**
+	 * Returns the total number of bytes held by the cache
+	 * @return the total number of bytes held by the cache
+	 */
+	public long getBytes();
+	
+	/**
+	 * Returns the maximum number of entries
+	 * @return the maximum number of entries
+	 */
+	public int getMaxEntries();
+	
+	/**
+	 * Returns the maximum total number of bytes
+	 * @return the maximum total number of bytes
+	 */
+	public long getMaxBytes();
+	
+	/**
+	 * Returns the time to live of cached entries in ms.
+	 * @return the time to live of cached entries in ms.
+	 */
+	public long getTtl();
+	
+	/**
+	 * Returns the cumulative number of cache hits
+	 * @return the cumulative number of cache hits
+	 */
+	public long getHits();
+	
+	/**
+	 * Returns the cumulative number of cache misses
+	 * @return the cumulative number of cache misses
+	 */
+	public long getMisses();
+	
+	/**
+	 * Returns the cumulative number of entries evicted to stay within the entry and byte limits
+	 * @return the cumulative number of evictions
+	 */
+	public long getEvictions();
+	
+	/**
+	 * Returns the cumulative number of entries discarded because their TTL expired
+	 * @return the cumulative number of expirations
+	 */
+	public long getExpirations();
+	
+	/**
+	 * Returns the hit rate as a percentage of all lookups
+	 * @return the hit rate percentage
+	 */
+	public int getHitRate();
+	
+	/**
+	 * Discards all cached entries
+	 */
+	public void clear();
+	
+	/**
+	 * Resets the hit, miss, eviction and expiration counters
+	 */
+	public void resetCounters();
+}
@@ -21,14 +21,20 @@ package com.heliosapm.tsdb.grapi.client.http;
 import java.io.OutputStream;
 import java.net.URL;
 import java.nio.ByteBuffer;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.atomic.AtomicBoolean;
-import java.util.concurrent.atomic.AtomicReference;
 
 import org.jboss.netty.buffer.ChannelBuffer;
 import org.jboss.netty.buffer.ChannelBufferOutputStream;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.heliosapm.tsdb.grapi.netty.ReleasableChannelBuffer;
+import com.heliosapm.tsdb.grapi.stats.PipelineStage;
 
 /**
  * <p>Title: DefaultAsyncResponse</p>
@@ -39,7 +45,9 @@ import org.jboss.netty.buffer.ChannelBufferOutputStream;
  */
 
 public class DefaultAsyncResponse implements AsyncResponse, Runnable {
-	/** The response buffer, set by the http clientwhen the request is initiated */
+	/** Static class logger */
+	private static final Logger LOG = LoggerFactory.getLogger(DefaultAsyncResponse.class);
+	/** The response buffer, set by the http clientwhen the request is initiated and released once the handlers have run */
 	protected final ChannelBuffer buffer;
 
 	/** The response headers */
@@ -52,12 +60,16 @@ public class DefaultAsyncResponse implements AsyncResponse, Runnable {
 	protected Throwable requestError = null;
 	/** The original request URL */
 	protected URL requestURL = null;
-	/** The response handler */
-	protected final AtomicReference<AsyncResponseHandler> handler = new AtomicReference<AsyncResponseHandler>(null);
+	/** The response handlers, guarded by the list's monitor */
+	protected final List<AsyncResponseHandler> handlers = new ArrayList<AsyncResponseHandler>(2);
+	/** Indicates if the handlers have been dispatched, guarded by the handler list's monitor */
+	protected boolean dispatched = false;
 	/** The compoletion flag */
 	protected final AtomicBoolean complete = new AtomicBoolean(false);
 	/** The response handler invocation executor */
 	protected final ExecutorService executor; 
+	/** The {@link System#nanoTime()} at which the completed response was queued to the executor */
+	protected long queuedAt = 0L;
 	
 	/**
 	 * Creates a new DefaultAsyncResponse
@@ -71,20 +83,35 @@ public class DefaultAsyncResponse implements AsyncResponse, Runnable {
 	
 	
 	/**
-	 * Sets the response handler
+	 * Adds a response handler. Handlers must be added before the response is dispatched, 
+	 * since the response content is released once the handlers have been invoked.
 	 * @param handler The handler that will execute the response
 	 * @return this response
+	 * @throws IllegalStateException thrown if the handlers have already been dispatched
 	 */
 	public DefaultAsyncResponse handler(final AsyncResponseHandler handler) {
 		if(handler!=null) {
-			if(this.handler.compareAndSet(null, handler)) {
-				if(complete.get()) {
-					handler.onResponse(this);
-				}
+			if(!addHandler(handler)) {
+				throw new IllegalStateException("The response has already been dispatched to its handlers");
 			}
 		}		
 		return this;
 	}
+	
+	/**
+	 * Adds a response handler if the handlers have not been dispatched yet.
+	 * Used to attach additional callers to a request that is already in flight.
+	 * @param handler The handler to add
+	 * @return true if the handler was added and will be invoked when the response completes,
+	 * false if the handlers have already been dispatched
+	 */
+	boolean addHandler(final AsyncResponseHandler handler) {
+		synchronized(handlers) {
+			if(dispatched) return false;
+			if(handler!=null) handlers.add(handler);
+			return true;
+		}
+	}
 
 	/**
 	 * {@inheritDoc}
@@ -95,6 +122,8 @@ public class DefaultAsyncResponse implements AsyncResponse, Runnable {
 		if(complete.compareAndSet(false, true)) {
 			requestURL = url;
 			requestError = t;
+			queuedAt = System.nanoTime();
+			executor.execute(this);
 		}
 	}
 	
@@ -140,7 +169,23 @@ public class DefaultAsyncResponse implements AsyncResponse, Runnable {
 	 */
 	@Override
 	public void run() {
-		handler.get().onResponse(this);		
+		PipelineStage.CLIENT_QUEUE.recordSince(queuedAt);
+		final AsyncResponseHandler[] toInvoke;
+		synchronized(handlers) {
+			dispatched = true;
+			toInvoke = handlers.toArray(new AsyncResponseHandler[handlers.size()]);
+			handlers.clear();
+		}
+		for(AsyncResponseHandler h: toInvoke) {
+			try {
+				h.onResponse(this);
+			} catch (Exception ex) {
+				LOG.error("Response handler [{}] failed", h, ex);
+			}
+		}
+		if(buffer instanceof ReleasableChannelBuffer) {
+			((ReleasableChannelBuffer)buffer).release();
+		}
 	}
 
 	/**
@@ -150,14 +195,46 @@ public class DefaultAsyncResponse implements AsyncResponse, Runnable {
 	@Override
 	public void onComplete() {
 		if(complete.compareAndSet(false, true)) {
-			if(handler.get()!=null) {
-				executor.execute(this);				
-			}			
+			queuedAt = System.nanoTime();
+			executor.execute(this);				
 		}
 	}
 	
 	/**
-	 * Returns the response buffer
+	 * Returns the HTTP response code
+	 * @return the HTTP response code, or zero if no status was received
+	 */
+	public int getResponseCode() {
+		return responseCode;
+	}
+	
+	/**
+	 * Returns the request exception
+	 * @return the request exception, or null if the request did not fail
+	 */
+	public Throwable getRequestError() {
+		return requestError;
+	}
+	
+	/**
+	 * Returns the URL of the failed request
+	 * @return the URL of the failed request, or null if the request did not fail
+	 */
+	public URL getRequestURL() {
+		return requestURL;
+	}
+	
+	/**
+	 * Indicates if the request completed without error and with a 2XX response code
+	 * @return true if the request succeeded, false otherwise
+	 */
+	public boolean isSuccess() {
+		return requestError==null && responseCode >= 200 && responseCode <= 299;
+	}
+	
+	/**
+	 * Returns the response buffer. The buffer is released once the response handlers have run,
+	 * so it must only be read within {@link AsyncResponseHandler#onResponse(DefaultAsyncResponse)}.
 	 * @return the buffer
 	 */
 	public ChannelBuffer getBuffer() {
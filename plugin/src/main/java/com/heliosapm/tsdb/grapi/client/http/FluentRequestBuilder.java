@@ -40,6 +40,8 @@ public class FluentRequestBuilder extends RequestBuilder {
 	protected final HttpClient client;
 	/** The response handler */
 	protected AsyncResponseHandler responseHandler = null;
+	/** Indicates if the request may share an identical in-flight request */
+	protected boolean coalesce = true;
 	
 
 	/**
@@ -76,7 +78,7 @@ public class FluentRequestBuilder extends RequestBuilder {
 	 * @return the async response
 	 */
 	public DefaultAsyncResponse execute() {
-		return client.execRequest(this.build(), responseHandler);
+		return client.execRequest(this.build(), responseHandler, coalesce);
 	}
 	
 	/**
@@ -86,7 +88,7 @@ public class FluentRequestBuilder extends RequestBuilder {
 	 */
 	public DefaultAsyncResponse execute(final AsyncResponseHandler responseHandler) {
 		this.responseHandler = responseHandler;
-		return client.execRequest(this.build(), responseHandler);
+		return client.execRequest(this.build(), responseHandler, coalesce);
 	}
 	
 	/**
@@ -99,6 +101,17 @@ public class FluentRequestBuilder extends RequestBuilder {
 		return this;
 	}
 	
+	/**
+	 * Specifies if the request may share the response of an identical request that is already in flight.
+	 * Only GET requests are ever coalesced. The default is true.
+	 * @param coalesce true to allow coalescing, false to always issue a new upstream request
+	 * @return this builder
+	 */
+	public FluentRequestBuilder coalesce(final boolean coalesce) {
+		this.coalesce = coalesce;
+		return this;
+	}
+	
 	/**
 	 * {@inheritDoc}
 	 * @see com.ning.http.client.RequestBuilder#setUrl(java.lang.String)
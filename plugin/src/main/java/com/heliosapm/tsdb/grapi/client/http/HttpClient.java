@@ -23,11 +23,14 @@ package com.heliosapm.tsdb.grapi.client.http;
 
 import java.io.IOException;
 import java.net.URL;
+import java.nio.ByteOrder;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 
 import javax.management.ObjectName;
 
@@ -35,7 +38,12 @@ import org.jboss.netty.buffer.DirectChannelBufferFactory;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import com.heliosapm.tsdb.grapi.netty.DynamicByteBufferBackedChannelBufferFactory;
+import com.heliosapm.tsdb.grapi.netty.DirectBufferPool;
+import com.heliosapm.tsdb.grapi.netty.DirectMemoryBudget;
+import com.heliosapm.tsdb.grapi.netty.SegmentedChannelBuffer;
+import com.heliosapm.tsdb.grapi.netty.SegmentedChannelBufferFactory;
+import com.heliosapm.tsdb.grapi.stats.PipelineStage;
+import com.heliosapm.utils.config.ConfigurationHelper;
 import com.heliosapm.utils.jmx.JMXHelper;
 import com.heliosapm.utils.jmx.JMXManagedThreadPool;
 import com.heliosapm.utils.url.URLHelper;
@@ -49,6 +57,11 @@ import com.ning.http.client.HttpResponseStatus;
 import com.ning.http.client.Request;
 import com.ning.http.client.providers.netty.NettyAsyncHttpProviderConfig;
 
+import static com.heliosapm.tsdb.grapi.server.http.Constants.DEFAULT_BUFFER_BUDGET_CLIENT;
+import static com.heliosapm.tsdb.grapi.server.http.Constants.DEFAULT_BUFFER_SEGMENT_SIZE;
+import static com.heliosapm.tsdb.grapi.server.http.Constants.PROPERTY_BUFFER_BUDGET_CLIENT;
+import static com.heliosapm.tsdb.grapi.server.http.Constants.PROPERTY_BUFFER_SEGMENT_SIZE;
+
 /**
  * <p>Title: HttpClient</p>
  * <p>Description: A basic async HTTP client</p> 
@@ -73,8 +86,13 @@ public class HttpClient {
 	/** Instance logger */
 	protected final Logger log = LoggerFactory.getLogger(getClass());
 	
-	/** The buffer factory for handling async responses */
-	protected DynamicByteBufferBackedChannelBufferFactory bufferFactory = new DynamicByteBufferBackedChannelBufferFactory(1024, .5f);
+	/** The buffer factory for handling async responses. Response buffers grow by segments without copying and are released once their handlers have run. */
+	protected SegmentedChannelBufferFactory bufferFactory = new SegmentedChannelBufferFactory(ConfigurationHelper.getIntSystemThenEnvProperty(PROPERTY_BUFFER_SEGMENT_SIZE, DEFAULT_BUFFER_SEGMENT_SIZE), ByteOrder.BIG_ENDIAN, DirectBufferPool.getInstance(), 
+			DirectMemoryBudget.getGlobal().newChild("HttpClient", ConfigurationHelper.getLongSystemThenEnvProperty(PROPERTY_BUFFER_BUDGET_CLIENT, DEFAULT_BUFFER_BUDGET_CLIENT)));
+	/** The in-flight coalescable requests keyed by URL */
+	protected final ConcurrentHashMap<String, DefaultAsyncResponse> inFlight = new ConcurrentHashMap<String, DefaultAsyncResponse>();
+	/** A counter of requests that were served by sharing an in-flight request */
+	protected final AtomicLong coalescedRequests = new AtomicLong(0L);
 	
 	/** The ObjectName of the Async HTTP Client thread pool */
 	public static final ObjectName THREADPOOL_OBJECTNAME = JMXHelper.objectName("com.heliosapm.tsdb.grapi:service=AsyncHttpClientThreadPool");
@@ -157,14 +175,85 @@ public class HttpClient {
 	
 	
 	/**
-	 * Executes the request 
+	 * Returns the cumulative number of requests that were served by sharing an identical in-flight request
+	 * @return the number of coalesced requests
+	 */
+	public long getCoalescedRequests() {
+		return coalescedRequests.get();
+	}
+	
+	/**
+	 * Returns the number of distinct coalescable requests currently in flight
+	 * @return the number of in-flight requests
+	 */
+	public int getInFlightRequests() {
+		return inFlight.size();
+	}
+	
+	/**
+	 * Executes the request, sharing the response of an identical in-flight GET request if there is one
 	 * @param request the request to execute
 	 * @param handler the async handler
 	 * @return the async response
 	 */
 	public DefaultAsyncResponse execRequest(final Request request, final AsyncResponseHandler handler) {
-		final DefaultAsyncResponse dar = new DefaultAsyncResponse(bufferFactory.getBuffer(), threadPool).handler(handler);
+		return execRequest(request, handler, true);
+	}
+	
+	/**
+	 * Executes the request.
+	 * When coalescing is enabled, concurrent GET requests for the same URL share one upstream request 
+	 * and one {@link DefaultAsyncResponse}, and every caller's handler is invoked with the shared response. 
+	 * @param request the request to execute
+	 * @param handler the async handler
+	 * @param coalesce true to share an identical in-flight GET request, false to always issue a new one
+	 * @return the async response
+	 */
+	public DefaultAsyncResponse execRequest(final Request request, final AsyncResponseHandler handler, final boolean coalesce) {
+		if(!coalesce || !"GET".equalsIgnoreCase(request.getMethod())) {
+			return dispatch(request, new DefaultAsyncResponse(bufferFactory.getBuffer(), threadPool).handler(handler));
+		}
+		final String key = request.getUrl();
+		while(true) {
+			final DefaultAsyncResponse existing = inFlight.get(key);
+			if(existing!=null) {
+				if(existing.addHandler(handler)) {
+					coalescedRequests.incrementAndGet();
+					log.debug("Coalesced request for [{}]", key);
+					return existing;
+				}
+				// already dispatched, so it cannot be joined
+				inFlight.remove(key, existing);
+				continue;
+			}
+			final SegmentedChannelBuffer buffer = bufferFactory.getBuffer();
+			final DefaultAsyncResponse dar = new DefaultAsyncResponse(buffer, threadPool);
+			if(inFlight.putIfAbsent(key, dar)!=null) {
+				buffer.release();
+				continue;
+			}
+			// the first handler retires the in-flight entry before any caller is called back
+			dar.handler(new AsyncResponseHandler() {
+				@Override
+				public void onResponse(final DefaultAsyncResponse response) {
+					inFlight.remove(key, response);
+				}
+			});
+			dar.handler(handler);
+			return dispatch(request, dar);
+		}
+	}
+	
+	/**
+	 * Issues the request to the upstream server, recording the time to the response status and to the completed response
+	 * with the {@link PipelineStage#UPSTREAM_FIRST_BYTE} and {@link PipelineStage#UPSTREAM_COMPLETE} pipeline stages
+	 * @param request the request to execute
+	 * @param dar the async response the result will be delivered to
+	 * @return the async response
+	 */
+	protected DefaultAsyncResponse dispatch(final Request request, final DefaultAsyncResponse dar) {
 		final URL requestURL = URLHelper.toURL(request.getUrl());
+		final long start = System.nanoTime();
 		try {
 			httpClient.executeRequest(request, new AsyncHandler<Void>(){
 
@@ -184,6 +273,7 @@ public class HttpClient {
 
 				@Override
 				public STATE onStatusReceived(final HttpResponseStatus responseStatus) throws Exception {
+					PipelineStage.UPSTREAM_FIRST_BYTE.recordSince(start);
 					final int code = responseStatus.getStatusCode();
 					final String text = responseStatus.getStatusText();
 					dar.onStatus(code, text);
@@ -206,6 +296,7 @@ public class HttpClient {
 
 				@Override
 				public Void onCompleted() throws Exception {
+					PipelineStage.UPSTREAM_COMPLETE.recordSince(start);
 					dar.onComplete();
 					return null;
 				}
@@ -0,0 +1,145 @@
+/**
+Licensed to the Apache Software Foundation (ASF) under one
+or more contributor license agreements.  See the NOTICE file
+distributed with this work for additional information
+regarding copyright ownership.  The ASF licenses this file
+to you under the Apache License, Version 2.0 (the
+"License"); you may not use this file except in compliance
+with the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an
+"AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+KIND, either express or implied.  See the License for the
+specific language governing permissions and limitations
+under the License.
+ */
+package com.heliosapm.tsdb.grapi.functions;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import com.heliosapm.tsdb.grapi.render.Series;
+
+/**
+ * <p>Title: AbstractGraphiteFunction</p>
+ * <p>Description: Base class for {@link GraphiteFunction}s, with typed access to the evaluated arguments</p> 
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>com.heliosapm.tsdb.grapi.functions.AbstractGraphiteFunction</code></p>
+ */
+
+public abstract class AbstractGraphiteFunction implements GraphiteFunction {
+	/** The function name */
+	protected final String name;
+	
+	/**
+	 * Creates a new AbstractGraphiteFunction
+	 * @param name The function name
+	 */
+	protected AbstractGraphiteFunction(final String name) {
+		this.name = name;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see com.heliosapm.tsdb.grapi.functions.GraphiteFunction#getName()
+	 */
+	@Override
+	public String getName() {
+		return name;
+	}
+	
+	/**
+	 * Returns the series list argument at the passed index
+	 * @param call The call being evaluated
+	 * @param args The evaluated arguments
+	 * @param index The argument index
+	 * @return the series list
+	 * @throws IllegalArgumentException thrown if the argument is missing or is not a series list
+	 */
+	@SuppressWarnings("unchecked")
+	protected static List<Series> seriesArg(final Target.Call call, final Object[] args, final int index) {
+		if(index >= args.length || !(args[index] instanceof List)) throw badArg(call, index, "a series list");
+		return (List<Series>)args[index];
+	}
+	
+	/**
+	 * Returns the series of all the arguments from the passed index on, which must all be series lists, as one list
+	 * @param call The call being evaluated
+	 * @param args The evaluated arguments
+	 * @param from The index of the first series argument
+	 * @return the series, possibly empty
+	 * @throws IllegalArgumentException thrown if an argument is not a series list
+	 */
+	protected static List<Series> seriesArgs(final Target.Call call, final Object[] args, final int from) {
+		if(args.length - from==1) return seriesArg(call, args, from);
+		final List<Series> all = new ArrayList<Series>();
+		for(int i = from; i < args.length; i++) {
+			all.addAll(seriesArg(call, args, i));
+		}
+		return all;
+	}
+	
+	/**
+	 * Returns the number argument at the passed index
+	 * @param call The call being evaluated
+	 * @param args The evaluated arguments
+	 * @param index The argument index
+	 * @return the number
+	 * @throws IllegalArgumentException thrown if the argument is missing or is not a number
+	 */
+	protected static double numberArg(final Target.Call call, final Object[] args, final int index) {
+		if(index >= args.length || !(args[index] instanceof Double)) throw badArg(call, index, "a number");
+		return (Double)args[index];
+	}
+	
+	/**
+	 * Returns the optional number argument at the passed index
+	 * @param call The call being evaluated
+	 * @param args The evaluated arguments
+	 * @param index The argument index
+	 * @param defaultValue The value to return if the argument is not present
+	 * @return the number
+	 * @throws IllegalArgumentException thrown if the argument is present and is not a number
+	 */
+	protected static double numberArg(final Target.Call call, final Object[] args, final int index, final double defaultValue) {
+		if(index >= args.length) return defaultValue;
+		return numberArg(call, args, index);
+	}
+	
+	/**
+	 * Returns the string argument at the passed index
+	 * @param call The call being evaluated
+	 * @param args The evaluated arguments
+	 * @param index The argument index
+	 * @return the string
+	 * @throws IllegalArgumentException thrown if the argument is missing or is not a string
+	 */
+	protected static String stringArg(final Target.Call call, final Object[] args, final int index) {
+		if(index >= args.length || !(args[index] instanceof String)) throw badArg(call, index, "a string");
+		return (String)args[index];
+	}
+	
+	/**
+	 * Creates the exception reporting an invalid argument
+	 * @param call The call being evaluated
+	 * @param index The argument index
+	 * @param expected A description of the expected argument
+	 * @return the exception
+	 */
+	protected static IllegalArgumentException badArg(final Target.Call call, final int index, final String expected) {
+		return new IllegalArgumentException("Argument " + (index+1) + " of [" + call + "] must be " + expected);
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 * @see java.lang.Object#toString()
+	 */
+	@Override
+	public String toString() {
+		return getClass().getSimpleName() + " [" + name + "]";
+	}
+}
@@ -0,0 +1,716 @@
+/**
+Licensed to the Apache Software Foundation (ASF) under one
+or more contributor license agreements.  See the NOTICE file
+distributed with this work for additional information
+regarding copyright ownership.  The ASF licenses this file
+to you under the Apache License, Version 2.0 (the
+"License"); you may not use this file except in compliance
+with the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an
+"AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+KIND, either express or implied.  See the License for the
+specific language governing permissions and limitations
+under the License.
+ */
+package com.heliosapm.tsdb.grapi.functions;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import com.heliosapm.tsdb.grapi.render.Consolidation;
+import com.heliosapm.tsdb.grapi.render.Series;
+
+/**
+ * <p>Title: BuiltinFunctions</p>
+ * <p>Description: The core Graphite render functions, contributed by the render adapter. 
+ * The combining functions such as <b><code>sumSeries</code></b> reduce all their series into one, and split the grid into time chunks 
+ * combined in parallel. The transforming functions such as <b><code>scale</code></b> produce one series per input series, and transform 
+ * the series in parallel. As in Graphite, missing values are skipped by the combining functions, except <b><code>multiplySeries</code></b>, 
+ * and produce missing values in the transforming functions.</p> 
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>com.heliosapm.tsdb.grapi.functions.BuiltinFunctions</code></p>
+ */
+
+public class BuiltinFunctions {
+	
+	/**
+	 * Creates a new instance of each builtin function, including the Graphite short aliases <b><code>sum</code></b> and <b><code>avg</code></b>
+	 * @return the builtin functions
+	 */
+	public static GraphiteFunction[] all() {
+		return new GraphiteFunction[] {
+			new SumSeries("sumSeries"), new SumSeries("sum"), 
+			new AverageSeries("averageSeries"), new AverageSeries("avg"),
+			new MinSeries(), new MaxSeries(), new DiffSeries(), new MultiplySeries(),
+			new Scale(), new Offset(), new Absolute(), 
+			new Derivative(), new NonNegativeDerivative(), new PerSecond(), new Integral(), 
+			new Alias(), new ConsolidateBy()
+		};
+	}
+	
+	private BuiltinFunctions() {}
+	
+	/**
+	 * <p>Title: Combiner</p>
+	 * <p>Description: Base class for functions combining all their series argument into one series named after the call</p> 
+	 * <p>Company: Helios Development Group LLC</p>
+	 * @author Whitehead (nwhitehead AT heliosdev DOT org)
+	 * <p><code>com.heliosapm.tsdb.grapi.functions.BuiltinFunctions.Combiner</code></p>
+	 */
+	public abstract static class Combiner extends AbstractGraphiteFunction {
+		
+		/**
+		 * Creates a new Combiner
+		 * @param name The function name
+		 */
+		protected Combiner(final String name) {
+			super(name);
+		}
+
+		/**
+		 * {@inheritDoc}
+		 * @see com.heliosapm.tsdb.grapi.functions.GraphiteFunction#evaluate(com.heliosapm.tsdb.grapi.functions.EvaluationContext, com.heliosapm.tsdb.grapi.functions.Target.Call, java.lang.Object[])
+		 */
+		@Override
+		public List<Series> evaluate(final EvaluationContext ctx, final Target.Call call, final Object[] args) {
+			if(args.length==0) throw badArg(call, 0, "a series list");
+			final List<Series> series = seriesArgs(call, args, 0);
+			if(series.isEmpty()) return Collections.emptyList();
+			final double[][] in = new double[series.size()][];
+			for(int i = 0; i < in.length; i++) {
+				in[i] = series.get(i).getValues();
+			}
+			final double[] out = new double[ctx.getCount()];
+			ctx.forEachChunk(new EvaluationContext.ChunkOp() {
+				@Override
+				public void apply(final int lo, final int hi) {
+					combine(in, out, lo, hi);
+				}
+			});
+			return Collections.singletonList(ctx.newSeries(call.toString(), out));
+		}
+		
+		/**
+		 * Combines a range of grid slots of the input series
+		 * @param in The values of the input series, all of the grid length
+		 * @param out The combined values to write
+		 * @param lo The first slot, inclusive
+		 * @param hi The last slot, exclusive
+		 */
+		protected abstract void combine(double[][] in, double[] out, int lo, int hi);
+	}
+	
+	/**
+	 * <p>Title: Transform</p>
+	 * <p>Description: Base class for functions transforming each series of their first argument independently, 
+	 * with optional number arguments following it</p> 
+	 * <p>Company: Helios Development Group LLC</p>
+	 * @author Whitehead (nwhitehead AT heliosdev DOT org)
+	 * <p><code>com.heliosapm.tsdb.grapi.functions.BuiltinFunctions.Transform</code></p>
+	 */
+	public abstract static class Transform extends AbstractGraphiteFunction {
+		
+		/**
+		 * Creates a new Transform
+		 * @param name The function name
+		 */
+		protected Transform(final String name) {
+			super(name);
+		}
+
+		/**
+		 * {@inheritDoc}
+		 * @see com.heliosapm.tsdb.grapi.functions.GraphiteFunction#evaluate(com.heliosapm.tsdb.grapi.functions.EvaluationContext, com.heliosapm.tsdb.grapi.functions.Target.Call, java.lang.Object[])
+		 */
+		@Override
+		public List<Series> evaluate(final EvaluationContext ctx, final Target.Call call, final Object[] args) {
+			final List<Series> series = seriesArg(call, args, 0);
+			final double[] params = params(call, args);
+			final int step = ctx.getStep();
+			return ctx.map(series, new EvaluationContext.SeriesOp() {
+				@Override
+				public Series apply(final Series s) {
+					final int size = s.size();
+					final double[] out = new double[size];
+					transform(s.getValues(), out, size, params, step);
+					return new Series(rename(s.getName(), params), Arrays.copyOf(s.getTimestamps(), size), out, size);
+				}
+			});
+		}
+		
+		/**
+		 * Reads the number arguments following the series argument. The default accepts none.
+		 * @param call The call being evaluated
+		 * @param args The evaluated arguments
+		 * @return the number arguments
+		 * @throws IllegalArgumentException thrown if the arguments are not valid for the function
+		 */
+		protected double[] params(final Target.Call call, final Object[] args) {
+			if(args.length > 1) throw new IllegalArgumentException("[" + call + "] takes one argument");
+			return new double[0];
+		}
+		
+		/**
+		 * Names a transformed series. The default wraps the name in the function name and number arguments.
+		 * @param seriesName The name of the input series
+		 * @param params The number arguments
+		 * @return the name of the transformed series
+		 */
+		protected String rename(final String seriesName, final double[] params) {
+			final StringBuilder b = new StringBuilder(name).append('(').append(seriesName);
+			for(double p: params) {
+				if(!Double.isNaN(p)) b.append(',').append(Target.formatNumber(p));
+			}
+			return b.append(')').toString();
+		}
+		
+		/**
+		 * Transforms the values of one series
+		 * @param in The input values, which must not be modified
+		 * @param out The transformed values to write
+		 * @param size The number of values
+		 * @param params The number arguments
+		 * @param step The grid step in seconds
+		 */
+		protected abstract void transform(double[] in, double[] out, int size, double[] params, int step);
+	}
+	
+	/**
+	 * <p>Title: SumSeries</p>
+	 * <p>Description: <b><code>sumSeries(*seriesLists)</code></b>: the sum of the series at each step</p> 
+	 * <p>Company: Helios Development Group LLC</p>
+	 * @author Whitehead (nwhitehead AT heliosdev DOT org)
+	 * <p><code>com.heliosapm.tsdb.grapi.functions.BuiltinFunctions.SumSeries</code></p>
+	 */
+	public static class SumSeries extends Combiner {
+		/**
+		 * Creates a new SumSeries
+		 * @param name The name to register the function as
+		 */
+		public SumSeries(final String name) {
+			super(name);
+		}
+
+		/**
+		 * {@inheritDoc}
+		 * @see com.heliosapm.tsdb.grapi.functions.BuiltinFunctions.Combiner#combine(double[][], double[], int, int)
+		 */
+		@Override
+		protected void combine(final double[][] in, final double[] out, final int lo, final int hi) {
+			Arrays.fill(out, lo, hi, Double.NaN);
+			for(double[] values: in) {
+				for(int i = lo; i < hi; i++) {
+					final double v = values[i];
+					if(v==v) out[i] = out[i]==out[i] ? out[i] + v : v;
+				}
+			}
+		}
+	}
+	
+	/**
+	 * <p>Title: AverageSeries</p>
+	 * <p>Description: <b><code>averageSeries(*seriesLists)</code></b>: the average of the series with a value at each step</p> 
+	 * <p>Company: Helios Development Group LLC</p>
+	 * @author Whitehead (nwhitehead AT heliosdev DOT org)
+	 * <p><code>com.heliosapm.tsdb.grapi.functions.BuiltinFunctions.AverageSeries</code></p>
+	 */
+	public static class AverageSeries extends Combiner {
+		/**
+		 * Creates a new AverageSeries
+		 * @param name The name to register the function as
+		 */
+		public AverageSeries(final String name) {
+			super(name);
+		}
+
+		/**
+		 * {@inheritDoc}
+		 * @see com.heliosapm.tsdb.grapi.functions.BuiltinFunctions.Combiner#combine(double[][], double[], int, int)
+		 */
+		@Override
+		protected void combine(final double[][] in, final double[] out, final int lo, final int hi) {
+			final int[] counts = new int[hi - lo];
+			Arrays.fill(out, lo, hi, 0d);
+			for(double[] values: in) {
+				for(int i = lo; i < hi; i++) {
+					final double v = values[i];
+					if(v==v) {
+						out[i] += v;
+						counts[i - lo]++;
+					}
+				}
+			}
+			for(int i = lo; i < hi; i++) {
+				final int n = counts[i - lo];
+				out[i] = n==0 ? Double.NaN : out[i] / n;
+			}
+		}
+	}
+	
+	/**
+	 * <p>Title: MinSeries</p>
+	 * <p>Description: <b><code>minSeries(*seriesLists)</code></b>: the lowest value of the series at each step</p> 
+	 * <p>Company: Helios Development Group LLC</p>
+	 * @author Whitehead (nwhitehead AT heliosdev DOT org)
+	 * <p><code>com.heliosapm.tsdb.grapi.functions.BuiltinFunctions.MinSeries</code></p>
+	 */
+	public static class MinSeries extends Combiner {
+		/**
+		 * Creates a new MinSeries
+		 */
+		public MinSeries() {
+			super("minSeries");
+		}
+
+		/**
+		 * {@inheritDoc}
+		 * @see com.heliosapm.tsdb.grapi.functions.BuiltinFunctions.Combiner#combine(double[][], double[], int, int)
+		 */
+		@Override
+		protected void combine(final double[][] in, final double[] out, final int lo, final int hi) {
+			Arrays.fill(out, lo, hi, Double.NaN);
+			for(double[] values: in) {
+				for(int i = lo; i < hi; i++) {
+					final double v = values[i];
+					if(v==v && !(out[i] <= v)) out[i] = v;
+				}
+			}
+		}
+	}
+	
+	/**
+	 * <p>Title: MaxSeries</p>
+	 * <p>Description: <b><code>maxSeries(*seriesLists)</code></b>: the highest value of the series at each step</p> 
+	 * <p>Company: Helios Development Group LLC</p>
+	 * @author Whitehead (nwhitehead AT heliosdev DOT org)
+	 * <p><code>com.heliosapm.tsdb.grapi.functions.BuiltinFunctions.MaxSeries</code></p>
+	 */
+	public static class MaxSeries extends Combiner {
+		/**
+		 * Creates a new MaxSeries
+		 */
+		public MaxSeries() {
+			super("maxSeries");
+		}
+
+		/**
+		 * {@inheritDoc}
+		 * @see com.heliosapm.tsdb.grapi.functions.BuiltinFunctions.Combiner#combine(double[][], double[], int, int)
+		 */
+		@Override
+		protected void combine(final double[][] in, final double[] out, final int lo, final int hi) {
+			Arrays.fill(out, lo, hi, Double.NaN);
+			for(double[] values: in) {
+				for(int i = lo; i < hi; i++) {
+					final double v = values[i];
+					if(v==v && !(out[i] >= v)) out[i] = v;
+				}
+			}
+		}
+	}
+	
+	/**
+	 * <p>Title: DiffSeries</p>
+	 * <p>Description: <b><code>diffSeries(*seriesLists)</code></b>: the first value at each step minus the values of the following series</p> 
+	 * <p>Company: Helios Development Group LLC</p>
+	 * @author Whitehead (nwhitehead AT heliosdev DOT org)
+	 * <p><code>com.heliosapm.tsdb.grapi.functions.BuiltinFunctions.DiffSeries</code></p>
+	 */
+	public static class DiffSeries extends Combiner {
+		/**
+		 * Creates a new DiffSeries
+		 */
+		public DiffSeries() {
+			super("diffSeries");
+		}
+
+		/**
+		 * {@inheritDoc}
+		 * @see com.heliosapm.tsdb.grapi.functions.BuiltinFunctions.Combiner#combine(double[][], double[], int, int)
+		 */
+		@Override
+		protected void combine(final double[][] in, final double[] out, final int lo, final int hi) {
+			Arrays.fill(out, lo, hi, Double.NaN);
+			for(double[] values: in) {
+				for(int i = lo; i < hi; i++) {
+					final double v = values[i];
+					if(v==v) out[i] = out[i]==out[i] ? out[i] - v : v;
+				}
+			}
+		}
+	}
+	
+	/**
+	 * <p>Title: MultiplySeries</p>
+	 * <p>Description: <b><code>multiplySeries(*seriesLists)</code></b>: the product of the series at each step, missing if any value is missing</p> 
+	 * <p>Company: Helios Development Group LLC</p>
+	 * @author Whitehead (nwhitehead AT heliosdev DOT org)
+	 * <p><code>com.heliosapm.tsdb.grapi.functions.BuiltinFunctions.MultiplySeries</code></p>
+	 */
+	public static class MultiplySeries extends Combiner {
+		/**
+		 * Creates a new MultiplySeries
+		 */
+		public MultiplySeries() {
+			super("multiplySeries");
+		}
+
+		/**
+		 * {@inheritDoc}
+		 * @see com.heliosapm.tsdb.grapi.functions.BuiltinFunctions.Combiner#combine(double[][], double[], int, int)
+		 */
+		@Override
+		protected void combine(final double[][] in, final double[] out, final int lo, final int hi) {
+			Arrays.fill(out, lo, hi, 1d);
+			for(double[] values: in) {
+				for(int i = lo; i < hi; i++) {
+					out[i] *= values[i];
+				}
+			}
+		}
+	}
+	
+	/**
+	 * <p>Title: Scale</p>
+	 * <p>Description: <b><code>scale(seriesList, factor)</code></b>: each value multiplied by the factor</p> 
+	 * <p>Company: Helios Development Group LLC</p>
+	 * @author Whitehead (nwhitehead AT heliosdev DOT org)
+	 * <p><code>com.heliosapm.tsdb.grapi.functions.BuiltinFunctions.Scale</code></p>
+	 */
+	public static class Scale extends Transform {
+		/**
+		 * Creates a new Scale
+		 */
+		public Scale() {
+			super("scale");
+		}
+		
+		/**
+		 * {@inheritDoc}
+		 * @see com.heliosapm.tsdb.grapi.functions.BuiltinFunctions.Transform#params(com.heliosapm.tsdb.grapi.functions.Target.Call, java.lang.Object[])
+		 */
+		@Override
+		protected double[] params(final Target.Call call, final Object[] args) {
+			return new double[]{numberArg(call, args, 1)};
+		}
+
+		/**
+		 * {@inheritDoc}
+		 * @see com.heliosapm.tsdb.grapi.functions.BuiltinFunctions.Transform#transform(double[], double[], int, double[], int)
+		 */
+		@Override
+		protected void transform(final double[] in, final double[] out, final int size, final double[] params, final int step) {
+			final double factor = params[0];
+			for(int i = 0; i < size; i++) {
+				out[i] = in[i] * factor;
+			}
+		}
+	}
+	
+	/**
+	 * <p>Title: Offset</p>
+	 * <p>Description: <b><code>offset(seriesList, amount)</code></b>: the amount added to each value</p> 
+	 * <p>Company: Helios Development Group LLC</p>
+	 * @author Whitehead (nwhitehead AT heliosdev DOT org)
+	 * <p><code>com.heliosapm.tsdb.grapi.functions.BuiltinFunctions.Offset</code></p>
+	 */
+	public static class Offset extends Transform {
+		/**
+		 * Creates a new Offset
+		 */
+		public Offset() {
+			super("offset");
+		}
+		
+		/**
+		 * {@inheritDoc}
+		 * @see com.heliosapm.tsdb.grapi.functions.BuiltinFunctions.Transform#params(com.heliosapm.tsdb.grapi.functions.Target.Call, java.lang.Object[])
+		 */
+		@Override
+		protected double[] params(final Target.Call call, final Object[] args) {
+			return new double[]{numberArg(call, args, 1)};
+		}
+
+		/**
+		 * {@inheritDoc}
+		 * @see com.heliosapm.tsdb.grapi.functions.BuiltinFunctions.Transform#transform(double[], double[], int, double[], int)
+		 */
+		@Override
+		protected void transform(final double[] in, final double[] out, final int size, final double[] params, final int step) {
+			final double amount = params[0];
+			for(int i = 0; i < size; i++) {
+				out[i] = in[i] + amount;
+			}
+		}
+	}
+	
+	/**
+	 * <p>Title: Absolute</p>
+	 * <p>Description: <b><code>absolute(seriesList)</code></b>: the absolute value of each value</p> 
+	 * <p>Company: Helios Development Group LLC</p>
+	 * @author Whitehead (nwhitehead AT heliosdev DOT org)
+	 * <p><code>com.heliosapm.tsdb.grapi.functions.BuiltinFunctions.Absolute</code></p>
+	 */
+	public static class Absolute extends Transform {
+		/**
+		 * Creates a new Absolute
+		 */
+		public Absolute() {
+			super("absolute");
+		}
+
+		/**
+		 * {@inheritDoc}
+		 * @see com.heliosapm.tsdb.grapi.functions.BuiltinFunctions.Transform#transform(double[], double[], int, double[], int)
+		 */
+		@Override
+		protected void transform(final double[] in, final double[] out, final int size, final double[] params, final int step) {
+			for(int i = 0; i < size; i++) {
+				out[i] = Math.abs(in[i]);
+			}
+		}
+	}
+	
+	/**
+	 * <p>Title: Derivative</p>
+	 * <p>Description: <b><code>derivative(seriesList)</code></b>: the change from the previous value at each step</p> 
+	 * <p>Company: Helios Development Group LLC</p>
+	 * @author Whitehead (nwhitehead AT heliosdev DOT org)
+	 * <p><code>com.heliosapm.tsdb.grapi.functions.BuiltinFunctions.Derivative</code></p>
+	 */
+	public static class Derivative extends Transform {
+		/**
+		 * Creates a new Derivative
+		 */
+		public Derivative() {
+			super("derivative");
+		}
+
+		/**
+		 * {@inheritDoc}
+		 * @see com.heliosapm.tsdb.grapi.functions.BuiltinFunctions.Transform#transform(double[], double[], int, double[], int)
+		 */
+		@Override
+		protected void transform(final double[] in, final double[] out, final int size, final double[] params, final int step) {
+			double prev = Double.NaN;
+			for(int i = 0; i < size; i++) {
+				final double v = in[i];
+				// NaN in either value makes the difference NaN
+				out[i] = v - prev;
+				prev = v;
+			}
+		}
+	}
+	
+	/**
+	 * <p>Title: NonNegativeDerivative</p>
+	 * <p>Description: <b><code>nonNegativeDerivative(seriesList, maxValue)</code></b>: the change from the previous value of a counter at each step. 
+	 * A decrease is treated as a wrap of a counter with the optional maximum value, or as a missing value without it.</p> 
+	 * <p><code>com.heliosapm.tsdb.grapi.functions.BuiltinFunctions.NonNegativeDerivative</code></p>
+	 */
+	public static class NonNegativeDerivative extends Transform {
+		/**
+		 * Creates a new NonNegativeDerivative
+		 */
+		public NonNegativeDerivative() {
+			super("nonNegativeDerivative");
+		}
+		
+		/**
+		 * Creates a new NonNegativeDerivative subclass
+		 * @param name The function name
+		 */
+		protected NonNegativeDerivative(final String name) {
+			super(name);
+		}
+		
+		/**
+		 * {@inheritDoc}
+		 * @see com.heliosapm.tsdb.grapi.functions.BuiltinFunctions.Transform#params(com.heliosapm.tsdb.grapi.functions.Target.Call, java.lang.Object[])
+		 */
+		@Override
+		protected double[] params(final Target.Call call, final Object[] args) {
+			if(args.length > 2) throw new IllegalArgumentException("[" + call + "] takes at most two arguments");
+			return new double[]{numberArg(call, args, 1, Double.NaN)};
+		}
+		
+		/**
+		 * {@inheritDoc}
+		 * @see com.heliosapm.tsdb.grapi.functions.BuiltinFunctions.Transform#rename(java.lang.String, double[])
+		 */
+		@Override
+		protected String rename(final String seriesName, final double[] params) {
+			return name + "(" + seriesName + ")";
+		}
+
+		/**
+		 * {@inheritDoc}
+		 * @see com.heliosapm.tsdb.grapi.functions.BuiltinFunctions.Transform#transform(double[], double[], int, double[], int)
+		 */
+		@Override
+		protected void transform(final double[] in, final double[] out, final int size, final double[] params, final int step) {
+			final double maxValue = params[0];
+			final double divisor = divisor(step);
+			double prev = Double.NaN;
+			for(int i = 0; i < size; i++) {
+				final double v = in[i];
+				final double delta = v - prev;
+				if(delta >= 0) {
+					out[i] = delta / divisor;
+				} else if(delta < 0 && maxValue >= v) {
+					out[i] = ((maxValue - prev) + v + 1) / divisor;
+				} else {
+					out[i] = Double.NaN;
+				}
+				prev = v;
+			}
+		}
+		
+		/**
+		 * Returns the divisor applied to each change
+		 * @param step The grid step in seconds
+		 * @return the divisor
+		 */
+		protected double divisor(final int step) {
+			return 1d;
+		}
+	}
+	
+	/**
+	 * <p>Title: PerSecond</p>
+	 * <p>Description: <b><code>perSecond(seriesList, maxValue)</code></b>: the {@link NonNegativeDerivative} divided by the step</p> 
+	 * <p>Company: Helios Development Group LLC</p>
+	 * @author Whitehead (nwhitehead AT heliosdev DOT org)
+	 * <p><code>com.heliosapm.tsdb.grapi.functions.BuiltinFunctions.PerSecond</code></p>
+	 */
+	public static class PerSecond extends NonNegativeDerivative {
+		/**
+		 * Creates a new PerSecond
+		 */
+		public PerSecond() {
+			super("perSecond");
+		}
+		
+		/**
+		 * {@inheritDoc}
+		 * @see com.heliosapm.tsdb.grapi.functions.BuiltinFunctions.NonNegativeDerivative#divisor(int)
+		 */
+		@Override
+		protected double divisor(final int step) {
+			return step;
+		}
+	}
+	
+	/**
+	 * <p>Title: Integral</p>
+	 * <p>Description: <b><code>integral(seriesList)</code></b>: the running sum of the values</p> 
+	 * <p>Company: Helios Development Group LLC</p>
+	 * @author Whitehead (nwhitehead AT heliosdev DOT org)
+	 * <p><code>com.heliosapm.tsdb.grapi.functions.BuiltinFunctions.Integral</code></p>
+	 */
+	public static class Integral extends Transform {
+		/**
+		 * Creates a new Integral
+		 */
+		public Integral() {
+			super("integral");
+		}
+
+		/**
+		 * {@inheritDoc}
+		 * @see com.heliosapm.tsdb.grapi.functions.BuiltinFunctions.Transform#transform(double[], double[], int, double[], int)
+		 */
+		@Override
+		protected void transform(final double[] in, final double[] out, final int size, final double[] params, final int step) {
+			double sum = 0d;
+			for(int i = 0; i < size; i++) {
+				final double v = in[i];
+				if(v==v) {
+					sum += v;
+					out[i] = sum;
+				} else {
+					out[i] = Double.NaN;
+				}
+			}
+		}
+	}
+	
+	/**
+	 * <p>Title: Alias</p>
+	 * <p>Description: <b><code>alias(seriesList, newName)</code></b>: the series renamed</p> 
+	 * <p>Company: Helios Development Group LLC</p>
+	 * @author Whitehead (nwhitehead AT heliosdev DOT org)
+	 * <p><code>com.heliosapm.tsdb.grapi.functions.BuiltinFunctions.Alias</code></p>
+	 */
+	public static class Alias extends AbstractGraphiteFunction {
+		/**
+		 * Creates a new Alias
+		 */
+		public Alias() {
+			super("alias");
+		}
+
+		/**
+		 * {@inheritDoc}
+		 * @see com.heliosapm.tsdb.grapi.functions.GraphiteFunction#evaluate(com.heliosapm.tsdb.grapi.functions.EvaluationContext, com.heliosapm.tsdb.grapi.functions.Target.Call, java.lang.Object[])
+		 */
+		@Override
+		public List<Series> evaluate(final EvaluationContext ctx, final Target.Call call, final Object[] args) {
+			final List<Series> series = seriesArg(call, args, 0);
+			final String newName = stringArg(call, args, 1);
+			return ctx.map(series, new EvaluationContext.SeriesOp() {
+				@Override
+				public Series apply(final Series s) {
+					// copied, since results are downsampled in place
+					final int size = s.size();
+					return new Series(newName, Arrays.copyOf(s.getTimestamps(), size), Arrays.copyOf(s.getValues(), size), size);
+				}
+			});
+		}
+	}
+	
+	/**
+	 * <p>Title: ConsolidateBy</p>
+	 * <p>Description: <b><code>consolidateBy(seriesList, consolidationFunc)</code></b>: the series with the {@link Consolidation} used 
+	 * to reduce them to the request's maxDataPoints, one of <b><code>average</code></b>, <b><code>sum</code></b>, 
+	 * <b><code>min</code></b>, <b><code>max</code></b> or <b><code>lttb</code></b></p> 
+	 * <p>Company: Helios Development Group LLC</p>
+	 * @author Whitehead (nwhitehead AT heliosdev DOT org)
+	 * <p><code>com.heliosapm.tsdb.grapi.functions.BuiltinFunctions.ConsolidateBy</code></p>
+	 */
+	public static class ConsolidateBy extends AbstractGraphiteFunction {
+		/**
+		 * Creates a new ConsolidateBy
+		 */
+		public ConsolidateBy() {
+			super("consolidateBy");
+		}
+
+		/**
+		 * {@inheritDoc}
+		 * @see com.heliosapm.tsdb.grapi.functions.GraphiteFunction#evaluate(com.heliosapm.tsdb.grapi.functions.EvaluationContext, com.heliosapm.tsdb.grapi.functions.Target.Call, java.lang.Object[])
+		 */
+		@Override
+		public List<Series> evaluate(final EvaluationContext ctx, final Target.Call call, final Object[] args) {
+			final List<Series> series = seriesArg(call, args, 0);
+			final String mode = stringArg(call, args, 1);
+			final Consolidation consolidation = Consolidation.decode(mode);
+			return ctx.map(series, new EvaluationContext.SeriesOp() {
+				@Override
+				public Series apply(final Series s) {
+					// copied, since results are downsampled in place
+					final int size = s.size();
+					final Series consolidated = new Series("consolidateBy(" + s.getName() + ",'" + mode + "')", Arrays.copyOf(s.getTimestamps(), size), Arrays.copyOf(s.getValues(), size), size);
+					consolidated.setConsolidation(consolidation);
+					return consolidated;
+				}
+			});
+		}
+	}
+}
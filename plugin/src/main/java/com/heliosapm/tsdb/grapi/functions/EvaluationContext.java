@@ -0,0 +1,335 @@
+/**
+Licensed to the Apache Software Foundation (ASF) under one
+or more contributor license agreements.  See the NOTICE file
+distributed with this work for additional information
+regarding copyright ownership.  The ASF licenses this file
+to you under the Apache License, Version 2.0 (the
+"License"); you may not use this file except in compliance
+with the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an
+"AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+KIND, either express or implied.  See the License for the
+specific language governing permissions and limitations
+under the License.
+ */
+package com.heliosapm.tsdb.grapi.functions;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+
+import com.heliosapm.tsdb.grapi.render.Series;
+
+/**
+ * <p>Title: EvaluationContext</p>
+ * <p>Description: The window and fixed step grid one render target expression is evaluated over, 
+ * with the means for functions to spread their work over the engine's fork-join pool: 
+ * {@link #map(List, SeriesOp)} evaluates independent series in parallel and {@link #forEachChunk(ChunkOp)} 
+ * splits the grid into time chunks evaluated in parallel.</p>
+ * <p>The grid starts at the window start rounded down to the step and has one slot per step up to the window end, 
+ * so all series on it have the same length and line up index for index.</p>
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>com.heliosapm.tsdb.grapi.functions.EvaluationContext</code></p>
+ */
+
+public class EvaluationContext {
+	/** The pool to evaluate on */
+	protected final ForkJoinPool pool;
+	/** The number of grid slots below which work is not split further */
+	protected final int chunkSize;
+	/** The window start in unix epoch seconds */
+	protected final long from;
+	/** The window end in unix epoch seconds */
+	protected final long until;
+	/** The step in seconds */
+	protected final int step;
+	/** The timestamp of the first grid slot */
+	protected final long start;
+	/** The number of grid slots */
+	protected final int count;
+	
+	/**
+	 * Creates a new EvaluationContext
+	 * @param pool The pool to evaluate on
+	 * @param chunkSize The number of grid slots below which work is not split further
+	 * @param from The window start in unix epoch seconds
+	 * @param until The window end in unix epoch seconds
+	 * @param step The step in seconds
+	 */
+	public EvaluationContext(final ForkJoinPool pool, final int chunkSize, final long from, final long until, final int step) {
+		if(step < 1) throw new IllegalArgumentException("Invalid step [" + step + "]");
+		if(until < from) throw new IllegalArgumentException("Window end [" + until + "] is before the start [" + from + "]");
+		final long slots = (until - (from - from % step)) / step + 1;
+		if(slots > Integer.MAX_VALUE) throw new IllegalArgumentException("Too many steps of [" + step + "] seconds between [" + from + "] and [" + until + "]");
+		this.pool = pool;
+		this.chunkSize = Math.max(1, chunkSize);
+		this.from = from;
+		this.until = until;
+		this.step = step;
+		start = from - from % step;
+		count = (int)slots;
+	}
+	
+	/**
+	 * <p>Title: SeriesOp</p>
+	 * <p>Description: An operation on one series, run by {@link EvaluationContext#map(List, SeriesOp)}</p> 
+	 * <p>Company: Helios Development Group LLC</p>
+	 * @author Whitehead (nwhitehead AT heliosdev DOT org)
+	 * <p><code>com.heliosapm.tsdb.grapi.functions.EvaluationContext.SeriesOp</code></p>
+	 */
+	public static interface SeriesOp {
+		/**
+		 * Applies the operation to the passed series
+		 * @param series The series, which must not be modified
+		 * @return the resulting series
+		 */
+		public Series apply(Series series);
+	}
+	
+	/**
+	 * <p>Title: ChunkOp</p>
+	 * <p>Description: An operation on a range of grid slots, run by {@link EvaluationContext#forEachChunk(ChunkOp)}</p> 
+	 * <p>Company: Helios Development Group LLC</p>
+	 * @author Whitehead (nwhitehead AT heliosdev DOT org)
+	 * <p><code>com.heliosapm.tsdb.grapi.functions.EvaluationContext.ChunkOp</code></p>
+	 */
+	public static interface ChunkOp {
+		/**
+		 * Applies the operation to the passed range of grid slots
+		 * @param lo The first slot, inclusive
+		 * @param hi The last slot, exclusive
+		 */
+		public void apply(int lo, int hi);
+	}
+	
+	/**
+	 * Applies the passed operation to each of the passed series, in parallel
+	 * @param series The series to apply the operation to
+	 * @param op The operation
+	 * @return the results, in the order of the passed series
+	 */
+	public List<Series> map(final List<Series> series, final SeriesOp op) {
+		final int size = series.size();
+		if(size==0) return Collections.emptyList();
+		final Series[] results = new Series[size];
+		// small series are grouped so each task covers about a chunk of points
+		final int perTask = Math.max(1, chunkSize / Math.max(1, count));
+		run(new MapTask(series, op, results, 0, size, perTask));
+		return Arrays.asList(results);
+	}
+	
+	/**
+	 * Applies the passed operation to every slot of the grid, split into chunks evaluated in parallel
+	 * @param op The operation
+	 */
+	public void forEachChunk(final ChunkOp op) {
+		if(count==0) return;
+		run(new ChunkTask(op, 0, count));
+	}
+	
+	/**
+	 * Resamples the passed series onto this context's grid, in parallel
+	 * @param series The series to resample
+	 * @return the series on the grid
+	 */
+	public List<Series> align(final List<Series> series) {
+		return map(series, new SeriesOp() {
+			@Override
+			public Series apply(final Series s) {
+				return s.align(start, step, count);
+			}
+		});
+	}
+	
+	/**
+	 * Creates a new series on this context's grid
+	 * @param name The series name
+	 * @param values The values, one per grid slot
+	 * @return the new series
+	 */
+	public Series newSeries(final String name, final double[] values) {
+		if(values.length!=count) throw new IllegalArgumentException("Expected [" + count + "] values but got [" + values.length + "]");
+		final long[] timestamps = new long[count];
+		for(int i = 0; i < count; i++) {
+			timestamps[i] = start + (long)i * step;
+		}
+		return new Series(name, timestamps, values, count);
+	}
+	
+	/**
+	 * Runs the passed task, in the current fork-join task if called from one, otherwise on the pool
+	 * @param task The task to run
+	 */
+	protected void run(final ForkJoinTask<?> task) {
+		if(ForkJoinTask.inForkJoinPool()) {
+			task.invoke();
+		} else {
+			pool.invoke(task);
+		}
+	}
+	
+	/**
+	 * Returns the pool expressions are evaluated on
+	 * @return the pool
+	 */
+	public ForkJoinPool getPool() {
+		return pool;
+	}
+
+	/**
+	 * Returns the window start
+	 * @return the window start in unix epoch seconds
+	 */
+	public long getFrom() {
+		return from;
+	}
+
+	/**
+	 * Returns the window end
+	 * @return the window end in unix epoch seconds
+	 */
+	public long getUntil() {
+		return until;
+	}
+
+	/**
+	 * Returns the grid step
+	 * @return the step in seconds
+	 */
+	public int getStep() {
+		return step;
+	}
+
+	/**
+	 * Returns the timestamp of the first grid slot
+	 * @return the timestamp of the first grid slot in unix epoch seconds
+	 */
+	public long getStart() {
+		return start;
+	}
+
+	/**
+	 * Returns the number of grid slots, which is the length of every series on the grid
+	 * @return the number of grid slots
+	 */
+	public int getCount() {
+		return count;
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 * @see java.lang.Object#toString()
+	 */
+	@Override
+	public String toString() {
+		return "EvaluationContext [from=" + from + ", until=" + until + ", step=" + step + ", slots=" + count + "]";
+	}
+	
+	/**
+	 * <p>Title: MapTask</p>
+	 * <p>Description: Applies a {@link SeriesOp} to a range of series, splitting the range in halves down to the group size</p> 
+	 * <p>Company: Helios Development Group LLC</p>
+	 * @author Whitehead (nwhitehead AT heliosdev DOT org)
+	 * <p><code>com.heliosapm.tsdb.grapi.functions.EvaluationContext.MapTask</code></p>
+	 */
+	@SuppressWarnings("serial")
+	private static final class MapTask extends RecursiveAction {
+		/** The input series */
+		private final List<Series> series;
+		/** The operation */
+		private final SeriesOp op;
+		/** The results */
+		private final Series[] results;
+		/** The first series index, inclusive */
+		private final int lo;
+		/** The last series index, exclusive */
+		private final int hi;
+		/** The number of series evaluated sequentially by one task */
+		private final int perTask;
+		
+		/**
+		 * Creates a new MapTask
+		 * @param series The input series
+		 * @param op The operation
+		 * @param results The results
+		 * @param lo The first series index, inclusive
+		 * @param hi The last series index, exclusive
+		 * @param perTask The number of series evaluated sequentially by one task
+		 */
+		MapTask(final List<Series> series, final SeriesOp op, final Series[] results, final int lo, final int hi, final int perTask) {
+			this.series = series;
+			this.op = op;
+			this.results = results;
+			this.lo = lo;
+			this.hi = hi;
+			this.perTask = perTask;
+		}
+
+		/**
+		 * {@inheritDoc}
+		 * @see java.util.concurrent.RecursiveAction#compute()
+		 */
+		@Override
+		protected void compute() {
+			if(hi - lo <= perTask) {
+				for(int i = lo; i < hi; i++) {
+					results[i] = op.apply(series.get(i));
+				}
+				return;
+			}
+			final int mid = (lo + hi) >>> 1;
+			invokeAll(new MapTask(series, op, results, lo, mid, perTask), new MapTask(series, op, results, mid, hi, perTask));
+		}
+	}
+	
+	/**
+	 * <p>Title: ChunkTask</p>
+	 * <p>Description: Applies a {@link ChunkOp} to a range of grid slots, splitting the range in halves down to the chunk size</p> 
+	 * <p>Company: Helios Development Group LLC</p>
+	 * @author Whitehead (nwhitehead AT heliosdev DOT org)
+	 * <p><code>com.heliosapm.tsdb.grapi.functions.EvaluationContext.ChunkTask</code></p>
+	 */
+	@SuppressWarnings("serial")
+	private final class ChunkTask extends RecursiveAction {
+		/** The operation */
+		private final ChunkOp op;
+		/** The first slot, inclusive */
+		private final int lo;
+		/** The last slot, exclusive */
+		private final int hi;
+		
+		/**
+		 * Creates a new ChunkTask
+		 * @param op The operation
+		 * @param lo The first slot, inclusive
+		 * @param hi The last slot, exclusive
+		 */
+		ChunkTask(final ChunkOp op, final int lo, final int hi) {
+			this.op = op;
+			this.lo = lo;
+			this.hi = hi;
+		}
+
+		/**
+		 * {@inheritDoc}
+		 * @see java.util.concurrent.RecursiveAction#compute()
+		 */
+		@Override
+		protected void compute() {
+			if(hi - lo <= chunkSize) {
+				op.apply(lo, hi);
+				return;
+			}
+			final int mid = (lo + hi) >>> 1;
+			invokeAll(new ChunkTask(op, lo, mid), new ChunkTask(op, mid, hi));
+		}
+	}
+}
@@ -0,0 +1,339 @@
+/**
+Licensed to the Apache Software Foundation (ASF) under one
+or more contributor license agreements.  See the NOTICE file
+distributed with this work for additional information
+regarding copyright ownership.  The ASF licenses this file
+to you under the Apache License, Version 2.0 (the
+"License"); you may not use this file except in compliance
+with the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an
+"AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+KIND, either express or implied.  See the License for the
+specific language governing permissions and limitations
+under the License.
+ */
+package com.heliosapm.tsdb.grapi.functions;
+
+import static com.heliosapm.tsdb.grapi.server.http.Constants.DEFAULT_FUNCTIONS_CHUNKSIZE;
+import static com.heliosapm.tsdb.grapi.server.http.Constants.DEFAULT_FUNCTIONS_PARALLELISM;
+import static com.heliosapm.tsdb.grapi.server.http.Constants.PROPERTY_FUNCTIONS_CHUNKSIZE;
+import static com.heliosapm.tsdb.grapi.server.http.Constants.PROPERTY_FUNCTIONS_PARALLELISM;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.heliosapm.tsdb.grapi.render.Series;
+import com.heliosapm.utils.config.ConfigurationHelper;
+import com.heliosapm.utils.lang.StringHelper;
+
+/**
+ * <p>Title: FunctionEngine</p>
+ * <p>Description: Evaluates Graphite render target expressions on a dedicated fork-join pool. 
+ * The metric data is fetched before evaluation and handed in through a {@link SeriesSource}, so the pool only ever runs 
+ * CPU bound work on primitive arrays and never blocks on I/O. Independent targets, and independent arguments of a call, 
+ * are evaluated in parallel, and the functions themselves spread their work over independent series and 
+ * time chunks through the {@link EvaluationContext}.</p> 
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>com.heliosapm.tsdb.grapi.functions.FunctionEngine</code></p>
+ */
+
+public class FunctionEngine {
+	/** The singleton instance */
+	private static volatile FunctionEngine instance = null;
+	/** The singleton instance ctor lock */
+	private static final Object lock = new Object();
+	
+	/** Instance logger */
+	protected final Logger log = LoggerFactory.getLogger(getClass());
+	/** The pool expressions are evaluated on */
+	protected final ForkJoinPool pool;
+	/** The number of grid slots below which function work is not split further */
+	protected final int chunkSize;
+	/** The registry functions are looked up in */
+	protected final FunctionRegistry registry;
+	
+	/**
+	 * <p>Title: SeriesSource</p>
+	 * <p>Description: Supplies the fetched series of the metric paths referenced by an expression</p> 
+	 * <p>Company: Helios Development Group LLC</p>
+	 * @author Whitehead (nwhitehead AT heliosdev DOT org)
+	 * <p><code>com.heliosapm.tsdb.grapi.functions.FunctionEngine.SeriesSource</code></p>
+	 */
+	public static interface SeriesSource {
+		/**
+		 * Returns the series the passed path resolved to. The series are not modified.
+		 * @param path A path collected from the expression by {@link Target#collectPaths(java.util.Set)}
+		 * @return the series, empty if the path resolved to nothing
+		 */
+		public List<Series> getSeries(String path);
+	}
+	
+	/**
+	 * Acquires the FunctionEngine singleton instance, configuring it from the passed properties if it has not been created yet.
+	 * The singleton looks functions up in the {@link FunctionRegistry#getInstance() shared registry}.
+	 * @param config The optional configuration properties
+	 * @return the FunctionEngine singleton instance
+	 */
+	public static FunctionEngine getInstance(final Properties config) {
+		if(instance==null) {
+			synchronized(lock) {
+				if(instance==null) {
+					instance = new FunctionEngine(config);
+				}
+			}
+		}
+		return instance;
+	}
+	
+	/**
+	 * Acquires the FunctionEngine singleton instance, configuring it from system properties and the environment 
+	 * if it has not been created yet
+	 * @return the FunctionEngine singleton instance
+	 */
+	public static FunctionEngine getInstance() {
+		return getInstance(null);
+	}
+	
+	/**
+	 * Creates the singleton FunctionEngine
+	 * @param config The optional configuration properties
+	 */
+	private FunctionEngine(final Properties config) {
+		this(
+			ConfigurationHelper.getIntSystemThenEnvProperty(PROPERTY_FUNCTIONS_PARALLELISM, DEFAULT_FUNCTIONS_PARALLELISM, config),
+			ConfigurationHelper.getIntSystemThenEnvProperty(PROPERTY_FUNCTIONS_CHUNKSIZE, DEFAULT_FUNCTIONS_CHUNKSIZE, config),
+			FunctionRegistry.getInstance()
+		);
+		log.info(StringHelper.banner("FunctionEngine Configuration\n\tParallelism:%s\n\tChunk Size:%s", pool.getParallelism(), chunkSize));
+	}
+	
+	/**
+	 * Creates a new FunctionEngine with its own pool
+	 * @param parallelism The number of pool threads, or zero or less for one per core
+	 * @param chunkSize The number of grid slots below which function work is not split further
+	 * @param registry The registry to look functions up in
+	 */
+	public FunctionEngine(final int parallelism, final int chunkSize, final FunctionRegistry registry) {
+		final AtomicInteger serial = new AtomicInteger(0);
+		pool = new ForkJoinPool(parallelism > 0 ? parallelism : Runtime.getRuntime().availableProcessors(), new ForkJoinPool.ForkJoinWorkerThreadFactory() {
+			@Override
+			public ForkJoinWorkerThread newThread(final ForkJoinPool p) {
+				final ForkJoinWorkerThread t = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(p);
+				t.setName("GraphiteFunctionWorker#" + serial.incrementAndGet());
+				t.setDaemon(true);
+				return t;
+			}
+		}, null, false);
+		this.chunkSize = Math.max(1, chunkSize);
+		this.registry = registry;
+	}
+	
+	/**
+	 * Creates a new evaluation context over the passed window
+	 * @param from The window start in unix epoch seconds
+	 * @param until The window end in unix epoch seconds
+	 * @param step The grid step in seconds
+	 * @return the new context
+	 */
+	public EvaluationContext newContext(final long from, final long until, final int step) {
+		return new EvaluationContext(pool, chunkSize, from, until, step);
+	}
+	
+	/**
+	 * Evaluates the passed target expression
+	 * @param target The target expression
+	 * @param source The source of the fetched series of the paths in the expression
+	 * @param ctx The evaluation context
+	 * @return the resulting series, on the context's grid
+	 * @throws IllegalArgumentException thrown if the expression calls an unknown function, 
+	 * calls a function with invalid arguments, or is not a series expression
+	 */
+	public List<Series> evaluate(final Target target, final SeriesSource source, final EvaluationContext ctx) {
+		return evaluate(Collections.singletonList(target), source, ctx).get(0);
+	}
+	
+	/**
+	 * Evaluates the passed target expressions in parallel
+	 * @param targets The target expressions
+	 * @param source The source of the fetched series of the paths in the expressions
+	 * @param ctx The evaluation context
+	 * @return the resulting series of each target, in target order
+	 * @throws IllegalArgumentException thrown if an expression calls an unknown function, 
+	 * calls a function with invalid arguments, or is not a series expression
+	 */
+	public List<List<Series>> evaluate(final List<Target> targets, final SeriesSource source, final EvaluationContext ctx) {
+		final List<EvalTask> tasks = new ArrayList<EvalTask>(targets.size());
+		for(Target target: targets) {
+			tasks.add(new EvalTask(target, source, ctx));
+		}
+		@SuppressWarnings("serial")
+		final RecursiveAction all = new RecursiveAction() {
+			@Override
+			protected void compute() {
+				invokeAll(tasks);
+			}
+		};
+		try {
+			if(ForkJoinTask.inForkJoinPool()) {
+				all.invoke();
+			} else {
+				pool.invoke(all);
+			}
+		} catch (IllegalArgumentException iex) {
+			// the pool rethrows a copy of an exception raised on another thread, with the original as the cause
+			throw iex.getCause() instanceof IllegalArgumentException ? (IllegalArgumentException)iex.getCause() : iex;
+		}
+		final List<List<Series>> results = new ArrayList<List<Series>>(tasks.size());
+		for(int i = 0; i < tasks.size(); i++) {
+			results.add(asSeries(targets.get(i), tasks.get(i).getRawResult()));
+		}
+		return results;
+	}
+	
+	/**
+	 * Checks that every function the passed target calls is registered, so a request calling an unknown function 
+	 * can be rejected before its metrics are fetched
+	 * @param target The target to check
+	 * @throws IllegalArgumentException thrown if the target calls an unknown function
+	 */
+	public void validate(final Target target) {
+		if(!(target instanceof Target.Call)) return;
+		final Target.Call call = (Target.Call)target;
+		if(registry.get(call.getFunction())==null) throw new IllegalArgumentException("Unknown function [" + call.getFunction() + "]");
+		for(Target arg: call.getArgs()) {
+			validate(arg);
+		}
+	}
+	
+	/**
+	 * Casts the passed evaluated target to a series list
+	 * @param target The evaluated target
+	 * @param value The value the target evaluated to
+	 * @return the series list
+	 * @throws IllegalArgumentException thrown if the value is not a series list
+	 */
+	@SuppressWarnings("unchecked")
+	private static List<Series> asSeries(final Target target, final Object value) {
+		if(!(value instanceof List)) throw new IllegalArgumentException("Target [" + target + "] is not a series expression");
+		return (List<Series>)value;
+	}
+	
+	/**
+	 * Returns the registry functions are looked up in
+	 * @return the registry
+	 */
+	public FunctionRegistry getRegistry() {
+		return registry;
+	}
+	
+	/**
+	 * Returns the pool expressions are evaluated on
+	 * @return the pool
+	 */
+	public ForkJoinPool getPool() {
+		return pool;
+	}
+	
+	/**
+	 * Returns the number of grid slots below which function work is not split further
+	 * @return the chunk size
+	 */
+	public int getChunkSize() {
+		return chunkSize;
+	}
+	
+	/**
+	 * Shuts down the pool
+	 */
+	public void shutdown() {
+		pool.shutdown();
+	}
+	
+	/**
+	 * <p>Title: EvalTask</p>
+	 * <p>Description: Evaluates one node of an expression: a literal to its value, a path to its series on the grid, 
+	 * and a call to its function's result, forking the evaluation of the call's arguments</p> 
+	 * <p>Company: Helios Development Group LLC</p>
+	 * @author Whitehead (nwhitehead AT heliosdev DOT org)
+	 * <p><code>com.heliosapm.tsdb.grapi.functions.FunctionEngine.EvalTask</code></p>
+	 */
+	@SuppressWarnings("serial")
+	private final class EvalTask extends RecursiveTask<Object> {
+		/** The node to evaluate */
+		private final Target target;
+		/** The source of the fetched series */
+		private final SeriesSource source;
+		/** The evaluation context */
+		private final EvaluationContext ctx;
+		
+		/**
+		 * Creates a new EvalTask
+		 * @param target The node to evaluate
+		 * @param source The source of the fetched series
+		 * @param ctx The evaluation context
+		 */
+		EvalTask(final Target target, final SeriesSource source, final EvaluationContext ctx) {
+			this.target = target;
+			this.source = source;
+			this.ctx = ctx;
+		}
+
+		/**
+		 * {@inheritDoc}
+		 * @see java.util.concurrent.RecursiveTask#compute()
+		 */
+		@Override
+		protected Object compute() {
+			if(target instanceof Target.Literal) {
+				return ((Target.Literal)target).getValue();
+			}
+			if(target instanceof Target.Path) {
+				final List<Series> series = source.getSeries(((Target.Path)target).getPath());
+				return series==null ? Collections.<Series>emptyList() : ctx.align(series);
+			}
+			final Target.Call call = (Target.Call)target;
+			final GraphiteFunction function = registry.get(call.getFunction());
+			if(function==null) throw new IllegalArgumentException("Unknown function [" + call.getFunction() + "]");
+			final List<Target> argTargets = call.getArgs();
+			final Object[] args = new Object[argTargets.size()];
+			final EvalTask[] forked = new EvalTask[args.length];
+			// literals are taken as is, every other argument but the last is forked and the last is evaluated here
+			int last = -1;
+			for(int i = 0; i < args.length; i++) {
+				final Target arg = argTargets.get(i);
+				if(arg instanceof Target.Literal) {
+					args[i] = ((Target.Literal)arg).getValue();
+				} else {
+					if(last!=-1) {
+						forked[last] = new EvalTask(argTargets.get(last), source, ctx);
+						forked[last].fork();
+					}
+					last = i;
+				}
+			}
+			if(last!=-1) {
+				args[last] = new EvalTask(argTargets.get(last), source, ctx).compute();
+			}
+			for(int i = forked.length - 1; i >= 0; i--) {
+				if(forked[i]!=null) args[i] = forked[i].join();
+			}
+			return function.evaluate(ctx, call, args);
+		}
+	}
+}
@@ -0,0 +1,117 @@
+/**
+Licensed to the Apache Software Foundation (ASF) under one
+or more contributor license agreements.  See the NOTICE file
+distributed with this work for additional information
+regarding copyright ownership.  The ASF licenses this file
+to you under the Apache License, Version 2.0 (the
+"License"); you may not use this file except in compliance
+with the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an
+"AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+KIND, either express or implied.  See the License for the
+specific language governing permissions and limitations
+under the License.
+ */
+package com.heliosapm.tsdb.grapi.functions;
+
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * <p>Title: FunctionRegistry</p>
+ * <p>Description: The Graphite render functions available to render targets, keyed by name. 
+ * The request handler registers the functions contributed by each configured adapter through 
+ * {@link com.heliosapm.tsdb.grapi.GraphiteAdapter#getFunctions()}, in configuration order, and the first 
+ * adapter to contribute a name keeps it.</p> 
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>com.heliosapm.tsdb.grapi.functions.FunctionRegistry</code></p>
+ */
+
+public class FunctionRegistry {
+	/** The singleton instance */
+	private static volatile FunctionRegistry instance = null;
+	/** The singleton instance ctor lock */
+	private static final Object lock = new Object();
+	
+	/** Instance logger */
+	protected final Logger log = LoggerFactory.getLogger(getClass());
+	/** The registered functions keyed by name */
+	protected final ConcurrentHashMap<String, GraphiteFunction> functions = new ConcurrentHashMap<String, GraphiteFunction>();
+	
+	/**
+	 * Acquires the FunctionRegistry singleton instance
+	 * @return the FunctionRegistry singleton instance
+	 */
+	public static FunctionRegistry getInstance() {
+		if(instance==null) {
+			synchronized(lock) {
+				if(instance==null) {
+					instance = new FunctionRegistry();
+				}
+			}
+		}
+		return instance;
+	}
+	
+	/**
+	 * Creates a new empty FunctionRegistry
+	 */
+	public FunctionRegistry() {
+		
+	}
+	
+	/**
+	 * Registers the passed function unless a function with the same name is already registered
+	 * @param function The function to register
+	 * @return true if the function was registered, false if the name was already taken
+	 */
+	public boolean register(final GraphiteFunction function) {
+		final GraphiteFunction prior = functions.putIfAbsent(function.getName(), function);
+		if(prior!=null && prior!=function) {
+			log.warn("Function [{}] of [{}] is already registered by [{}]", function.getName(), function.getClass().getName(), prior.getClass().getName());
+			return false;
+		}
+		return prior==null;
+	}
+	
+	/**
+	 * Registers the passed functions
+	 * @param functions The functions to register
+	 * @return the number of functions registered
+	 */
+	public int register(final GraphiteFunction...functions) {
+		int registered = 0;
+		if(functions!=null) {
+			for(GraphiteFunction function: functions) {
+				if(register(function)) registered++;
+			}
+		}
+		return registered;
+	}
+	
+	/**
+	 * Returns the function registered under the passed name
+	 * @param name The function name
+	 * @return the function or null if none is registered under the name
+	 */
+	public GraphiteFunction get(final String name) {
+		return functions.get(name);
+	}
+	
+	/**
+	 * Returns the names of the registered functions
+	 * @return the sorted function names
+	 */
+	public Set<String> getNames() {
+		return new TreeSet<String>(functions.keySet());
+	}
+}
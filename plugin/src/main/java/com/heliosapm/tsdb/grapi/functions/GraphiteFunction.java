@@ -0,0 +1,57 @@
+/**
+Licensed to the Apache Software Foundation (ASF) under one
+or more contributor license agreements.  See the NOTICE file
+distributed with this work for additional information
+regarding copyright ownership.  The ASF licenses this file
+to you under the Apache License, Version 2.0 (the
+"License"); you may not use this file except in compliance
+with the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an
+"AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+KIND, either express or implied.  See the License for the
+specific language governing permissions and limitations
+under the License.
+ */
+package com.heliosapm.tsdb.grapi.functions;
+
+import java.util.List;
+
+import com.heliosapm.tsdb.grapi.render.Series;
+
+/**
+ * <p>Title: GraphiteFunction</p>
+ * <p>Description: Defines a Graphite render function, such as <b><code>sumSeries</code></b> or <b><code>scale</code></b>.
+ * Functions are contributed by the configured adapters through {@link com.heliosapm.tsdb.grapi.GraphiteAdapter#getFunctions()}
+ * and looked up by name in the {@link FunctionRegistry}.</p> 
+ * <p>A function is called on a fork-join worker of the {@link FunctionEngine} once its arguments have been evaluated, 
+ * and uses the {@link EvaluationContext} to spread its work over the pool. Series arguments arrive on the context's step grid and 
+ * are shared with other parts of the expression, so a function must never modify them, and must be stateless and thread safe.</p>
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>com.heliosapm.tsdb.grapi.functions.GraphiteFunction</code></p>
+ */
+
+public interface GraphiteFunction {
+	
+	/**
+	 * Returns the name the function is called by in a render target
+	 * @return the function name
+	 */
+	public String getName();
+	
+	/**
+	 * Evaluates the function
+	 * @param ctx The evaluation context
+	 * @param call The call being evaluated
+	 * @param args The evaluated arguments, in call order: a <b><code>List&lt;Series&gt;</code></b> for a series argument, 
+	 * or a Double, String or Boolean for a literal
+	 * @return the resulting series
+	 * @throws IllegalArgumentException thrown if the arguments are not valid for the function
+	 */
+	public List<Series> evaluate(EvaluationContext ctx, Target.Call call, Object[] args);
+
+}
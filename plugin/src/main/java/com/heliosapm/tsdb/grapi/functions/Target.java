@@ -0,0 +1,299 @@
+/**
+Licensed to the Apache Software Foundation (ASF) under one
+or more contributor license agreements.  See the NOTICE file
+distributed with this work for additional information
+regarding copyright ownership.  The ASF licenses this file
+to you under the Apache License, Version 2.0 (the
+"License"); you may not use this file except in compliance
+with the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an
+"AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+KIND, either express or implied.  See the License for the
+specific language governing permissions and limitations
+under the License.
+ */
+package com.heliosapm.tsdb.grapi.functions;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * <p>Title: Target</p>
+ * <p>Description: An immutable node of a Graphite render target expression: a metric {@link Path path},
+ * which may contain globs, a {@link Call function call} or a {@link Literal literal} argument.
+ * The {@link #toString()} of a node is its canonical form, so equivalent targets render to the same string.</p>
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>com.heliosapm.tsdb.grapi.functions.Target</code></p>
+ */
+
+public abstract class Target {
+	/** The canonical form, built on first use */
+	private volatile String canonical = null;
+
+	/**
+	 * Appends the canonical form of this node to the passed buffer
+	 * @param b The buffer to append to
+	 * @return the buffer
+	 */
+	public abstract StringBuilder appendTo(StringBuilder b);
+
+	/**
+	 * Adds the metric paths referenced by this node and its arguments to the passed set
+	 * @param paths The set to add to
+	 */
+	public abstract void collectPaths(Set<String> paths);
+
+	/**
+	 * Creates a new path node
+	 * @param path The metric path, which may contain globs
+	 * @return the new node
+	 */
+	public static Path path(final String path) {
+		return new Path(path);
+	}
+
+	/**
+	 * Creates a new function call node
+	 * @param function The function name
+	 * @param args The arguments
+	 * @return the new node
+	 */
+	public static Call call(final String function, final Target... args) {
+		return new Call(function, Arrays.asList(args));
+	}
+
+	/**
+	 * Creates a new literal node
+	 * @param value The value, a {@link Number}, {@link String} or {@link Boolean}
+	 * @return the new node
+	 */
+	public static Literal literal(final Object value) {
+		return new Literal(value);
+	}
+
+	/**
+	 * Formats a number the way it appears in a canonical target, without a fraction if it is integral
+	 * @param n The number to format
+	 * @return the formatted number
+	 */
+	public static String formatNumber(final double n) {
+		if(n==(long)n && !Double.isInfinite(n)) return Long.toString((long)n);
+		return Double.toString(n);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see java.lang.Object#toString()
+	 */
+	@Override
+	public String toString() {
+		String s = canonical;
+		if(s==null) {
+			s = appendTo(new StringBuilder()).toString();
+			canonical = s;
+		}
+		return s;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see java.lang.Object#hashCode()
+	 */
+	@Override
+	public int hashCode() {
+		return toString().hashCode();
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see java.lang.Object#equals(java.lang.Object)
+	 */
+	@Override
+	public boolean equals(final Object obj) {
+		if(this==obj) return true;
+		if(obj==null || obj.getClass()!=getClass()) return false;
+		return toString().equals(obj.toString());
+	}
+
+	/**
+	 * <p>Title: Path</p>
+	 * <p>Description: A metric path, which may contain globs</p>
+	 * <p>Company: Helios Development Group LLC</p>
+	 * @author Whitehead (nwhitehead AT heliosdev DOT org)
+	 * <p><code>com.heliosapm.tsdb.grapi.functions.Target.Path</code></p>
+	 */
+	public static final class Path extends Target {
+		/** The metric path */
+		private final String path;
+
+		/**
+		 * Creates a new Path
+		 * @param path The metric path
+		 */
+		Path(final String path) {
+			if(path==null || path.isEmpty()) throw new IllegalArgumentException("Empty path");
+			this.path = path;
+		}
+
+		/**
+		 * Returns the metric path
+		 * @return the metric path
+		 */
+		public String getPath() {
+			return path;
+		}
+
+		/**
+		 * {@inheritDoc}
+		 * @see com.heliosapm.tsdb.grapi.functions.Target#appendTo(java.lang.StringBuilder)
+		 */
+		@Override
+		public StringBuilder appendTo(final StringBuilder b) {
+			return b.append(path);
+		}
+
+		/**
+		 * {@inheritDoc}
+		 * @see com.heliosapm.tsdb.grapi.functions.Target#collectPaths(java.util.Set)
+		 */
+		@Override
+		public void collectPaths(final Set<String> paths) {
+			paths.add(path);
+		}
+	}
+
+	/**
+	 * <p>Title: Call</p>
+	 * <p>Description: A function call with its arguments</p>
+	 * <p>Company: Helios Development Group LLC</p>
+	 * @author Whitehead (nwhitehead AT heliosdev DOT org)
+	 * <p><code>com.heliosapm.tsdb.grapi.functions.Target.Call</code></p>
+	 */
+	public static final class Call extends Target {
+		/** The function name */
+		private final String function;
+		/** The arguments */
+		private final List<Target> args;
+
+		/**
+		 * Creates a new Call
+		 * @param function The function name
+		 * @param args The arguments, which are copied
+		 */
+		Call(final String function, final List<Target> args) {
+			if(function==null || function.isEmpty()) throw new IllegalArgumentException("Empty function name");
+			this.function = function;
+			this.args = Collections.unmodifiableList(new ArrayList<Target>(args));
+		}
+
+		/**
+		 * Returns the function name
+		 * @return the function name
+		 */
+		public String getFunction() {
+			return function;
+		}
+
+		/**
+		 * Returns the arguments
+		 * @return an unmodifiable list of the arguments
+		 */
+		public List<Target> getArgs() {
+			return args;
+		}
+
+		/**
+		 * {@inheritDoc}
+		 * @see com.heliosapm.tsdb.grapi.functions.Target#appendTo(java.lang.StringBuilder)
+		 */
+		@Override
+		public StringBuilder appendTo(final StringBuilder b) {
+			b.append(function).append('(');
+			for(int i = 0; i < args.size(); i++) {
+				if(i > 0) b.append(',');
+				args.get(i).appendTo(b);
+			}
+			return b.append(')');
+		}
+
+		/**
+		 * {@inheritDoc}
+		 * @see com.heliosapm.tsdb.grapi.functions.Target#collectPaths(java.util.Set)
+		 */
+		@Override
+		public void collectPaths(final Set<String> paths) {
+			for(Target arg: args) {
+				arg.collectPaths(paths);
+			}
+		}
+	}
+
+	/**
+	 * <p>Title: Literal</p>
+	 * <p>Description: A number, string or boolean argument</p>
+	 * <p>Company: Helios Development Group LLC</p>
+	 * @author Whitehead (nwhitehead AT heliosdev DOT org)
+	 * <p><code>com.heliosapm.tsdb.grapi.functions.Target.Literal</code></p>
+	 */
+	public static final class Literal extends Target {
+		/** The value, a Double, String or Boolean */
+		private final Object value;
+
+		/**
+		 * Creates a new Literal
+		 * @param value The value, a {@link Number}, {@link String} or {@link Boolean}
+		 */
+		Literal(final Object value) {
+			if(value instanceof Number) {
+				this.value = ((Number)value).doubleValue();
+			} else if(value instanceof String || value instanceof Boolean) {
+				this.value = value;
+			} else {
+				throw new IllegalArgumentException("Unsupported literal [" + value + "]");
+			}
+		}
+
+		/**
+		 * Returns the value
+		 * @return the value, a Double, String or Boolean
+		 */
+		public Object getValue() {
+			return value;
+		}
+
+		/**
+		 * {@inheritDoc}
+		 * @see com.heliosapm.tsdb.grapi.functions.Target#appendTo(java.lang.StringBuilder)
+		 */
+		@Override
+		public StringBuilder appendTo(final StringBuilder b) {
+			if(value instanceof Double) return b.append(formatNumber((Double)value));
+			if(value instanceof Boolean) return b.append(value);
+			final String s = (String)value;
+			b.append('"');
+			for(int i = 0; i < s.length(); i++) {
+				final char c = s.charAt(i);
+				if(c=='"' || c=='\\') b.append('\\');
+				b.append(c);
+			}
+			return b.append('"');
+		}
+
+		/**
+		 * {@inheritDoc}
+		 * @see com.heliosapm.tsdb.grapi.functions.Target#collectPaths(java.util.Set)
+		 */
+		@Override
+		public void collectPaths(final Set<String> paths) {
+			/* No Op */
+		}
+	}
+}
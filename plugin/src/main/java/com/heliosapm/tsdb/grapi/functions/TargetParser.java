@@ -0,0 +1,238 @@
+/**
+Licensed to the Apache Software Foundation (ASF) under one
+or more contributor license agreements.  See the NOTICE file
+distributed with this work for additional information
+regarding copyright ownership.  The ASF licenses this file
+to you under the Apache License, Version 2.0 (the
+"License"); you may not use this file except in compliance
+with the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an
+"AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+KIND, either express or implied.  See the License for the
+specific language governing permissions and limitations
+under the License.
+ */
+package com.heliosapm.tsdb.grapi.functions;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * <p>Title: TargetParser</p>
+ * <p>Description: A recursive descent parser of Graphite render target expressions into {@link Target} trees. 
+ * The grammar is Graphite's: a target is a function call <b><code>name(arg, ...)</code></b>, a metric path, a single or double quoted string, 
+ * a number or a boolean, and call arguments are targets themselves. Paths may contain globs, including brace alternatives such as 
+ * <b><code>a.{b,c}.d</code></b> whose commas belong to the path. Whitespace between tokens is ignored.</p>
+ * <p>The parsed tree renders to the canonical form of the target, so for example <b><code>scale( a.b , 2.0 )</code></b> and 
+ * <b><code>scale(a.b,2)</code></b> parse to equal trees.</p> 
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>com.heliosapm.tsdb.grapi.functions.TargetParser</code></p>
+ */
+
+public class TargetParser {
+	/** The target being parsed */
+	private final String target;
+	/** The current position */
+	private int pos = 0;
+	
+	/** The maximum call nesting depth */
+	public static final int MAX_DEPTH = 64;
+	
+	/**
+	 * Parses the passed target expression
+	 * @param target The target expression
+	 * @return the parsed tree
+	 * @throws IllegalArgumentException thrown if the target is not a valid expression
+	 */
+	public static Target parse(final String target) {
+		if(target==null) throw new IllegalArgumentException("The passed target was null");
+		final TargetParser parser = new TargetParser(target);
+		parser.skipSpaces();
+		if(parser.atEnd()) throw new IllegalArgumentException("Empty target");
+		final Target parsed = parser.expression(0);
+		parser.skipSpaces();
+		if(!parser.atEnd()) throw parser.unexpected();
+		return parsed;
+	}
+	
+	/**
+	 * Creates a new TargetParser
+	 * @param target The target to parse
+	 */
+	private TargetParser(final String target) {
+		this.target = target;
+	}
+	
+	/**
+	 * Parses the expression at the current position
+	 * @param depth The call nesting depth of the expression
+	 * @return the parsed expression
+	 */
+	private Target expression(final int depth) {
+		if(depth > MAX_DEPTH) throw new IllegalArgumentException("Target nests calls deeper than " + MAX_DEPTH + " [" + target + "]");
+		final char c = target.charAt(pos);
+		if(c=='"' || c=='\'') return Target.literal(string(c));
+		final int start = pos;
+		final String token = pathToken();
+		if(token.isEmpty()) throw unexpected();
+		final int end = pos;
+		skipSpaces();
+		if(!atEnd() && target.charAt(pos)=='(') {
+			if(!isFunctionName(token)) throw new IllegalArgumentException("Invalid function name [" + token + "] at position " + start + " in [" + target + "]");
+			pos++;
+			return new Target.Call(token, arguments(depth));
+		}
+		// back to the end of the token, so the caller sees the spaces
+		pos = end;
+		if(isNumber(token)) {
+			try {
+				return Target.literal(Double.parseDouble(token));
+			} catch (NumberFormatException nex) {
+				/* not a number after all, so a path */
+			}
+		}
+		if("true".equalsIgnoreCase(token)) return Target.literal(Boolean.TRUE);
+		if("false".equalsIgnoreCase(token)) return Target.literal(Boolean.FALSE);
+		return Target.path(token);
+	}
+	
+	/**
+	 * Parses the arguments of a call, after its opening parenthesis, up to and including the closing parenthesis
+	 * @param depth The call nesting depth of the call
+	 * @return the arguments
+	 */
+	private List<Target> arguments(final int depth) {
+		final List<Target> args = new ArrayList<Target>(4);
+		skipSpaces();
+		if(!atEnd() && target.charAt(pos)==')') {
+			pos++;
+			return args;
+		}
+		while(true) {
+			skipSpaces();
+			if(atEnd()) throw unexpected();
+			args.add(expression(depth + 1));
+			skipSpaces();
+			if(atEnd()) throw unexpected();
+			final char c = target.charAt(pos++);
+			if(c==')') return args;
+			if(c!=',') {
+				pos--;
+				throw unexpected();
+			}
+		}
+	}
+	
+	/**
+	 * Reads a path or name token: everything up to whitespace, a quote, a parenthesis or a comma, 
+	 * where commas and parentheses inside braces or brackets belong to the token
+	 * @return the token, possibly empty
+	 */
+	private String pathToken() {
+		final int start = pos;
+		int nesting = 0;
+		while(pos < target.length()) {
+			final char c = target.charAt(pos);
+			if(c=='{' || c=='[') {
+				nesting++;
+			} else if(c=='}' || c==']') {
+				if(nesting==0) break;
+				nesting--;
+			} else if(nesting==0 && (c=='(' || c==')' || c==',' || c=='"' || c=='\'' || Character.isWhitespace(c))) {
+				break;
+			}
+			pos++;
+		}
+		if(nesting!=0) throw new IllegalArgumentException("Unclosed brace or bracket at position " + start + " in [" + target + "]");
+		return target.substring(start, pos);
+	}
+	
+	/**
+	 * Reads a quoted string, in which a backslash escapes the next character
+	 * @param quote The quote character the string starts and ends with
+	 * @return the unquoted string
+	 */
+	private String string(final char quote) {
+		final int start = pos++;
+		final StringBuilder b = new StringBuilder();
+		while(pos < target.length()) {
+			final char c = target.charAt(pos++);
+			if(c==quote) return b.toString();
+			if(c=='\\' && pos < target.length()) {
+				b.append(target.charAt(pos++));
+			} else {
+				b.append(c);
+			}
+		}
+		throw new IllegalArgumentException("Unterminated string at position " + start + " in [" + target + "]");
+	}
+	
+	/**
+	 * Skips whitespace
+	 */
+	private void skipSpaces() {
+		while(pos < target.length() && Character.isWhitespace(target.charAt(pos))) pos++;
+	}
+	
+	/**
+	 * Indicates if the whole target has been read
+	 * @return true if at the end of the target
+	 */
+	private boolean atEnd() {
+		return pos >= target.length();
+	}
+	
+	/**
+	 * Creates the exception reporting the character at the current position, or the end of the target, as unexpected
+	 * @return the exception
+	 */
+	private IllegalArgumentException unexpected() {
+		if(atEnd()) return new IllegalArgumentException("Unexpected end of target [" + target + "]");
+		return new IllegalArgumentException("Unexpected character '" + target.charAt(pos) + "' at position " + pos + " in [" + target + "]");
+	}
+	
+	/**
+	 * Indicates if the passed token is a valid function name
+	 * @param token The token
+	 * @return true if the token is a letter or underscore followed by letters, digits and underscores
+	 */
+	private static boolean isFunctionName(final String token) {
+		if(!Character.isLetter(token.charAt(0)) && token.charAt(0)!='_') return false;
+		for(int i = 1; i < token.length(); i++) {
+			final char c = token.charAt(i);
+			if(!Character.isLetterOrDigit(c) && c!='_') return false;
+		}
+		return true;
+	}
+	
+	/**
+	 * Indicates if the passed token looks like a number: an optional sign, digits with an optional fraction and an optional exponent
+	 * @param token The token
+	 * @return true if the token looks like a number
+	 */
+	private static boolean isNumber(final String token) {
+		int i = 0;
+		final int len = token.length();
+		if(token.charAt(0)=='-' || token.charAt(0)=='+') i++;
+		int digits = 0;
+		while(i < len && Character.isDigit(token.charAt(i))) { i++; digits++; }
+		if(i < len && token.charAt(i)=='.') {
+			i++;
+			while(i < len && Character.isDigit(token.charAt(i))) { i++; digits++; }
+		}
+		if(digits==0) return false;
+		if(i < len && (token.charAt(i)=='e' || token.charAt(i)=='E')) {
+			i++;
+			if(i < len && (token.charAt(i)=='-' || token.charAt(i)=='+')) i++;
+			final int exponentStart = i;
+			while(i < len && Character.isDigit(token.charAt(i))) i++;
+			if(i==exponentStart) return false;
+		}
+		return i==len;
+	}
+}
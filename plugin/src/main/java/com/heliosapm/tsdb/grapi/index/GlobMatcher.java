@@ -0,0 +1,646 @@
+/**
+Licensed to the Apache Software Foundation (ASF) under one
+or more contributor license agreements.  See the NOTICE file
+distributed with this work for additional information
+regarding copyright ownership.  The ASF licenses this file
+to you under the Apache License, Version 2.0 (the
+"License"); you may not use this file except in compliance
+with the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an
+"AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+KIND, either express or implied.  See the License for the
+specific language governing permissions and limitations
+under the License.
+ */
+package com.heliosapm.tsdb.grapi.index;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * <p>Title: GlobMatcher</p>
+ * <p>Description: A Graphite glob expression compiled to a deterministic finite automaton over UTF-8 bytes.
+ * Supports <b><code>*</code></b>, <b><code>?</code></b>, character classes such as <b><code>[a-z]</code></b> 
+ * and <b><code>[!a-z]</code></b>, and (nestable) alternatives such as <b><code>{a,b}</code></b>.</p>
+ * <p>The glob is parsed to a Thompson NFA whose edges are UTF-8 byte ranges, which is then determinized 
+ * over the equivalence classes of bytes the glob distinguishes. Matching costs one table lookup per input byte,
+ * and character input is encoded to UTF-8 on the fly, so no String is created to match a name.
+ * Instances are immutable and thread safe.</p> 
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>com.heliosapm.tsdb.grapi.index.GlobMatcher</code></p>
+ */
+
+public class GlobMatcher implements NameMatcher {
+	/** The glob expression */
+	protected final String glob;
+	/** Indicates if wildcards stop at dots (Graphite path semantics) */
+	protected final boolean dotSeparated;
+	/** The literal prefix of the glob */
+	protected final String literalPrefix;
+	/** Indicates if the glob has no wildcards */
+	protected final boolean literal;
+	/** The byte class of each byte value */
+	protected final int[] byteClasses;
+	/** The number of byte classes */
+	protected final int classCount;
+	/** The transition table, indexed by <b><code>state offset + byte class</code></b>, holding the next state's offset or {@link #DEAD} */
+	protected final int[] transitions;
+	/** The accepting flag of each state, indexed by state offset / class count */
+	protected final boolean[] accepting;
+	
+	/** The maximum number of DFA states a glob may compile to */
+	public static final int MAX_STATES = 4096;
+	/** The dead state */
+	protected static final int DEAD = -1;
+	/** The highest unicode code point */
+	protected static final int MAX_CODE_POINT = 0x10FFFF;
+	
+	/**
+	 * Compiles a glob with Graphite path semantics, where wildcards do not match dots
+	 * @param glob The glob expression
+	 * @return the compiled matcher
+	 */
+	public static GlobMatcher compile(final String glob) {
+		return compile(glob, true);
+	}
+	
+	/**
+	 * Compiles a glob
+	 * @param glob The glob expression
+	 * @param dotSeparated true if wildcards and negated classes should not match dots
+	 * @return the compiled matcher
+	 */
+	public static GlobMatcher compile(final String glob, final boolean dotSeparated) {
+		if(glob==null) throw new IllegalArgumentException("The passed glob was null");
+		return new GlobMatcher(glob, dotSeparated);
+	}
+	
+	/**
+	 * Creates a new GlobMatcher
+	 * @param glob The glob expression
+	 * @param dotSeparated true if wildcards and negated classes should not match dots
+	 */
+	protected GlobMatcher(final String glob, final boolean dotSeparated) {
+		this.glob = glob;
+		this.dotSeparated = dotSeparated;
+		literalPrefix = GraphitePaths.literalPrefix(glob);
+		literal = literalPrefix.length()==glob.length();
+		final Nfa nfa = new Nfa(glob, dotSeparated);
+		// byte classes: bytes that no edge distinguishes share a class
+		final boolean[] boundaries = new boolean[257];
+		for(Nfa.State s: nfa.states) {
+			for(int[] edge: s.edges) {
+				boundaries[edge[0]] = true;
+				boundaries[edge[1]+1] = true;
+			}
+		}
+		byteClasses = new int[256];
+		int cls = 0;
+		for(int b = 0; b < 256; b++) {
+			if(b > 0 && boundaries[b]) cls++;
+			byteClasses[b] = cls;
+		}
+		classCount = cls + 1;
+		final int[] representatives = new int[classCount];
+		for(int b = 255; b >= 0; b--) representatives[byteClasses[b]] = b;
+		// subset construction
+		final Map<BitSet, Integer> index = new HashMap<BitSet, Integer>();
+		final List<BitSet> dstates = new ArrayList<BitSet>();
+		int[] table = new int[classCount * 16];
+		final BitSet start = nfa.closure(Collections.singletonList(nfa.start));
+		index.put(start, 0);
+		dstates.add(start);
+		for(int d = 0; d < dstates.size(); d++) {
+			final BitSet current = dstates.get(d);
+			for(int c = 0; c < classCount; c++) {
+				final BitSet next = nfa.step(current, representatives[c]);
+				int target = DEAD;
+				if(!next.isEmpty()) {
+					Integer id = index.get(next);
+					if(id==null) {
+						id = dstates.size();
+						if(id >= MAX_STATES) throw new IllegalArgumentException("The glob [" + glob + "] is too complex");
+						index.put(next, id);
+						dstates.add(next);
+					}
+					target = id * classCount;
+				}
+				final int slot = d * classCount + c;
+				if(slot >= table.length) table = Arrays.copyOf(table, table.length * 2);
+				table[slot] = target;
+			}
+		}
+		transitions = Arrays.copyOf(table, dstates.size() * classCount);
+		accepting = new boolean[dstates.size()];
+		for(int d = 0; d < accepting.length; d++) {
+			accepting[d] = dstates.get(d).get(nfa.accept);
+		}
+	}
+	
+	/**
+	 * Determines if the passed UTF-8 encoded bytes match in their entirety
+	 * @param bytes The byte array holding the name
+	 * @param offset The offset of the name in the array
+	 * @param length The length of the name
+	 * @return true if the name matches, false otherwise
+	 */
+	public boolean matches(final byte[] bytes, final int offset, final int length) {
+		int state = 0;
+		final int end = offset + length;
+		for(int i = offset; i < end; i++) {
+			state = transitions[state + byteClasses[bytes[i] & 0xFF]];
+			if(state==DEAD) return false;
+		}
+		return accepting[state / classCount];
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 * @see com.heliosapm.tsdb.grapi.index.NameMatcher#matches(java.lang.CharSequence)
+	 */
+	@Override
+	public boolean matches(final CharSequence name) {
+		return matches(name, 0, name.length());
+	}
+	
+	/**
+	 * Determines if the passed range of a char sequence matches in its entirety
+	 * @param name The char sequence holding the name
+	 * @param start The start index of the name
+	 * @param end The end index of the name
+	 * @return true if the name matches, false otherwise
+	 */
+	public boolean matches(final CharSequence name, final int start, final int end) {
+		int state = 0;
+		for(int i = start; i < end; i++) {
+			final char c = name.charAt(i);
+			if(c < 0x80) {
+				state = transitions[state + byteClasses[c]];
+			} else if(Character.isHighSurrogate(c) && i+1 < end && Character.isLowSurrogate(name.charAt(i+1))) {
+				state = step(state, Character.toCodePoint(c, name.charAt(++i)));
+			} else {
+				state = step(state, c);
+			}
+			if(state==DEAD) return false;
+		}
+		return accepting[state / classCount];
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see com.heliosapm.tsdb.grapi.index.NameMatcher#matches(char[], int, int)
+	 */
+	@Override
+	public boolean matches(final char[] chars, final int offset, final int length) {
+		int state = 0;
+		final int end = offset + length;
+		for(int i = offset; i < end; i++) {
+			final char c = chars[i];
+			if(c < 0x80) {
+				state = transitions[state + byteClasses[c]];
+			} else if(Character.isHighSurrogate(c) && i+1 < end && Character.isLowSurrogate(chars[i+1])) {
+				state = step(state, Character.toCodePoint(c, chars[++i]));
+			} else {
+				state = step(state, c);
+			}
+			if(state==DEAD) return false;
+		}
+		return accepting[state / classCount];
+	}
+	
+	/**
+	 * Advances the automaton by the UTF-8 encoding of a non ASCII code point.
+	 * Unpaired surrogates are treated as <b><code>?</code></b>, as {@link String#getBytes(java.nio.charset.Charset)} does.
+	 * @param state The current state offset
+	 * @param cp The code point
+	 * @return the next state offset or {@link #DEAD}
+	 */
+	protected int step(int state, final int cp) {
+		if(cp < 0x800) {
+			state = transitions[state + byteClasses[0xC0 | (cp >> 6)]];
+			if(state==DEAD) return DEAD;
+		} else if(cp < 0x10000) {
+			if(cp >= 0xD800 && cp <= 0xDFFF) return transitions[state + byteClasses['?']];
+			state = transitions[state + byteClasses[0xE0 | (cp >> 12)]];
+			if(state==DEAD) return DEAD;
+			state = transitions[state + byteClasses[0x80 | ((cp >> 6) & 0x3F)]];
+			if(state==DEAD) return DEAD;
+		} else {
+			state = transitions[state + byteClasses[0xF0 | (cp >> 18)]];
+			if(state==DEAD) return DEAD;
+			state = transitions[state + byteClasses[0x80 | ((cp >> 12) & 0x3F)]];
+			if(state==DEAD) return DEAD;
+			state = transitions[state + byteClasses[0x80 | ((cp >> 6) & 0x3F)]];
+			if(state==DEAD) return DEAD;
+		}
+		return transitions[state + byteClasses[0x80 | (cp & 0x3F)]];
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see com.heliosapm.tsdb.grapi.index.NameMatcher#pattern()
+	 */
+	@Override
+	public String pattern() {
+		return glob;
+	}
+	
+	/**
+	 * Returns the literal prefix of the glob, which every matching name starts with. 
+	 * Index lookups can use it to skip non-matching ranges.
+	 * @return the literal prefix, which may be empty
+	 */
+	public String getLiteralPrefix() {
+		return literalPrefix;
+	}
+	
+	/**
+	 * Indicates if the glob has no wildcards, in which case it only matches itself
+	 * @return true if the glob is a plain literal
+	 */
+	public boolean isLiteral() {
+		return literal;
+	}
+	
+	/**
+	 * Returns the number of states in the compiled automaton
+	 * @return the number of states
+	 */
+	public int getStateCount() {
+		return accepting.length;
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 * @see java.lang.Object#toString()
+	 */
+	@Override
+	public String toString() {
+		return "glob:" + glob;
+	}
+	
+	/**
+	 * <p>Title: Nfa</p>
+	 * <p>Description: The Thompson NFA a glob is parsed to, with edges on UTF-8 byte ranges</p> 
+	 * <p>Company: Helios Development Group LLC</p>
+	 * @author Whitehead (nwhitehead AT heliosdev DOT org)
+	 * <p><code>com.heliosapm.tsdb.grapi.index.GlobMatcher.Nfa</code></p>
+	 */
+	protected static class Nfa {
+		/** The NFA states */
+		final List<State> states = new ArrayList<State>();
+		/** The glob being parsed */
+		final String glob;
+		/** Indicates if wildcards stop at dots */
+		final boolean dotSeparated;
+		/** The parse position */
+		int pos = 0;
+		/** The start state */
+		final int start;
+		/** The accepting state */
+		final int accept;
+		
+		/**
+		 * Parses the passed glob to an NFA
+		 * @param glob The glob expression
+		 * @param dotSeparated true if wildcards and negated classes should not match dots
+		 */
+		Nfa(final String glob, final boolean dotSeparated) {
+			this.glob = glob;
+			this.dotSeparated = dotSeparated;
+			start = newState();
+			accept = parseSequence(start, false);
+		}
+		
+		/**
+		 * Parses a sequence of glob terms
+		 * @param from The state the sequence starts from
+		 * @param inBraces true if the sequence is an alternative within braces
+		 * @return the state the sequence ends in
+		 */
+		int parseSequence(final int from, final boolean inBraces) {
+			int current = from;
+			while(pos < glob.length()) {
+				final int c = glob.codePointAt(pos);
+				if(inBraces && (c==',' || c=='}')) break;
+				switch(c) {
+					case '*': {
+						pos++;
+						final int loop = newState();
+						epsilon(current, loop);
+						addRanges(current = loop, anyChar(), loop);
+						break;
+					}
+					case '?': {
+						pos++;
+						final int next = newState();
+						addRanges(current, anyChar(), next);
+						current = next;
+						break;
+					}
+					case '[': {
+						pos++;
+						final int next = newState();
+						addRanges(current, parseClass(), next);
+						current = next;
+						break;
+					}
+					case '{': {
+						pos++;
+						final int end = newState();
+						while(true) {
+							epsilon(parseSequence(current, true), end);
+							if(pos >= glob.length()) throw new IllegalArgumentException("Unterminated alternatives in glob [" + glob + "]");
+							if(glob.charAt(pos++)=='}') break;
+						}
+						current = end;
+						break;
+					}
+					default: {
+						pos += Character.charCount(c);
+						final int next = newState();
+						addRanges(current, Collections.singletonList(new int[]{c, c}), next);
+						current = next;
+					}
+				}
+			}
+			return current;
+		}
+		
+		/**
+		 * Parses a character class, the opening bracket having been consumed
+		 * @return the code point ranges the class matches
+		 */
+		List<int[]> parseClass() {
+			boolean negate = false;
+			if(pos < glob.length() && (glob.charAt(pos)=='!' || glob.charAt(pos)=='^')) {
+				negate = true;
+				pos++;
+			}
+			final List<int[]> ranges = new ArrayList<int[]>();
+			boolean first = true;
+			while(true) {
+				if(pos >= glob.length()) throw new IllegalArgumentException("Unterminated character class in glob [" + glob + "]");
+				final int lo = glob.codePointAt(pos);
+				if(lo==']' && !first) {
+					pos++;
+					break;
+				}
+				first = false;
+				pos += Character.charCount(lo);
+				int hi = lo;
+				if(pos+1 < glob.length() && glob.charAt(pos)=='-' && glob.charAt(pos+1)!=']') {
+					hi = glob.codePointAt(pos+1);
+					pos += 1 + Character.charCount(hi);
+					if(hi < lo) throw new IllegalArgumentException("Invalid range [" + new String(Character.toChars(lo)) + "-" + new String(Character.toChars(hi)) + "] in glob [" + glob + "]");
+				}
+				ranges.add(new int[]{lo, hi});
+			}
+			return normalize(ranges, negate);
+		}
+		
+		/**
+		 * Returns the ranges matching any single character
+		 * @return the code point ranges
+		 */
+		List<int[]> anyChar() {
+			return normalize(new ArrayList<int[]>(), true);
+		}
+		
+		/**
+		 * Sorts and merges code point ranges, optionally complements them, and removes surrogates 
+		 * and, for dot separated globs with negated classes, the dot.
+		 * @param ranges The ranges to normalize
+		 * @param negate true to complement the ranges
+		 * @return the normalized ranges
+		 */
+		List<int[]> normalize(final List<int[]> ranges, final boolean negate) {
+			Collections.sort(ranges, RANGE_ORDER);
+			List<int[]> merged = new ArrayList<int[]>();
+			for(int[] r: ranges) {
+				final int[] last = merged.isEmpty() ? null : merged.get(merged.size()-1);
+				if(last!=null && r[0] <= last[1] + 1) last[1] = Math.max(last[1], r[1]);
+				else merged.add(new int[]{r[0], r[1]});
+			}
+			if(negate) {
+				final List<int[]> complement = new ArrayList<int[]>();
+				int next = 0;
+				for(int[] r: merged) {
+					if(r[0] > next) complement.add(new int[]{next, r[0]-1});
+					next = r[1] + 1;
+				}
+				if(next <= MAX_CODE_POINT) complement.add(new int[]{next, MAX_CODE_POINT});
+				merged = complement;
+				if(dotSeparated) merged = subtract(merged, '.', '.');
+			}
+			return subtract(merged, 0xD800, 0xDFFF);
+		}
+		
+		/**
+		 * Removes a range from sorted, merged ranges
+		 * @param ranges The ranges
+		 * @param lo The low end of the range to remove
+		 * @param hi The high end of the range to remove
+		 * @return the remaining ranges
+		 */
+		static List<int[]> subtract(final List<int[]> ranges, final int lo, final int hi) {
+			final List<int[]> result = new ArrayList<int[]>(ranges.size() + 1);
+			for(int[] r: ranges) {
+				if(r[1] < lo || r[0] > hi) {
+					result.add(r);
+					continue;
+				}
+				if(r[0] < lo) result.add(new int[]{r[0], lo-1});
+				if(r[1] > hi) result.add(new int[]{hi+1, r[1]});
+			}
+			return result;
+		}
+		
+		/**
+		 * Adds chains of byte range edges matching the UTF-8 encodings of the passed code point ranges
+		 * @param from The state the chains start from
+		 * @param ranges The code point ranges
+		 * @param to The state the chains end in
+		 */
+		void addRanges(final int from, final List<int[]> ranges, final int to) {
+			for(int[] r: ranges) {
+				addUtf8Range(from, r[0], r[1], to);
+			}
+		}
+		
+		/**
+		 * Splits a code point range into ranges whose UTF-8 encodings differ only within each byte's range, 
+		 * and adds a chain of edges for each
+		 * @param from The state the chains start from
+		 * @param lo The low code point
+		 * @param hi The high code point
+		 * @param to The state the chains end in
+		 */
+		void addUtf8Range(final int from, final int lo, final int hi, final int to) {
+			if(lo > hi) return;
+			// split on encoding length boundaries
+			final int[] limits = {0x7F, 0x7FF, 0xFFFF};
+			for(int limit: limits) {
+				if(lo <= limit && hi > limit) {
+					addUtf8Range(from, lo, limit, to);
+					addUtf8Range(from, limit + 1, hi, to);
+					return;
+				}
+			}
+			if(hi < 0x80) {
+				edge(from, lo, hi, to);
+				return;
+			}
+			final int len = hi < 0x800 ? 2 : hi < 0x10000 ? 3 : 4;
+			// split until only the trailing bytes span their full range
+			for(int i = 1; i < len; i++) {
+				final int mask = (1 << (6 * i)) - 1;
+				if((lo & ~mask)!=(hi & ~mask)) {
+					if((lo & mask)!=0) {
+						addUtf8Range(from, lo, lo | mask, to);
+						addUtf8Range(from, (lo | mask) + 1, hi, to);
+						return;
+					}
+					if((hi & mask)!=mask) {
+						addUtf8Range(from, lo, (hi & ~mask) - 1, to);
+						addUtf8Range(from, hi & ~mask, hi, to);
+						return;
+					}
+				}
+			}
+			final int[] los = encode(lo, len), his = encode(hi, len);
+			int current = from;
+			for(int i = 0; i < len - 1; i++) {
+				final int next = newState();
+				edge(current, los[i], his[i], next);
+				current = next;
+			}
+			edge(current, los[len-1], his[len-1], to);
+		}
+		
+		/**
+		 * UTF-8 encodes a code point
+		 * @param cp The code point
+		 * @param len The encoded length
+		 * @return the encoded bytes as ints
+		 */
+		static int[] encode(final int cp, final int len) {
+			switch(len) {
+				case 2: return new int[]{0xC0 | (cp >> 6), 0x80 | (cp & 0x3F)};
+				case 3: return new int[]{0xE0 | (cp >> 12), 0x80 | ((cp >> 6) & 0x3F), 0x80 | (cp & 0x3F)};
+				default: return new int[]{0xF0 | (cp >> 18), 0x80 | ((cp >> 12) & 0x3F), 0x80 | ((cp >> 6) & 0x3F), 0x80 | (cp & 0x3F)};
+			}
+		}
+		
+		/**
+		 * Computes the epsilon closure of the passed states
+		 * @param seeds The states to close over
+		 * @return the closure
+		 */
+		BitSet closure(final List<Integer> seeds) {
+			final BitSet set = new BitSet(states.size());
+			final int[] stack = new int[states.size()];
+			int top = 0;
+			for(Integer s: seeds) {
+				if(!set.get(s)) {
+					set.set(s);
+					stack[top++] = s;
+				}
+			}
+			while(top > 0) {
+				final State s = states.get(stack[--top]);
+				for(int e = 0; e < s.epsilonCount; e++) {
+					final int t = s.epsilons[e];
+					if(!set.get(t)) {
+						set.set(t);
+						stack[top++] = t;
+					}
+				}
+			}
+			return set;
+		}
+		
+		/**
+		 * Computes the closure of the states reached from the passed states on the passed byte
+		 * @param current The current states
+		 * @param b The byte
+		 * @return the next states
+		 */
+		BitSet step(final BitSet current, final int b) {
+			final List<Integer> targets = new ArrayList<Integer>();
+			for(int s = current.nextSetBit(0); s >= 0; s = current.nextSetBit(s+1)) {
+				for(int[] edge: states.get(s).edges) {
+					if(b >= edge[0] && b <= edge[1]) targets.add(edge[2]);
+				}
+			}
+			return closure(targets);
+		}
+		
+		/**
+		 * Creates a new state
+		 * @return the new state's index
+		 */
+		int newState() {
+			states.add(new State());
+			return states.size() - 1;
+		}
+		
+		/**
+		 * Adds a byte range edge
+		 * @param from The source state
+		 * @param lo The low byte
+		 * @param hi The high byte
+		 * @param to The target state
+		 */
+		void edge(final int from, final int lo, final int hi, final int to) {
+			states.get(from).edges.add(new int[]{lo, hi, to});
+		}
+		
+		/**
+		 * Adds an epsilon edge
+		 * @param from The source state
+		 * @param to The target state
+		 */
+		void epsilon(final int from, final int to) {
+			final State s = states.get(from);
+			if(s.epsilonCount==s.epsilons.length) s.epsilons = Arrays.copyOf(s.epsilons, s.epsilons.length * 2);
+			s.epsilons[s.epsilonCount++] = to;
+		}
+		
+		/**
+		 * <p>Title: State</p>
+		 * <p>Description: An NFA state</p> 
+		 * <p>Company: Helios Development Group LLC</p>
+		 * @author Whitehead (nwhitehead AT heliosdev DOT org)
+		 * <p><code>com.heliosapm.tsdb.grapi.index.GlobMatcher.Nfa.State</code></p>
+		 */
+		static class State {
+			/** The byte range edges as <b><code>{lo, hi, target}</code></b> */
+			final List<int[]> edges = new ArrayList<int[]>(2);
+			/** The epsilon edge targets */
+			int[] epsilons = new int[2];
+			/** The number of epsilon edges */
+			int epsilonCount = 0;
+		}
+	}
+	
+	/** Orders code point ranges by their low end */
+	private static final Comparator<int[]> RANGE_ORDER = new Comparator<int[]>() {
+		@Override
+		public int compare(final int[] a, final int[] b) {
+			return a[0] < b[0] ? -1 : a[0]==b[0] ? 0 : 1;
+		}
+	};
+
+}
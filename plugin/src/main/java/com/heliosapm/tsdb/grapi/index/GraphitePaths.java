@@ -0,0 +1,85 @@
+/**
+Licensed to the Apache Software Foundation (ASF) under one
+or more contributor license agreements.  See the NOTICE file
+distributed with this work for additional information
+regarding copyright ownership.  The ASF licenses this file
+to you under the Apache License, Version 2.0 (the
+"License"); you may not use this file except in compliance
+with the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an
+"AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+KIND, either express or implied.  See the License for the
+specific language governing permissions and limitations
+under the License.
+ */
+package com.heliosapm.tsdb.grapi.index;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * <p>Title: GraphitePaths</p>
+ * <p>Description: Static helpers for parsing Graphite dotted path expressions</p> 
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>com.heliosapm.tsdb.grapi.index.GraphitePaths</code></p>
+ */
+
+public class GraphitePaths {
+	/** The characters that start a glob expression */
+	public static final String GLOB_CHARS = "*?[{";
+	/** Empty string array const */
+	private static final String[] EMPTY_ARR = {};
+
+	/**
+	 * Splits a graphite path expression into segments on dots that are not enclosed in braces or brackets
+	 * @param path The path expression to split
+	 * @return the path segments
+	 */
+	public static String[] splitPath(final String path) {
+		if(path==null || path.isEmpty()) return EMPTY_ARR;
+		final List<String> segments = new ArrayList<String>();
+		int depth = 0, start = 0;
+		for(int i = 0; i < path.length(); i++) {
+			final char c = path.charAt(i);
+			if(c=='{' || c=='[') depth++;
+			else if((c=='}' || c==']') && depth > 0) depth--;
+			else if(c=='.' && depth==0) {
+				segments.add(path.substring(start, i));
+				start = i + 1;
+			}
+		}
+		segments.add(path.substring(start));
+		return segments.toArray(new String[segments.size()]);
+	}
+	
+	/**
+	 * Returns the literal prefix of the passed path expression, up to the first glob character
+	 * @param path The path expression
+	 * @return the literal prefix, which may be empty
+	 */
+	public static String literalPrefix(final String path) {
+		for(int i = 0; i < path.length(); i++) {
+			if(GLOB_CHARS.indexOf(path.charAt(i))!=-1) return path.substring(0, i);
+		}
+		return path;
+	}
+	
+	/**
+	 * Determines if the passed expression contains no glob characters
+	 * @param path The path expression
+	 * @return true if the expression is a plain literal
+	 */
+	public static boolean isLiteral(final String path) {
+		for(int i = 0; i < path.length(); i++) {
+			if(GLOB_CHARS.indexOf(path.charAt(i))!=-1) return false;
+		}
+		return true;
+	}
+	
+	private GraphitePaths() {}
+}
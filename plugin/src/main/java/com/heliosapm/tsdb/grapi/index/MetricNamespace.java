@@ -0,0 +1,222 @@
+/**
+Licensed to the Apache Software Foundation (ASF) under one
+or more contributor license agreements.  See the NOTICE file
+distributed with this work for additional information
+regarding copyright ownership.  The ASF licenses this file
+to you under the Apache License, Version 2.0 (the
+"License"); you may not use this file except in compliance
+with the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an
+"AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+KIND, either express or implied.  See the License for the
+specific language governing permissions and limitations
+under the License.
+ */
+package com.heliosapm.tsdb.grapi.index;
+
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import net.opentsdb.core.TSDB;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * <p>Title: MetricNamespace</p>
+ * <p>Description: Maintains a {@link NamespaceTrie} of the TSDB's metric names, rebuilding it from the
+ * metric UID table on a fixed schedule and swapping in the new trie once it is complete. With a refresh period of zero or less, 
+ * the trie is built once and never refreshed.
+ * Each trie is published in a {@link Snapshot} with its generation, so readers see a trie and the generation that tags it together.
+ * Adapters share one namespace through {@link #getShared(TSDB, int, long)}, so the UID table is only loaded once.</p> 
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>com.heliosapm.tsdb.grapi.index.MetricNamespace</code></p>
+ */
+
+public class MetricNamespace implements Runnable {
+	/** Instance logger */
+	protected final Logger log = LoggerFactory.getLogger(getClass());
+	/** The TSDB to load metric names from */
+	protected final TSDB tsdb;
+	/** The maximum number of metric names to load */
+	protected final int maxNames;
+	/** The refresh period in seconds, zero or less to build once */
+	protected final long refreshPeriod;
+	/** The scheduler running the refreshes */
+	protected final ScheduledExecutorService scheduler;
+	/** The current trie and its generation, null until the first build completes */
+	protected volatile Snapshot snapshot = null;
+	/** The generation of the last build, seeded with the creation time in ms so generations keep increasing across restarts */
+	protected final AtomicLong generation = new AtomicLong(System.currentTimeMillis());
+	/** The elapsed time of the last build in ms */
+	protected volatile long lastBuildTime = -1L;
+	
+	/** The shared instance */
+	private static volatile MetricNamespace shared = null;
+	/** The shared instance ctor lock */
+	private static final Object lock = new Object();
+	
+	/**
+	 * Returns the shared namespace, creating it with the passed settings on the first call
+	 * @param tsdb The TSDB to load metric names from
+	 * @param maxNames The maximum number of metric names to load
+	 * @param refreshPeriod The refresh period in seconds, zero or less to build once
+	 * @return the shared namespace
+	 */
+	public static MetricNamespace getShared(final TSDB tsdb, final int maxNames, final long refreshPeriod) {
+		if(shared==null) {
+			synchronized(lock) {
+				if(shared==null) {
+					shared = new MetricNamespace(tsdb, maxNames, refreshPeriod);
+				}
+			}
+		}
+		return shared;
+	}
+	
+	/**
+	 * Stops the shared namespace, if one was created, so the next call to {@link #getShared(TSDB, int, long)} creates a new one
+	 */
+	public static void stopShared() {
+		synchronized(lock) {
+			if(shared!=null) {
+				shared.stop();
+				shared = null;
+			}
+		}
+	}
+	
+	/**
+	 * Creates a new MetricNamespace and schedules the initial build
+	 * @param tsdb The TSDB to load metric names from
+	 * @param maxNames The maximum number of metric names to load
+	 * @param refreshPeriod The refresh period in seconds, zero or less to build once
+	 */
+	public MetricNamespace(final TSDB tsdb, final int maxNames, final long refreshPeriod) {
+		if(tsdb==null) throw new IllegalArgumentException("The passed TSDB was null");
+		this.tsdb = tsdb;
+		this.maxNames = maxNames;
+		this.refreshPeriod = refreshPeriod;
+		scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+			@Override
+			public Thread newThread(final Runnable r) {
+				final Thread t = new Thread(r, "MetricNamespaceRefresher");
+				t.setDaemon(true);
+				t.setPriority(Thread.MIN_PRIORITY);
+				return t;
+			}
+		});
+		if(refreshPeriod > 0) {
+			scheduler.scheduleWithFixedDelay(this, 0, refreshPeriod, TimeUnit.SECONDS);
+		} else {
+			log.info("Namespace refresh disabled by period {}. The namespace is built once.", refreshPeriod);
+			scheduler.execute(this);
+			scheduler.shutdown();
+		}
+	}
+
+	/**
+	 * Rebuilds the trie from the TSDB metric UID table
+	 * {@inheritDoc}
+	 * @see java.lang.Runnable#run()
+	 */
+	@Override
+	public void run() {
+		try {
+			final long start = System.currentTimeMillis();
+			final List<String> names = tsdb.suggestMetrics("", maxNames);
+			final NamespaceTrie newTrie = NamespaceTrie.build(names);
+			final Snapshot newSnapshot = new Snapshot(newTrie, generation.incrementAndGet());
+			snapshot = newSnapshot;
+			lastBuildTime = System.currentTimeMillis() - start;
+			log.info("Rebuilt {} generation {} in {} ms", newTrie, newSnapshot.generation, lastBuildTime);
+			if(names.size() >= maxNames) {
+				log.warn("Metric name load reached the configured maximum of {}. The namespace may be incomplete.", maxNames);
+			}
+		} catch (Exception ex) {
+			log.error("Failed to rebuild metric namespace", ex);
+		}
+	}
+	
+	/**
+	 * Returns the current trie
+	 * @return the current trie or null if the first build has not completed
+	 */
+	public NamespaceTrie getTrie() {
+		final Snapshot s = snapshot;
+		return s==null ? null : s.trie;
+	}
+	
+	/**
+	 * Returns the current trie with its generation. Callers that tag what they read from the trie should read both from one snapshot.
+	 * @return the current snapshot or null if the first build has not completed
+	 */
+	public Snapshot getSnapshot() {
+		return snapshot;
+	}
+	
+	/**
+	 * Returns the elapsed time of the last build
+	 * @return the elapsed time in ms, or -1 if no build has completed
+	 */
+	public long getLastBuildTime() {
+		return lastBuildTime;
+	}
+	
+	/**
+	 * Stops the scheduled refreshes, interrupting a build in progress
+	 */
+	public void stop() {
+		scheduler.shutdownNow();
+	}
+	
+	/**
+	 * <p>Title: Snapshot</p>
+	 * <p>Description: A built trie and its generation, which increases with every rebuild</p> 
+	 * <p>Company: Helios Development Group LLC</p>
+	 * @author Whitehead (nwhitehead AT heliosdev DOT org)
+	 * <p><code>com.heliosapm.tsdb.grapi.index.MetricNamespace.Snapshot</code></p>
+	 */
+	public static final class Snapshot {
+		/** The trie */
+		private final NamespaceTrie trie;
+		/** The generation of the trie */
+		private final long generation;
+		
+		/**
+		 * Creates a new Snapshot
+		 * @param trie The trie
+		 * @param generation The generation of the trie
+		 */
+		Snapshot(final NamespaceTrie trie, final long generation) {
+			this.trie = trie;
+			this.generation = generation;
+		}
+		
+		/**
+		 * Returns the trie
+		 * @return the trie
+		 */
+		public NamespaceTrie getTrie() {
+			return trie;
+		}
+		
+		/**
+		 * Returns the generation of the trie
+		 * @return the generation
+		 */
+		public long getGeneration() {
+			return generation;
+		}
+	}
+
+}
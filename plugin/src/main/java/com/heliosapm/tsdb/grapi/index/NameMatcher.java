@@ -0,0 +1,51 @@
+/**
+Licensed to the Apache Software Foundation (ASF) under one
+or more contributor license agreements.  See the NOTICE file
+distributed with this work for additional information
+regarding copyright ownership.  The ASF licenses this file
+to you under the Apache License, Version 2.0 (the
+"License"); you may not use this file except in compliance
+with the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an
+"AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+KIND, either express or implied.  See the License for the
+specific language governing permissions and limitations
+under the License.
+ */
+package com.heliosapm.tsdb.grapi.index;
+
+/**
+ * <p>Title: NameMatcher</p>
+ * <p>Description: Defines a compiled matcher for metric names, tag values and path segments</p> 
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>com.heliosapm.tsdb.grapi.index.NameMatcher</code></p>
+ */
+
+public interface NameMatcher {
+	/**
+	 * Determines if the passed name matches in its entirety
+	 * @param name The name to test
+	 * @return true if the name matches, false otherwise
+	 */
+	public boolean matches(CharSequence name);
+	
+	/**
+	 * Determines if the passed range of a char array matches in its entirety
+	 * @param chars The char array holding the name to test
+	 * @param offset The offset of the name in the array
+	 * @param length The length of the name
+	 * @return true if the name matches, false otherwise
+	 */
+	public boolean matches(char[] chars, int offset, int length);
+	
+	/**
+	 * Returns the expression this matcher was compiled from
+	 * @return the source expression
+	 */
+	public String pattern();
+}
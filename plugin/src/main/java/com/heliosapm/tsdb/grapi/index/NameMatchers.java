@@ -0,0 +1,49 @@
+/**
+Licensed to the Apache Software Foundation (ASF) under one
+or more contributor license agreements.  See the NOTICE file
+distributed with this work for additional information
+regarding copyright ownership.  The ASF licenses this file
+to you under the Apache License, Version 2.0 (the
+"License"); you may not use this file except in compliance
+with the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an
+"AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+KIND, either express or implied.  See the License for the
+specific language governing permissions and limitations
+under the License.
+ */
+package com.heliosapm.tsdb.grapi.index;
+
+/**
+ * <p>Title: NameMatchers</p>
+ * <p>Description: Static factory for {@link NameMatcher}s</p> 
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>com.heliosapm.tsdb.grapi.index.NameMatchers</code></p>
+ */
+
+public class NameMatchers {
+	/** The prefix of a filter expression that should be compiled as a glob */
+	public static final String GLOB_PREFIX = "glob:";
+	
+	/**
+	 * Compiles a <b><code>/filter=[...]</code></b> expression. Expressions prefixed with <b><code>glob:</code></b>
+	 * are compiled to a {@link GlobMatcher} whose wildcards also match dots. All other expressions are
+	 * compiled as java regular expressions for compatibility with existing filters.
+	 * @param expression The filter expression
+	 * @return the compiled matcher
+	 */
+	public static NameMatcher forFilter(final String expression) {
+		if(expression==null) throw new IllegalArgumentException("The passed filter expression was null");
+		if(expression.regionMatches(true, 0, GLOB_PREFIX, 0, GLOB_PREFIX.length())) {
+			return GlobMatcher.compile(expression.substring(GLOB_PREFIX.length()), false);
+		}
+		return new RegexNameMatcher(expression);
+	}
+	
+	private NameMatchers() {}
+}
@@ -0,0 +1,437 @@
+/**
+Licensed to the Apache Software Foundation (ASF) under one
+or more contributor license agreements.  See the NOTICE file
+distributed with this work for additional information
+regarding copyright ownership.  The ASF licenses this file
+to you under the Apache License, Version 2.0 (the
+"License"); you may not use this file except in compliance
+with the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an
+"AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+KIND, either express or implied.  See the License for the
+specific language governing permissions and limitations
+under the License.
+ */
+package com.heliosapm.tsdb.grapi.index;
+
+import java.util.AbstractMap;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+/**
+ * <p>Title: NamespaceTrie</p>
+ * <p>Description: A compact trie of dotted metric names. Each node holds one interned name segment and
+ * its children in an array sorted by segment, so literal segments are resolved by binary search and glob segments
+ * only scan the children sharing the segment's literal prefix. A find therefore costs time proportional to the
+ * matched subtree rather than to the size of the namespace. Matches are either collected by {@link #find(String)} or 
+ * walked one at a time by a {@link #cursor(String) cursor}, which holds no more than the path being visited.</p>
+ * <p>The trie is populated by a single thread through {@link #add(String)} and then {@link #freeze() frozen},
+ * after which it is immutable and can be shared freely between threads.</p> 
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>com.heliosapm.tsdb.grapi.index.NamespaceTrie</code></p>
+ */
+
+public class NamespaceTrie {
+	/** The result flag for a node with children */
+	public static final int BRANCH = 1;
+	/** The result flag for a node that is a complete metric name */
+	public static final int LEAF = 2;
+	
+	/** The root node */
+	protected final Node root = new Node("");
+	/** The segment intern pool, discarded when the trie is frozen */
+	protected Map<String, String> segmentPool = new HashMap<String, String>();
+	/** The number of nodes in the trie, excluding the root */
+	protected int nodeCount = 0;
+	/** The number of complete metric names in the trie */
+	protected int leafCount = 0;
+	/** Indicates if the trie has been frozen */
+	protected volatile boolean frozen = false;
+	
+	/** Empty node array const */
+	private static final Node[] EMPTY_NODES = {};
+	
+	/**
+	 * Builds and freezes a new trie from the passed metric names
+	 * @param metricNames The metric names to add
+	 * @return the frozen trie
+	 */
+	public static NamespaceTrie build(final Iterable<String> metricNames) {
+		final NamespaceTrie trie = new NamespaceTrie();
+		for(String name: metricNames) {
+			trie.add(name);
+		}
+		return trie.freeze();
+	}
+	
+	/**
+	 * Adds a metric name to the trie
+	 * @param metricName The dotted metric name to add
+	 */
+	public void add(final String metricName) {
+		if(frozen) throw new IllegalStateException("The trie is frozen");
+		if(metricName==null || metricName.isEmpty()) return;
+		final int len = metricName.length();
+		Node node = root;
+		int start = 0;
+		while(true) {
+			int end = metricName.indexOf('.', start);
+			if(end==-1) end = len;
+			node = childFor(node, metricName, start, end);
+			if(end==len) break;
+			start = end + 1;
+		}
+		if(!node.leaf) {
+			node.leaf = true;
+			leafCount++;
+		}
+	}
+	
+	/**
+	 * Freezes the trie, trimming child arrays and releasing the intern pool
+	 * @return this trie
+	 */
+	public NamespaceTrie freeze() {
+		if(!frozen) {
+			root.trim();
+			segmentPool = null;
+			frozen = true;
+		}
+		return this;
+	}
+	
+	/**
+	 * Finds the nodes at the depth of the passed graphite path expression which match it
+	 * @param query The graphite path expression, e.g. <b><code>sys.cpu-*.idle</code></b>
+	 * @return a map of node flags ({@link #BRANCH}, {@link #LEAF} or both) keyed by the full node path, in {@link Cursor trie order}
+	 */
+	public Map<String, Integer> find(final String query) {
+		final Map<String, Integer> results = new LinkedHashMap<String, Integer>();
+		for(final Cursor cursor = cursor(query); cursor.hasNext();) {
+			final Map.Entry<String, Integer> node = cursor.next();
+			results.put(node.getKey(), node.getValue());
+		}
+		return results;
+	}
+	
+	/**
+	 * Returns a cursor over the nodes at the depth of the passed graphite path expression which match it. 
+	 * The cursor walks the trie as it is advanced, so no more of the result than the current node is held.
+	 * @param query The graphite path expression, e.g. <b><code>sys.cpu-*.idle</code></b>
+	 * @return a cursor over the node flags ({@link #BRANCH}, {@link #LEAF} or both) keyed by the full node path
+	 */
+	public Cursor cursor(final String query) {
+		return new Cursor(GraphitePaths.splitPath(query), query.length());
+	}
+	
+	/**
+	 * Returns the child of the passed node for the passed name segment, creating it if it does not exist
+	 * @param parent The parent node
+	 * @param name The metric name
+	 * @param start The start index of the segment in the name
+	 * @param end The end index of the segment in the name
+	 * @return the child node
+	 */
+	protected Node childFor(final Node parent, final String name, final int start, final int end) {
+		// names are usually added in sorted order, so check the last child first
+		if(parent.childCount > 0 && compare(parent.children[parent.childCount-1].segment, name, start, end)==0) {
+			return parent.children[parent.childCount-1];
+		}
+		int index = parent.indexOf(name, start, end);
+		if(index >= 0) return parent.children[index];
+		final Node child = new Node(intern(name.substring(start, end)));
+		parent.insert(-(index + 1), child);
+		nodeCount++;
+		return child;
+	}
+	
+	/**
+	 * Returns the pooled instance of the passed segment
+	 * @param segment The segment
+	 * @return the pooled segment
+	 */
+	protected String intern(final String segment) {
+		final String pooled = segmentPool.get(segment);
+		if(pooled!=null) return pooled;
+		segmentPool.put(segment, segment);
+		return segment;
+	}
+	
+	/**
+	 * Compares a segment with a region of a string, consistent with {@link String#compareTo(String)}
+	 * @param segment The segment
+	 * @param s The string containing the region
+	 * @param start The start index of the region
+	 * @param end The end index of the region
+	 * @return negative, zero or positive as the segment is less than, equal to or greater than the region
+	 */
+	protected static int compare(final String segment, final String s, final int start, final int end) {
+		final int slen = segment.length(), rlen = end - start;
+		final int min = Math.min(slen, rlen);
+		for(int i = 0; i < min; i++) {
+			final int diff = segment.charAt(i) - s.charAt(start + i);
+			if(diff!=0) return diff;
+		}
+		return slen - rlen;
+	}
+	
+	/**
+	 * Returns the number of nodes in the trie
+	 * @return the number of nodes
+	 */
+	public int getNodeCount() {
+		return nodeCount;
+	}
+	
+	/**
+	 * Returns the number of complete metric names in the trie
+	 * @return the number of metric names
+	 */
+	public int getLeafCount() {
+		return leafCount;
+	}
+	
+	/**
+	 * Indicates if the trie has been frozen
+	 * @return true if frozen, false otherwise
+	 */
+	public boolean isFrozen() {
+		return frozen;
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 * @see java.lang.Object#toString()
+	 */
+	@Override
+	public String toString() {
+		return "NamespaceTrie [nodes=" + nodeCount + ", metrics=" + leafCount + ", frozen=" + frozen + "]";
+	}
+	
+	/**
+	 * <p>Title: Cursor</p>
+	 * <p>Description: A depth first walk of the nodes matching a graphite path expression, one node per call. 
+	 * Nodes are returned in trie order: by the first segment, then by the second and so on, each segment ordered like {@link String#compareTo(String)}.
+	 * The walk keeps one frame per segment of the expression, holding the next child to consider and where the children matching the segment end.</p> 
+	 * <p>Company: Helios Development Group LLC</p>
+	 * @author Whitehead (nwhitehead AT heliosdev DOT org)
+	 * <p><code>com.heliosapm.tsdb.grapi.index.NamespaceTrie.Cursor</code></p>
+	 */
+	public class Cursor implements Iterator<Map.Entry<String, Integer>> {
+		/** The query segments */
+		private final String[] segments;
+		/** The segment matchers, null for literal segments */
+		private final GlobMatcher[] matchers;
+		/** The node whose children are being considered, per depth */
+		private final Node[] nodes;
+		/** The index of the next child to consider, per depth */
+		private final int[] next;
+		/** The index past the last child that can match, per depth */
+		private final int[] limits;
+		/** The length of the parent path, per depth */
+		private final int[] marks;
+		/** The path of the node being visited */
+		private final StringBuilder path;
+		/** The current depth, -1 once the walk is done */
+		private int depth = -1;
+		/** The next node to return, or null if it has not been found yet */
+		private Map.Entry<String, Integer> found = null;
+		
+		/**
+		 * Creates a new Cursor
+		 * @param segments The query segments
+		 * @param queryLength The length of the query
+		 */
+		Cursor(final String[] segments, final int queryLength) {
+			this.segments = segments;
+			matchers = new GlobMatcher[segments.length];
+			for(int i = 0; i < segments.length; i++) {
+				final GlobMatcher matcher = GlobMatcher.compile(segments[i]);
+				if(!matcher.isLiteral()) matchers[i] = matcher;
+			}
+			nodes = new Node[segments.length];
+			next = new int[segments.length];
+			limits = new int[segments.length];
+			marks = new int[segments.length];
+			path = new StringBuilder(queryLength + 32);
+			if(segments.length > 0) push(root, 0);
+		}
+		
+		/**
+		 * Starts considering the children of the passed node for the segment at the passed depth. 
+		 * A literal segment has at most one candidate, a glob segment has the children sharing its literal prefix.
+		 * @param node The node whose children to consider
+		 * @param d The depth of the children
+		 */
+		private void push(final Node node, final int d) {
+			depth = d;
+			nodes[d] = node;
+			marks[d] = path.length();
+			if(matchers[d]==null) {
+				final int index = node.indexOf(segments[d], 0, segments[d].length());
+				next[d] = index < 0 ? 0 : index;
+				limits[d] = index < 0 ? 0 : index + 1;
+			} else {
+				final String prefix = matchers[d].getLiteralPrefix();
+				final int index = node.indexOf(prefix, 0, prefix.length());
+				next[d] = index < 0 ? -(index + 1) : index;
+				limits[d] = node.childCount;
+			}
+		}
+		
+		/**
+		 * Walks the trie to the next node at the query depth
+		 * @return the next node or null if there are no more
+		 */
+		private Map.Entry<String, Integer> advance() {
+			while(depth >= 0) {
+				final int d = depth;
+				final Node node = nodes[d];
+				final GlobMatcher matcher = matchers[d];
+				Node child = null;
+				while(next[d] < limits[d]) {
+					final Node candidate = node.children[next[d]++];
+					if(matcher==null) {
+						child = candidate;
+						break;
+					}
+					if(!candidate.segment.startsWith(matcher.getLiteralPrefix())) {
+						limits[d] = next[d];
+						break;
+					}
+					if(matcher.matches(candidate.segment)) {
+						child = candidate;
+						break;
+					}
+				}
+				if(child==null) {
+					nodes[d] = null;
+					depth--;
+					continue;
+				}
+				path.setLength(marks[d]);
+				if(d > 0) path.append('.');
+				path.append(child.segment);
+				if(d==segments.length-1) {
+					return new AbstractMap.SimpleImmutableEntry<String, Integer>(path.toString(), (child.leaf ? LEAF : 0) | (child.childCount > 0 ? BRANCH : 0));
+				}
+				if(child.childCount > 0) push(child, d + 1);
+			}
+			return null;
+		}
+
+		/**
+		 * {@inheritDoc}
+		 * @see java.util.Iterator#hasNext()
+		 */
+		@Override
+		public boolean hasNext() {
+			if(found==null) found = advance();
+			return found!=null;
+		}
+
+		/**
+		 * {@inheritDoc}
+		 * @see java.util.Iterator#next()
+		 */
+		@Override
+		public Map.Entry<String, Integer> next() {
+			if(!hasNext()) throw new NoSuchElementException();
+			final Map.Entry<String, Integer> node = found;
+			found = null;
+			return node;
+		}
+
+		/**
+		 * {@inheritDoc}
+		 * @see java.util.Iterator#remove()
+		 */
+		@Override
+		public void remove() {
+			throw new UnsupportedOperationException("The trie is read only");
+		}
+	}
+	
+	/**
+	 * <p>Title: Node</p>
+	 * <p>Description: A trie node holding one metric name segment</p> 
+	 * <p>Company: Helios Development Group LLC</p>
+	 * @author Whitehead (nwhitehead AT heliosdev DOT org)
+	 * <p><code>com.heliosapm.tsdb.grapi.index.NamespaceTrie.Node</code></p>
+	 */
+	protected static class Node {
+		/** The name segment */
+		protected final String segment;
+		/** The children sorted by segment */
+		protected Node[] children = EMPTY_NODES;
+		/** The number of children */
+		protected int childCount = 0;
+		/** Indicates if the path to this node is a complete metric name */
+		protected boolean leaf = false;
+		
+		/**
+		 * Creates a new Node
+		 * @param segment The name segment
+		 */
+		protected Node(final String segment) {
+			this.segment = segment;
+		}
+		
+		/**
+		 * Binary searches the children for the passed segment
+		 * @param s The string containing the segment
+		 * @param start The start index of the segment
+		 * @param end The end index of the segment
+		 * @return the index of the child, or <code>-(insertion point) - 1</code> if not found
+		 */
+		protected int indexOf(final String s, final int start, final int end) {
+			int lo = 0, hi = childCount - 1;
+			while(lo <= hi) {
+				final int mid = (lo + hi) >>> 1;
+				final int cmp = compare(children[mid].segment, s, start, end);
+				if(cmp < 0) lo = mid + 1;
+				else if(cmp > 0) hi = mid - 1;
+				else return mid;
+			}
+			return -(lo + 1);
+		}
+		
+		/**
+		 * Inserts a child at the passed index
+		 * @param index The index to insert at
+		 * @param child The child to insert
+		 */
+		protected void insert(final int index, final Node child) {
+			if(childCount==children.length) {
+				children = Arrays.copyOf(children, childCount==0 ? 2 : childCount * 2);
+			}
+			if(index < childCount) {
+				System.arraycopy(children, index, children, index + 1, childCount - index);
+			}
+			children[index] = child;
+			childCount++;
+		}
+		
+		/**
+		 * Trims the child arrays of this node and all its descendants to size
+		 */
+		protected void trim() {
+			if(children.length > childCount) {
+				children = Arrays.copyOf(children, childCount);
+			}
+			for(int i = 0; i < childCount; i++) {
+				children[i].trim();
+			}
+		}
+	}
+
+}
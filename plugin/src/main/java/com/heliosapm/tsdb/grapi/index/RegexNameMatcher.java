@@ -0,0 +1,80 @@
+/**
+Licensed to the Apache Software Foundation (ASF) under one
+or more contributor license agreements.  See the NOTICE file
+distributed with this work for additional information
+regarding copyright ownership.  The ASF licenses this file
+to you under the Apache License, Version 2.0 (the
+"License"); you may not use this file except in compliance
+with the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an
+"AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+KIND, either express or implied.  See the License for the
+specific language governing permissions and limitations
+under the License.
+ */
+package com.heliosapm.tsdb.grapi.index;
+
+import java.nio.CharBuffer;
+import java.util.regex.Pattern;
+
+/**
+ * <p>Title: RegexNameMatcher</p>
+ * <p>Description: A {@link NameMatcher} backed by a java regular expression</p> 
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>com.heliosapm.tsdb.grapi.index.RegexNameMatcher</code></p>
+ */
+
+public class RegexNameMatcher implements NameMatcher {
+	/** The compiled pattern */
+	protected final Pattern pattern;
+	
+	/**
+	 * Creates a new RegexNameMatcher
+	 * @param regex The regular expression to compile
+	 */
+	public RegexNameMatcher(final String regex) {
+		pattern = Pattern.compile(regex);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see com.heliosapm.tsdb.grapi.index.NameMatcher#matches(java.lang.CharSequence)
+	 */
+	@Override
+	public boolean matches(final CharSequence name) {
+		return pattern.matcher(name).matches();
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see com.heliosapm.tsdb.grapi.index.NameMatcher#matches(char[], int, int)
+	 */
+	@Override
+	public boolean matches(final char[] chars, final int offset, final int length) {
+		return pattern.matcher(CharBuffer.wrap(chars, offset, length)).matches();
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see com.heliosapm.tsdb.grapi.index.NameMatcher#pattern()
+	 */
+	@Override
+	public String pattern() {
+		return pattern.pattern();
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 * @see java.lang.Object#toString()
+	 */
+	@Override
+	public String toString() {
+		return "regex:" + pattern.pattern();
+	}
+
+}
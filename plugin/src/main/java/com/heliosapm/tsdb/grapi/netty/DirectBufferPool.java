@@ -0,0 +1,484 @@
+/**
+Licensed to the Apache Software Foundation (ASF) under one
+or more contributor license agreements.  See the NOTICE file
+distributed with this work for additional information
+regarding copyright ownership.  The ASF licenses this file
+to you under the Apache License, Version 2.0 (the
+"License"); you may not use this file except in compliance
+with the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an
+"AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+KIND, either express or implied.  See the License for the
+specific language governing permissions and limitations
+under the License.
+ */
+package com.heliosapm.tsdb.grapi.netty;
+
+import static com.heliosapm.tsdb.grapi.server.http.Constants.DEFAULT_BUFFER_POOL_ENABLED;
+import static com.heliosapm.tsdb.grapi.server.http.Constants.DEFAULT_BUFFER_POOL_MAXRETAINED;
+import static com.heliosapm.tsdb.grapi.server.http.Constants.DEFAULT_BUFFER_POOL_MAXSIZE;
+import static com.heliosapm.tsdb.grapi.server.http.Constants.DEFAULT_BUFFER_POOL_MINSIZE;
+import static com.heliosapm.tsdb.grapi.server.http.Constants.DEFAULT_BUFFER_POOL_THREADCACHE;
+import static com.heliosapm.tsdb.grapi.server.http.Constants.PROPERTY_BUFFER_POOL_ENABLED;
+import static com.heliosapm.tsdb.grapi.server.http.Constants.PROPERTY_BUFFER_POOL_MAXRETAINED;
+import static com.heliosapm.tsdb.grapi.server.http.Constants.PROPERTY_BUFFER_POOL_MAXSIZE;
+import static com.heliosapm.tsdb.grapi.server.http.Constants.PROPERTY_BUFFER_POOL_MINSIZE;
+import static com.heliosapm.tsdb.grapi.server.http.Constants.PROPERTY_BUFFER_POOL_THREADCACHE;
+
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.management.ObjectName;
+
+import org.jboss.netty.util.internal.DeadLockProofWorker;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.heliosapm.utils.config.ConfigurationHelper;
+import com.heliosapm.utils.jmx.JMXHelper;
+import com.heliosapm.utils.lang.StringHelper;
+import com.heliosapm.utils.nio.BufferCleaner;
+
+/**
+ * <p>Title: DirectBufferPool</p>
+ * <p>Description: A pool of direct byte buffers in power of two size classes. Each netty I/O thread keeps a small
+ * cache of buffers per size class in front of a shared pool, so buffers acquired and released on the same 
+ * I/O thread never touch shared state. All other threads, which may be short lived (adapter workers, fork join
+ * workers, TSDB callbacks), go straight to the shared pool. The caches of I/O threads that have terminated are 
+ * drained back into the shared pool. The total number of retained bytes is bounded, and buffers that do not fit
+ * are cleaned immediately rather than left to the garbage collector.</p>
+ * <p>Buffers must be {@link #release(ByteBuffer) released} exactly once, when nothing references them any more.</p> 
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>com.heliosapm.tsdb.grapi.netty.DirectBufferPool</code></p>
+ */
+
+public class DirectBufferPool implements DirectBufferPoolMBean {
+	/** The singleton instance */
+	private static volatile DirectBufferPool instance = null;
+	/** The singleton instance ctor lock */
+	private static final Object lock = new Object();
+	
+	/** Instance logger */
+	protected final Logger log = LoggerFactory.getLogger(getClass());
+	/** Indicates if pooling is enabled */
+	protected final boolean enabled;
+	/** The log2 of the smallest size class */
+	protected final int minShift;
+	/** The log2 of the largest size class */
+	protected final int maxShift;
+	/** The maximum number of buffers per size class cached per thread */
+	protected final int threadCacheSize;
+	/** The maximum number of retained bytes */
+	protected final long maxRetainedBytes;
+	/** The shared pools, one per size class */
+	protected final ConcurrentLinkedQueue<ByteBuffer>[] shared;
+	/** The per thread caches, only populated for netty I/O threads */
+	protected final ThreadLocal<ThreadCache> threadCaches = new ThreadLocal<ThreadCache>();
+	/** All the thread caches created, so the caches of terminated threads can be reclaimed */
+	protected final CopyOnWriteArrayList<ThreadCache> allCaches = new CopyOnWriteArrayList<ThreadCache>();
+	
+	/** The number of retained bytes */
+	protected final AtomicLong retainedBytes = new AtomicLong(0L);
+	/** The acquisition counter */
+	protected final AtomicLong acquires = new AtomicLong(0L);
+	/** The thread cache hit counter */
+	protected final AtomicLong threadCacheHits = new AtomicLong(0L);
+	/** The shared pool hit counter */
+	protected final AtomicLong sharedHits = new AtomicLong(0L);
+	/** The allocation counter */
+	protected final AtomicLong allocations = new AtomicLong(0L);
+	/** The release counter */
+	protected final AtomicLong releases = new AtomicLong(0L);
+	/** The discard counter */
+	protected final AtomicLong discards = new AtomicLong(0L);
+	/** The leak counter */
+	protected final AtomicLong leaks = new AtomicLong(0L);
+	
+	/** The JMX ObjectName of the pool */
+	public static final ObjectName OBJECT_NAME = JMXHelper.objectName("com.heliosapm.tsdb.grapi:service=DirectBufferPool");
+	
+	/**
+	 * Acquires the DirectBufferPool singleton instance, configuring it from the passed properties if it has not been created yet
+	 * @param config The optional configuration properties
+	 * @return the DirectBufferPool singleton instance
+	 */
+	public static DirectBufferPool getInstance(final Properties config) {
+		if(instance==null) {
+			synchronized(lock) {
+				if(instance==null) {
+					instance = new DirectBufferPool(config);
+				}
+			}
+		}
+		return instance;
+	}
+	
+	/**
+	 * Acquires the DirectBufferPool singleton instance, configuring it from system properties and the environment 
+	 * if it has not been created yet
+	 * @return the DirectBufferPool singleton instance
+	 */
+	public static DirectBufferPool getInstance() {
+		return getInstance(null);
+	}
+	
+	/**
+	 * Creates a new DirectBufferPool
+	 * @param config The optional configuration properties
+	 */
+	@SuppressWarnings("unchecked")
+	private DirectBufferPool(final Properties config) {
+		enabled = ConfigurationHelper.getBooleanSystemThenEnvProperty(PROPERTY_BUFFER_POOL_ENABLED, DEFAULT_BUFFER_POOL_ENABLED, config);
+		minShift = log2(ConfigurationHelper.getIntSystemThenEnvProperty(PROPERTY_BUFFER_POOL_MINSIZE, DEFAULT_BUFFER_POOL_MINSIZE, config));
+		maxShift = Math.max(minShift, log2(ConfigurationHelper.getIntSystemThenEnvProperty(PROPERTY_BUFFER_POOL_MAXSIZE, DEFAULT_BUFFER_POOL_MAXSIZE, config)));
+		threadCacheSize = Math.max(0, ConfigurationHelper.getIntSystemThenEnvProperty(PROPERTY_BUFFER_POOL_THREADCACHE, DEFAULT_BUFFER_POOL_THREADCACHE, config));
+		maxRetainedBytes = ConfigurationHelper.getLongSystemThenEnvProperty(PROPERTY_BUFFER_POOL_MAXRETAINED, DEFAULT_BUFFER_POOL_MAXRETAINED, config);
+		shared = new ConcurrentLinkedQueue[maxShift - minShift + 1];
+		for(int i = 0; i < shared.length; i++) {
+			shared[i] = new ConcurrentLinkedQueue<ByteBuffer>();
+		}
+		try {
+			if(!ManagementFactory.getPlatformMBeanServer().isRegistered(OBJECT_NAME)) {
+				ManagementFactory.getPlatformMBeanServer().registerMBean(this, OBJECT_NAME);
+			}
+		} catch (Exception ex) {
+			log.warn("Failed to register management interface for DirectBufferPool", ex);
+		}
+		log.info(StringHelper.banner("DirectBufferPool Configuration\n\tEnabled:%s\n\tSize Classes:%s - %s\n\tThread Cache Size:%s\n\tMax Retained Bytes:%s", enabled, getMinSize(), getMaxSize(), threadCacheSize, maxRetainedBytes));
+	}
+	
+	/**
+	 * Returns the log2 of the smallest power of two greater than or equal to the passed size
+	 * @param size The size
+	 * @return the log2 of the rounded up size
+	 */
+	protected static int log2(final int size) {
+		if(size <= 1) return 0;
+		return 32 - Integer.numberOfLeadingZeros(size - 1);
+	}
+	
+	/**
+	 * Acquires a cleared direct buffer with at least the passed capacity. Pooled buffers have the capacity 
+	 * of their size class. Requests larger than the largest size class are allocated with the exact capacity.
+	 * @param minCapacity The minimum capacity
+	 * @return a cleared, big endian direct buffer
+	 */
+	public ByteBuffer acquire(final int minCapacity) {
+		final int shift = log2(Math.max(1, minCapacity));
+		if(!enabled || shift > maxShift) {
+			return ByteBuffer.allocateDirect(minCapacity);
+		}
+		acquires.incrementAndGet();
+		final int sizeClass = Math.max(0, shift - minShift);
+		final ThreadCache cache = threadCache();
+		ByteBuffer buff = cache==null ? null : cache.pop(sizeClass);
+		if(buff!=null) {
+			threadCacheHits.incrementAndGet();
+		} else {
+			buff = shared[sizeClass].poll();
+			if(buff==null) {
+				allocations.incrementAndGet();
+				return ByteBuffer.allocateDirect(1 << (sizeClass + minShift));
+			}
+			sharedHits.incrementAndGet();
+		}
+		retainedBytes.addAndGet(-buff.capacity());
+		return buff;
+	}
+	
+	/**
+	 * Returns a buffer to the pool. Buffers that are not of a pooled size class, or that would push the 
+	 * retained bytes over the limit, are cleaned. The caller must not use the buffer or any view of it afterwards.
+	 * @param buff The buffer to release
+	 */
+	public void release(final ByteBuffer buff) {
+		if(buff==null) return;
+		final int capacity = buff.capacity();
+		if(!enabled || !buff.isDirect() || Integer.bitCount(capacity)!=1) {
+			BufferCleaner.clean(buff);
+			return;
+		}
+		final int sizeClass = Integer.numberOfTrailingZeros(capacity) - minShift;
+		if(sizeClass < 0 || sizeClass >= shared.length) {
+			BufferCleaner.clean(buff);
+			return;
+		}
+		releases.incrementAndGet();
+		if(retainedBytes.addAndGet(capacity) > maxRetainedBytes) {
+			retainedBytes.addAndGet(-capacity);
+			// buffers stranded in the caches of dead threads count against the limit, so reclaim them first
+			reclaimStranded();
+			discards.incrementAndGet();
+			BufferCleaner.clean(buff);
+			return;
+		}
+		buff.clear();
+		buff.order(ByteOrder.BIG_ENDIAN);
+		final ThreadCache cache = threadCache();
+		if(cache==null || !cache.push(sizeClass, buff)) {
+			shared[sizeClass].offer(buff);
+		}
+	}
+	
+	/**
+	 * Returns the calling thread's cache, creating it if the calling thread is a netty I/O thread.
+	 * Any other thread may be short lived and would strand the buffers it cached when it exits, so it gets none.
+	 * @return the calling thread's cache or null if the calling thread does not cache
+	 */
+	protected ThreadCache threadCache() {
+		if(threadCacheSize==0) return null;
+		ThreadCache cache = threadCaches.get();
+		if(cache==null && DeadLockProofWorker.PARENT.get()!=null) {
+			reclaimStranded();
+			cache = new ThreadCache(shared.length, threadCacheSize, Thread.currentThread());
+			threadCaches.set(cache);
+			allCaches.add(cache);
+		}
+		return cache;
+	}
+	
+	/**
+	 * Moves the buffers held in the caches of terminated threads into the shared pool, where they
+	 * can be acquired again and leave the retained bytes when they are
+	 */
+	protected void reclaimStranded() {
+		for(ThreadCache cache: allCaches) {
+			// the owner's termination makes its cache visible here, and the remove decides which thread drains it
+			if(!cache.owner.isAlive() && allCaches.remove(cache)) {
+				for(int sizeClass = 0; sizeClass < shared.length; sizeClass++) {
+					ByteBuffer buff = null;
+					while((buff = cache.pop(sizeClass))!=null) {
+						shared[sizeClass].offer(buff);
+					}
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Records a pooled buffer that was garbage collected without being released
+	 */
+	public void recordLeak() {
+		leaks.incrementAndGet();
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see com.heliosapm.tsdb.grapi.netty.DirectBufferPoolMBean#isEnabled()
+	 */
+	@Override
+	public boolean isEnabled() {
+		return enabled;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see com.heliosapm.tsdb.grapi.netty.DirectBufferPoolMBean#getMinSize()
+	 */
+	@Override
+	public int getMinSize() {
+		return 1 << minShift;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see com.heliosapm.tsdb.grapi.netty.DirectBufferPoolMBean#getMaxSize()
+	 */
+	@Override
+	public int getMaxSize() {
+		return 1 << maxShift;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see com.heliosapm.tsdb.grapi.netty.DirectBufferPoolMBean#getThreadCacheSize()
+	 */
+	@Override
+	public int getThreadCacheSize() {
+		return threadCacheSize;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see com.heliosapm.tsdb.grapi.netty.DirectBufferPoolMBean#getMaxRetainedBytes()
+	 */
+	@Override
+	public long getMaxRetainedBytes() {
+		return maxRetainedBytes;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see com.heliosapm.tsdb.grapi.netty.DirectBufferPoolMBean#getRetainedBytes()
+	 */
+	@Override
+	public long getRetainedBytes() {
+		return retainedBytes.get();
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see com.heliosapm.tsdb.grapi.netty.DirectBufferPoolMBean#getAcquires()
+	 */
+	@Override
+	public long getAcquires() {
+		return acquires.get();
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see com.heliosapm.tsdb.grapi.netty.DirectBufferPoolMBean#getThreadCacheHits()
+	 */
+	@Override
+	public long getThreadCacheHits() {
+		return threadCacheHits.get();
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see com.heliosapm.tsdb.grapi.netty.DirectBufferPoolMBean#getSharedHits()
+	 */
+	@Override
+	public long getSharedHits() {
+		return sharedHits.get();
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see com.heliosapm.tsdb.grapi.netty.DirectBufferPoolMBean#getAllocations()
+	 */
+	@Override
+	public long getAllocations() {
+		return allocations.get();
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see com.heliosapm.tsdb.grapi.netty.DirectBufferPoolMBean#getReleases()
+	 */
+	@Override
+	public long getReleases() {
+		return releases.get();
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see com.heliosapm.tsdb.grapi.netty.DirectBufferPoolMBean#getDiscards()
+	 */
+	@Override
+	public long getDiscards() {
+		return discards.get();
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see com.heliosapm.tsdb.grapi.netty.DirectBufferPoolMBean#getLeaks()
+	 */
+	@Override
+	public long getLeaks() {
+		return leaks.get();
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see com.heliosapm.tsdb.grapi.netty.DirectBufferPoolMBean#getHitRate()
+	 */
+	@Override
+	public int getHitRate() {
+		final long total = acquires.get();
+		if(total==0L) return 0;
+		return (int)((threadCacheHits.get() + sharedHits.get()) * 100 / total);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see com.heliosapm.tsdb.grapi.netty.DirectBufferPoolMBean#resetCounters()
+	 */
+	@Override
+	public void resetCounters() {
+		acquires.set(0L);
+		threadCacheHits.set(0L);
+		sharedHits.set(0L);
+		allocations.set(0L);
+		releases.set(0L);
+		discards.set(0L);
+		leaks.set(0L);
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 * @see java.lang.Object#toString()
+	 */
+	@Override
+	public String toString() {
+		return "DirectBufferPool [retained=" + retainedBytes.get() + ", acquires=" + acquires.get() + ", hitRate=" + getHitRate() + "%, allocations=" + allocations.get() + ", discards=" + discards.get() + ", leaks=" + leaks.get() + "]";
+	}
+	
+	/**
+	 * <p>Title: ThreadCache</p>
+	 * <p>Description: A per thread stack of buffers for each size class. Only ever accessed by its owning thread,
+	 * or by the thread that reclaims it once the owner has terminated.</p> 
+	 * <p>Company: Helios Development Group LLC</p>
+	 * @author Whitehead (nwhitehead AT heliosdev DOT org)
+	 * <p><code>com.heliosapm.tsdb.grapi.netty.DirectBufferPool.ThreadCache</code></p>
+	 */
+	protected static class ThreadCache {
+		/** The buffer stacks per size class */
+		private final ByteBuffer[][] stacks;
+		/** The stack depths per size class */
+		private final int[] depths;
+		/** The owning thread */
+		final Thread owner;
+		
+		/**
+		 * Creates a new ThreadCache
+		 * @param classes The number of size classes
+		 * @param size The maximum number of buffers per size class
+		 * @param owner The owning thread
+		 */
+		ThreadCache(final int classes, final int size, final Thread owner) {
+			stacks = new ByteBuffer[classes][size];
+			depths = new int[classes];
+			this.owner = owner;
+		}
+		
+		/**
+		 * Pops a buffer from the passed size class
+		 * @param sizeClass The size class
+		 * @return a buffer or null if the cache is empty
+		 */
+		ByteBuffer pop(final int sizeClass) {
+			final int depth = depths[sizeClass];
+			if(depth==0) return null;
+			depths[sizeClass] = depth - 1;
+			final ByteBuffer buff = stacks[sizeClass][depth - 1];
+			stacks[sizeClass][depth - 1] = null;
+			return buff;
+		}
+		
+		/**
+		 * Pushes a buffer onto the passed size class
+		 * @param sizeClass The size class
+		 * @param buff The buffer
+		 * @return true if the buffer was cached, false if the cache is full
+		 */
+		boolean push(final int sizeClass, final ByteBuffer buff) {
+			final int depth = depths[sizeClass];
+			if(depth==stacks[sizeClass].length) return false;
+			stacks[sizeClass][depth] = buff;
+			depths[sizeClass] = depth + 1;
+			return true;
+		}
+	}
+
+}
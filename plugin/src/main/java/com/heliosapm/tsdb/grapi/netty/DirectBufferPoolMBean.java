@@ -0,0 +1,118 @@
+/**
+Licensed to the Apache Software Foundation (ASF) under one
+or more contributor license agreements.  See the NOTICE file
+distributed with this work for additional information
+regarding copyright ownership.  The ASF licenses this file
+to you under the Apache License, Version 2.0 (the
+"License"); you may not use this file except in compliance
+with the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an
+"AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+KIND, either express or implied.  See the License for the
+specific language governing permissions and limitations
+under the License.
+ */
+package com.heliosapm.tsdb.grapi.netty;
+
+/**
+ * <p>Title: DirectBufferPoolMBean</p>
+ * <p>Description: JMX management interface for the {@link DirectBufferPool}</p> 
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>com.heliosapm.tsdb.grapi.netty.DirectBufferPoolMBean</code></p>
+ */
+
+public interface DirectBufferPoolMBean {
+	/**
+	 * Indicates if pooling is enabled
+	 * @return true if enabled, false if buffers are allocated and cleaned on every use
+	 */
+	public boolean isEnabled();
+	
+	/**
+	 * Returns the smallest pooled buffer size
+	 * @return the smallest pooled buffer size in bytes
+	 */
+	public int getMinSize();
+	
+	/**
+	 * Returns the largest pooled buffer size. Larger requests are allocated and cleaned on every use.
+	 * @return the largest pooled buffer size in bytes
+	 */
+	public int getMaxSize();
+	
+	/**
+	 * Returns the maximum number of buffers of each size cached per thread
+	 * @return the per thread cache size
+	 */
+	public int getThreadCacheSize();
+	
+	/**
+	 * Returns the maximum number of bytes the pool will retain
+	 * @return the maximum number of retained bytes
+	 */
+	public long getMaxRetainedBytes();
+	
+	/**
+	 * Returns the number of bytes currently retained in the pool and its thread caches
+	 * @return the number of retained bytes
+	 */
+	public long getRetainedBytes();
+	
+	/**
+	 * Returns the cumulative number of buffer acquisitions
+	 * @return the number of acquisitions
+	 */
+	public long getAcquires();
+	
+	/**
+	 * Returns the cumulative number of acquisitions served from a thread cache
+	 * @return the number of thread cache hits
+	 */
+	public long getThreadCacheHits();
+	
+	/**
+	 * Returns the cumulative number of acquisitions served from the shared pool
+	 * @return the number of shared pool hits
+	 */
+	public long getSharedHits();
+	
+	/**
+	 * Returns the cumulative number of acquisitions that allocated a new buffer
+	 * @return the number of allocations
+	 */
+	public long getAllocations();
+	
+	/**
+	 * Returns the cumulative number of buffers released
+	 * @return the number of releases
+	 */
+	public long getReleases();
+	
+	/**
+	 * Returns the cumulative number of released buffers that were cleaned rather than retained
+	 * @return the number of discards
+	 */
+	public long getDiscards();
+	
+	/**
+	 * Returns the cumulative number of pooled buffers that were garbage collected without being released
+	 * @return the number of leaked buffers
+	 */
+	public long getLeaks();
+	
+	/**
+	 * Returns the hit rate as a percentage of all acquisitions
+	 * @return the hit rate percentage
+	 */
+	public int getHitRate();
+	
+	/**
+	 * Resets the cumulative counters
+	 */
+	public void resetCounters();
+}
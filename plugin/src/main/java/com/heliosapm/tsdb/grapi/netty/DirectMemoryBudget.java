@@ -0,0 +1,413 @@
+/**
+Licensed to the Apache Software Foundation (ASF) under one
+or more contributor license agreements.  See the NOTICE file
+distributed with this work for additional information
+regarding copyright ownership.  The ASF licenses this file
+to you under the Apache License, Version 2.0 (the
+"License"); you may not use this file except in compliance
+with the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an
+"AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+KIND, either express or implied.  See the License for the
+specific language governing permissions and limitations
+under the License.
+ */
+package com.heliosapm.tsdb.grapi.netty;
+
+import static com.heliosapm.tsdb.grapi.server.http.Constants.DEFAULT_BUFFER_BUDGET_GLOBAL;
+import static com.heliosapm.tsdb.grapi.server.http.Constants.DEFAULT_BUFFER_BUDGET_HIGHWATER;
+import static com.heliosapm.tsdb.grapi.server.http.Constants.DEFAULT_BUFFER_BUDGET_LOWWATER;
+import static com.heliosapm.tsdb.grapi.server.http.Constants.PROPERTY_BUFFER_BUDGET_GLOBAL;
+import static com.heliosapm.tsdb.grapi.server.http.Constants.PROPERTY_BUFFER_BUDGET_HIGHWATER;
+import static com.heliosapm.tsdb.grapi.server.http.Constants.PROPERTY_BUFFER_BUDGET_LOWWATER;
+
+import java.lang.management.ManagementFactory;
+import java.util.Properties;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.management.ObjectName;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.heliosapm.utils.config.ConfigurationHelper;
+import com.heliosapm.utils.jmx.JMXHelper;
+import com.heliosapm.utils.lang.StringHelper;
+
+/**
+ * <p>Title: DirectMemoryBudget</p>
+ * <p>Description: Accounts for the direct memory held by the buffers charged to it, and signals backpressure when usage 
+ * crosses a high water threshold, until it falls back under a low water threshold. There is one global budget, 
+ * and each buffer factory can charge to a child budget with its own limit, which also charges the global budget.</p>
+ * <p>A budget never refuses memory, since a half written response cannot be abandoned. It is up to the 
+ * {@link Listener}s to stop taking on new work while any budget is under pressure.</p> 
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>com.heliosapm.tsdb.grapi.netty.DirectMemoryBudget</code></p>
+ */
+
+public class DirectMemoryBudget implements DirectMemoryBudgetMBean {
+	/** The global budget singleton */
+	private static volatile DirectMemoryBudget global = null;
+	/** The global budget ctor lock */
+	private static final Object lock = new Object();
+	/** The number of budgets currently under pressure */
+	private static final AtomicInteger pressured = new AtomicInteger(0);
+	/** The child budgets */
+	private static final CopyOnWriteArrayList<DirectMemoryBudget> children = new CopyOnWriteArrayList<DirectMemoryBudget>();
+	/** The registered pressure listeners */
+	private static final CopyOnWriteArrayList<Listener> listeners = new CopyOnWriteArrayList<Listener>();
+	/** Static class logger */
+	private static final Logger LOG = LoggerFactory.getLogger(DirectMemoryBudget.class);
+	
+	/** The budget name */
+	protected final String name;
+	/** The parent budget, or null for the global budget */
+	protected final DirectMemoryBudget parent;
+	/** The limit in bytes */
+	protected final long limit;
+	/** The usage at which pressure is applied */
+	protected final long highWater;
+	/** The usage at which pressure is lifted */
+	protected final long lowWater;
+	/** The number of bytes in use */
+	protected final AtomicLong used = new AtomicLong(0L);
+	/** The peak number of bytes in use */
+	protected final AtomicLong highWaterMark = new AtomicLong(0L);
+	/** The number of pressure events */
+	protected final AtomicLong pressureEvents = new AtomicLong(0L);
+	/** The number of requests rejected under pressure */
+	protected final AtomicLong rejected = new AtomicLong(0L);
+	/** Indicates if this budget is under pressure. Transitions are made under the instance monitor. */
+	protected volatile boolean underPressure = false;
+	
+	/**
+	 * <p>Title: Listener</p>
+	 * <p>Description: Notified when a budget comes under, or is relieved of, pressure</p> 
+	 * <p>Company: Helios Development Group LLC</p>
+	 * @author Whitehead (nwhitehead AT heliosdev DOT org)
+	 * <p><code>com.heliosapm.tsdb.grapi.netty.DirectMemoryBudget.Listener</code></p>
+	 */
+	public static interface Listener {
+		/**
+		 * Called when a budget's pressure state changes, in the thread that caused the change and outside the budget's monitor. 
+		 * Notifications of changes made concurrently on other threads can arrive in any order, so a listener acting on the state 
+		 * of all budgets should read {@link DirectMemoryBudget#isAnyUnderPressure()} again under a lock of its own rather than trust the passed value.
+		 * @param budget The budget whose state changed
+		 * @param anyPressure true if any budget was still under pressure when the change was made, false if none were
+		 */
+		public void onPressureChange(DirectMemoryBudget budget, boolean anyPressure);
+	}
+	
+	/**
+	 * Acquires the global budget, configuring it from the passed properties if it has not been created yet
+	 * @param config The optional configuration properties
+	 * @return the global budget
+	 */
+	public static DirectMemoryBudget getGlobal(final Properties config) {
+		if(global==null) {
+			synchronized(lock) {
+				if(global==null) {
+					final float high = ConfigurationHelper.getFloatSystemThenEnvProperty(PROPERTY_BUFFER_BUDGET_HIGHWATER, DEFAULT_BUFFER_BUDGET_HIGHWATER, config);
+					final float low = ConfigurationHelper.getFloatSystemThenEnvProperty(PROPERTY_BUFFER_BUDGET_LOWWATER, DEFAULT_BUFFER_BUDGET_LOWWATER, config);
+					final long limit = ConfigurationHelper.getLongSystemThenEnvProperty(PROPERTY_BUFFER_BUDGET_GLOBAL, DEFAULT_BUFFER_BUDGET_GLOBAL, config);
+					global = new DirectMemoryBudget("Global", limit < 1 ? maxDirectMemory() * 3 / 4 : limit, high, low, null);
+				}
+			}
+		}
+		return global;
+	}
+	
+	/**
+	 * Acquires the global budget, configuring it from system properties and the environment if it has not been created yet
+	 * @return the global budget
+	 */
+	public static DirectMemoryBudget getGlobal() {
+		return getGlobal(null);
+	}
+	
+	/**
+	 * Indicates if any budget is under pressure
+	 * @return true if any budget is under pressure
+	 */
+	public static boolean isAnyUnderPressure() {
+		return pressured.get() > 0;
+	}
+	
+	/**
+	 * Records a rejected request against every budget currently under pressure
+	 */
+	public static void recordRejection() {
+		final DirectMemoryBudget g = global;
+		if(g==null) return;
+		g.recordRejectionIfPressured();
+		for(DirectMemoryBudget child : children) {
+			child.recordRejectionIfPressured();
+		}
+	}
+	
+	/**
+	 * Registers a pressure listener
+	 * @param listener The listener to register
+	 */
+	public static void addListener(final Listener listener) {
+		if(listener!=null) listeners.addIfAbsent(listener);
+	}
+	
+	/**
+	 * Removes a pressure listener
+	 * @param listener The listener to remove
+	 */
+	public static void removeListener(final Listener listener) {
+		if(listener!=null) listeners.remove(listener);
+	}
+	
+	/**
+	 * Returns the JVM's direct memory limit, which defaults to the maximum heap size when <b><code>-XX:MaxDirectMemorySize</code></b> is not set
+	 * @return the direct memory limit in bytes
+	 */
+	public static long maxDirectMemory() {
+		for(String arg : ManagementFactory.getRuntimeMXBean().getInputArguments()) {
+			if(arg.startsWith("-XX:MaxDirectMemorySize=")) {
+				try {
+					String size = arg.substring(24).trim().toLowerCase();
+					long multiplier = 1L;
+					switch(size.charAt(size.length()-1)) {
+						case 'k': multiplier = 1024L; break;
+						case 'm': multiplier = 1024L * 1024L; break;
+						case 'g': multiplier = 1024L * 1024L * 1024L; break;
+						case 't': multiplier = 1024L * 1024L * 1024L * 1024L; break;
+					}
+					if(multiplier > 1L) size = size.substring(0, size.length()-1);
+					return Long.parseLong(size) * multiplier;
+				} catch (Exception ex) {
+					LOG.warn("Failed to parse [{}]", arg);
+				}
+			}
+		}
+		return Runtime.getRuntime().maxMemory();
+	}
+	
+	/**
+	 * Creates a new DirectMemoryBudget
+	 * @param name The budget name
+	 * @param limit The limit in bytes
+	 * @param high The fraction of the limit at which pressure is applied
+	 * @param low The fraction of the limit at which pressure is lifted
+	 * @param parent The parent budget, or null for the global budget
+	 */
+	private DirectMemoryBudget(final String name, final long limit, final float high, final float low, final DirectMemoryBudget parent) {
+		if(limit < 1) throw new IllegalArgumentException("Invalid limit [" + limit + "] for budget [" + name + "]");
+		this.name = name;
+		this.parent = parent;
+		this.limit = limit;
+		highWater = (long)(limit * Math.min(1f, high));
+		lowWater = Math.min(highWater, (long)(limit * Math.max(0f, low)));
+		final ObjectName on = JMXHelper.objectName("com.heliosapm.tsdb.grapi:service=DirectMemoryBudget,name=" + ObjectName.quote(name));
+		try {
+			if(!ManagementFactory.getPlatformMBeanServer().isRegistered(on)) {
+				ManagementFactory.getPlatformMBeanServer().registerMBean(this, on);
+			}
+		} catch (Exception ex) {
+			LOG.warn("Failed to register management interface for DirectMemoryBudget [{}]", name, ex);
+		}
+		LOG.info(StringHelper.banner("DirectMemoryBudget [%s]\n\tLimit:%s\n\tPressure Threshold:%s\n\tRelief Threshold:%s", name, limit, highWater, lowWater));
+	}
+	
+	/**
+	 * Creates a child budget charged to this one
+	 * @param name The child budget name
+	 * @param limit The child limit in bytes. Zero or less, or a limit larger than this budget's, means this budget's limit.
+	 * @return the child budget
+	 */
+	public DirectMemoryBudget newChild(final String name, final long limit) {
+		final long childLimit = (limit < 1 || limit > this.limit) ? this.limit : limit;
+		final DirectMemoryBudget child = new DirectMemoryBudget(name, childLimit, (float)highWater / this.limit, (float)lowWater / this.limit, this);
+		children.add(child);
+		return child;
+	}
+	
+	/**
+	 * Charges the passed number of bytes to this budget and its ancestors
+	 * @param bytes The number of bytes
+	 */
+	public void reserve(final long bytes) {
+		final long u = used.addAndGet(bytes);
+		long peak;
+		while(u > (peak = highWaterMark.get()) && !highWaterMark.compareAndSet(peak, u)) {
+			/* retry */
+		}
+		if(u >= highWater && !underPressure) {
+			transition(true);
+		}
+		if(parent!=null) parent.reserve(bytes);
+	}
+	
+	/**
+	 * Credits the passed number of bytes back to this budget and its ancestors
+	 * @param bytes The number of bytes
+	 */
+	public void release(final long bytes) {
+		final long u = used.addAndGet(-bytes);
+		if(u <= lowWater && underPressure) {
+			transition(false);
+		}
+		if(parent!=null) parent.release(bytes);
+	}
+	
+	/**
+	 * Changes the pressure state if the usage still warrants it, and notifies the listeners.
+	 * <p>{@link #reserve(long)} and {@link #release(long)} read the state without the monitor, so a release can 
+	 * read it just before pressure is applied and skip the lift, or a reserve just before pressure is lifted. 
+	 * After each change, the usage is therefore checked against the opposite threshold. Since the state is written 
+	 * before the usage is read again, and the usage is written before the state is read, either the racing thread 
+	 * sees the new state or the recheck sees its usage.</p>
+	 * @param pressure true to apply pressure, false to lift it
+	 */
+	private void transition(boolean pressure) {
+		while(true) {
+			final boolean any;
+			synchronized(this) {
+				if(underPressure==pressure) return;
+				final long u = used.get();
+				if(pressure ? u < highWater : u > lowWater) return;
+				underPressure = pressure;
+				if(pressure) {
+					pressureEvents.incrementAndGet();
+					pressured.incrementAndGet();
+					any = true;
+				} else {
+					any = pressured.decrementAndGet() > 0;
+				}
+			}
+			if(pressure) {
+				LOG.warn("Direct memory budget [{}] under pressure: used {} of {} bytes", name, used.get(), limit);
+			} else {
+				LOG.info("Direct memory budget [{}] relieved: used {} of {} bytes", name, used.get(), limit);
+			}
+			for(Listener listener : listeners) {
+				try {
+					listener.onPressureChange(this, any);
+				} catch (Exception ex) {
+					LOG.error("Pressure listener [{}] failed", listener, ex);
+				}
+			}
+			pressure = !pressure;
+		}
+	}
+	
+	/**
+	 * Increments the rejection counter if this budget is under pressure
+	 */
+	private void recordRejectionIfPressured() {
+		if(underPressure) rejected.incrementAndGet();
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see com.heliosapm.tsdb.grapi.netty.DirectMemoryBudgetMBean#getName()
+	 */
+	@Override
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see com.heliosapm.tsdb.grapi.netty.DirectMemoryBudgetMBean#getLimit()
+	 */
+	@Override
+	public long getLimit() {
+		return limit;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see com.heliosapm.tsdb.grapi.netty.DirectMemoryBudgetMBean#getUsed()
+	 */
+	@Override
+	public long getUsed() {
+		return used.get();
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see com.heliosapm.tsdb.grapi.netty.DirectMemoryBudgetMBean#getHighWaterMark()
+	 */
+	@Override
+	public long getHighWaterMark() {
+		return highWaterMark.get();
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see com.heliosapm.tsdb.grapi.netty.DirectMemoryBudgetMBean#getPressureThreshold()
+	 */
+	@Override
+	public long getPressureThreshold() {
+		return highWater;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see com.heliosapm.tsdb.grapi.netty.DirectMemoryBudgetMBean#getReliefThreshold()
+	 */
+	@Override
+	public long getReliefThreshold() {
+		return lowWater;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see com.heliosapm.tsdb.grapi.netty.DirectMemoryBudgetMBean#isUnderPressure()
+	 */
+	@Override
+	public boolean isUnderPressure() {
+		return underPressure;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see com.heliosapm.tsdb.grapi.netty.DirectMemoryBudgetMBean#getPressureEvents()
+	 */
+	@Override
+	public long getPressureEvents() {
+		return pressureEvents.get();
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see com.heliosapm.tsdb.grapi.netty.DirectMemoryBudgetMBean#getRejected()
+	 */
+	@Override
+	public long getRejected() {
+		return rejected.get();
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see com.heliosapm.tsdb.grapi.netty.DirectMemoryBudgetMBean#resetCounters()
+	 */
+	@Override
+	public void resetCounters() {
+		highWaterMark.set(used.get());
+		pressureEvents.set(0L);
+		rejected.set(0L);
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 * @see java.lang.Object#toString()
+	 */
+	@Override
+	public String toString() {
+		return "DirectMemoryBudget [" + name + ", used=" + used.get() + ", limit=" + limit + ", highWaterMark=" + highWaterMark.get() + ", underPressure=" + underPressure + ", rejected=" + rejected.get() + "]";
+	}
+
+}
@@ -0,0 +1,88 @@
+/**
+Licensed to the Apache Software Foundation (ASF) under one
+or more contributor license agreements.  See the NOTICE file
+distributed with this work for additional information
+regarding copyright ownership.  The ASF licenses this file
+to you under the Apache License, Version 2.0 (the
+"License"); you may not use this file except in compliance
+with the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an
+"AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+KIND, either express or implied.  See the License for the
+specific language governing permissions and limitations
+under the License.
+ */
+package com.heliosapm.tsdb.grapi.netty;
+
+/**
+ * <p>Title: DirectMemoryBudgetMBean</p>
+ * <p>Description: JMX management interface for a {@link DirectMemoryBudget}</p> 
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>com.heliosapm.tsdb.grapi.netty.DirectMemoryBudgetMBean</code></p>
+ */
+
+public interface DirectMemoryBudgetMBean {
+	/**
+	 * Returns the budget name
+	 * @return the budget name
+	 */
+	public String getName();
+	
+	/**
+	 * Returns the budget limit
+	 * @return the limit in bytes
+	 */
+	public long getLimit();
+	
+	/**
+	 * Returns the number of bytes currently held by buffers charged to this budget
+	 * @return the number of bytes in use
+	 */
+	public long getUsed();
+	
+	/**
+	 * Returns the highest number of bytes held at once since the last reset
+	 * @return the high water mark in bytes
+	 */
+	public long getHighWaterMark();
+	
+	/**
+	 * Returns the number of bytes in use at which backpressure is applied
+	 * @return the pressure threshold in bytes
+	 */
+	public long getPressureThreshold();
+	
+	/**
+	 * Returns the number of bytes in use at which backpressure is lifted
+	 * @return the relief threshold in bytes
+	 */
+	public long getReliefThreshold();
+	
+	/**
+	 * Indicates if the budget is currently applying backpressure
+	 * @return true if under pressure, false otherwise
+	 */
+	public boolean isUnderPressure();
+	
+	/**
+	 * Returns the number of times backpressure has been applied
+	 * @return the number of pressure events
+	 */
+	public long getPressureEvents();
+	
+	/**
+	 * Returns the number of requests rejected while this budget was under pressure
+	 * @return the number of rejected requests
+	 */
+	public long getRejected();
+	
+	/**
+	 * Resets the high water mark to the current usage and clears the event and rejection counters
+	 */
+	public void resetCounters();
+}
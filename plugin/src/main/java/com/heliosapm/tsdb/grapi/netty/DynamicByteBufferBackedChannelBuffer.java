@@ -23,7 +23,6 @@ import java.nio.ByteOrder;
 import java.nio.channels.ClosedChannelException;
 import java.nio.channels.GatheringByteChannel;
 import java.nio.channels.ScatteringByteChannel;
-import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
 
 import org.jboss.netty.buffer.AbstractChannelBuffer;
@@ -46,17 +45,25 @@ import com.heliosapm.utils.nio.BufferCleaner;
  * @author Whitehead (nwhitehead AT heliosdev DOT org)
  * <p><code>com.heliosapm.tsdb.grapi.netty.DynamicByteBufferBackedChannelBuffer</code></p>
  */
-public class DynamicByteBufferBackedChannelBuffer extends AbstractChannelBuffer {
+public class DynamicByteBufferBackedChannelBuffer extends AbstractChannelBuffer implements ReleasableChannelBuffer {
     /** The current buffer */
     private ByteBuffer buffer;
     /** The buffer's byte order */
     private final ByteOrder order;
-    /** The buffer's current capacity */
-    private final AtomicInteger capacity;
+    /** The buffer's current capacity, or -1 once released. Only the owning thread changes it. */
+    private int capacity;
     /** The percentage of current capacity to extend by when extending */
     private final float extend;
     /** The preserved initial size the buffer will reset to */
     private final int initialSize;
+    /** The pool backing buffers are acquired from and released to, or null if unpooled */
+    private final DirectBufferPool pool;
+    /** The budget backing buffers are charged to, or null if unaccounted */
+    private final DirectMemoryBudget budget;
+    /** The instance this duplicate shares a backing buffer with, or null if this instance owns its backing buffer */
+    private final DynamicByteBufferBackedChannelBuffer source;
+    /** The thread that writes to this buffer, recorded and checked only when assertions are enabled */
+    private Thread owner = null;
     /** A counter of allocated instances */
     private static final AtomicLong allocatedInstances = new AtomicLong();
     /** A counter of allocated memory */
@@ -93,15 +100,42 @@ public class DynamicByteBufferBackedChannelBuffer extends AbstractChannelBuffer
      * @param extendSize The extend percentage
      */
     public DynamicByteBufferBackedChannelBuffer(final ByteOrder order, final int initialSize, final float extendSize) {
+    	this(order, initialSize, extendSize, null);
+    }
+    
+    /**
+     * Creates a new DynamicByteBufferBackedChannelBuffer whose backing buffers are acquired from the passed pool.
+     * A pooled buffer must be {@link #release() released} when its content has been consumed.
+     * @param order The byte order
+     * @param initialSize The initial size
+     * @param extendSize The extend percentage
+     * @param pool The pool to acquire backing buffers from. If null, backing buffers are allocated and cleaned.
+     */
+    public DynamicByteBufferBackedChannelBuffer(final ByteOrder order, final int initialSize, final float extendSize, final DirectBufferPool pool) {
+    	this(order, initialSize, extendSize, pool, null);
+    }
+    
+    /**
+     * Creates a new DynamicByteBufferBackedChannelBuffer whose backing buffers are acquired from the passed pool
+     * and charged to the passed budget until released.
+     * @param order The byte order
+     * @param initialSize The initial size
+     * @param extendSize The extend percentage
+     * @param pool The pool to acquire backing buffers from. If null, backing buffers are allocated and cleaned.
+     * @param budget The budget to charge backing buffers to. If null, backing buffers are not accounted for.
+     */
+    public DynamicByteBufferBackedChannelBuffer(final ByteOrder order, final int initialSize, final float extendSize, final DirectBufferPool pool, final DirectMemoryBudget budget) {
     	this.initialSize = initialSize;
-    	this.capacity = new AtomicInteger(0);
-    	this.capacity.set(initialSize);
+    	this.pool = pool;
+    	this.budget = budget;
+    	this.source = null;
     	this.extend = extendSize;
-    	buffer = ByteBuffer.allocateDirect(initialSize);
+    	buffer = allocate(initialSize);
     	buffer.order(order);
+    	this.capacity = buffer.capacity();
     	this.order = order;
     	allocatedInstances.incrementAndGet();
-    	allocatedMemory.addAndGet(this.capacity.get());
+    	allocatedMemory.addAndGet(this.capacity);
     }
     
     
@@ -109,72 +143,171 @@ public class DynamicByteBufferBackedChannelBuffer extends AbstractChannelBuffer
     /**
      * THIS IS THE KEY
      * {@inheritDoc}
+     * <p>A buffer has a single writing thread, like the writer and reader indexes it inherits, so growth takes no lock
+     * and the capacity is a plain field. With assertions enabled, a write from a thread other than the 
+     * owner fails fast. Ownership can be handed to another thread with {@link #disown()}.</p>
      * @see org.jboss.netty.buffer.AbstractChannelBuffer#ensureWritableBytes(int)
      */
     
     @Override
     public void ensureWritableBytes(int minWritableBytes) {        
-    	synchronized(capacity) {
-    		if (minWritableBytes <= writableBytes()) {
-    			return;
-    		}
-            final int currentCapacity = capacity.get();
-            final int minNewCapacity = writerIndex() + minWritableBytes;
-            int increment = (int) (capacity.get() * extend);        
-            while (increment + currentCapacity < minNewCapacity) {
-            	increment += (int) (increment * extend);
-                // https://github.com/netty/netty/issues/258
-                if (increment == 0) {
-                    throw new IllegalStateException("Maximum size of 2gb exceeded");
-                }
+    	assert checkOwner();
+    	if (minWritableBytes > capacity - writerIndex()) {
+    		grow(minWritableBytes);
+    	}
+    }
+    
+    /**
+     * Replaces the backing buffer with one large enough for the passed number of writable bytes, 
+     * kept out of {@link #ensureWritableBytes(int)} so the check stays small enough to inline
+     * @param minWritableBytes The minimum number of writable bytes
+     */
+    private void grow(final int minWritableBytes) {
+    	if(source!=null) {
+            throw new IndexOutOfBoundsException("Duplicates cannot be extended: Writable bytes exceeded: Got "
+                    + minWritableBytes + ", maximum is " + writableBytes());
+    	}
+    	if(capacity==-1) {
+    		throw new IllegalStateException("Buffer has been released");
+    	}
+        final int currentCapacity = capacity;
+        final int minNewCapacity = writerIndex() + minWritableBytes;
+        int increment = (int) (currentCapacity * extend);        
+        while (increment + currentCapacity < minNewCapacity) {
+        	increment += (int) (increment * extend);
+            // https://github.com/netty/netty/issues/258
+            if (increment == 0) {
+                throw new IllegalStateException("Maximum size of 2gb exceeded");
             }
-            int newCapacity = increment + currentCapacity;
-            if(capacity.compareAndSet(currentCapacity, newCapacity)) {
-    	        ByteBuffer newBuffer = ByteBuffer.allocateDirect(newCapacity);
-    	        newBuffer.put((ByteBuffer)buffer.duplicate().rewind());
-    	        ByteBuffer oldBuffer = buffer; 
-    	        buffer = newBuffer;
-    	        clean(oldBuffer);
-    	        allocatedMemory.addAndGet(increment);
-            }    		
-    	}        
+        }
+        ByteBuffer newBuffer = allocate(increment + currentCapacity);
+        newBuffer.order(order);
+        newBuffer.put((ByteBuffer)buffer.duplicate().rewind());
+        ByteBuffer oldBuffer = buffer; 
+        buffer = newBuffer;
+        capacity = newBuffer.capacity();
+        recycle(oldBuffer);
+        allocatedMemory.addAndGet(capacity - currentCapacity);
+    }
+    
+    /**
+     * Records the calling thread as the owner if there is none, and verifies that the calling thread is the owner.
+     * Only called when assertions are enabled.
+     * @return true if the calling thread owns this buffer
+     */
+    private boolean checkOwner() {
+    	final Thread current = Thread.currentThread();
+    	if(owner==null) {
+    		owner = current;
+    	} else if(owner!=current) {
+    		throw new AssertionError("Buffer owned by [" + owner.getName() + "] written by [" + current.getName() + "]");
+    	}
+    	return true;
+    }
+    
+    /**
+     * Clears the owning thread so the next thread to write becomes the owner. 
+     * The hand off itself must be safely published, e.g. through an executor or a queue.
+     */
+    public void disown() {
+    	owner = null;
     }
     
     private static void clean(final ByteBuffer buff) {    	
     	BufferCleaner.clean(buff);
     }
     
+    /**
+     * Acquires a new backing buffer from the pool, or allocates one if unpooled, and charges it to the budget
+     * @param size The minimum size of the buffer
+     * @return the new backing buffer
+     */
+    private ByteBuffer allocate(final int size) {
+    	final ByteBuffer buff = pool==null ? ByteBuffer.allocateDirect(size) : pool.acquire(size);
+    	if(budget!=null) budget.reserve(buff.capacity());
+    	return buff;
+    }
+    
+    /**
+     * Returns a discarded backing buffer to the pool, or cleans it if unpooled, and credits it to the budget
+     * @param buff The discarded backing buffer
+     */
+    private void recycle(final ByteBuffer buff) {
+    	if(budget!=null) budget.release(buff.capacity());
+    	if(pool==null) clean(buff);
+    	else pool.release(buff);
+    }
+    
     /**
      * Deallocates the underlying buffer.
      * <b>Caution!</b>. Cleaned buffers are toxic.
      */
     public void clean() {
-		final int cap = capacity.getAndSet(-1);
+    	release();
+    }
+    
+    /**
+     * {@inheritDoc}
+     * @see com.heliosapm.tsdb.grapi.netty.ReleasableChannelBuffer#release()
+     */
+    @Override
+    public void release() {
+    	if(source!=null) {
+    		source.release();
+    		return;
+    	}
+		final int cap = capacity;
 		if(cap!=-1) {
-			clean(buffer);
+			capacity = -1;
+			recycle(buffer);
 			allocatedInstances.decrementAndGet();
 			allocatedMemory.addAndGet((-1 * cap));
 		}
     }
     
+    /**
+     * {@inheritDoc}
+     * @see com.heliosapm.tsdb.grapi.netty.ReleasableChannelBuffer#isPooled()
+     */
+    @Override
+    public boolean isPooled() {
+    	return pool!=null;
+    }
+    
     /**
      * Resets the buffer back to it's initial size, discarding any held data.
      */
     public void reset() {
-    	final int cap = capacity.getAndSet(initialSize)-initialSize;
     	ByteBuffer oldBuffer = buffer; 
-    	buffer = ByteBuffer.allocateDirect(initialSize);
-    	clean(oldBuffer);
+    	buffer = allocate(initialSize);
+    	buffer.order(order);
+    	final int cap = capacity - buffer.capacity();
+    	capacity = buffer.capacity();
+    	recycle(oldBuffer);
     	allocatedMemory.addAndGet((-1 * cap));
+    	owner = null;
+    	clear();
     }
     
     /**
      * {@inheritDoc}
+     * <p>Duplicates share the backing buffer of their source and never clean it. A pooled buffer that reaches
+     * finalization without having been released is cleaned rather than returned to the pool, and is recorded as a leak.</p>
      * @see java.lang.Object#finalize()
      */
     @Override
     protected void finalize() throws Throwable {
-    	clean();
+    	if(source==null) {
+    		final int cap = capacity;
+    		if(cap!=-1) {
+    			capacity = -1;
+    			if(pool!=null) pool.recordLeak();
+    			if(budget!=null) budget.release(buffer.capacity());
+    			clean(buffer);
+    			allocatedInstances.decrementAndGet();
+    			allocatedMemory.addAndGet((-1 * cap));
+    		}
+    	}
     	super.finalize();
     }
     
@@ -194,6 +327,9 @@ public class DynamicByteBufferBackedChannelBuffer extends AbstractChannelBuffer
       this.extend = buffer.extend;      
       order = buffer.order;
       this.initialSize = buffer.initialSize;
+      this.pool = buffer.pool;
+      this.budget = buffer.budget;
+      this.source = buffer.source==null ? buffer : buffer.source;
       capacity = buffer.capacity;
       setIndex(buffer.readerIndex(), buffer.writerIndex());
   }
@@ -295,7 +431,7 @@ public class DynamicByteBufferBackedChannelBuffer extends AbstractChannelBuffer
 
     @Override
 	public int capacity() {
-        return capacity.get();
+        return capacity;
     }
 
     @Override
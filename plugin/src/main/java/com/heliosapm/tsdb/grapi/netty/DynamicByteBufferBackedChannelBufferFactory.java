@@ -56,17 +56,48 @@ public class DynamicByteBufferBackedChannelBufferFactory implements ChannelBuffe
     final int initialCapacity;
     final float extend;
     final ByteOrder byteOrder;
+    /** The pool the created buffers acquire backing buffers from, or null if unpooled */
+    final DirectBufferPool pool;
+    /** The budget the created buffers are charged to, or null if unaccounted */
+    final DirectMemoryBudget budget;
     
 	/**
-	 * Creates a new DynamicByteBufferBackedChannelBufferFactory
+	 * Creates a new pooled and accounted DynamicByteBufferBackedChannelBufferFactory. 
+	 * Buffers created by this factory must be {@link DynamicByteBufferBackedChannelBuffer#release() released}.
 	 * @param initialCapacity The initial capacity of the created buffers
 	 * @param extend The extend percentage of the created buffers
 	 * @param byteOrder The byte order of the created buffers
+	 * @param pool The pool the created buffers acquire backing buffers from. Ignored if null or not enabled.
+	 * @param budget The budget the created buffers are charged to. If null, the buffers are not accounted for.
 	 */
-	public DynamicByteBufferBackedChannelBufferFactory(final int initialCapacity, final float extend, final ByteOrder byteOrder) {		
+	public DynamicByteBufferBackedChannelBufferFactory(final int initialCapacity, final float extend, final ByteOrder byteOrder, final DirectBufferPool pool, final DirectMemoryBudget budget) {		
 		this.initialCapacity = initialCapacity;
 		this.extend = extend;
 		this.byteOrder = byteOrder;
+		this.pool = (pool!=null && pool.isEnabled()) ? pool : null;
+		this.budget = budget;
+	}
+	
+	/**
+	 * Creates a new pooled DynamicByteBufferBackedChannelBufferFactory. 
+	 * Buffers created by this factory must be {@link DynamicByteBufferBackedChannelBuffer#release() released}.
+	 * @param initialCapacity The initial capacity of the created buffers
+	 * @param extend The extend percentage of the created buffers
+	 * @param byteOrder The byte order of the created buffers
+	 * @param pool The pool the created buffers acquire backing buffers from. Ignored if null or not enabled.
+	 */
+	public DynamicByteBufferBackedChannelBufferFactory(final int initialCapacity, final float extend, final ByteOrder byteOrder, final DirectBufferPool pool) {		
+		this(initialCapacity, extend, byteOrder, pool, null);
+	}
+	
+	/**
+	 * Creates a new DynamicByteBufferBackedChannelBufferFactory
+	 * @param initialCapacity The initial capacity of the created buffers
+	 * @param extend The extend percentage of the created buffers
+	 * @param byteOrder The byte order of the created buffers
+	 */
+	public DynamicByteBufferBackedChannelBufferFactory(final int initialCapacity, final float extend, final ByteOrder byteOrder) {		
+		this(initialCapacity, extend, byteOrder, null, null);
 	}
 	
 	/**
@@ -129,7 +160,7 @@ public class DynamicByteBufferBackedChannelBufferFactory implements ChannelBuffe
 	 * @return a new DynamicByteBufferBackedChannelBuffer
 	 */
 	public DynamicByteBufferBackedChannelBuffer getBuffer(final ByteOrder order, final int capacity, final float extend) {
-		return new DynamicByteBufferBackedChannelBuffer(order, capacity, extend);
+		return new DynamicByteBufferBackedChannelBuffer(order, capacity, extend, pool, budget);
 	}
 
 	/**
@@ -138,7 +169,7 @@ public class DynamicByteBufferBackedChannelBufferFactory implements ChannelBuffe
 	 */
 	@Override
 	public DynamicByteBufferBackedChannelBuffer getBuffer(final ByteOrder endianness, final int capacity) {
-		return new DynamicByteBufferBackedChannelBuffer(endianness, capacity, extend);
+		return new DynamicByteBufferBackedChannelBuffer(endianness, capacity, extend, pool, budget);
 	}
 
 	/**
@@ -191,5 +222,13 @@ public class DynamicByteBufferBackedChannelBufferFactory implements ChannelBuffe
 	public ByteOrder getDefaultOrder() {
 		return DEFAULT_ORDER;
 	}
+	
+	/**
+	 * Indicates if the buffers created by this factory are pooled
+	 * @return true if pooled, false otherwise
+	 */
+	public boolean isPooled() {
+		return pool!=null;
+	}
 
 }
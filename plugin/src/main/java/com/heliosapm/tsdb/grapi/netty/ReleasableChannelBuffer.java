@@ -0,0 +1,44 @@
+/**
+Licensed to the Apache Software Foundation (ASF) under one
+or more contributor license agreements.  See the NOTICE file
+distributed with this work for additional information
+regarding copyright ownership.  The ASF licenses this file
+to you under the Apache License, Version 2.0 (the
+"License"); you may not use this file except in compliance
+with the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an
+"AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+KIND, either express or implied.  See the License for the
+specific language governing permissions and limitations
+under the License.
+ */
+package com.heliosapm.tsdb.grapi.netty;
+
+import org.jboss.netty.buffer.ChannelBuffer;
+
+/**
+ * <p>Title: ReleasableChannelBuffer</p>
+ * <p>Description: A channel buffer whose off-heap memory is released explicitly when its content has been consumed,
+ * rather than when it is garbage collected</p> 
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>com.heliosapm.tsdb.grapi.netty.ReleasableChannelBuffer</code></p>
+ */
+
+public interface ReleasableChannelBuffer extends ChannelBuffer {
+	/**
+	 * Releases the buffer's memory back to its pool, or deallocates it if the buffer is not pooled.
+	 * Only the first call has any effect. Neither this buffer nor any duplicate or slice of it may be used afterwards.
+	 */
+	public void release();
+	
+	/**
+	 * Indicates if this buffer's memory is acquired from a pool
+	 * @return true if pooled, false otherwise
+	 */
+	public boolean isPooled();
+}
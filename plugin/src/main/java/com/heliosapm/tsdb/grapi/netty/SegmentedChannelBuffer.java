@@ -0,0 +1,774 @@
+/**
+Licensed to the Apache Software Foundation (ASF) under one
+or more contributor license agreements.  See the NOTICE file
+distributed with this work for additional information
+regarding copyright ownership.  The ASF licenses this file
+to you under the Apache License, Version 2.0 (the
+"License"); you may not use this file except in compliance
+with the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an
+"AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+KIND, either express or implied.  See the License for the
+specific language governing permissions and limitations
+under the License.
+ */
+package com.heliosapm.tsdb.grapi.netty;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.GatheringByteChannel;
+import java.nio.channels.ScatteringByteChannel;
+import java.util.Arrays;
+
+import org.jboss.netty.buffer.AbstractChannelBuffer;
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.buffer.ChannelBufferFactory;
+import org.jboss.netty.buffer.ChannelBuffers;
+import org.jboss.netty.buffer.DuplicatedChannelBuffer;
+import org.jboss.netty.buffer.SlicedChannelBuffer;
+
+import com.heliosapm.utils.nio.BufferCleaner;
+
+/**
+ * <p>Title: SegmentedChannelBuffer</p>
+ * <p>Description: A dynamic off-heap channel buffer made of fixed size direct segments. When the buffer runs out of space
+ * it appends another segment, so growth never copies content that has already been written. 
+ * {@link #toGatheringBuffer()} exposes the readable content as a gathering composite, which Netty writes to the socket 
+ * with a single gathering write of the segments.</p>
+ * <p>Like {@link DynamicByteBufferBackedChannelBuffer}, a buffer has a single writing thread, checked when assertions 
+ * are enabled, and must be {@link #release() released} once its content has been consumed.</p> 
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>com.heliosapm.tsdb.grapi.netty.SegmentedChannelBuffer</code></p>
+ */
+
+public class SegmentedChannelBuffer extends AbstractChannelBuffer implements ReleasableChannelBuffer {
+	/** The segments */
+	private ByteBuffer[] segments;
+	/** The number of segments in use */
+	private int segmentCount = 0;
+	/** The buffer's current capacity, or -1 once released */
+	private int capacity = 0;
+	/** The log2 of the segment size */
+	private final int shift;
+	/** The mask of a segment offset */
+	private final int mask;
+	/** The buffer's byte order */
+	private final ByteOrder order;
+	/** The pool segments are acquired from and released to, or null if unpooled */
+	private final DirectBufferPool pool;
+	/** The budget segments are charged to, or null if unaccounted */
+	private final DirectMemoryBudget budget;
+	/** The thread that writes to this buffer, recorded and checked only when assertions are enabled */
+	private Thread owner = null;
+	
+	/** The largest transfer staged through a heap array when streaming */
+	private static final int STREAM_CHUNK = 8192;
+	
+	/**
+	 * Creates a new SegmentedChannelBuffer with one segment
+	 * @param order The byte order
+	 * @param segmentSize The segment size, rounded up to a power of two
+	 * @param pool The pool to acquire segments from. If null, segments are allocated and cleaned.
+	 */
+	public SegmentedChannelBuffer(final ByteOrder order, final int segmentSize, final DirectBufferPool pool) {
+		this(order, segmentSize, segmentSize, pool, null);
+	}
+	
+	/**
+	 * Creates a new SegmentedChannelBuffer
+	 * @param order The byte order
+	 * @param segmentSize The segment size, rounded up to a power of two
+	 * @param initialCapacity The minimum initial capacity
+	 * @param pool The pool to acquire segments from. If null, segments are allocated and cleaned.
+	 * @param budget The budget to charge segments to. If null, segments are not accounted for.
+	 */
+	public SegmentedChannelBuffer(final ByteOrder order, final int segmentSize, final int initialCapacity, final DirectBufferPool pool, final DirectMemoryBudget budget) {
+		if(segmentSize < 1 || segmentSize > (1 << 30)) throw new IllegalArgumentException("Invalid segment size [" + segmentSize + "]");
+		this.order = order;
+		this.pool = pool;
+		this.budget = budget;
+		shift = 32 - Integer.numberOfLeadingZeros(segmentSize - 1);
+		mask = (1 << shift) - 1;
+		segments = new ByteBuffer[4];
+		do {
+			addSegment();
+		} while(capacity < initialCapacity);
+	}
+	
+	/**
+	 * Appends a new segment
+	 */
+	private void addSegment() {
+		if(capacity > Integer.MAX_VALUE - (mask + 1)) {
+			throw new IllegalStateException("Maximum size of 2gb exceeded");
+		}
+		if(segmentCount==segments.length) {
+			segments = Arrays.copyOf(segments, segmentCount * 2);
+		}
+		final int segmentSize = mask + 1;
+		final ByteBuffer segment = pool==null ? ByteBuffer.allocateDirect(segmentSize) : pool.acquire(segmentSize);
+		segment.order(order);
+		if(budget!=null) budget.reserve(segmentSize);
+		segments[segmentCount++] = segment;
+		capacity += segmentSize;
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 * <p>Appends segments until the requested number of bytes are writable. Nothing is copied.</p>
+	 * @see org.jboss.netty.buffer.AbstractChannelBuffer#ensureWritableBytes(int)
+	 */
+	@Override
+	public void ensureWritableBytes(final int minWritableBytes) {
+		assert checkOwner();
+		if(minWritableBytes > capacity - writerIndex()) {
+			if(capacity==-1) throw new IllegalStateException("Buffer has been released");
+			final long required = (long)writerIndex() + minWritableBytes;
+			if(required > Integer.MAX_VALUE) throw new IllegalStateException("Maximum size of 2gb exceeded");
+			while(capacity < required) {
+				addSegment();
+			}
+		}
+	}
+	
+	/**
+	 * Records the calling thread as the owner if there is none, and verifies that the calling thread is the owner.
+	 * Only called when assertions are enabled.
+	 * @return true if the calling thread owns this buffer
+	 */
+	private boolean checkOwner() {
+		final Thread current = Thread.currentThread();
+		if(owner==null) {
+			owner = current;
+		} else if(owner!=current) {
+			throw new AssertionError("Buffer owned by [" + owner.getName() + "] written by [" + current.getName() + "]");
+		}
+		return true;
+	}
+	
+	/**
+	 * Clears the owning thread so the next thread to write becomes the owner. 
+	 * The hand off itself must be safely published, e.g. through an executor or a queue.
+	 */
+	public void disown() {
+		owner = null;
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 * @see com.heliosapm.tsdb.grapi.netty.ReleasableChannelBuffer#release()
+	 */
+	@Override
+	public void release() {
+		if(capacity==-1) return;
+		if(budget!=null) budget.release(capacity);
+		capacity = -1;
+		for(int i = 0; i < segmentCount; i++) {
+			if(pool==null) BufferCleaner.clean(segments[i]);
+			else pool.release(segments[i]);
+			segments[i] = null;
+		}
+		segmentCount = 0;
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 * @see com.heliosapm.tsdb.grapi.netty.ReleasableChannelBuffer#isPooled()
+	 */
+	@Override
+	public boolean isPooled() {
+		return pool!=null;
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 * <p>A pooled buffer that reaches finalization without having been released is cleaned rather than 
+	 * returned to the pool, and is recorded as a leak.</p>
+	 * @see java.lang.Object#finalize()
+	 */
+	@Override
+	protected void finalize() throws Throwable {
+		if(capacity!=-1) {
+			if(budget!=null) budget.release(capacity);
+			capacity = -1;
+			if(pool!=null) pool.recordLeak();
+			for(int i = 0; i < segmentCount; i++) {
+				BufferCleaner.clean(segments[i]);
+			}
+		}
+		super.finalize();
+	}
+	
+	/**
+	 * Returns the number of segments
+	 * @return the number of segments
+	 */
+	public int getSegmentCount() {
+		return segmentCount;
+	}
+	
+	/**
+	 * Returns the segment size
+	 * @return the segment size in bytes
+	 */
+	public int getSegmentSize() {
+		return mask + 1;
+	}
+	
+	/**
+	 * Returns a view of the readable bytes that Netty writes to a socket with a single gathering write of the segments.
+	 * The view shares this buffer's memory, so this buffer must not be released until the write has completed.
+	 * @return the gathering view
+	 */
+	public ChannelBuffer toGatheringBuffer() {
+		if(!readable()) return ChannelBuffers.EMPTY_BUFFER;
+		return ChannelBuffers.wrappedBuffer(true, toByteBuffers(readerIndex(), readableBytes()));
+	}
+	
+	/**
+	 * Returns a view of the passed range of one segment. The range must not span segments.
+	 * @param index The buffer index
+	 * @param length The length of the range
+	 * @return the segment view, positioned at the index
+	 */
+	private ByteBuffer segmentView(final int index, final int length) {
+		final ByteBuffer view = segments[index >>> shift].duplicate();
+		final int offset = index & mask;
+		view.limit(offset + length).position(offset);
+		return view;
+	}
+	
+	/**
+	 * Returns the number of bytes from the passed index to the end of its segment, capped at the passed length
+	 * @param index The buffer index
+	 * @param length The remaining length
+	 * @return the length of the range within the index's segment
+	 */
+	private int segmentRemaining(final int index, final int length) {
+		return Math.min(length, (mask + 1) - (index & mask));
+	}
+	
+	/**
+	 * Checks that a range lies within the buffer
+	 * @param index The start of the range
+	 * @param length The length of the range
+	 */
+	private void checkRange(final int index, final int length) {
+		if(index < 0 || length < 0 || (long)index + length > capacity) {
+			throw new IndexOutOfBoundsException("Invalid range: index=" + index + ", length=" + length + ", capacity=" + capacity);
+		}
+	}
+	
+	/**
+	 * Reads a value that spans two segments, one byte at a time in the buffer's byte order
+	 * @param index The buffer index
+	 * @param size The size of the value in bytes
+	 * @return the value
+	 */
+	private long getSpanning(final int index, final int size) {
+		long value = 0;
+		if(order==ByteOrder.BIG_ENDIAN) {
+			for(int i = 0; i < size; i++) {
+				value = (value << 8) | (getByte(index + i) & 0xff);
+			}
+		} else {
+			for(int i = size - 1; i >= 0; i--) {
+				value = (value << 8) | (getByte(index + i) & 0xff);
+			}
+		}
+		return value;
+	}
+	
+	/**
+	 * Writes a value that spans two segments, one byte at a time in the buffer's byte order
+	 * @param index The buffer index
+	 * @param value The value
+	 * @param size The size of the value in bytes
+	 */
+	private void setSpanning(final int index, final long value, final int size) {
+		if(order==ByteOrder.BIG_ENDIAN) {
+			for(int i = 0; i < size; i++) {
+				setByte(index + i, (int)(value >>> ((size - 1 - i) * 8)));
+			}
+		} else {
+			for(int i = 0; i < size; i++) {
+				setByte(index + i, (int)(value >>> (i * 8)));
+			}
+		}
+	}
+	
+	/**
+	 * Indicates if a value starting at the passed index lies within one segment
+	 * @param index The buffer index
+	 * @param size The size of the value in bytes
+	 * @return true if the value lies within one segment
+	 */
+	private boolean inSegment(final int index, final int size) {
+		return (index & mask) + size <= mask + 1;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see org.jboss.netty.buffer.ChannelBuffer#factory()
+	 */
+	@Override
+	public ChannelBufferFactory factory() {
+		return DynamicByteBufferBackedChannelBufferFactory.getInstance(order);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see org.jboss.netty.buffer.ChannelBuffer#capacity()
+	 */
+	@Override
+	public int capacity() {
+		return capacity;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see org.jboss.netty.buffer.ChannelBuffer#order()
+	 */
+	@Override
+	public ByteOrder order() {
+		return order;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see org.jboss.netty.buffer.ChannelBuffer#isDirect()
+	 */
+	@Override
+	public boolean isDirect() {
+		return true;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see org.jboss.netty.buffer.ChannelBuffer#hasArray()
+	 */
+	@Override
+	public boolean hasArray() {
+		return false;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see org.jboss.netty.buffer.ChannelBuffer#array()
+	 */
+	@Override
+	public byte[] array() {
+		throw new UnsupportedOperationException();
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see org.jboss.netty.buffer.ChannelBuffer#arrayOffset()
+	 */
+	@Override
+	public int arrayOffset() {
+		throw new UnsupportedOperationException();
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see org.jboss.netty.buffer.ChannelBuffer#getByte(int)
+	 */
+	@Override
+	public byte getByte(final int index) {
+		return segments[index >>> shift].get(index & mask);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see org.jboss.netty.buffer.ChannelBuffer#getShort(int)
+	 */
+	@Override
+	public short getShort(final int index) {
+		if(inSegment(index, 2)) return segments[index >>> shift].getShort(index & mask);
+		return (short)getSpanning(index, 2);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see org.jboss.netty.buffer.ChannelBuffer#getUnsignedMedium(int)
+	 */
+	@Override
+	public int getUnsignedMedium(final int index) {
+		return (int)getSpanning(index, 3);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see org.jboss.netty.buffer.ChannelBuffer#getInt(int)
+	 */
+	@Override
+	public int getInt(final int index) {
+		if(inSegment(index, 4)) return segments[index >>> shift].getInt(index & mask);
+		return (int)getSpanning(index, 4);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see org.jboss.netty.buffer.ChannelBuffer#getLong(int)
+	 */
+	@Override
+	public long getLong(final int index) {
+		if(inSegment(index, 8)) return segments[index >>> shift].getLong(index & mask);
+		return getSpanning(index, 8);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see org.jboss.netty.buffer.ChannelBuffer#getBytes(int, org.jboss.netty.buffer.ChannelBuffer, int, int)
+	 */
+	@Override
+	public void getBytes(int index, final ChannelBuffer dst, int dstIndex, int length) {
+		checkRange(index, length);
+		while(length > 0) {
+			final int n = segmentRemaining(index, length);
+			dst.setBytes(dstIndex, segmentView(index, n));
+			index += n; dstIndex += n; length -= n;
+		}
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see org.jboss.netty.buffer.ChannelBuffer#getBytes(int, byte[], int, int)
+	 */
+	@Override
+	public void getBytes(int index, final byte[] dst, int dstIndex, int length) {
+		checkRange(index, length);
+		while(length > 0) {
+			final int n = segmentRemaining(index, length);
+			segmentView(index, n).get(dst, dstIndex, n);
+			index += n; dstIndex += n; length -= n;
+		}
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see org.jboss.netty.buffer.ChannelBuffer#getBytes(int, java.nio.ByteBuffer)
+	 */
+	@Override
+	public void getBytes(int index, final ByteBuffer dst) {
+		int length = dst.remaining();
+		checkRange(index, length);
+		while(length > 0) {
+			final int n = segmentRemaining(index, length);
+			dst.put(segmentView(index, n));
+			index += n; length -= n;
+		}
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see org.jboss.netty.buffer.ChannelBuffer#getBytes(int, java.io.OutputStream, int)
+	 */
+	@Override
+	public void getBytes(int index, final OutputStream out, int length) throws IOException {
+		checkRange(index, length);
+		final byte[] tmp = new byte[Math.min(length, STREAM_CHUNK)];
+		while(length > 0) {
+			final int n = Math.min(length, tmp.length);
+			getBytes(index, tmp, 0, n);
+			out.write(tmp, 0, n);
+			index += n; length -= n;
+		}
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * <p>The segments are written with a single gathering write.</p>
+	 * @see org.jboss.netty.buffer.ChannelBuffer#getBytes(int, java.nio.channels.GatheringByteChannel, int)
+	 */
+	@Override
+	public int getBytes(final int index, final GatheringByteChannel out, final int length) throws IOException {
+		return (int)out.write(toByteBuffers(index, length));
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see org.jboss.netty.buffer.ChannelBuffer#setByte(int, int)
+	 */
+	@Override
+	public void setByte(final int index, final int value) {
+		segments[index >>> shift].put(index & mask, (byte)value);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see org.jboss.netty.buffer.ChannelBuffer#setShort(int, int)
+	 */
+	@Override
+	public void setShort(final int index, final int value) {
+		if(inSegment(index, 2)) segments[index >>> shift].putShort(index & mask, (short)value);
+		else setSpanning(index, value, 2);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see org.jboss.netty.buffer.ChannelBuffer#setMedium(int, int)
+	 */
+	@Override
+	public void setMedium(final int index, final int value) {
+		setSpanning(index, value, 3);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see org.jboss.netty.buffer.ChannelBuffer#setInt(int, int)
+	 */
+	@Override
+	public void setInt(final int index, final int value) {
+		if(inSegment(index, 4)) segments[index >>> shift].putInt(index & mask, value);
+		else setSpanning(index, value, 4);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see org.jboss.netty.buffer.ChannelBuffer#setLong(int, long)
+	 */
+	@Override
+	public void setLong(final int index, final long value) {
+		if(inSegment(index, 8)) segments[index >>> shift].putLong(index & mask, value);
+		else setSpanning(index, value, 8);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see org.jboss.netty.buffer.ChannelBuffer#setBytes(int, org.jboss.netty.buffer.ChannelBuffer, int, int)
+	 */
+	@Override
+	public void setBytes(int index, final ChannelBuffer src, int srcIndex, int length) {
+		checkRange(index, length);
+		while(length > 0) {
+			final int n = segmentRemaining(index, length);
+			src.getBytes(srcIndex, segmentView(index, n));
+			index += n; srcIndex += n; length -= n;
+		}
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see org.jboss.netty.buffer.ChannelBuffer#setBytes(int, byte[], int, int)
+	 */
+	@Override
+	public void setBytes(int index, final byte[] src, int srcIndex, int length) {
+		checkRange(index, length);
+		while(length > 0) {
+			final int n = segmentRemaining(index, length);
+			segmentView(index, n).put(src, srcIndex, n);
+			index += n; srcIndex += n; length -= n;
+		}
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see org.jboss.netty.buffer.ChannelBuffer#setBytes(int, java.nio.ByteBuffer)
+	 */
+	@Override
+	public void setBytes(int index, final ByteBuffer src) {
+		int length = src.remaining();
+		checkRange(index, length);
+		final ByteBuffer from = src.duplicate();
+		while(length > 0) {
+			final int n = segmentRemaining(index, length);
+			from.limit(from.position() + n);
+			segmentView(index, n).put(from);
+			index += n; length -= n;
+		}
+		src.position(src.limit());
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see org.jboss.netty.buffer.ChannelBuffer#setBytes(int, java.io.InputStream, int)
+	 */
+	@Override
+	public int setBytes(int index, final InputStream in, int length) throws IOException {
+		checkRange(index, length);
+		final byte[] tmp = new byte[Math.min(Math.max(length, 1), STREAM_CHUNK)];
+		int total = 0;
+		while(length > 0) {
+			final int read = in.read(tmp, 0, Math.min(length, tmp.length));
+			if(read < 0) return total==0 ? -1 : total;
+			if(read == 0) break;
+			setBytes(index, tmp, 0, read);
+			index += read; length -= read; total += read;
+		}
+		return total;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see org.jboss.netty.buffer.ChannelBuffer#setBytes(int, java.nio.channels.ScatteringByteChannel, int)
+	 */
+	@Override
+	public int setBytes(int index, final ScatteringByteChannel in, int length) throws IOException {
+		checkRange(index, length);
+		int total = 0;
+		while(length > 0) {
+			final int n = segmentRemaining(index, length);
+			final int read = in.read(segmentView(index, n));
+			if(read < 0) return total==0 ? -1 : total;
+			if(read == 0) break;
+			index += read; length -= read; total += read;
+		}
+		return total;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * <p>The copy is an unpooled direct buffer.</p>
+	 * @see org.jboss.netty.buffer.ChannelBuffer#copy(int, int)
+	 */
+	@Override
+	public ChannelBuffer copy(final int index, final int length) {
+		checkRange(index, length);
+		final ChannelBuffer copy = ChannelBuffers.directBuffer(order, length);
+		getBytes(index, copy, 0, length);
+		copy.writerIndex(length);
+		return copy;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see org.jboss.netty.buffer.ChannelBuffer#slice(int, int)
+	 */
+	@Override
+	public ChannelBuffer slice(final int index, final int length) {
+		if(length==0) return ChannelBuffers.EMPTY_BUFFER;
+		return new SlicedChannelBuffer(this, index, length);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * <p>Duplicates share this buffer's segments and cannot be extended.</p>
+	 * @see org.jboss.netty.buffer.ChannelBuffer#duplicate()
+	 */
+	@Override
+	public ChannelBuffer duplicate() {
+		return new DuplicatedChannelBuffer(this);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * <p>A range within one segment is returned as a view. A range spanning segments is copied, 
+	 * so prefer {@link #toByteBuffers(int, int)} or {@link #toGatheringBuffer()}.</p>
+	 * @see org.jboss.netty.buffer.ChannelBuffer#toByteBuffer(int, int)
+	 */
+	@Override
+	public ByteBuffer toByteBuffer(final int index, final int length) {
+		checkRange(index, length);
+		if(length==0 || segmentRemaining(index, length)==length) {
+			return segmentView(index, length).slice().order(order);
+		}
+		final ByteBuffer copy = ByteBuffer.allocateDirect(length).order(order);
+		getBytes(index, copy);
+		copy.flip();
+		return copy;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * <p>Returns one view per segment spanned by the range. Nothing is copied.</p>
+	 * @see org.jboss.netty.buffer.AbstractChannelBuffer#toByteBuffers(int, int)
+	 */
+	@Override
+	public ByteBuffer[] toByteBuffers(int index, int length) {
+		checkRange(index, length);
+		if(length==0) return new ByteBuffer[] {segmentView(0, 0).slice().order(order)};
+		final ByteBuffer[] views = new ByteBuffer[(int)(((index & mask) + (long)length + mask) >>> shift)];
+		for(int i = 0; i < views.length; i++) {
+			final int n = segmentRemaining(index, length);
+			views[i] = segmentView(index, n).slice().order(order);
+			index += n; length -= n;
+		}
+		return views;
+	}
+	
+	@Override
+	public void writeByte(int value) {
+		ensureWritableBytes(1);
+		super.writeByte(value);
+	}
+
+	@Override
+	public void writeShort(int value) {
+		ensureWritableBytes(2);
+		super.writeShort(value);
+	}
+
+	@Override
+	public void writeMedium(int value) {
+		ensureWritableBytes(3);
+		super.writeMedium(value);
+	}
+
+	@Override
+	public void writeInt(int value) {
+		ensureWritableBytes(4);
+		super.writeInt(value);
+	}
+
+	@Override
+	public void writeLong(long value) {
+		ensureWritableBytes(8);
+		super.writeLong(value);
+	}
+
+	@Override
+	public void writeBytes(byte[] src, int srcIndex, int length) {
+		ensureWritableBytes(length);
+		super.writeBytes(src, srcIndex, length);
+	}
+
+	@Override
+	public void writeBytes(ChannelBuffer src, int srcIndex, int length) {
+		ensureWritableBytes(length);
+		super.writeBytes(src, srcIndex, length);
+	}
+
+	@Override
+	public void writeBytes(ByteBuffer src) {
+		ensureWritableBytes(src.remaining());
+		super.writeBytes(src);
+	}
+
+	@Override
+	public int writeBytes(InputStream in, int length) throws IOException {
+		ensureWritableBytes(length);
+		return super.writeBytes(in, length);
+	}
+
+	@Override
+	public int writeBytes(ScatteringByteChannel in, int length) throws IOException {
+		ensureWritableBytes(length);
+		return super.writeBytes(in, length);
+	}
+
+	@Override
+	public void writeZero(int length) {
+		ensureWritableBytes(length);
+		super.writeZero(length);
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 * @see org.jboss.netty.buffer.AbstractChannelBuffer#toString()
+	 */
+	@Override
+	public String toString() {
+		return getClass().getSimpleName() + "(ridx=" + readerIndex() + ", widx=" + writerIndex() + ", cap=" + capacity + ", segments=" + segmentCount + ")";
+	}
+
+}
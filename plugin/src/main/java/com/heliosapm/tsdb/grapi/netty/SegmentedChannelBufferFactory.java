@@ -0,0 +1,159 @@
+/**
+Licensed to the Apache Software Foundation (ASF) under one
+or more contributor license agreements.  See the NOTICE file
+distributed with this work for additional information
+regarding copyright ownership.  The ASF licenses this file
+to you under the Apache License, Version 2.0 (the
+"License"); you may not use this file except in compliance
+with the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an
+"AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+KIND, either express or implied.  See the License for the
+specific language governing permissions and limitations
+under the License.
+ */
+package com.heliosapm.tsdb.grapi.netty;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import org.jboss.netty.buffer.ChannelBufferFactory;
+
+/**
+ * <p>Title: SegmentedChannelBufferFactory</p>
+ * <p>Description: A factory for {@link SegmentedChannelBuffer}s</p> 
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>com.heliosapm.tsdb.grapi.netty.SegmentedChannelBufferFactory</code></p>
+ */
+
+public class SegmentedChannelBufferFactory implements ChannelBufferFactory {
+	/** The segment size of the created buffers */
+	final int segmentSize;
+	/** The default byte order of the created buffers */
+	final ByteOrder byteOrder;
+	/** The pool the created buffers acquire segments from, or null if unpooled */
+	final DirectBufferPool pool;
+	/** The budget the created buffers are charged to, or null if unaccounted */
+	final DirectMemoryBudget budget;
+	
+	/**
+	 * Creates a new SegmentedChannelBufferFactory.
+	 * Buffers created by this factory must be {@link SegmentedChannelBuffer#release() released}.
+	 * @param segmentSize The segment size of the created buffers, rounded up to a power of two
+	 * @param byteOrder The default byte order of the created buffers
+	 * @param pool The pool the created buffers acquire segments from. Ignored if null or not enabled.
+	 * @param budget The budget the created buffers are charged to. If null, the buffers are not accounted for.
+	 */
+	public SegmentedChannelBufferFactory(final int segmentSize, final ByteOrder byteOrder, final DirectBufferPool pool, final DirectMemoryBudget budget) {
+		this.segmentSize = segmentSize;
+		this.byteOrder = byteOrder;
+		this.pool = (pool!=null && pool.isEnabled()) ? pool : null;
+		this.budget = budget;
+	}
+	
+	/**
+	 * Creates a new SegmentedChannelBufferFactory whose buffers are not accounted for
+	 * @param segmentSize The segment size of the created buffers, rounded up to a power of two
+	 * @param byteOrder The default byte order of the created buffers
+	 * @param pool The pool the created buffers acquire segments from. Ignored if null or not enabled.
+	 */
+	public SegmentedChannelBufferFactory(final int segmentSize, final ByteOrder byteOrder, final DirectBufferPool pool) {
+		this(segmentSize, byteOrder, pool, null);
+	}
+	
+	/**
+	 * Creates a new SegmentedChannelBuffer with one segment
+	 * @return a new SegmentedChannelBuffer
+	 */
+	public SegmentedChannelBuffer getBuffer() {
+		return new SegmentedChannelBuffer(byteOrder, segmentSize, segmentSize, pool, budget);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see org.jboss.netty.buffer.ChannelBufferFactory#getBuffer(int)
+	 */
+	@Override
+	public SegmentedChannelBuffer getBuffer(final int capacity) {
+		return getBuffer(byteOrder, capacity);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see org.jboss.netty.buffer.ChannelBufferFactory#getBuffer(java.nio.ByteOrder, int)
+	 */
+	@Override
+	public SegmentedChannelBuffer getBuffer(final ByteOrder endianness, final int capacity) {
+		return new SegmentedChannelBuffer(endianness, segmentSize, capacity, pool, budget);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see org.jboss.netty.buffer.ChannelBufferFactory#getBuffer(byte[], int, int)
+	 */
+	@Override
+	public SegmentedChannelBuffer getBuffer(final byte[] array, final int offset, final int length) {
+		return getBuffer(byteOrder, array, offset, length);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see org.jboss.netty.buffer.ChannelBufferFactory#getBuffer(java.nio.ByteOrder, byte[], int, int)
+	 */
+	@Override
+	public SegmentedChannelBuffer getBuffer(final ByteOrder endianness, final byte[] array, final int offset, final int length) {
+		final SegmentedChannelBuffer buff = getBuffer(endianness, length);
+		buff.writeBytes(array, offset, length);
+		return buff;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see org.jboss.netty.buffer.ChannelBufferFactory#getBuffer(java.nio.ByteBuffer)
+	 */
+	@Override
+	public SegmentedChannelBuffer getBuffer(final ByteBuffer nioBuffer) {
+		final SegmentedChannelBuffer buff = getBuffer(nioBuffer.order(), nioBuffer.remaining());
+		buff.writeBytes(nioBuffer.duplicate());
+		return buff;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see org.jboss.netty.buffer.ChannelBufferFactory#getDefaultOrder()
+	 */
+	@Override
+	public ByteOrder getDefaultOrder() {
+		return byteOrder;
+	}
+	
+	/**
+	 * Returns the segment size of the created buffers
+	 * @return the segment size in bytes
+	 */
+	public int getSegmentSize() {
+		return segmentSize;
+	}
+	
+	/**
+	 * Returns the budget the created buffers are charged to
+	 * @return the budget, or null if the buffers are not accounted for
+	 */
+	public DirectMemoryBudget getBudget() {
+		return budget;
+	}
+	
+	/**
+	 * Indicates if the buffers created by this factory are pooled
+	 * @return true if pooled, false otherwise
+	 */
+	public boolean isPooled() {
+		return pool!=null;
+	}
+
+}
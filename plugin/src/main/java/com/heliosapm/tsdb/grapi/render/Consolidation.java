@@ -0,0 +1,59 @@
+/**
+Licensed to the Apache Software Foundation (ASF) under one
+or more contributor license agreements.  See the NOTICE file
+distributed with this work for additional information
+regarding copyright ownership.  The ASF licenses this file
+to you under the Apache License, Version 2.0 (the
+"License"); you may not use this file except in compliance
+with the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an
+"AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+KIND, either express or implied.  See the License for the
+specific language governing permissions and limitations
+under the License.
+ */
+package com.heliosapm.tsdb.grapi.render;
+
+/**
+ * <p>Title: Consolidation</p>
+ * <p>Description: The ways a series can be reduced to fit a caller's <b><code>maxDataPoints</code></b>: 
+ * largest-triangle-three-buckets, which keeps the points that preserve the visual shape of the series, 
+ * or one of the Graphite <b><code>consolidateBy</code></b> functions over fixed size groups of consecutive points.</p> 
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>com.heliosapm.tsdb.grapi.render.Consolidation</code></p>
+ */
+
+public enum Consolidation {
+	/** Largest-triangle-three-buckets */
+	LTTB,
+	/** The average of each group */
+	AVERAGE,
+	/** The minimum of each group */
+	MIN,
+	/** The maximum of each group */
+	MAX,
+	/** The sum of each group */
+	SUM;
+	
+	/**
+	 * Decodes the passed name to a consolidation, accepting the Graphite names and <b><code>avg</code></b>, ignoring case
+	 * @param name The consolidation name
+	 * @return the consolidation
+	 * @throws IllegalArgumentException thrown if the name is not recognized
+	 */
+	public static Consolidation decode(final String name) {
+		if(name==null) throw new IllegalArgumentException("The passed consolidation name was null");
+		final String n = name.trim().toUpperCase();
+		if("AVG".equals(n)) return AVERAGE;
+		try {
+			return valueOf(n);
+		} catch (IllegalArgumentException iex) {
+			throw new IllegalArgumentException("Unrecognized consolidation [" + name + "]");
+		}
+	}
+}
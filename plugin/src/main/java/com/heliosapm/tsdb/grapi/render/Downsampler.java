@@ -0,0 +1,151 @@
+/**
+Licensed to the Apache Software Foundation (ASF) under one
+or more contributor license agreements.  See the NOTICE file
+distributed with this work for additional information
+regarding copyright ownership.  The ASF licenses this file
+to you under the Apache License, Version 2.0 (the
+"License"); you may not use this file except in compliance
+with the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an
+"AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+KIND, either express or implied.  See the License for the
+specific language governing permissions and limitations
+under the License.
+ */
+package com.heliosapm.tsdb.grapi.render;
+
+/**
+ * <p>Title: Downsampler</p>
+ * <p>Description: Reduces a {@link Series} to at most a given number of points, in place, in one forward pass over its
+ * primitive arrays. Output point <b><code>k</code></b> is only ever written after every input point at or before 
+ * <b><code>k</code></b> has been read, so no second set of arrays is needed and the series just shrinks.</p>
+ * <p>The {@link Consolidation#LTTB} mode follows Steinarsson's largest-triangle-three-buckets: the first and last points are kept, 
+ * the points between are split into equal buckets, and from each bucket the point forming the largest triangle with the point 
+ * kept from the previous bucket and the average of the next bucket is kept. Missing values are never kept over present ones, 
+ * and a bucket with only missing values keeps a missing value, so gaps survive.</p>
+ * <p>The other modes follow Graphite's consolidation: consecutive groups of <b><code>ceil(size / maxPoints)</code></b> points 
+ * are reduced to one point stamped with the group's first timestamp, ignoring missing values.</p> 
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>com.heliosapm.tsdb.grapi.render.Downsampler</code></p>
+ */
+
+public class Downsampler {
+	
+	/**
+	 * Reduces the passed series in place to at most the passed number of points. 
+	 * A series that already fits is left untouched.
+	 * @param series The series to reduce
+	 * @param maxPoints The maximum number of points, zero or less for no limit
+	 * @param mode The consolidation mode. {@link Consolidation#LTTB} falls back to {@link Consolidation#AVERAGE} for fewer than 3 points.
+	 */
+	public static void downsample(final Series series, final int maxPoints, final Consolidation mode) {
+		if(maxPoints < 1 || series.size <= maxPoints) return;
+		if(mode==Consolidation.LTTB && maxPoints >= 3) {
+			series.size = lttb(series.timestamps, series.values, series.size, maxPoints);
+		} else {
+			series.size = consolidate(series.timestamps, series.values, series.size, maxPoints, mode==Consolidation.LTTB ? Consolidation.AVERAGE : mode);
+		}
+	}
+	
+	/**
+	 * Consolidates fixed size groups of consecutive points in place
+	 * @param ts The timestamps
+	 * @param v The values
+	 * @param size The number of points
+	 * @param maxPoints The maximum number of points to keep
+	 * @param mode The consolidation function
+	 * @return the new number of points
+	 */
+	static int consolidate(final long[] ts, final double[] v, final int size, final int maxPoints, final Consolidation mode) {
+		final int per = (size + maxPoints - 1) / maxPoints;
+		int out = 0;
+		for(int start = 0; start < size; start += per) {
+			final int end = Math.min(size, start + per);
+			double acc = Double.NaN;
+			int n = 0;
+			for(int i = start; i < end; i++) {
+				final double x = v[i];
+				if(Double.isNaN(x)) continue;
+				if(n++==0) {
+					acc = x;
+					continue;
+				}
+				switch(mode) {
+					case MIN: if(x < acc) acc = x; break;
+					case MAX: if(x > acc) acc = x; break;
+					default: acc += x;
+				}
+			}
+			if(mode==Consolidation.AVERAGE && n > 1) acc /= n;
+			ts[out] = ts[start];
+			v[out] = acc;
+			out++;
+		}
+		return out;
+	}
+	
+	/**
+	 * Applies largest-triangle-three-buckets in place
+	 * @param ts The timestamps
+	 * @param v The values
+	 * @param size The number of points
+	 * @param threshold The number of points to keep, at least 3 and less than size
+	 * @return the new number of points
+	 */
+	static int lttb(final long[] ts, final double[] v, final int size, final int threshold) {
+		final double every = (double)(size - 2) / (threshold - 2);
+		// the point kept from the previous bucket, held in locals since its slot may be overwritten
+		double aT = ts[0], aV = v[0];
+		int out = 1;
+		for(int b = 0; b < threshold - 2; b++) {
+			// the average of the next bucket, or of the last point for the last bucket
+			final int avgStart = (int)((b + 1) * every) + 1;
+			final int avgEnd = Math.min((int)((b + 2) * every) + 1, size);
+			double avgT = 0, avgV = 0;
+			int n = 0;
+			for(int i = avgStart; i < avgEnd; i++) {
+				if(Double.isNaN(v[i])) continue;
+				avgT += ts[i];
+				avgV += v[i];
+				n++;
+			}
+			if(n > 0) {
+				avgT /= n;
+				avgV /= n;
+			} else {
+				avgT = ts[Math.min(avgStart, size - 1)];
+				avgV = Double.isNaN(aV) ? 0d : aV;
+			}
+			final double pV = Double.isNaN(aV) ? avgV : aV;
+			// the point of this bucket forming the largest triangle
+			final int rangeStart = (int)(b * every) + 1;
+			final int rangeEnd = (int)((b + 1) * every) + 1;
+			int selected = -1;
+			double maxArea = -1d;
+			for(int i = rangeStart; i < rangeEnd; i++) {
+				if(Double.isNaN(v[i])) continue;
+				final double area = Math.abs((aT - avgT) * (v[i] - pV) - (aT - ts[i]) * (avgV - pV));
+				if(selected==-1 || area > maxArea) {
+					selected = i;
+					maxArea = area;
+				}
+			}
+			if(selected==-1) selected = rangeStart;
+			aT = ts[selected];
+			aV = v[selected];
+			ts[out] = ts[selected];
+			v[out] = aV;
+			out++;
+		}
+		ts[out] = ts[size - 1];
+		v[out] = v[size - 1];
+		return out + 1;
+	}
+	
+	private Downsampler() {}
+}
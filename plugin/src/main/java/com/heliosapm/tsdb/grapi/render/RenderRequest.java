@@ -0,0 +1,200 @@
+/**
+Licensed to the Apache Software Foundation (ASF) under one
+or more contributor license agreements.  See the NOTICE file
+distributed with this work for additional information
+regarding copyright ownership.  The ASF licenses this file
+to you under the Apache License, Version 2.0 (the
+"License"); you may not use this file except in compliance
+with the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an
+"AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+KIND, either express or implied.  See the License for the
+specific language governing permissions and limitations
+under the License.
+ */
+package com.heliosapm.tsdb.grapi.render;
+
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import org.jboss.netty.handler.codec.http.HttpHeaders;
+import org.jboss.netty.handler.codec.http.HttpMethod;
+import org.jboss.netty.handler.codec.http.HttpRequest;
+import org.jboss.netty.handler.codec.http.QueryStringDecoder;
+
+/**
+ * <p>Title: RenderRequest</p>
+ * <p>Description: The parameters of a Graphite <b><code>/render</code></b> request, read from the query string 
+ * and, for the form POSTs Grafana sends, from the URL encoded request body. Besides the Graphite parameters, an optional
+ * <b><code>consolidateBy</code></b> parameter overrides the {@link Consolidation} used to honour <b><code>maxDataPoints</code></b>.</p> 
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>com.heliosapm.tsdb.grapi.render.RenderRequest</code></p>
+ */
+
+public class RenderRequest {
+	/** The target expressions */
+	protected final List<String> targets;
+	/** The start of the window in unix epoch seconds */
+	protected final long from;
+	/** The end of the window in unix epoch seconds */
+	protected final long until;
+	/** The maximum number of data points per series requested by the caller, or zero for no limit */
+	protected final int maxDataPoints;
+	/** The requested format */
+	protected final String format;
+	/** The requested consolidation, or null for the default */
+	protected final Consolidation consolidation;
+	
+	/** The UTF8 character set */
+	private static final Charset UTF8 = Charset.forName("UTF8");
+	/** The default window length in seconds when no <b><code>from</code></b> is given */
+	public static final long DEFAULT_WINDOW = 86400L;
+	
+	/**
+	 * Creates a new RenderRequest
+	 * @param targets The target expressions
+	 * @param from The start of the window in unix epoch seconds
+	 * @param until The end of the window in unix epoch seconds
+	 * @param maxDataPoints The maximum number of data points per series, or zero for no limit
+	 * @param format The requested format
+	 * @param consolidation The requested consolidation, or null for the default
+	 */
+	public RenderRequest(final List<String> targets, final long from, final long until, final int maxDataPoints, final String format, final Consolidation consolidation) {
+		this.targets = Collections.unmodifiableList(targets);
+		this.from = from;
+		this.until = until;
+		this.maxDataPoints = maxDataPoints;
+		this.format = format;
+		this.consolidation = consolidation;
+	}
+	
+	/**
+	 * Parses the render parameters of the passed request. Body parameters are merged after the query string's.
+	 * @param request The http request
+	 * @return the parsed render request
+	 * @throws IllegalArgumentException thrown if a parameter is invalid or the window is empty
+	 */
+	public static RenderRequest parse(final HttpRequest request) {
+		final List<String> targets = new ArrayList<String>();
+		final String[] scalars = new String[5];
+		collect(new QueryStringDecoder(request.getUri()).getParameters(), targets, scalars);
+		if(HttpMethod.POST.equals(request.getMethod()) && request.getContent().readable()) {
+			final String contentType = HttpHeaders.getHeader(request, HttpHeaders.Names.CONTENT_TYPE, "application/x-www-form-urlencoded");
+			if(contentType.toLowerCase().startsWith("application/x-www-form-urlencoded")) {
+				collect(new QueryStringDecoder("?" + request.getContent().toString(UTF8), UTF8).getParameters(), targets, scalars);
+			}
+		}
+		final long now = System.currentTimeMillis() / 1000L;
+		final long until = RenderTimes.parse(scalars[1], now, now);
+		final long from = RenderTimes.parse(scalars[0], now, until - DEFAULT_WINDOW);
+		if(from >= until) throw new IllegalArgumentException("Empty render window from [" + scalars[0] + "] until [" + scalars[1] + "]");
+		int maxDataPoints = 0;
+		if(scalars[2]!=null && !scalars[2].trim().isEmpty()) {
+			try {
+				maxDataPoints = Math.max(0, (int)Double.parseDouble(scalars[2].trim()));
+			} catch (NumberFormatException nex) {
+				throw new IllegalArgumentException("Invalid maxDataPoints [" + scalars[2] + "]");
+			}
+		}
+		final Consolidation consolidation = (scalars[4]==null || scalars[4].trim().isEmpty()) ? null : Consolidation.decode(scalars[4]);
+		return new RenderRequest(targets, from, until, maxDataPoints, scalars[3]==null ? "json" : scalars[3].trim().toLowerCase(), consolidation);
+	}
+	
+	/**
+	 * Collects the render parameters from the passed decoded parameters
+	 * @param params The decoded parameters
+	 * @param targets The list to add non-empty targets to
+	 * @param scalars The from, until, maxDataPoints, format and consolidateBy values, last one wins
+	 */
+	private static void collect(final Map<String, List<String>> params, final List<String> targets, final String[] scalars) {
+		final List<String> t = params.get("target");
+		if(t!=null) {
+			for(String target: t) {
+				final String trimmed = target.trim();
+				if(!trimmed.isEmpty()) targets.add(trimmed);
+			}
+		}
+		scalars[0] = last(params, "from", scalars[0]);
+		scalars[1] = last(params, "until", scalars[1]);
+		scalars[2] = last(params, "maxDataPoints", scalars[2]);
+		scalars[3] = last(params, "format", scalars[3]);
+		scalars[4] = last(params, "consolidateBy", scalars[4]);
+	}
+	
+	/**
+	 * Returns the last value of the named parameter
+	 * @param params The decoded parameters
+	 * @param name The parameter name
+	 * @param prior The value to return if the parameter is absent
+	 * @return the last value or the prior value
+	 */
+	private static String last(final Map<String, List<String>> params, final String name, final String prior) {
+		final List<String> values = params.get(name);
+		return (values==null || values.isEmpty()) ? prior : values.get(values.size()-1);
+	}
+
+	/**
+	 * Returns the target expressions
+	 * @return the target expressions
+	 */
+	public List<String> getTargets() {
+		return targets;
+	}
+
+	/**
+	 * Returns the start of the window
+	 * @return the start in unix epoch seconds
+	 */
+	public long getFrom() {
+		return from;
+	}
+
+	/**
+	 * Returns the end of the window
+	 * @return the end in unix epoch seconds
+	 */
+	public long getUntil() {
+		return until;
+	}
+
+	/**
+	 * Returns the maximum number of data points per series requested by the caller
+	 * @return the maximum number of data points, or zero for no limit
+	 */
+	public int getMaxDataPoints() {
+		return maxDataPoints;
+	}
+
+	/**
+	 * Returns the requested format
+	 * @return the requested format, <b><code>json</code></b> by default
+	 */
+	public String getFormat() {
+		return format;
+	}
+
+	/**
+	 * Returns the requested consolidation
+	 * @return the requested consolidation, or null for the default
+	 */
+	public Consolidation getConsolidation() {
+		return consolidation;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see java.lang.Object#toString()
+	 */
+	@Override
+	public String toString() {
+		return "RenderRequest [targets=" + targets + ", from=" + from + ", until=" + until + ", maxDataPoints=" + maxDataPoints + ", consolidation=" + consolidation + "]";
+	}
+}
@@ -0,0 +1,121 @@
+/**
+Licensed to the Apache Software Foundation (ASF) under one
+or more contributor license agreements.  See the NOTICE file
+distributed with this work for additional information
+regarding copyright ownership.  The ASF licenses this file
+to you under the Apache License, Version 2.0 (the
+"License"); you may not use this file except in compliance
+with the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an
+"AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+KIND, either express or implied.  See the License for the
+specific language governing permissions and limitations
+under the License.
+ */
+package com.heliosapm.tsdb.grapi.render;
+
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+
+/**
+ * <p>Title: RenderTimes</p>
+ * <p>Description: Parses the Graphite render API <b><code>from</code></b> and <b><code>until</code></b> time expressions:<ul>
+ * 	<li><b><code>now</code></b></li>
+ * 	<li>Relative offsets from now, such as <b><code>-6h</code></b>, <b><code>-30min</code></b> or <b><code>-2weeks</code></b>, 
+ * with units of seconds (s), minutes (min), hours (h), days (d), weeks (w), months (mon, 30 days) and years (y, 365 days)</li>
+ * 	<li>Unix epoch seconds, such as <b><code>1437436800</code></b></li>
+ * 	<li>Absolute dates in the server's time zone, <b><code>YYYYMMDD</code></b> or <b><code>HH:MM_YYYYMMDD</code></b></li>
+ * </ul></p> 
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>com.heliosapm.tsdb.grapi.render.RenderTimes</code></p>
+ */
+
+public class RenderTimes {
+	/** The relative time unit names, matched by prefix in this order */
+	private static final String[] UNITS = {"s", "min", "m", "h", "d", "w", "mon", "y"};
+	/** The relative time unit lengths in seconds, by unit index */
+	private static final long[] UNIT_SECONDS = {1L, 60L, 60L, 3600L, 86400L, 604800L, 2592000L, 31536000L};
+	
+	/**
+	 * Parses a Graphite time expression
+	 * @param expr The time expression
+	 * @param now The current time in unix epoch seconds
+	 * @param defaultTime The time to return if the expression is null or empty
+	 * @return the time in unix epoch seconds
+	 * @throws IllegalArgumentException thrown if the expression cannot be parsed
+	 */
+	public static long parse(final String expr, final long now, final long defaultTime) {
+		if(expr==null) return defaultTime;
+		final String s = expr.trim().toLowerCase();
+		if(s.isEmpty()) return defaultTime;
+		if("now".equals(s)) return now;
+		final char first = s.charAt(0);
+		if(first=='-' || first=='+') {
+			return now + (first=='-' ? -1L : 1L) * parseOffset(s.substring(1), expr);
+		}
+		if(isDigits(s)) {
+			if(s.length()==8) return parseDate(s, "yyyyMMdd", expr);
+			return Long.parseLong(s);
+		}
+		if(s.indexOf('_')!=-1) return parseDate(s, "HH:mm_yyyyMMdd", expr);
+		throw new IllegalArgumentException("Unrecognized time expression [" + expr + "]");
+	}
+	
+	/**
+	 * Parses a relative offset such as <b><code>6h</code></b>
+	 * @param offset The offset without its sign
+	 * @param expr The full expression for error messages
+	 * @return the offset in seconds
+	 */
+	private static long parseOffset(final String offset, final String expr) {
+		int i = 0;
+		while(i < offset.length() && Character.isDigit(offset.charAt(i))) i++;
+		if(i==0) throw new IllegalArgumentException("Invalid relative time expression [" + expr + "]");
+		final long amount = Long.parseLong(offset.substring(0, i));
+		final String unit = offset.substring(i);
+		if(unit.isEmpty()) throw new IllegalArgumentException("No unit in relative time expression [" + expr + "]");
+		// longest matching unit name wins, so "mon" is not taken for minutes
+		int match = -1;
+		for(int u = 0; u < UNITS.length; u++) {
+			if(unit.startsWith(UNITS[u]) && (match==-1 || UNITS[u].length() > UNITS[match].length())) match = u;
+		}
+		if(match==-1) throw new IllegalArgumentException("Unrecognized unit in relative time expression [" + expr + "]");
+		return amount * UNIT_SECONDS[match];
+	}
+	
+	/**
+	 * Parses an absolute date
+	 * @param s The date string
+	 * @param pattern The date pattern
+	 * @param expr The full expression for error messages
+	 * @return the date in unix epoch seconds
+	 */
+	private static long parseDate(final String s, final String pattern, final String expr) {
+		try {
+			final SimpleDateFormat sdf = new SimpleDateFormat(pattern);
+			sdf.setLenient(false);
+			return sdf.parse(s).getTime() / 1000L;
+		} catch (ParseException pex) {
+			throw new IllegalArgumentException("Invalid date in time expression [" + expr + "]", pex);
+		}
+	}
+	
+	/**
+	 * Determines if the passed string is all digits
+	 * @param s The string to test
+	 * @return true if all digits
+	 */
+	private static boolean isDigits(final String s) {
+		for(int i = 0; i < s.length(); i++) {
+			if(!Character.isDigit(s.charAt(i))) return false;
+		}
+		return true;
+	}
+	
+	private RenderTimes() {}
+}
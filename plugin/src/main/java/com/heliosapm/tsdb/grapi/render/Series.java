@@ -0,0 +1,272 @@
+/**
+Licensed to the Apache Software Foundation (ASF) under one
+or more contributor license agreements.  See the NOTICE file
+distributed with this work for additional information
+regarding copyright ownership.  The ASF licenses this file
+to you under the Apache License, Version 2.0 (the
+"License"); you may not use this file except in compliance
+with the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an
+"AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+KIND, either express or implied.  See the License for the
+specific language governing permissions and limitations
+under the License.
+ */
+package com.heliosapm.tsdb.grapi.render;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+import net.opentsdb.core.DataPoint;
+import net.opentsdb.core.DataPoints;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+
+/**
+ * <p>Title: Series</p>
+ * <p>Description: One named time series held in primitive arrays: timestamps in unix epoch seconds 
+ * and values as doubles, with <b><code>NaN</code></b> standing for a missing value.</p> 
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>com.heliosapm.tsdb.grapi.render.Series</code></p>
+ */
+
+public class Series {
+	/** The series name, written as the Graphite target */
+	protected final String name;
+	/** The timestamps in unix epoch seconds, ascending */
+	protected long[] timestamps;
+	/** The values, NaN for a missing value */
+	protected double[] values;
+	/** The number of data points */
+	protected int size = 0;
+	/** The consolidation reducing this series to fewer points, or null for the request's */
+	protected Consolidation consolidation = null;
+	
+	/** The default initial capacity */
+	public static final int DEFAULT_CAPACITY = 64;
+	
+	/**
+	 * Creates a new empty Series
+	 * @param name The series name
+	 * @param capacity The initial capacity
+	 */
+	public Series(final String name, final int capacity) {
+		this.name = name;
+		final int cap = Math.max(1, capacity);
+		timestamps = new long[cap];
+		values = new double[cap];
+	}
+	
+	/**
+	 * Creates a new Series over the passed arrays, which are not copied
+	 * @param name The series name
+	 * @param timestamps The timestamps in unix epoch seconds, ascending
+	 * @param values The values
+	 * @param size The number of data points in the arrays
+	 */
+	public Series(final String name, final long[] timestamps, final double[] values, final int size) {
+		if(size > timestamps.length || size > values.length) throw new IllegalArgumentException("Size [" + size + "] exceeds the passed arrays");
+		this.name = name;
+		this.timestamps = timestamps;
+		this.values = values;
+		this.size = size;
+	}
+	
+	/**
+	 * Creates a new Series from the data points of a TSDB query result, converting millisecond timestamps to seconds
+	 * @param name The series name
+	 * @param dps The query result, may be null for a series with no data points
+	 * @return the new series
+	 */
+	public static Series from(final String name, final DataPoints dps) {
+		if(dps==null) return new Series(name, 1);
+		final Series series = new Series(name, dps.aggregatedSize());
+		for(DataPoint dp: dps) {
+			series.add(dp.timestamp() / 1000L, dp.toDouble());
+		}
+		return series;
+	}
+	
+	/**
+	 * Appends a data point
+	 * @param timestamp The timestamp in unix epoch seconds, not earlier than the last one
+	 * @param value The value, NaN for a missing value
+	 */
+	public void add(final long timestamp, final double value) {
+		if(size==timestamps.length) {
+			final int cap = size << 1;
+			timestamps = Arrays.copyOf(timestamps, cap);
+			values = Arrays.copyOf(values, cap);
+		}
+		timestamps[size] = timestamp;
+		values[size] = value;
+		size++;
+	}
+	
+	/**
+	 * Returns this series resampled onto the passed fixed step grid, with the values falling into each step averaged 
+	 * and steps without values set to NaN. Values outside the grid are dropped. This series is not modified, 
+	 * and is returned as is if it is already on the grid.
+	 * @param start The timestamp of the first step in unix epoch seconds
+	 * @param step The step in seconds
+	 * @param count The number of steps
+	 * @return the series on the grid
+	 */
+	public Series align(final long start, final int step, final int count) {
+		if(step < 1) throw new IllegalArgumentException("Invalid step [" + step + "]");
+		if(isAligned(start, step, count)) return this;
+		final long[] ts = new long[count];
+		final double[] vs = new double[count];
+		final int[] counts = new int[count];
+		for(int i = 0; i < count; i++) {
+			ts[i] = start + (long)i * step;
+		}
+		final long end = start + (long)count * step;
+		for(int i = 0; i < size; i++) {
+			final long t = timestamps[i];
+			final double v = values[i];
+			if(t < start || t >= end || Double.isNaN(v)) continue;
+			final int slot = (int)((t - start) / step);
+			vs[slot] += v;
+			counts[slot]++;
+		}
+		for(int i = 0; i < count; i++) {
+			if(counts[i]==0) vs[i] = Double.NaN;
+			else if(counts[i] > 1) vs[i] /= counts[i];
+		}
+		return new Series(name, ts, vs, count);
+	}
+	
+	/**
+	 * Indicates if this series is on the passed fixed step grid, meaning it has one point per step starting at the grid start
+	 * @param start The timestamp of the first step in unix epoch seconds
+	 * @param step The step in seconds
+	 * @param count The number of steps
+	 * @return true if this series is on the grid, false otherwise
+	 */
+	public boolean isAligned(final long start, final int step, final int count) {
+		if(size!=count) return false;
+		for(int i = 0; i < count; i++) {
+			if(timestamps[i]!=start + (long)i * step) return false;
+		}
+		return true;
+	}
+	
+	/**
+	 * Writes this series as a Graphite render JSON object: <b><code>{"target":name,"datapoints":[[value,timestamp],...]}</code></b>
+	 * @param gen The generator to write with
+	 * @throws IOException thrown on any error writing to the generator
+	 */
+	public void writeJson(final JsonGenerator gen) throws IOException {
+		writeJsonStart(gen);
+		writeJsonPoints(gen, 0, size);
+		writeJsonEnd(gen);
+	}
+	
+	/**
+	 * Writes the start of this series as a Graphite render JSON object, up to the opening of the data points array, 
+	 * so the points can be written in several {@link #writeJsonPoints(JsonGenerator, int, int) pieces}
+	 * @param gen The generator to write with
+	 * @throws IOException thrown on any error writing to the generator
+	 */
+	public void writeJsonStart(final JsonGenerator gen) throws IOException {
+		gen.writeStartObject();
+		gen.writeStringField("target", name);
+		gen.writeArrayFieldStart("datapoints");
+	}
+	
+	/**
+	 * Writes a range of the data points of this series as <b><code>[value,timestamp]</code></b> arrays
+	 * @param gen The generator to write with
+	 * @param lo The index of the first point to write
+	 * @param hi The index after the last point to write
+	 * @throws IOException thrown on any error writing to the generator
+	 */
+	public void writeJsonPoints(final JsonGenerator gen, final int lo, final int hi) throws IOException {
+		for(int i = lo; i < hi; i++) {
+			gen.writeStartArray();
+			final double v = values[i];
+			if(Double.isNaN(v) || Double.isInfinite(v)) {
+				gen.writeNull();
+			} else if(v==(long)v) {
+				gen.writeNumber((long)v);
+			} else {
+				gen.writeNumber(v);
+			}
+			gen.writeNumber(timestamps[i]);
+			gen.writeEndArray();
+		}
+	}
+	
+	/**
+	 * Writes the end of this series as a Graphite render JSON object, closing the data points array and the object
+	 * @param gen The generator to write with
+	 * @throws IOException thrown on any error writing to the generator
+	 */
+	public void writeJsonEnd(final JsonGenerator gen) throws IOException {
+		gen.writeEndArray();
+		gen.writeEndObject();
+	}
+	
+	/**
+	 * Returns the series name
+	 * @return the series name
+	 */
+	public String getName() {
+		return name;
+	}
+	
+	/**
+	 * Returns the timestamp array, which may be longer than {@link #size()}
+	 * @return the timestamps in unix epoch seconds
+	 */
+	public long[] getTimestamps() {
+		return timestamps;
+	}
+	
+	/**
+	 * Returns the value array, which may be longer than {@link #size()}
+	 * @return the values
+	 */
+	public double[] getValues() {
+		return values;
+	}
+	
+	/**
+	 * Returns the number of data points
+	 * @return the number of data points
+	 */
+	public int size() {
+		return size;
+	}
+	
+	/**
+	 * Returns the consolidation reducing this series to fewer points, set by the <b><code>consolidateBy</code></b> render function
+	 * @return the consolidation, or null to use the request's
+	 */
+	public Consolidation getConsolidation() {
+		return consolidation;
+	}
+	
+	/**
+	 * Sets the consolidation reducing this series to fewer points
+	 * @param consolidation the consolidation, or null to use the request's
+	 */
+	public void setConsolidation(final Consolidation consolidation) {
+		this.consolidation = consolidation;
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 * @see java.lang.Object#toString()
+	 */
+	@Override
+	public String toString() {
+		return "Series [" + name + ", size=" + size + "]";
+	}
+}
@@ -0,0 +1,347 @@
+/**
+Licensed to the Apache Software Foundation (ASF) under one
+or more contributor license agreements.  See the NOTICE file
+distributed with this work for additional information
+regarding copyright ownership.  The ASF licenses this file
+to you under the Apache License, Version 2.0 (the
+"License"); you may not use this file except in compliance
+with the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an
+"AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+KIND, either express or implied.  See the License for the
+specific language governing permissions and limitations
+under the License.
+ */
+package com.heliosapm.tsdb.grapi.server.http;
+
+import static com.heliosapm.tsdb.grapi.server.http.Constants.DEFAULT_ADAPTER_DEADLINE;
+import static com.heliosapm.tsdb.grapi.server.http.Constants.DEFAULT_ADAPTER_QUEUE;
+import static com.heliosapm.tsdb.grapi.server.http.Constants.DEFAULT_ADAPTER_THREADS;
+import static com.heliosapm.tsdb.grapi.server.http.Constants.PROPERTY_ADAPTER_DEADLINE;
+import static com.heliosapm.tsdb.grapi.server.http.Constants.PROPERTY_ADAPTER_QUEUE;
+import static com.heliosapm.tsdb.grapi.server.http.Constants.PROPERTY_ADAPTER_THREADS;
+
+import java.lang.management.ManagementFactory;
+import java.util.Properties;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.management.ObjectName;
+
+import net.opentsdb.stats.StatsCollector;
+
+import org.cliffc.high_scale_lib.Counter;
+import org.jboss.netty.handler.codec.http.HttpResponseStatus;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.heliosapm.tsdb.grapi.stats.LatencyHistogram;
+import com.heliosapm.tsdb.grapi.stats.PipelineStage;
+import com.heliosapm.tsdb.grapi.stats.RequestStats;
+import com.heliosapm.utils.config.ConfigurationHelper;
+import com.heliosapm.utils.jmx.JMXHelper;
+import com.heliosapm.utils.lang.StringHelper;
+
+/**
+ * <p>Title: AdapterBulkhead</p>
+ * <p>Description: Runs the requests of one adapter on the adapter's own bounded pool of threads, so a slow or CPU heavy adapter 
+ * neither stalls the I/O threads nor takes threads from the other adapters. Requests beyond the pool's threads wait in a bounded queue, 
+ * and overload is shed rather than allowed to grow the latency of every request:<ul>
+ * 	<li>A request arriving while the queue is full is rejected with a <b>429</b>.</li>
+ * 	<li>A request arriving while the request at the head of the queue has already waited past the deadline is shed with a <b>503</b> 
+ * 	straight away, since it would wait at least as long.</li>
+ * 	<li>A request that waited past the deadline by the time a thread picks it up is shed with a <b>503</b> instead of being run.</li>
+ * </ul>
+ * The queue depth, shed counts and queue wait are reported with the TSDB's stats, tagged with the adapter name, and the bulkhead is registered 
+ * with the platform MBeanServer as <b><code>com.heliosapm.tsdb.grapi:service=AdapterBulkhead,name=&lt;adapter&gt;</code></b>.</p> 
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>com.heliosapm.tsdb.grapi.server.http.AdapterBulkhead</code></p>
+ */
+
+public class AdapterBulkhead implements AdapterBulkheadMBean {
+	/** Static class logger */
+	private static final Logger LOG = LoggerFactory.getLogger(AdapterBulkhead.class);
+	
+	/** The name of the adapter this bulkhead runs */
+	protected final String name;
+	/** The number of threads */
+	protected final int threads;
+	/** The queue capacity */
+	protected final int capacity;
+	/** The queue wait deadline in ms, zero or less if waiting requests are never shed */
+	protected final long deadline;
+	/** The queue wait deadline in nanos */
+	protected final long deadlineNanos;
+	/** The queue of requests waiting for a thread */
+	protected final ArrayBlockingQueue<Runnable> queue;
+	/** The pool running the requests */
+	protected final ThreadPoolExecutor executor;
+	/** The number of requests run */
+	protected final Counter executed = new Counter();
+	/** The number of requests rejected because the queue was full */
+	protected final Counter shedFull = new Counter();
+	/** The number of requests shed because of the deadline */
+	protected final Counter shedDeadline = new Counter();
+	/** The time requests waited for a thread */
+	protected final LatencyHistogram queueWait = new LatencyHistogram();
+	
+	/**
+	 * Creates the bulkhead for the named adapter from the passed configuration. Each setting is read from its key suffixed 
+	 * with <b><code>.&lt;adapter name&gt;</code></b> first, and from the key itself otherwise.
+	 * @param name The adapter name, its simple class name
+	 * @param config The service configuration
+	 * @return the new bulkhead, or null if the adapter is configured to run on the I/O threads
+	 */
+	public static AdapterBulkhead create(final String name, final Properties config) {
+		final int threads = ConfigurationHelper.getIntSystemThenEnvProperty(PROPERTY_ADAPTER_THREADS + "." + name, 
+				ConfigurationHelper.getIntSystemThenEnvProperty(PROPERTY_ADAPTER_THREADS, DEFAULT_ADAPTER_THREADS, config), config);
+		if(threads < 0) return null;
+		final int capacity = ConfigurationHelper.getIntSystemThenEnvProperty(PROPERTY_ADAPTER_QUEUE + "." + name, 
+				ConfigurationHelper.getIntSystemThenEnvProperty(PROPERTY_ADAPTER_QUEUE, DEFAULT_ADAPTER_QUEUE, config), config);
+		final long deadline = ConfigurationHelper.getLongSystemThenEnvProperty(PROPERTY_ADAPTER_DEADLINE + "." + name, 
+				ConfigurationHelper.getLongSystemThenEnvProperty(PROPERTY_ADAPTER_DEADLINE, DEFAULT_ADAPTER_DEADLINE, config), config);
+		return new AdapterBulkhead(name, threads > 0 ? threads : Runtime.getRuntime().availableProcessors(), capacity, deadline);
+	}
+	
+	/**
+	 * Creates a new AdapterBulkhead
+	 * @param name The name of the adapter this bulkhead runs
+	 * @param threads The number of threads
+	 * @param capacity The number of requests that can wait for a thread
+	 * @param deadline The time in ms a request can wait for a thread, zero or less to never shed waiting requests
+	 */
+	public AdapterBulkhead(final String name, final int threads, final int capacity, final long deadline) {
+		if(threads < 1) throw new IllegalArgumentException("Invalid thread count [" + threads + "] for bulkhead [" + name + "]");
+		if(capacity < 1) throw new IllegalArgumentException("Invalid queue capacity [" + capacity + "] for bulkhead [" + name + "]");
+		this.name = name;
+		this.threads = threads;
+		this.capacity = capacity;
+		this.deadline = deadline;
+		deadlineNanos = deadline > 0 ? TimeUnit.MILLISECONDS.toNanos(deadline) : 0L;
+		queue = new ArrayBlockingQueue<Runnable>(capacity);
+		executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS, queue, new ThreadFactory() {
+			final AtomicInteger serial = new AtomicInteger(0);
+			@Override
+			public Thread newThread(final Runnable r) {
+				final Thread t = new Thread(r, "Bulkhead-" + name + "#" + serial.incrementAndGet());
+				t.setDaemon(true);
+				return t;
+			}
+		});
+		executor.allowCoreThreadTimeOut(true);
+		final ObjectName on = JMXHelper.objectName("com.heliosapm.tsdb.grapi:service=AdapterBulkhead,name=" + ObjectName.quote(name));
+		try {
+			if(!ManagementFactory.getPlatformMBeanServer().isRegistered(on)) {
+				ManagementFactory.getPlatformMBeanServer().registerMBean(this, on);
+			}
+		} catch (Exception ex) {
+			LOG.warn("Failed to register management interface for AdapterBulkhead [{}]", name, ex);
+		}
+		LOG.info(StringHelper.banner("AdapterBulkhead [%s]\n\tThreads:%s\n\tQueue Capacity:%s\n\tDeadline:%s ms", name, threads, capacity, deadline));
+	}
+	
+	/**
+	 * Queues the passed task to run on a bulkhead thread, or sheds it if the bulkhead is overloaded
+	 * @param task The task to run
+	 */
+	public void execute(final Task task) {
+		if(deadlineNanos > 0) {
+			final Task head = (Task)queue.peek();
+			if(head!=null && System.nanoTime() - head.queued > deadlineNanos) {
+				shedDeadline.increment();
+				task.shed(HttpResponseStatus.SERVICE_UNAVAILABLE);
+				return;
+			}
+		}
+		task.bulkhead = this;
+		try {
+			executor.execute(task);
+		} catch (RejectedExecutionException rex) {
+			shedFull.increment();
+			task.shed(HttpResponseStatus.TOO_MANY_REQUESTS);
+		}
+	}
+	
+	/**
+	 * Stops the bulkhead threads once the queued requests have run
+	 */
+	public void shutdown() {
+		executor.shutdown();
+	}
+	
+	/**
+	 * Records the queue depth, shed counts and queue wait of this bulkhead, tagged with <b><code>adapter=&lt;name&gt;</code></b>
+	 * @param collector The collector to record with
+	 */
+	public void collectStats(final StatsCollector collector) {
+		collector.addExtraTag("adapter", name);
+		try {
+			collector.record("graphite.adapter.queue.depth", queue.size());
+			collector.record("graphite.adapter.queue.active", executor.getActiveCount());
+			collector.record("graphite.adapter.shed", shedFull.get(), "reason=full");
+			collector.record("graphite.adapter.shed", shedDeadline.get(), "reason=deadline");
+			RequestStats.record(collector, "graphite.adapter.queue.wait", queueWait);
+		} finally {
+			collector.clearExtraTag("adapter");
+		}
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 * @see com.heliosapm.tsdb.grapi.server.http.AdapterBulkheadMBean#getName()
+	 */
+	@Override
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see com.heliosapm.tsdb.grapi.server.http.AdapterBulkheadMBean#getThreads()
+	 */
+	@Override
+	public int getThreads() {
+		return threads;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see com.heliosapm.tsdb.grapi.server.http.AdapterBulkheadMBean#getActiveThreads()
+	 */
+	@Override
+	public int getActiveThreads() {
+		return executor.getActiveCount();
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see com.heliosapm.tsdb.grapi.server.http.AdapterBulkheadMBean#getQueueDepth()
+	 */
+	@Override
+	public int getQueueDepth() {
+		return queue.size();
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see com.heliosapm.tsdb.grapi.server.http.AdapterBulkheadMBean#getQueueCapacity()
+	 */
+	@Override
+	public int getQueueCapacity() {
+		return capacity;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see com.heliosapm.tsdb.grapi.server.http.AdapterBulkheadMBean#getDeadline()
+	 */
+	@Override
+	public long getDeadline() {
+		return deadline;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see com.heliosapm.tsdb.grapi.server.http.AdapterBulkheadMBean#getExecuted()
+	 */
+	@Override
+	public long getExecuted() {
+		return executed.get();
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see com.heliosapm.tsdb.grapi.server.http.AdapterBulkheadMBean#getShedFull()
+	 */
+	@Override
+	public long getShedFull() {
+		return shedFull.get();
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see com.heliosapm.tsdb.grapi.server.http.AdapterBulkheadMBean#getShedDeadline()
+	 */
+	@Override
+	public long getShedDeadline() {
+		return shedDeadline.get();
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 * @see java.lang.Object#toString()
+	 */
+	@Override
+	public String toString() {
+		return "AdapterBulkhead [" + name + ", threads=" + threads + ", queued=" + queue.size() + "/" + capacity 
+				+ ", executed=" + executed.get() + ", shedFull=" + shedFull.get() + ", shedDeadline=" + shedDeadline.get() + "]";
+	}
+	
+	/**
+	 * <p>Title: Task</p>
+	 * <p>Description: One request queued in a bulkhead, which is either run or shed</p> 
+	 * <p>Company: Helios Development Group LLC</p>
+	 * @author Whitehead (nwhitehead AT heliosdev DOT org)
+	 * <p><code>com.heliosapm.tsdb.grapi.server.http.AdapterBulkhead.Task</code></p>
+	 */
+	public abstract static class Task implements Runnable {
+		/** The {@link System#nanoTime()} at which the task was created */
+		final long queued = System.nanoTime();
+		/** The bulkhead the task was queued in */
+		AdapterBulkhead bulkhead = null;
+		
+		/**
+		 * Runs the request
+		 */
+		protected abstract void process();
+		
+		/**
+		 * Responds to the request with the passed status instead of running it
+		 * @param status The status to respond with
+		 */
+		protected abstract void shed(HttpResponseStatus status);
+		
+		/**
+		 * Responds to the request with the passed status after running it failed with an exception the adapter did not handle
+		 * @param status The status to respond with
+		 */
+		protected abstract void fail(HttpResponseStatus status);
+		
+		/**
+		 * Runs the request, or sheds it if it waited past the bulkhead's deadline. 
+		 * A request whose processing throws is failed with a 500, so the caller is not left waiting for a response.
+		 * @see java.lang.Runnable#run()
+		 */
+		@Override
+		public final void run() {
+			final long waited = System.nanoTime() - queued;
+			bulkhead.queueWait.recordNanos(waited);
+			PipelineStage.ADAPTER_QUEUE.recordNanos(waited);
+			if(bulkhead.deadlineNanos > 0 && waited > bulkhead.deadlineNanos) {
+				bulkhead.shedDeadline.increment();
+				shed(HttpResponseStatus.SERVICE_UNAVAILABLE);
+				return;
+			}
+			bulkhead.executed.increment();
+			try {
+				process();
+			} catch (Throwable t) {
+				LOG.error("Unhandled exception running request in bulkhead [{}]", bulkhead.name, t);
+				try {
+					fail(HttpResponseStatus.INTERNAL_SERVER_ERROR);
+				} catch (Throwable ft) {
+					LOG.error("Failed to respond to a failed request in bulkhead [{}]", bulkhead.name, ft);
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,83 @@
+/**
+Licensed to the Apache Software Foundation (ASF) under one
+or more contributor license agreements.  See the NOTICE file
+distributed with this work for additional information
+regarding copyright ownership.  The ASF licenses this file
+to you under the Apache License, Version 2.0 (the
+"License"); you may not use this file except in compliance
+with the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an
+"AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+KIND, either express or implied.  See the License for the
+specific language governing permissions and limitations
+under the License.
+ */
+package com.heliosapm.tsdb.grapi.server.http;
+
+/**
+ * <p>Title: AdapterBulkheadMBean</p>
+ * <p>Description: JMX management interface for an {@link AdapterBulkhead}</p> 
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>com.heliosapm.tsdb.grapi.server.http.AdapterBulkheadMBean</code></p>
+ */
+
+public interface AdapterBulkheadMBean {
+	/**
+	 * Returns the name of the adapter the bulkhead runs
+	 * @return the adapter name
+	 */
+	public String getName();
+	
+	/**
+	 * Returns the number of threads in the bulkhead
+	 * @return the number of threads
+	 */
+	public int getThreads();
+	
+	/**
+	 * Returns the number of threads currently running requests
+	 * @return the number of active threads
+	 */
+	public int getActiveThreads();
+	
+	/**
+	 * Returns the number of requests waiting for a thread
+	 * @return the queue depth
+	 */
+	public int getQueueDepth();
+	
+	/**
+	 * Returns the number of requests that can wait for a thread before new requests are rejected
+	 * @return the queue capacity
+	 */
+	public int getQueueCapacity();
+	
+	/**
+	 * Returns the time a request can wait for a thread before it is shed
+	 * @return the deadline in ms, or zero or less if waiting requests are never shed
+	 */
+	public long getDeadline();
+	
+	/**
+	 * Returns the number of requests run by the bulkhead
+	 * @return the number of requests run
+	 */
+	public long getExecuted();
+	
+	/**
+	 * Returns the number of requests rejected with a 429 because the queue was full
+	 * @return the number of requests rejected
+	 */
+	public long getShedFull();
+	
+	/**
+	 * Returns the number of requests shed with a 503 because they waited, or the queue ahead of them had waited, past the deadline
+	 * @return the number of requests shed
+	 */
+	public long getShedDeadline();
+}
@@ -0,0 +1,594 @@
+/**
+Licensed to the Apache Software Foundation (ASF) under one
+or more contributor license agreements.  See the NOTICE file
+distributed with this work for additional information
+regarding copyright ownership.  The ASF licenses this file
+to you under the Apache License, Version 2.0 (the
+"License"); you may not use this file except in compliance
+with the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an
+"AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+KIND, either express or implied.  See the License for the
+specific language governing permissions and limitations
+under the License.
+ */
+package com.heliosapm.tsdb.grapi.server.http;
+
+import static com.heliosapm.tsdb.grapi.server.http.Constants.DEFAULT_HTTP_CHUNK_SIZE;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.jboss.netty.buffer.ChannelBuffers;
+import org.jboss.netty.channel.Channel;
+import org.jboss.netty.channel.ChannelFuture;
+import org.jboss.netty.channel.ChannelFutureListener;
+import org.jboss.netty.channel.ChannelHandlerContext;
+import org.jboss.netty.channel.Channels;
+import org.jboss.netty.handler.codec.http.HttpChunk;
+import org.jboss.netty.handler.codec.http.HttpHeaders;
+import org.jboss.netty.handler.codec.http.HttpRequest;
+import org.jboss.netty.handler.codec.http.HttpResponse;
+import org.jboss.netty.handler.codec.http.HttpResponseStatus;
+import org.jboss.netty.handler.codec.http.HttpVersion;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.heliosapm.tsdb.grapi.netty.SegmentedChannelBuffer;
+import com.heliosapm.tsdb.grapi.netty.SegmentedChannelBufferFactory;
+import com.heliosapm.tsdb.grapi.stats.PipelineStage;
+import com.heliosapm.tsdb.grapi.stats.RequestStats;
+
+/**
+ * <p>Title: ChunkedResponseWriter</p>
+ * <p>Description: Writes one HTTP response whose body is produced incrementally, so it never has to be held in memory as a whole.
+ * The response header is sent with <b><code>Transfer-Encoding: chunked</code></b> ahead of the first chunk, and each chunk is 
+ * encoded into its own buffer from the server's buffer factory by the caller and written with its chunk framing as one gathering write, 
+ * so chunk content is never copied. The buffer is released when its write completes. HTTP/1.0 callers get the unframed body 
+ * and the connection is closed when the response is finished.</p>
+ * <p>When the request was tagged by a {@link ResponseSequencer}, the chunks are held back until the responses to the requests pipelined ahead of it have been written.</p>
+ * <p>When created with a {@link ContentCompressor} and the caller accepts gzip or deflate, the body is compressed as one stream 
+ * and each chunk is flushed through the compressor as it is written, so the caller can decode the chunks as they arrive. 
+ * The compression threshold does not apply, since the size of the body is not known up front.</p>
+ * <p>A body too large to hold in memory is {@link #stream(ChunkProducer) streamed} from a {@link ChunkProducer}: the body is cut into chunks 
+ * of the configured size as it is produced, and the producer is only asked for more while fewer than {@link #MAX_CHUNKS_IN_FLIGHT} chunks 
+ * are waiting to be written and the channel is writable, so the memory held by a response stays the same whatever the size of the body. 
+ * The writer only checks between calls to the producer, so each call should write a piece smaller than a chunk. 
+ * An {@link AsyncChunkProducer} whose pieces arrive over time is paused while none is available and {@link #resume() resumed} when one arrives.</p>
+ * <p>A writer is not thread safe: callers producing chunks on several threads must serialize their calls.</p> 
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>com.heliosapm.tsdb.grapi.server.http.ChunkedResponseWriter</code></p>
+ */
+
+public class ChunkedResponseWriter {
+	/** Static class logger */
+	private static final Logger LOG = LoggerFactory.getLogger(ChunkedResponseWriter.class);
+	/** The chunk trailer */
+	private static final byte[] CRLF = {'\r', '\n'};
+	/** The chunk size header character set */
+	private static final Charset ASCII = Charset.forName("US-ASCII");
+	/** The number of streamed chunks waiting to be written at which the producer is paused */
+	public static final int MAX_CHUNKS_IN_FLIGHT = 2;
+	
+	/** The request being responded to */
+	protected final HttpRequest request;
+	/** The channel to respond on */
+	protected final Channel channel;
+	/** The channel handler context to send the response from */
+	protected final ChannelHandlerContext ctx;
+	/** The response header */
+	protected final HttpResponse response;
+	/** The factory chunk buffers are allocated from */
+	protected final SegmentedChannelBufferFactory bufferFactory;
+	/** The stats to record the response with, or null */
+	protected final RequestStats stats;
+	/** The {@link System#nanoTime()} at which the request was dispatched, or -1 if not known */
+	protected final long startNanos;
+	/** The exchange of the request being responded to, or null if responses are not sequenced */
+	protected final ResponseSequencer.Exchange exchange;
+	/** Indicates if chunk framing is used, false for HTTP/1.0 callers */
+	protected final boolean framed;
+	/** Indicates if the response header has been sent */
+	protected boolean started = false;
+	/** Indicates if the response has been finished */
+	protected boolean finished = false;
+	/** The number of content bytes written */
+	protected long bytes = 0L;
+	/** The compressor of the response content, or null if the content is not compressed */
+	protected final ContentCompressor compressor;
+	/** The stream compressing the body, created when the header is sent, or null if the body is not compressed */
+	protected ContentCompressor.Stream compression = null;
+	/** The number of body bytes at which a streamed body is cut into a chunk */
+	protected final int chunkSize;
+	/** The stream of a streamed body, or null if the body is not streamed */
+	private volatile BodyStream body = null;
+	
+	/**
+	 * Creates a new ChunkedResponseWriter
+	 * @param request The request being responded to
+	 * @param channel The channel to respond on
+	 * @param ctx The channel handler context to send the response from
+	 * @param response The response to send, with the status and headers already set
+	 * @param bufferFactory The factory to allocate chunk buffers from
+	 * @param stats The stats to record the response with, or null
+	 */
+	public ChunkedResponseWriter(final HttpRequest request, final Channel channel, final ChannelHandlerContext ctx, final HttpResponse response, final SegmentedChannelBufferFactory bufferFactory, final RequestStats stats) {
+		this(request, channel, ctx, response, bufferFactory, stats, null);
+	}
+	
+	/**
+	 * Creates a new ChunkedResponseWriter that compresses the body with the passed compressor
+	 * @param request The request being responded to
+	 * @param channel The channel to respond on
+	 * @param ctx The channel handler context to send the response from
+	 * @param response The response to send, with the status and headers already set
+	 * @param bufferFactory The factory to allocate chunk buffers from
+	 * @param stats The stats to record the response with, or null
+	 * @param compressor The compressor of the response content, or null
+	 */
+	public ChunkedResponseWriter(final HttpRequest request, final Channel channel, final ChannelHandlerContext ctx, final HttpResponse response, final SegmentedChannelBufferFactory bufferFactory, final RequestStats stats, final ContentCompressor compressor) {
+		this(request, channel, ctx, response, bufferFactory, stats, compressor, DEFAULT_HTTP_CHUNK_SIZE);
+	}
+	
+	/**
+	 * Creates a new ChunkedResponseWriter that compresses the body with the passed compressor and cuts a streamed body into chunks of the passed size
+	 * @param request The request being responded to
+	 * @param channel The channel to respond on
+	 * @param ctx The channel handler context to send the response from
+	 * @param response The response to send, with the status and headers already set
+	 * @param bufferFactory The factory to allocate chunk buffers from
+	 * @param stats The stats to record the response with, or null
+	 * @param compressor The compressor of the response content, or null
+	 * @param chunkSize The number of body bytes at which a streamed body is cut into a chunk
+	 */
+	public ChunkedResponseWriter(final HttpRequest request, final Channel channel, final ChannelHandlerContext ctx, final HttpResponse response, final SegmentedChannelBufferFactory bufferFactory, final RequestStats stats, final ContentCompressor compressor, final int chunkSize) {
+		if(chunkSize < 1) throw new IllegalArgumentException("Invalid chunk size [" + chunkSize + "]");
+		this.request = request;
+		this.chunkSize = chunkSize;
+		this.compressor = compressor;
+		this.channel = channel;
+		this.ctx = ctx;
+		this.response = response;
+		this.bufferFactory = bufferFactory;
+		this.stats = stats;
+		framed = !HttpVersion.HTTP_1_0.equals(request.getProtocolVersion());
+		final Object attachment = ctx.getAttachment();
+		if(attachment instanceof ResponseSequencer.Exchange) {
+			exchange = (ResponseSequencer.Exchange)attachment;
+			startNanos = exchange.getDispatchNanos();
+		} else {
+			exchange = null;
+			startNanos = attachment instanceof Long ? (Long)attachment : -1L;
+		}
+	}
+	
+	/**
+	 * Returns a new buffer to encode a chunk into
+	 * @return a new chunk buffer
+	 */
+	public SegmentedChannelBuffer newChunk() {
+		return bufferFactory.getBuffer();
+	}
+	
+	/**
+	 * Returns the number of body bytes at which a streamed body is cut into a chunk
+	 * @return the chunk size in bytes
+	 */
+	public int getChunkSize() {
+		return chunkSize;
+	}
+	
+	/**
+	 * Returns the response, so callers can adjust the status and headers before the first chunk is written
+	 * @return the response
+	 */
+	public HttpResponse getResponse() {
+		return response;
+	}
+	
+	/**
+	 * Indicates if the response header has been sent, after which the status can no longer be changed
+	 * @return true if the header has been sent
+	 */
+	public boolean isStarted() {
+		return started;
+	}
+	
+	/**
+	 * Indicates if the response has been finished
+	 * @return true if finished
+	 */
+	public boolean isFinished() {
+		return finished;
+	}
+	
+	/**
+	 * Sends the response header if it has not been sent yet
+	 */
+	protected void start() {
+		if(started) return;
+		if(finished) throw new IllegalStateException("Response already finished");
+		started = true;
+		response.setContent(ChannelBuffers.EMPTY_BUFFER);
+		response.headers().remove(HttpHeaders.Names.CONTENT_LENGTH);
+		if(compressor!=null && compressor.isEnabled() && !response.headers().contains(HttpHeaders.Names.CONTENT_ENCODING)) {
+			response.headers().set(HttpHeaders.Names.VARY, HttpHeaders.Names.ACCEPT_ENCODING);
+			final String encoding = compressor.negotiate(request);
+			if(encoding!=null) {
+				compression = compressor.newStream(encoding);
+				response.headers().set(HttpHeaders.Names.CONTENT_ENCODING, encoding);
+			}
+		}
+		if(framed) {
+			response.setChunked(true);
+			response.headers().set(HttpHeaders.Names.TRANSFER_ENCODING, HttpHeaders.Values.CHUNKED);
+		} else {
+			response.headers().set(HttpHeaders.Names.CONNECTION, HttpHeaders.Values.CLOSE);
+		}
+		ResponseSequencer.sendDownstream(ctx, exchange, Channels.future(channel), response, false);
+	}
+	
+	/**
+	 * Writes the readable bytes of the passed chunk buffer as the next chunk, sending the response header first if needed.
+	 * The buffer is released when the write completes, and must not be touched by the caller after this call.
+	 * An empty buffer is released immediately, since an empty chunk would terminate the body.
+	 * @param chunk The chunk buffer
+	 * @return the write future
+	 */
+	public ChannelFuture writeChunk(final SegmentedChannelBuffer chunk) {
+		if(finished) {
+			chunk.release();
+			throw new IllegalStateException("Response already finished");
+		}
+		start();
+		if(chunk.readableBytes()==0) {
+			chunk.release();
+			return Channels.succeededFuture(channel);
+		}
+		if(compression==null) return write(chunk);
+		final SegmentedChannelBuffer compressed = newChunk();
+		try {
+			compression.encode(chunk, compressed);
+		} catch (RuntimeException rex) {
+			compressed.release();
+			throw rex;
+		} finally {
+			chunk.release();
+		}
+		return write(compressed);
+	}
+	
+	/**
+	 * Writes the readable bytes of the passed buffer as the next chunk of the body, with its chunk framing.
+	 * The buffer is released when the write completes.
+	 * @param chunk The chunk buffer, which must not be empty
+	 * @return the write future
+	 */
+	protected ChannelFuture write(final SegmentedChannelBuffer chunk) {
+		final int length = chunk.readableBytes();
+		bytes += length;
+		final ByteBuffer[] views = chunk.toByteBuffers(chunk.readerIndex(), length);
+		final Object message;
+		if(framed) {
+			final ByteBuffer[] framedViews = new ByteBuffer[views.length + 2];
+			framedViews[0] = ByteBuffer.wrap((Integer.toHexString(length) + "\r\n").getBytes(ASCII));
+			System.arraycopy(views, 0, framedViews, 1, views.length);
+			framedViews[framedViews.length-1] = ByteBuffer.wrap(CRLF);
+			message = ChannelBuffers.wrappedBuffer(true, framedViews);
+		} else {
+			message = ChannelBuffers.wrappedBuffer(true, views);
+		}
+		final ChannelFuture cf = Channels.future(channel);
+		cf.addListener(new ChannelFutureListener() {
+			@Override
+			public void operationComplete(final ChannelFuture f) throws Exception {
+				chunk.release();
+				if(!f.isSuccess()) {
+					LOG.debug("Chunk Write Failed", f.getCause());
+				}
+			}
+		});
+		ResponseSequencer.sendDownstream(ctx, exchange, cf, message, false);
+		return cf;
+	}
+	
+	/**
+	 * Streams the body produced by the passed producer and finishes the response once the producer has written all of it.
+	 * The producer is called on this thread until the first chunks are in flight, and then on the threads completing their writes, 
+	 * one call at a time. If the producer fails or a chunk can not be written, the response is aborted.
+	 * @param producer The producer of the body
+	 */
+	public void stream(final ChunkProducer producer) {
+		if(finished) throw new IllegalStateException("Response already finished");
+		start();
+		final BodyStream stream;
+		try {
+			stream = new BodyStream(producer);
+		} catch (IOException iex) {
+			LOG.error("Failed to create the body stream", iex);
+			sendError(HttpResponseStatus.INTERNAL_SERVER_ERROR);
+			return;
+		}
+		body = stream;
+		stream.pump();
+	}
+	
+	/**
+	 * Calls the {@link AsyncChunkProducer} of the streamed body again after a piece has become available. 
+	 * Thread safe, and a no-op if the body is not streamed, is already being produced, or has ended.
+	 */
+	public void resume() {
+		final BodyStream stream = body;
+		if(stream!=null) stream.pump();
+	}
+	
+	/**
+	 * Finishes the response, sending the header first if no chunk was written
+	 * @return the write future
+	 */
+	public ChannelFuture finish() {
+		start();
+		if(compression!=null) {
+			final SegmentedChannelBuffer trailer = newChunk();
+			try {
+				compression.finish(trailer);
+			} finally {
+				compression.end();
+			}
+			write(trailer);
+		}
+		finished = true;
+		final ChannelFuture cf = Channels.future(channel);
+		final long writeStart = System.nanoTime();
+		cf.addListener(new ChannelFutureListener() {
+			@Override
+			public void operationComplete(final ChannelFuture f) throws Exception {
+				PipelineStage.WRITE.recordSince(writeStart);
+				if(stats!=null) {
+					stats.recordResponse(bytes, startNanos < 0 ? -1L : System.nanoTime() - startNanos, 
+							!f.isSuccess() || response.getStatus().getCode() >= 500);
+				}
+				if(f.isSuccess()) {
+					LOG.debug("Completed Chunked Response Write [{}] bytes", bytes);
+				} else {
+					LOG.error("Chunked Response Write Failed", f.getCause());
+				}
+				if(!framed) channel.close();
+			}
+		});
+		ResponseSequencer.sendDownstream(ctx, exchange, cf, framed ? HttpChunk.LAST_CHUNK : ChannelBuffers.EMPTY_BUFFER, true);
+		return cf;
+	}
+	
+	/**
+	 * Sends an empty response with the passed status if the header has not been sent yet.
+	 * Otherwise the status can no longer be sent, so the connection is closed to signal the truncated body to the caller.
+	 * @param status The response status
+	 * @return the write or close future
+	 */
+	public ChannelFuture sendError(final HttpResponseStatus status) {
+		if(finished) throw new IllegalStateException("Response already finished");
+		finished = true;
+		if(compression!=null) compression.end();
+		if(started) {
+			LOG.warn("Closing channel [{}] to abort a chunked response already in progress", channel);
+			if(stats!=null) stats.recordResponse(bytes, startNanos < 0 ? -1L : System.nanoTime() - startNanos, true);
+			return ResponseSequencer.abort(ctx, exchange);
+		}
+		started = true;
+		response.setStatus(status);
+		response.setContent(ChannelBuffers.EMPTY_BUFFER);
+		HttpHeaders.setContentLength(response, 0);
+		final ChannelFuture cf = Channels.future(channel);
+		cf.addListener(new ChannelFutureListener() {
+			@Override
+			public void operationComplete(final ChannelFuture f) throws Exception {
+				if(stats!=null) {
+					stats.recordResponse(0L, startNanos < 0 ? -1L : System.nanoTime() - startNanos, !f.isSuccess() || status.getCode() >= 500);
+				}
+			}
+		});
+		ResponseSequencer.sendDownstream(ctx, exchange, cf, response, true);
+		return cf;
+	}
+
+	/**
+	 * <p>Title: ChunkProducer</p>
+	 * <p>Description: Produces the body of a {@link ChunkedResponseWriter#stream(ChunkProducer) streamed} response one piece at a time, 
+	 * such as one element of a JSON array, so the writer can stop asking for more while the chunks already produced are waiting to be written. 
+	 * A piece should be smaller than a chunk so that each call cuts at most one chunk; a larger element is best written over several calls.</p> 
+	 * <p>Company: Helios Development Group LLC</p>
+	 * @author Whitehead (nwhitehead AT heliosdev DOT org)
+	 * <p><code>com.heliosapm.tsdb.grapi.server.http.ChunkedResponseWriter.ChunkProducer</code></p>
+	 */
+	public interface ChunkProducer {
+		/**
+		 * Writes the next piece of the body
+		 * @param gen The generator to write the piece with, the same for every piece of the body. It is closed, closing any open JSON content, once the body is complete.
+		 * @return true if there is more to write, false if the body is complete
+		 * @throws Exception thrown on any error producing the piece, which aborts the response
+		 */
+		public boolean produce(JsonGenerator gen) throws Exception;
+	}
+	
+	/**
+	 * <p>Title: AsyncChunkProducer</p>
+	 * <p>Description: A {@link ChunkProducer} whose pieces become available over time, such as results arriving from asynchronous queries. 
+	 * The writer only calls it while {@link #isAvailable()} is true, and the producer calls {@link ChunkedResponseWriter#resume()} 
+	 * after making a piece available.</p> 
+	 * <p>Company: Helios Development Group LLC</p>
+	 * @author Whitehead (nwhitehead AT heliosdev DOT org)
+	 * <p><code>com.heliosapm.tsdb.grapi.server.http.ChunkedResponseWriter.AsyncChunkProducer</code></p>
+	 */
+	public interface AsyncChunkProducer extends ChunkProducer {
+		/**
+		 * Indicates if the next piece of the body, or its end, can be produced now
+		 * @return true if the producer can be called
+		 */
+		public boolean isAvailable();
+	}
+	
+	/**
+	 * <p>Title: BodyStream</p>
+	 * <p>Description: Collects the output of a {@link ChunkProducer} into chunk buffers, writes each one once it reaches the chunk size, 
+	 * and calls the producer again as the chunks in flight are written.</p> 
+	 * <p>Company: Helios Development Group LLC</p>
+	 * @author Whitehead (nwhitehead AT heliosdev DOT org)
+	 * <p><code>com.heliosapm.tsdb.grapi.server.http.ChunkedResponseWriter.BodyStream</code></p>
+	 */
+	private class BodyStream extends OutputStream implements ChannelFutureListener {
+		/** The producer of the body */
+		private final ChunkProducer producer;
+		/** The producer of the body if its pieces arrive over time, otherwise null */
+		private final AsyncChunkProducer async;
+		/** The generator the producer writes with */
+		private final JsonGenerator gen;
+		/** The number of chunks written and not yet completed */
+		private final AtomicInteger inFlight = new AtomicInteger(0);
+		/** Indicates if a thread is calling the producer */
+		private final AtomicBoolean pumping = new AtomicBoolean(false);
+		/** The chunk being filled, or null if none has been started since the last was written */
+		private SegmentedChannelBuffer chunk = null;
+		/** Indicates if the response has been finished or aborted */
+		private volatile boolean ended = false;
+		/** Indicates if a chunk write failed */
+		private volatile boolean failed = false;
+		
+		/**
+		 * Creates a new BodyStream
+		 * @param producer The producer of the body
+		 * @throws IOException thrown if the generator can not be created
+		 */
+		BodyStream(final ChunkProducer producer) throws IOException {
+			this.producer = producer;
+			async = producer instanceof AsyncChunkProducer ? (AsyncChunkProducer)producer : null;
+			gen = ResponseWriter.JSON_FACTORY.createGenerator(this, JsonEncoding.UTF8);
+		}
+		
+		/**
+		 * Indicates if the producer should be called, which is when it has a piece available and no chunk is in flight, 
+		 * or fewer than the maximum are and the channel is writable, or when a failed write has to be handled
+		 * @return true if the producer should be called
+		 */
+		private boolean ready() {
+			if(ended) return false;
+			if(failed) return true;
+			if(async!=null && !async.isAvailable()) return false;
+			final int pending = inFlight.get();
+			return pending==0 || (pending < MAX_CHUNKS_IN_FLIGHT && channel.isWritable());
+		}
+		
+		/**
+		 * Calls the producer until it pauses or completes the body, unless another thread is already doing so.
+		 * A chunk completing its write, or a piece becoming available, while this thread is leaving is picked up by checking again once the pump is released.
+		 */
+		void pump() {
+			if(!pumping.compareAndSet(false, true)) return;
+			try {
+				while(ready()) {
+					if(failed) {
+						end();
+						sendError(HttpResponseStatus.INTERNAL_SERVER_ERROR);
+						return;
+					}
+					if(!producer.produce(gen)) {
+						gen.close();
+						cut();
+						end();
+						finish();
+						return;
+					}
+					gen.flush();
+				}
+			} catch (Exception ex) {
+				LOG.error("Failed to produce the streamed response body", ex);
+				end();
+				sendError(HttpResponseStatus.INTERNAL_SERVER_ERROR);
+			} finally {
+				pumping.set(false);
+			}
+			if(ready()) pump();
+		}
+		
+		/**
+		 * Marks the body as ended and releases the chunk being filled
+		 */
+		private void end() {
+			ended = true;
+			if(chunk!=null) {
+				chunk.release();
+				chunk = null;
+			}
+		}
+		
+		/**
+		 * Writes the chunk being filled, if any
+		 */
+		private void cut() {
+			if(chunk==null) return;
+			final SegmentedChannelBuffer written = chunk;
+			chunk = null;
+			inFlight.incrementAndGet();
+			writeChunk(written).addListener(this);
+		}
+		
+		/**
+		 * {@inheritDoc}
+		 * <p>Frees the slot of the written chunk and calls the producer again.</p>
+		 * @see org.jboss.netty.channel.ChannelFutureListener#operationComplete(org.jboss.netty.channel.ChannelFuture)
+		 */
+		@Override
+		public void operationComplete(final ChannelFuture f) throws Exception {
+			if(!f.isSuccess()) {
+				LOG.debug("Streamed Chunk Write Failed", f.getCause());
+				failed = true;
+			}
+			inFlight.decrementAndGet();
+			pump();
+		}
+		
+		/**
+		 * {@inheritDoc}
+		 * @see java.io.OutputStream#write(int)
+		 */
+		@Override
+		public void write(final int b) throws IOException {
+			if(chunk==null) chunk = newChunk();
+			chunk.writeByte(b);
+			if(chunk.readableBytes() >= chunkSize) cut();
+		}
+		
+		/**
+		 * {@inheritDoc}
+		 * @see java.io.OutputStream#write(byte[], int, int)
+		 */
+		@Override
+		public void write(final byte[] b, final int off, final int len) throws IOException {
+			if(chunk==null) chunk = newChunk();
+			chunk.writeBytes(b, off, len);
+			if(chunk.readableBytes() >= chunkSize) cut();
+		}
+		
+		/**
+		 * {@inheritDoc}
+		 * <p>The chunks are written by the pump, so closing the generator does not close anything.</p>
+		 * @see java.io.OutputStream#close()
+		 */
+		@Override
+		public void close() throws IOException {
+			/* No Op */
+		}
+	}
+
+}
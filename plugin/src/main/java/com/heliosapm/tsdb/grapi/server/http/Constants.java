@@ -37,27 +37,206 @@ public class Constants {
 	public static final String PROPERTY_HTTP_LISTEN_IFACE = "grapi.http.iface";
 	/** Configuration default: The http listening iface */
 	public static final String DEFAULT_HTTP_LISTEN_IFACE = "0.0.0.0";
+	/** Configuration property key: The maximum number of pipelined requests in progress on one connection before reads on it are paused */
+	public static final String PROPERTY_HTTP_PIPELINE_MAXPENDING = "grapi.http.pipeline.maxpending";
+	/** Configuration default: The default maximum number of pipelined requests in progress on one connection */
+	public static final int DEFAULT_HTTP_PIPELINE_MAXPENDING = 16;
+	/** Configuration property key: The number of seconds an idle persistent connection is kept open. Zero keeps idle connections open */
+	public static final String PROPERTY_HTTP_KEEPALIVE_TIMEOUT = "grapi.http.keepalive.timeout";
+	/** Configuration default: The default idle persistent connection timeout in seconds */
+	public static final int DEFAULT_HTTP_KEEPALIVE_TIMEOUT = 60;
+	/** Configuration property key: The deflate level (1-9) responses are compressed with for callers that accept gzip or deflate. Zero disables compression */
+	public static final String PROPERTY_HTTP_COMPRESSION_LEVEL = "grapi.http.compression.level";
+	/** Configuration default: The default compression level */
+	public static final int DEFAULT_HTTP_COMPRESSION_LEVEL = 6;
+	/** Configuration property key: The minimum size in bytes of a response body worth compressing */
+	public static final String PROPERTY_HTTP_COMPRESSION_THRESHOLD = "grapi.http.compression.threshold";
+	/** Configuration default: The default minimum size of a compressed response body */
+	public static final int DEFAULT_HTTP_COMPRESSION_THRESHOLD = 1024;
+	/** Configuration property key: The number of body bytes at which a streamed response body is cut into a chunk */
+	public static final String PROPERTY_HTTP_CHUNK_SIZE = "grapi.http.chunk.size";
+	/** Configuration default: The default streamed response chunk size in bytes */
+	public static final int DEFAULT_HTTP_CHUNK_SIZE = 65536;
+	/** Configuration property key: The number of seconds callers may reuse a response without revalidating it. Zero makes callers revalidate every time */
+	public static final String PROPERTY_HTTP_CACHE_MAXAGE = "grapi.http.cache.maxage";
+	/** Configuration default: The default response max age in seconds */
+	public static final int DEFAULT_HTTP_CACHE_MAXAGE = 0;
+	/** Configuration property key: The CORS headers sent with adapter responses */
+	public static final String PROPERTY_HTTP_CORS_HEADERS = "grapi.http.cors.headers";
+	/** Configuration default: The default CORS headers */
+	public static final String DEFAULT_HTTP_CORS_HEADERS = "Authorization, Content-Type, Accept, Origin, User-Agent, DNT, Cache-Control, X-Mx-ReqToken, Keep-Alive, X-Requested-With, If-Modified-Since";
+	/** Configuration property key: The CORS domain sent with adapter responses */
+	public static final String PROPERTY_HTTP_CORS_DOMAIN = "grapi.http.cors.domain";
+	/** Configuration default: The default CORS domain */
+	public static final String DEFAULT_HTTP_CORS_DOMAIN = "*";
 	/** Configuration property key: The URL of the bosun service that will handle bosun queries */
 	public static final String PROPERTY_BOSUN_URL = "grapi.bosun.url";
 	/** Configuration default: The default Bosun URL */
 	public static final String DEFAULT_BOSUN_URL = "http://127.0.0.1:8070";
-	/** Configuration property key: The CORS headers sent with bosun query responses */
+	/** Configuration property key: The CORS headers sent with adapter responses when {@link #PROPERTY_HTTP_CORS_HEADERS} is not set */
 	public static final String PROPERTY_BOSUN_CORS_HEADERS = "grapi.bosun.cors.headers";
 	/** Configuration default: The default Bosun CORS headers */
-	public static final String DEFAULT_BOSUN_CORS_HEADERS = "Authorization, Content-Type, Accept, Origin, User-Agent, DNT, Cache-Control, X-Mx-ReqToken, Keep-Alive, X-Requested-With, If-Modified-Since";
-	/** Configuration property key: The CORS domain sent with bosun query responses */
+	public static final String DEFAULT_BOSUN_CORS_HEADERS = DEFAULT_HTTP_CORS_HEADERS;
+	/** Configuration property key: The CORS domain sent with adapter responses when {@link #PROPERTY_HTTP_CORS_DOMAIN} is not set */
 	public static final String PROPERTY_BOSUN_CORS_DOMAIN = "grapi.bosun.cors.domain";
 	/** Configuration default: The default Bosun CORS domain */
-	public static final String DEFAULT_BOSUN_CORS_DOMAIN = "*";
+	public static final String DEFAULT_BOSUN_CORS_DOMAIN = DEFAULT_HTTP_CORS_DOMAIN;
 	/** Configuration property key: The default maximum number of items to be returned on a bosun query */
 	public static final String PROPERTY_BOSUN_MAXITEMS = "grapi.bosun.maxitems";
 	/** Configuration default: The default default maximum bumber of items */
 	public static final int DEFAULT_BOSUN_MAXITEMS = 128;
+	/** Configuration property key: The maximum number of bosun responses to cache. Zero disables the cache */
+	public static final String PROPERTY_BOSUN_CACHE_MAXENTRIES = "grapi.bosun.cache.maxentries";
+	/** Configuration default: The default maximum number of cached bosun responses */
+	public static final int DEFAULT_BOSUN_CACHE_MAXENTRIES = 1024;
+	/** Configuration property key: The maximum total number of bytes of cached bosun responses */
+	public static final String PROPERTY_BOSUN_CACHE_MAXBYTES = "grapi.bosun.cache.maxbytes";
+	/** Configuration default: The default maximum total number of bytes of cached bosun responses */
+	public static final int DEFAULT_BOSUN_CACHE_MAXBYTES = 32 * 1024 * 1024;
+	/** Configuration property key: The time to live of cached bosun responses in seconds */
+	public static final String PROPERTY_BOSUN_CACHE_TTL = "grapi.bosun.cache.ttl";
+	/** Configuration default: The default time to live of cached bosun responses in seconds */
+	public static final int DEFAULT_BOSUN_CACHE_TTL = 60;
+	
+	/** Configuration property key: The maximum number of compiled bosun filter expressions to cache */
+	public static final String PROPERTY_BOSUN_FILTERCACHE_MAXENTRIES = "grapi.bosun.filtercache.maxentries";
+	/** Configuration default: The default maximum number of compiled bosun filter expressions to cache */
+	public static final int DEFAULT_BOSUN_FILTERCACHE_MAXENTRIES = 256;
+	/** Configuration property key: The maximum number of parsed bosun query URIs to cache */
+	public static final String PROPERTY_BOSUN_QUERYCACHE_MAXENTRIES = "grapi.bosun.querycache.maxentries";
+	/** Configuration default: The default maximum number of parsed bosun query URIs to cache */
+	public static final int DEFAULT_BOSUN_QUERYCACHE_MAXENTRIES = 1024;
+	
+	/** Configuration property key: The maximum number of metric names retrieved from the TSDB UID table per find query */
+	public static final String PROPERTY_TSDB_FIND_MAXSUGGEST = "grapi.tsdb.find.maxsuggest";
+	/** Configuration default: The default maximum number of metric names retrieved per find query */
+	public static final int DEFAULT_TSDB_FIND_MAXSUGGEST = 25000;
+	/** Configuration property key: The number of nodes above which a find response is streamed in chunks rather than sent with a content length */
+	public static final String PROPERTY_TSDB_FIND_STREAMNODES = "grapi.tsdb.find.streamnodes";
+	/** Configuration default: The default number of nodes above which a find response is streamed */
+	public static final int DEFAULT_TSDB_FIND_STREAMNODES = 5000;
+	/** Configuration property key: Indicates if find queries should be answered from an in-memory trie of the metric namespace */
+	public static final String PROPERTY_TSDB_TRIE_ENABLED = "grapi.tsdb.trie.enabled";
+	/** Configuration default: The namespace trie is enabled by default */
+	public static final boolean DEFAULT_TSDB_TRIE_ENABLED = true;
+	/** Configuration property key: The maximum number of metric names loaded into the namespace trie */
+	public static final String PROPERTY_TSDB_TRIE_MAXNAMES = "grapi.tsdb.trie.maxnames";
+	/** Configuration default: The default maximum number of metric names loaded into the namespace trie */
+	public static final int DEFAULT_TSDB_TRIE_MAXNAMES = 10000000;
+	/** Configuration property key: The namespace trie refresh period in seconds, zero or less to build the trie once */
+	public static final String PROPERTY_TSDB_TRIE_REFRESH = "grapi.tsdb.trie.refresh";
+	/** Configuration default: The default namespace trie refresh period in seconds */
+	public static final int DEFAULT_TSDB_TRIE_REFRESH = 300;
+	/** Configuration property key: The TSDB aggregator used to combine the tagged series of a metric into one Graphite series */
+	public static final String PROPERTY_TSDB_RENDER_AGGREGATOR = "grapi.tsdb.render.aggregator";
+	/** Configuration default: The default render aggregator */
+	public static final String DEFAULT_TSDB_RENDER_AGGREGATOR = "sum";
+	/** Configuration property key: The maximum number of series a render request may resolve to */
+	public static final String PROPERTY_TSDB_RENDER_MAXSERIES = "grapi.tsdb.render.maxseries";
+	/** Configuration default: The default maximum number of series per render request */
+	public static final int DEFAULT_TSDB_RENDER_MAXSERIES = 1000;
+	/** Configuration property key: The maximum number of series of one streamed render request being fetched or waiting to be written at a time */
+	public static final String PROPERTY_TSDB_RENDER_MAXQUEUED = "grapi.tsdb.render.maxqueued";
+	/** Configuration default: The default maximum number of series of one streamed render request being fetched or waiting to be written at a time */
+	public static final int DEFAULT_TSDB_RENDER_MAXQUEUED = 32;
+	/** Configuration property key: The consolidation used to reduce render series to the caller's maxDataPoints: lttb, average, min, max or sum */
+	public static final String PROPERTY_TSDB_RENDER_CONSOLIDATION = "grapi.tsdb.render.consolidation";
+	/** Configuration default: The default render consolidation */
+	public static final String DEFAULT_TSDB_RENDER_CONSOLIDATION = "lttb";
+	/** Configuration property key: The maximum number of parsed render targets to cache */
+	public static final String PROPERTY_TSDB_RENDER_TARGETCACHE_MAXENTRIES = "grapi.tsdb.render.targetcache.maxentries";
+	/** Configuration default: The default maximum number of parsed render targets to cache */
+	public static final int DEFAULT_TSDB_RENDER_TARGETCACHE_MAXENTRIES = 1024;
+	/** Configuration property key: The maximum number of fetched render series to cache per metric. Zero disables the cache */
+	public static final String PROPERTY_TSDB_RENDER_CACHE_MAXENTRIES = "grapi.tsdb.render.cache.maxentries";
+	/** Configuration default: The default maximum number of cached render series */
+	public static final int DEFAULT_TSDB_RENDER_CACHE_MAXENTRIES = 10000;
+	/** Configuration property key: The maximum total number of cached render series points, at 16 bytes each */
+	public static final String PROPERTY_TSDB_RENDER_CACHE_MAXPOINTS = "grapi.tsdb.render.cache.maxpoints";
+	/** Configuration default: The default maximum total number of cached render series points */
+	public static final long DEFAULT_TSDB_RENDER_CACHE_MAXPOINTS = 4L * 1024 * 1024;
+	/** Configuration property key: The time in seconds a cached render series stays cached without being refreshed */
+	public static final String PROPERTY_TSDB_RENDER_CACHE_TTL = "grapi.tsdb.render.cache.ttl";
+	/** Configuration default: The default time to live of cached render series in seconds */
+	public static final int DEFAULT_TSDB_RENDER_CACHE_TTL = 600;
+	/** Configuration property key: The alignment in seconds of the windows fetched for the render cache, and the length of the tail re-fetched on refresh */
+	public static final String PROPERTY_TSDB_RENDER_CACHE_ALIGNMENT = "grapi.tsdb.render.cache.alignment";
+	/** Configuration default: The default render cache alignment in seconds */
+	public static final int DEFAULT_TSDB_RENDER_CACHE_ALIGNMENT = 60;
+	
+	/** Configuration property key: The number of threads evaluating render functions, zero or less for one per core */
+	public static final String PROPERTY_FUNCTIONS_PARALLELISM = "grapi.functions.parallelism";
+	/** Configuration default: The default number of threads evaluating render functions */
+	public static final int DEFAULT_FUNCTIONS_PARALLELISM = 0;
+	/** Configuration property key: The number of data points below which render function work is not split across threads */
+	public static final String PROPERTY_FUNCTIONS_CHUNKSIZE = "grapi.functions.chunksize";
+	/** Configuration default: The default number of data points below which render function work is not split */
+	public static final int DEFAULT_FUNCTIONS_CHUNKSIZE = 4096;
+	
+	/** Configuration property key: Indicates if direct buffers for responses are pooled */
+	public static final String PROPERTY_BUFFER_POOL_ENABLED = "grapi.buffers.pool.enabled";
+	/** Configuration default: Direct buffers are pooled by default */
+	public static final boolean DEFAULT_BUFFER_POOL_ENABLED = true;
+	/** Configuration property key: The smallest pooled buffer size in bytes, rounded up to a power of two */
+	public static final String PROPERTY_BUFFER_POOL_MINSIZE = "grapi.buffers.pool.minsize";
+	/** Configuration default: The default smallest pooled buffer size in bytes */
+	public static final int DEFAULT_BUFFER_POOL_MINSIZE = 1024;
+	/** Configuration property key: The largest pooled buffer size in bytes, rounded up to a power of two */
+	public static final String PROPERTY_BUFFER_POOL_MAXSIZE = "grapi.buffers.pool.maxsize";
+	/** Configuration default: The default largest pooled buffer size in bytes */
+	public static final int DEFAULT_BUFFER_POOL_MAXSIZE = 4194304;
+	/** Configuration property key: The maximum number of buffers of each size cached per netty I/O thread */
+	public static final String PROPERTY_BUFFER_POOL_THREADCACHE = "grapi.buffers.pool.threadcache";
+	/** Configuration default: The default number of buffers of each size cached per netty I/O thread */
+	public static final int DEFAULT_BUFFER_POOL_THREADCACHE = 8;
+	/** Configuration property key: The maximum number of bytes retained by the buffer pool */
+	public static final String PROPERTY_BUFFER_POOL_MAXRETAINED = "grapi.buffers.pool.maxretained";
+	/** Configuration default: The default maximum number of bytes retained by the buffer pool */
+	public static final long DEFAULT_BUFFER_POOL_MAXRETAINED = 67108864L;
+	
+	/** Configuration property key: The size in bytes of the direct segments response buffers grow by, rounded up to a power of two */
+	public static final String PROPERTY_BUFFER_SEGMENT_SIZE = "grapi.buffers.segment.size";
+	/** Configuration default: The default response buffer segment size in bytes */
+	public static final int DEFAULT_BUFFER_SEGMENT_SIZE = 16384;
+	
+	/** Configuration property key: The global direct memory budget in bytes for all accounted buffers */
+	public static final String PROPERTY_BUFFER_BUDGET_GLOBAL = "grapi.buffers.budget.global";
+	/** Configuration default: Zero sets the global budget to three quarters of the JVM's direct memory limit */
+	public static final long DEFAULT_BUFFER_BUDGET_GLOBAL = 0L;
+	/** Configuration property key: The direct memory budget in bytes for server response buffers */
+	public static final String PROPERTY_BUFFER_BUDGET_SERVER = "grapi.buffers.budget.server";
+	/** Configuration default: Zero limits server response buffers by the global budget only */
+	public static final long DEFAULT_BUFFER_BUDGET_SERVER = 0L;
+	/** Configuration property key: The direct memory budget in bytes for upstream response buffers */
+	public static final String PROPERTY_BUFFER_BUDGET_CLIENT = "grapi.buffers.budget.client";
+	/** Configuration default: Zero limits upstream response buffers by the global budget only */
+	public static final long DEFAULT_BUFFER_BUDGET_CLIENT = 0L;
+	/** Configuration property key: The fraction of a budget in use at which reads are paused and new requests rejected */
+	public static final String PROPERTY_BUFFER_BUDGET_HIGHWATER = "grapi.buffers.budget.highwater";
+	/** Configuration default: The default fraction of a budget at which backpressure is applied */
+	public static final float DEFAULT_BUFFER_BUDGET_HIGHWATER = 0.9f;
+	/** Configuration property key: The fraction of a budget in use at which backpressure is lifted */
+	public static final String PROPERTY_BUFFER_BUDGET_LOWWATER = "grapi.buffers.budget.lowwater";
+	/** Configuration default: The default fraction of a budget at which backpressure is lifted */
+	public static final float DEFAULT_BUFFER_BUDGET_LOWWATER = 0.75f;
 	
 	/** Configuration property key: The graphite adapters to install expressed as comma separated fully qualified class names */
 	public static final String PROPERTY_GRAPI_ADAPTERS = "grapi.adapters";
 	/** Configuration default: The default adapters to install */
 	public static final String[] DEFAULT_GRAPI_ADAPTERS = {"com.heliosapm.tsdb.grapi.adapters.BosunValuesForTagKeyAdapter"};
+	/** Configuration property key: The number of threads in each adapter's bulkhead, zero for one per core, or less than zero to run adapters on the I/O threads. 
+	 * Like the other bulkhead settings, it can be set for one adapter by suffixing the key with <b><code>.&lt;adapter simple class name&gt;</code></b> */
+	public static final String PROPERTY_ADAPTER_THREADS = "grapi.adapter.threads";
+	/** Configuration default: The default number of threads per adapter bulkhead */
+	public static final int DEFAULT_ADAPTER_THREADS = 0;
+	/** Configuration property key: The number of requests that can wait in an adapter's bulkhead before new requests are rejected with a 429 */
+	public static final String PROPERTY_ADAPTER_QUEUE = "grapi.adapter.queue";
+	/** Configuration default: The default adapter bulkhead queue size */
+	public static final int DEFAULT_ADAPTER_QUEUE = 256;
+	/** Configuration property key: The time in ms a request can wait in an adapter's bulkhead before it is shed with a 503. Zero or less never sheds waiting requests */
+	public static final String PROPERTY_ADAPTER_DEADLINE = "grapi.adapter.deadline";
+	/** Configuration default: The default adapter bulkhead queue wait deadline in ms */
+	public static final long DEFAULT_ADAPTER_DEADLINE = 1000L;
 	
 
 	
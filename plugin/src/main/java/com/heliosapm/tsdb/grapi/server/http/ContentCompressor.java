@@ -0,0 +1,381 @@
+/**
+Licensed to the Apache Software Foundation (ASF) under one
+or more contributor license agreements.  See the NOTICE file
+distributed with this work for additional information
+regarding copyright ownership.  The ASF licenses this file
+to you under the Apache License, Version 2.0 (the
+"License"); you may not use this file except in compliance
+with the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an
+"AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+KIND, either express or implied.  See the License for the
+specific language governing permissions and limitations
+under the License.
+ */
+package com.heliosapm.tsdb.grapi.server.http;
+
+import static com.heliosapm.tsdb.grapi.server.http.Constants.DEFAULT_HTTP_COMPRESSION_LEVEL;
+import static com.heliosapm.tsdb.grapi.server.http.Constants.DEFAULT_HTTP_COMPRESSION_THRESHOLD;
+import static com.heliosapm.tsdb.grapi.server.http.Constants.PROPERTY_HTTP_COMPRESSION_LEVEL;
+import static com.heliosapm.tsdb.grapi.server.http.Constants.PROPERTY_HTTP_COMPRESSION_THRESHOLD;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Properties;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
+
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.handler.codec.http.HttpHeaders;
+import org.jboss.netty.handler.codec.http.HttpRequest;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.heliosapm.utils.config.ConfigurationHelper;
+import com.heliosapm.utils.lang.StringHelper;
+
+/**
+ * <p>Title: ContentCompressor</p>
+ * <p>Description: Negotiates the content encoding of a response from the request's <b><code>Accept-Encoding</code></b> header 
+ * and compresses response bodies with gzip or deflate at the configured level. Bodies smaller than the configured threshold are 
+ * not worth the CPU and are sent as is. Compression is done by the response writers before the body is framed, since they hand 
+ * pre-framed buffers to the channel, and {@link #gzip(byte[])} compresses cacheable bodies once, when they are cached.</p> 
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>com.heliosapm.tsdb.grapi.server.http.ContentCompressor</code></p>
+ */
+
+public class ContentCompressor {
+	/** The singleton instance */
+	private static volatile ContentCompressor instance = null;
+	/** The singleton instance ctor lock */
+	private static final Object lock = new Object();
+	
+	/** Static class logger */
+	private static final Logger LOG = LoggerFactory.getLogger(ContentCompressor.class);
+	
+	/** The gzip content encoding */
+	public static final String GZIP = "gzip";
+	/** The deflate content encoding */
+	public static final String DEFLATE = "deflate";
+	
+	/** The deflate level, zero if compression is disabled */
+	protected final int level;
+	/** The minimum size of a compressed body in bytes */
+	protected final int threshold;
+	
+	/**
+	 * Acquires the ContentCompressor singleton instance, configuring it from the passed properties if it has not been created yet
+	 * @param config The optional configuration properties
+	 * @return the ContentCompressor singleton instance
+	 */
+	public static ContentCompressor getInstance(final Properties config) {
+		if(instance==null) {
+			synchronized(lock) {
+				if(instance==null) {
+					instance = new ContentCompressor(
+						ConfigurationHelper.getIntSystemThenEnvProperty(PROPERTY_HTTP_COMPRESSION_LEVEL, DEFAULT_HTTP_COMPRESSION_LEVEL, config),
+						ConfigurationHelper.getIntSystemThenEnvProperty(PROPERTY_HTTP_COMPRESSION_THRESHOLD, DEFAULT_HTTP_COMPRESSION_THRESHOLD, config));
+					LOG.info(StringHelper.banner("ContentCompressor Configuration\n\tLevel:%s\n\tThreshold:%s", instance.level, instance.threshold));
+				}
+			}
+		}
+		return instance;
+	}
+	
+	/**
+	 * Creates a new ContentCompressor
+	 * @param level The deflate level (1-9), zero to disable compression
+	 * @param threshold The minimum size in bytes of a compressed body
+	 */
+	public ContentCompressor(final int level, final int threshold) {
+		this.level = Math.max(0, Math.min(Deflater.BEST_COMPRESSION, level));
+		this.threshold = Math.max(0, threshold);
+	}
+	
+	/**
+	 * Indicates if compression is enabled
+	 * @return true if enabled
+	 */
+	public boolean isEnabled() {
+		return level > 0;
+	}
+	
+	/**
+	 * Returns the deflate level
+	 * @return the deflate level, zero if compression is disabled
+	 */
+	public int getLevel() {
+		return level;
+	}
+	
+	/**
+	 * Returns the minimum size of a compressed body
+	 * @return the minimum size in bytes
+	 */
+	public int getThreshold() {
+		return threshold;
+	}
+	
+	/**
+	 * Indicates if a body of the passed size is worth compressing
+	 * @param length The size of the body in bytes
+	 * @return true if compression is enabled and the body is at least the threshold
+	 */
+	public boolean isCompressible(final long length) {
+		return level > 0 && length >= threshold;
+	}
+	
+	/**
+	 * Returns the content encoding the caller of the passed request prefers. 
+	 * gzip is preferred over deflate when both are accepted with the same quality, and a wildcard is taken as gzip.
+	 * @param request The request
+	 * @return {@link #GZIP}, {@link #DEFLATE}, or null if compression is disabled or the caller accepts neither
+	 */
+	public String negotiate(final HttpRequest request) {
+		if(level==0) return null;
+		final String accept = request.headers().get(HttpHeaders.Names.ACCEPT_ENCODING);
+		if(accept==null || accept.isEmpty()) return null;
+		float gzip = -1f, deflate = -1f, any = -1f;
+		for(String coding: accept.split(",")) {
+			final int semi = coding.indexOf(';');
+			final String name = (semi==-1 ? coding : coding.substring(0, semi)).trim();
+			final float q = semi==-1 ? 1f : quality(coding.substring(semi+1));
+			if(GZIP.equalsIgnoreCase(name) || "x-gzip".equalsIgnoreCase(name)) gzip = Math.max(gzip, q);
+			else if(DEFLATE.equalsIgnoreCase(name)) deflate = Math.max(deflate, q);
+			else if("*".equals(name)) any = q;
+		}
+		if(gzip < 0f) gzip = any;
+		if(gzip > 0f && gzip >= deflate) return GZIP;
+		if(deflate > 0f) return DEFLATE;
+		return null;
+	}
+	
+	/**
+	 * Parses the quality of an accepted encoding
+	 * @param params The parameters following the encoding name
+	 * @return the quality, 1 if not specified, or 0 if it cannot be parsed
+	 */
+	private static float quality(final String params) {
+		final String p = params.trim();
+		if(!p.regionMatches(true, 0, "q=", 0, 2)) return 1f;
+		try {
+			return Float.parseFloat(p.substring(2).trim());
+		} catch (NumberFormatException nex) {
+			return 0f;
+		}
+	}
+	
+	/**
+	 * Compresses the readable bytes of the passed buffer into the passed buffer
+	 * @param encoding The content encoding, {@link #GZIP} or {@link #DEFLATE}
+	 * @param content The content to compress. Its reader index is not moved.
+	 * @param out The buffer to write the compressed content to
+	 */
+	public void compress(final String encoding, final ChannelBuffer content, final ChannelBuffer out) {
+		final Stream stream = newStream(encoding);
+		try {
+			stream.encode(content, out);
+			stream.finish(out);
+		} finally {
+			stream.end();
+		}
+	}
+	
+	/**
+	 * Compresses the passed body with gzip, so it can be cached compressed
+	 * @param content The body to compress
+	 * @return the compressed body, or null if compression is disabled or the body is below the threshold
+	 */
+	public byte[] gzip(final byte[] content) {
+		if(!isCompressible(content.length)) return null;
+		final ByteArrayOutputStream baos = new ByteArrayOutputStream(content.length/4 + 64);
+		try {
+			final GZIPOutputStream gz = new GZIPOutputStream(baos, 8192) {{
+				def.setLevel(level);
+			}};
+			gz.write(content);
+			gz.close();
+		} catch (IOException iex) {
+			throw new RuntimeException("Failed to compress content", iex);
+		}
+		return baos.toByteArray();
+	}
+	
+	/**
+	 * Creates a new stream that compresses a body written in several parts, such as the chunks of a chunked response
+	 * @param encoding The content encoding, {@link #GZIP} or {@link #DEFLATE}
+	 * @return the new stream, which must be {@link Stream#end() ended} to release its native resources
+	 */
+	public Stream newStream(final String encoding) {
+		return new Stream(encoding, level);
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 * @see java.lang.Object#toString()
+	 */
+	@Override
+	public String toString() {
+		return "ContentCompressor [level=" + level + ", threshold=" + threshold + "]";
+	}
+	
+	/**
+	 * <p>Title: Stream</p>
+	 * <p>Description: Compresses a body written in parts. Each part is flushed through the compressor when it is encoded,
+	 * so the compressed parts can be sent as they are produced and decoded by the caller as they arrive. Not thread safe.</p> 
+	 * <p>Company: Helios Development Group LLC</p>
+	 * @author Whitehead (nwhitehead AT heliosdev DOT org)
+	 * <p><code>com.heliosapm.tsdb.grapi.server.http.ContentCompressor.Stream</code></p>
+	 */
+	public static class Stream {
+		/** The content encoding */
+		private final String encoding;
+		/** The output stream the compressor writes to, whose target buffer is swapped for each part */
+		private final Sink sink = new Sink();
+		/** The compressing stream */
+		private final DeflaterOutputStream out;
+		/** The compressor passed to a deflate stream, which closing the stream does not end, or null for a gzip stream, which ends its own */
+		private final Deflater deflater;
+		/** Indicates if the stream has been ended */
+		private boolean ended = false;
+		
+		/**
+		 * Creates a new Stream
+		 * @param encoding The content encoding, {@link ContentCompressor#GZIP} or {@link ContentCompressor#DEFLATE}
+		 * @param level The deflate level
+		 */
+		Stream(final String encoding, final int level) {
+			this.encoding = encoding;
+			try {
+				if(GZIP.equals(encoding)) {
+					deflater = null;
+					out = new GZIPOutputStream(sink, 8192, true) {{
+						def.setLevel(level);
+					}};
+				} else if(DEFLATE.equals(encoding)) {
+					deflater = new Deflater(level);
+					out = new DeflaterOutputStream(sink, deflater, 8192, true);
+				} else {
+					throw new IllegalArgumentException("Unsupported content encoding [" + encoding + "]");
+				}
+			} catch (IOException iex) {
+				throw new RuntimeException("Failed to create compressor", iex);
+			}
+		}
+		
+		/**
+		 * Returns the content encoding
+		 * @return the content encoding
+		 */
+		public String getEncoding() {
+			return encoding;
+		}
+		
+		/**
+		 * Compresses the readable bytes of the passed part into the passed buffer, 
+		 * along with any output held back from earlier parts, such as the gzip header
+		 * @param part The part to compress. Its reader index is not moved.
+		 * @param target The buffer to write the compressed part to
+		 */
+		public void encode(final ChannelBuffer part, final ChannelBuffer target) {
+			sink.attach(target);
+			try {
+				part.getBytes(part.readerIndex(), out, part.readableBytes());
+				out.flush();
+			} catch (IOException iex) {
+				throw new RuntimeException("Failed to compress content", iex);
+			} finally {
+				sink.target = null;
+			}
+		}
+		
+		/**
+		 * Writes the end of the compressed body, such as the gzip trailer, to the passed buffer
+		 * @param target The buffer to write the end of the body to
+		 */
+		public void finish(final ChannelBuffer target) {
+			sink.attach(target);
+			try {
+				out.finish();
+			} catch (IOException iex) {
+				throw new RuntimeException("Failed to compress content", iex);
+			} finally {
+				sink.target = null;
+			}
+		}
+		
+		/**
+		 * Releases the compressor's native resources. Any output not yet finished is discarded.
+		 */
+		public void end() {
+			if(ended) return;
+			ended = true;
+			sink.discard = true;
+			try {
+				out.close();
+			} catch (IOException iex) {
+				/* No Op */
+			} finally {
+				if(deflater!=null) deflater.end();
+			}
+		}
+	}
+	
+	/**
+	 * <p>Title: Sink</p>
+	 * <p>Description: An output stream that writes to the current target buffer of a {@link Stream}. Output written while there is no target, 
+	 * such as the gzip header written when the stream is created, is held and written to the next target.</p> 
+	 * <p>Company: Helios Development Group LLC</p>
+	 * @author Whitehead (nwhitehead AT heliosdev DOT org)
+	 * <p><code>com.heliosapm.tsdb.grapi.server.http.ContentCompressor.Sink</code></p>
+	 */
+	private static class Sink extends OutputStream {
+		/** The current target, or null if there is none */
+		private ChannelBuffer target = null;
+		/** The output held while there is no target */
+		private final ByteArrayOutputStream held = new ByteArrayOutputStream(16);
+		/** Indicates if output is discarded */
+		private boolean discard = false;
+		
+		/**
+		 * Sets the target buffer, writing any held output to it first
+		 * @param target The new target
+		 */
+		void attach(final ChannelBuffer target) {
+			if(held.size() > 0) {
+				target.writeBytes(held.toByteArray());
+				held.reset();
+			}
+			this.target = target;
+		}
+		
+		/**
+		 * {@inheritDoc}
+		 * @see java.io.OutputStream#write(int)
+		 */
+		@Override
+		public void write(final int b) throws IOException {
+			if(discard) return;
+			if(target!=null) target.writeByte(b);
+			else held.write(b);
+		}
+		
+		/**
+		 * {@inheritDoc}
+		 * @see java.io.OutputStream#write(byte[], int, int)
+		 */
+		@Override
+		public void write(final byte[] b, final int off, final int len) throws IOException {
+			if(discard) return;
+			if(target!=null) target.writeBytes(b, off, len);
+			else held.write(b, off, len);
+		}
+	}
+}
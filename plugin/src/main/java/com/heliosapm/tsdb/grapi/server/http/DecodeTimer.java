@@ -0,0 +1,75 @@
+/**
+Licensed to the Apache Software Foundation (ASF) under one
+or more contributor license agreements.  See the NOTICE file
+distributed with this work for additional information
+regarding copyright ownership.  The ASF licenses this file
+to you under the Apache License, Version 2.0 (the
+"License"); you may not use this file except in compliance
+with the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an
+"AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+KIND, either express or implied.  See the License for the
+specific language governing permissions and limitations
+under the License.
+ */
+package com.heliosapm.tsdb.grapi.server.http;
+
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.channel.ChannelHandler;
+import org.jboss.netty.channel.ChannelHandlerContext;
+import org.jboss.netty.channel.MessageEvent;
+import org.jboss.netty.channel.SimpleChannelUpstreamHandler;
+
+import com.heliosapm.tsdb.grapi.stats.PipelineStage;
+
+/**
+ * <p>Title: DecodeTimer</p>
+ * <p>Description: Sits in front of the HTTP decoder and marks the time the first bytes of each request are read,
+ * in its context's attachment. The request handler calls {@link #decoded(ChannelHandlerContext)} when the decoded 
+ * request arrives, which records the {@link PipelineStage#DECODE decode} stage and clears the mark for the next request.</p> 
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>com.heliosapm.tsdb.grapi.server.http.DecodeTimer</code></p>
+ */
+@ChannelHandler.Sharable
+public class DecodeTimer extends SimpleChannelUpstreamHandler {
+	/** The shared instance */
+	public static final DecodeTimer INSTANCE = new DecodeTimer();
+	
+	/**
+	 * Creates a new DecodeTimer
+	 */
+	private DecodeTimer() {
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 * @see org.jboss.netty.channel.SimpleChannelUpstreamHandler#messageReceived(org.jboss.netty.channel.ChannelHandlerContext, org.jboss.netty.channel.MessageEvent)
+	 */
+	@Override
+	public void messageReceived(final ChannelHandlerContext ctx, final MessageEvent e) throws Exception {
+		if(ctx.getAttachment()==null && e.getMessage() instanceof ChannelBuffer) {
+			ctx.setAttachment(System.nanoTime());
+		}
+		super.messageReceived(ctx, e);
+	}
+	
+	/**
+	 * Records the decode time of the request just decoded in the passed context's pipeline, and clears the mark
+	 * @param ctx The context of any handler in the pipeline
+	 */
+	public static void decoded(final ChannelHandlerContext ctx) {
+		final ChannelHandlerContext timerCtx = ctx.getPipeline().getContext(INSTANCE);
+		if(timerCtx==null) return;
+		final Object mark = timerCtx.getAttachment();
+		if(mark instanceof Long) {
+			timerCtx.setAttachment(null);
+			PipelineStage.DECODE.recordSince((Long)mark);
+		}
+	}
+
+}
@@ -28,15 +28,22 @@ import static com.heliosapm.tsdb.grapi.server.http.Constants.DEFAULT_GRAPI_ADAPT
 import static com.heliosapm.tsdb.grapi.server.http.Constants.PROPERTY_GRAPI_ADAPTERS;
 
 import java.lang.reflect.Constructor;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
 import java.util.Properties;
 import java.util.Set;
 
+import net.opentsdb.stats.StatsCollector;
+
 import org.jboss.netty.channel.Channel;
 import org.jboss.netty.channel.ChannelHandler;
 import org.jboss.netty.channel.ChannelHandlerContext;
 import org.jboss.netty.channel.Channels;
-import org.jboss.netty.channel.DownstreamMessageEvent;
 import org.jboss.netty.channel.ExceptionEvent;
 import org.jboss.netty.channel.MessageEvent;
 import org.jboss.netty.channel.SimpleChannelUpstreamHandler;
@@ -44,16 +51,20 @@ import org.jboss.netty.handler.codec.http.DefaultHttpResponse;
 import org.jboss.netty.handler.codec.http.HttpHeaders;
 import org.jboss.netty.handler.codec.http.HttpRequest;
 import org.jboss.netty.handler.codec.http.HttpResponseStatus;
+import org.cliffc.high_scale_lib.Counter;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.heliosapm.tsdb.grapi.GraphiteAdapter;
+import com.heliosapm.tsdb.grapi.functions.FunctionRegistry;
+import com.heliosapm.tsdb.grapi.stats.PipelineStage;
 import com.heliosapm.utils.config.ConfigurationHelper;
 import com.heliosapm.utils.lang.StringHelper;
 
 /**
  * <p>Title: GraphiteRequestHandler</p>
- * <p>Description: Receives an HTTP request and routes it according to the URI and parameters</p> 
+ * <p>Description: Receives an HTTP request and routes it according to the URI and parameters. 
+ * Each adapter processes its requests on its own {@link AdapterBulkhead bulkhead} unless configured to run on the I/O threads.</p> 
  * <p>Company: Helios Development Group LLC</p>
  * @author Whitehead (nwhitehead AT heliosdev DOT org)
  * <p><code>com.heliosapm.tsdb.grapi.server.http.GraphiteRequestHandler</code></p>
@@ -64,6 +75,16 @@ public class GraphiteRequestHandler extends SimpleChannelUpstreamHandler {
 	protected final Logger log = LoggerFactory.getLogger(getClass());
 	/** A set of configured adapters */
 	protected final Set<GraphiteAdapter> adapters = new LinkedHashSet<GraphiteAdapter>();
+	/** The routing table of adapters that declare route prefixes */
+	protected final RouteTable<GraphiteAdapter> routes = new RouteTable<GraphiteAdapter>();
+	/** The adapters that declare no routes and are matched by interrogation, in configuration order */
+	protected final GraphiteAdapter[] unrouted;
+	/** The number of requests received */
+	protected final Counter requests = new Counter();
+	/** The number of requests no adapter matched */
+	protected final Counter unmatched = new Counter();
+	/** The bulkheads of the adapters that do not run on the I/O threads, keyed by adapter */
+	protected final Map<GraphiteAdapter, AdapterBulkhead> bulkheads = new HashMap<GraphiteAdapter, AdapterBulkhead>();
 	
 
 	/**
@@ -81,15 +102,72 @@ public class GraphiteRequestHandler extends SimpleChannelUpstreamHandler {
 				Constructor<? extends GraphiteAdapter> ctor = aclazz.getDeclaredConstructor(Properties.class);
 				GraphiteAdapter ga = ctor.newInstance(config);
 				this.adapters.add(ga);
+				final AdapterBulkhead bulkhead = AdapterBulkhead.create(aclazz.getSimpleName(), config);
+				if(bulkhead!=null) bulkheads.put(ga, bulkhead);
 				log.info("Created and configured GraphiteAdapter [{}]", adapter);
-				b.append("\n\t\t").append(aclazz.getSimpleName());
+				b.append("\n\t\t").append(aclazz.getSimpleName()).append(" ").append(Arrays.toString(ga.getRoutes()));
 			} catch (Exception ex) {
 				log.error("Failed to create configured adapter [{}]", adapter, ex);
 			}
 		}
+		final List<GraphiteAdapter> unroutedAdapters = new ArrayList<GraphiteAdapter>();
+		for(GraphiteAdapter ga: this.adapters) {
+			final String[] prefixes = ga.getRoutes();
+			if(prefixes==null || prefixes.length==0) {
+				unroutedAdapters.add(ga);
+				continue;
+			}
+			for(String prefix: prefixes) {
+				final GraphiteAdapter prior = routes.add(prefix, ga);
+				if(prior!=null) {
+					// first configured adapter keeps the route
+					routes.add(prefix, prior);
+					log.warn("Route [{}] of adapter [{}] is already claimed by [{}]", prefix, ga.getClass().getSimpleName(), prior.getClass().getSimpleName());
+				}
+			}
+		}
+		unrouted = unroutedAdapters.toArray(new GraphiteAdapter[unroutedAdapters.size()]);
+		final FunctionRegistry functionRegistry = FunctionRegistry.getInstance();
+		for(GraphiteAdapter ga: this.adapters) {
+			final int registered = functionRegistry.register(ga.getFunctions());
+			if(registered > 0) log.info("Registered {} render functions from adapter [{}]", registered, ga.getClass().getSimpleName());
+		}
 		log.info(StringHelper.banner("Graphite Request HandlerConfiguration\n\tAdapters:%s", b.toString()));
 	}
 	
+	/**
+	 * Returns the configured adapters
+	 * @return the configured adapters in configuration order
+	 */
+	public Set<GraphiteAdapter> getAdapters() {
+		return Collections.unmodifiableSet(adapters);
+	}
+	
+	/**
+	 * Stops the adapter bulkheads once their queued requests have run
+	 */
+	public void shutdown() {
+		for(AdapterBulkhead bulkhead: bulkheads.values()) {
+			bulkhead.shutdown();
+		}
+	}
+	
+	/**
+	 * Records the request counts of this handler, the stats and bulkhead of each adapter, tagged with the adapter's simple class name,
+	 * and the latencies of the {@link PipelineStage pipeline stages}
+	 * @param collector The collector to record with
+	 */
+	public void collectStats(final StatsCollector collector) {
+		collector.record("graphite.requests", requests.get());
+		collector.record("graphite.requests.unmatched", unmatched.get());
+		for(GraphiteAdapter ga: adapters) {
+			ga.getStats().collectStats(collector, ga.getClass().getSimpleName());
+			final AdapterBulkhead bulkhead = bulkheads.get(ga);
+			if(bulkhead!=null) bulkhead.collectStats(collector);
+		}
+		PipelineStage.collectStats(collector);
+	}
+	
 	/**
 	 * {@inheritDoc}
 	 * @see org.jboss.netty.channel.SimpleChannelUpstreamHandler#exceptionCaught(org.jboss.netty.channel.ChannelHandlerContext, org.jboss.netty.channel.ExceptionEvent)
@@ -100,14 +178,24 @@ public class GraphiteRequestHandler extends SimpleChannelUpstreamHandler {
 	}
 	
 	/**
-	 * Returns the first registered GraphiteAdapter that matches the passed URI
+	 * Returns the GraphiteAdapter with the longest route matching the passed URI, if it also {@link GraphiteAdapter#match(String) matches} the URI,
+	 * or failing that, the first adapter without routes that matches the passed URI. A URI the routed adapter turns down, 
+	 * such as a query form it leaves to another adapter, falls back to the first configured adapter that matches it.
 	 * @param uri The requested URI
-	 * @return The first matching GraphiteAdapter or null if one was not found
+	 * @return The matching GraphiteAdapter or null if one was not found
 	 */
 	protected GraphiteAdapter findMatch(final String uri) {
-		if(uri==null || uri.trim().isEmpty()) return null;
-		for(GraphiteAdapter ga: adapters) {
-			if(ga.match(uri)) return ga;
+		if(uri==null || uri.isEmpty()) return null;
+		final GraphiteAdapter routed = routes.route(uri);
+		if(routed!=null) {
+			if(routed.match(uri)) return routed;
+			for(GraphiteAdapter ga: adapters) {
+				if(ga!=routed && ga.match(uri)) return ga;
+			}
+			return null;
+		}
+		for(int i = 0; i < unrouted.length; i++) {
+			if(unrouted[i].match(uri)) return unrouted[i];
 		}
 		return null;
 	}
@@ -120,20 +208,92 @@ public class GraphiteRequestHandler extends SimpleChannelUpstreamHandler {
 	public void messageReceived(final ChannelHandlerContext ctx, final MessageEvent e) throws Exception {
 		final Object o = e.getMessage();
 		if(o!=null && (o instanceof HttpRequest)) {
+			final long received = System.nanoTime();
+			DecodeTimer.decoded(ctx);
 			final HttpRequest request = (HttpRequest)o;
 			final Channel channel = e.getChannel();
+			final ResponseSequencer.Exchange exchange = e instanceof ResponseSequencer.RequestEvent ? ((ResponseSequencer.RequestEvent)e).getExchange() : null;
+			requests.increment();
 			if(log.isDebugEnabled()) log.debug(dumpHttpRequest(request));
 			final GraphiteAdapter ga = findMatch(request.getUri());
 			if(ga==null) {
-				ctx.sendDownstream(new DownstreamMessageEvent(channel, Channels.future(channel), new DefaultHttpResponse(request.getProtocolVersion(), HttpResponseStatus.NOT_FOUND), e.getRemoteAddress()));
+				unmatched.increment();
+				// the empty body is delimited so the connection can be kept open
+				final DefaultHttpResponse response = new DefaultHttpResponse(request.getProtocolVersion(), HttpResponseStatus.NOT_FOUND);
+				HttpHeaders.setContentLength(response, 0);
+				ResponseSequencer.sendDownstream(ctx, exchange, Channels.future(channel), response, true);
 			} else {
-				ga.processQuery(request, channel, ctx);
+				// the dispatch time and the exchange, picked up by the adapter's response writer to record the request latency and sequence the response.
+				// they are attached to a context of the request's own, since pipelined requests on the connection may be processed at the same time
+				final Object attachment;
+				if(exchange!=null) {
+					exchange.dispatched(received);
+					attachment = exchange;
+				} else {
+					attachment = received;
+				}
+				final ChannelHandlerContext requestCtx = new RequestContext(ctx, attachment);
+				final AdapterBulkhead bulkhead = bulkheads.get(ga);
+				if(bulkhead==null) {
+					try {
+						ga.processQuery(request, channel, requestCtx);
+					} catch (Exception ex) {
+						log.error("Unhandled exception processing request [{}]", request.getUri(), ex);
+						fail(ctx, exchange, request, HttpResponseStatus.INTERNAL_SERVER_ERROR);
+					}
+					PipelineStage.DISPATCH.recordSince(received);
+				} else {
+					bulkhead.execute(new AdapterBulkhead.Task() {
+						@Override
+						protected void process() {
+							ga.processQuery(request, channel, requestCtx);
+							PipelineStage.DISPATCH.recordSince(received);
+						}
+						@Override
+						protected void shed(final HttpResponseStatus status) {
+							GraphiteRequestHandler.this.shed(ctx, exchange, request, status);
+						}
+						@Override
+						protected void fail(final HttpResponseStatus status) {
+							GraphiteRequestHandler.this.fail(ctx, exchange, request, status);
+						}
+					});
+				}
 			}
 		} else {
 			super.messageReceived(ctx, e);
 		}
 	}
 	
+	/**
+	 * Responds to a request shed under load with an empty response with the passed status, asking the caller to retry after a second
+	 * @param ctx The channel handler context
+	 * @param exchange The exchange of the request, or null if responses are not sequenced
+	 * @param request The shed request
+	 * @param status The response status
+	 */
+	protected void shed(final ChannelHandlerContext ctx, final ResponseSequencer.Exchange exchange, final HttpRequest request, final HttpResponseStatus status) {
+		final DefaultHttpResponse response = new DefaultHttpResponse(request.getProtocolVersion(), status);
+		response.headers().add(HttpHeaders.Names.RETRY_AFTER, "1");
+		HttpHeaders.setContentLength(response, 0);
+		ResponseSequencer.sendDownstream(ctx, exchange, Channels.future(ctx.getChannel()), response, true);
+	}
+	
+	/**
+	 * Responds to a request whose processing failed with an exception the adapter did not handle with an empty response with the passed status.
+	 * If the adapter had already finished its response, the sequencer discards this one, and if it had only sent part of it, 
+	 * the sequencer aborts the exchange instead.
+	 * @param ctx The channel handler context
+	 * @param exchange The exchange of the request, or null if responses are not sequenced
+	 * @param request The failed request
+	 * @param status The response status
+	 */
+	protected void fail(final ChannelHandlerContext ctx, final ResponseSequencer.Exchange exchange, final HttpRequest request, final HttpResponseStatus status) {
+		final DefaultHttpResponse response = new DefaultHttpResponse(request.getProtocolVersion(), status);
+		HttpHeaders.setContentLength(response, 0);
+		ResponseSequencer.sendOrAbort(ctx, exchange, Channels.future(ctx.getChannel()), response);
+	}
+	
 	private String dumpHttpRequest(final HttpRequest r) {
 		final StringBuilder b = new StringBuilder("\n\t================================================\n\tHTTP Request\n\t================================================");
 		b.append("\n\t\t").append("Method:").append(r.getMethod());
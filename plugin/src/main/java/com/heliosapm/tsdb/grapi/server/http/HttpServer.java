@@ -25,15 +25,21 @@
 package com.heliosapm.tsdb.grapi.server.http;
 
 import java.net.InetSocketAddress;
+import java.nio.ByteOrder;
 import java.util.Properties;
+import java.util.concurrent.ThreadFactory;
 
 import javax.management.ObjectName;
 
 import org.jboss.netty.bootstrap.ServerBootstrap;
 import org.jboss.netty.channel.Channel;
+import org.jboss.netty.channel.ChannelHandler;
+import org.jboss.netty.channel.ChannelHandlerContext;
 import org.jboss.netty.channel.ChannelPipeline;
 import org.jboss.netty.channel.ChannelPipelineFactory;
+import org.jboss.netty.channel.ChannelStateEvent;
 import org.jboss.netty.channel.Channels;
+import org.jboss.netty.channel.SimpleChannelUpstreamHandler;
 import org.jboss.netty.channel.group.ChannelGroup;
 import org.jboss.netty.channel.group.ChannelGroupFuture;
 import org.jboss.netty.channel.group.ChannelGroupFutureListener;
@@ -43,11 +49,17 @@ import org.jboss.netty.handler.codec.http.HttpChunkAggregator;
 import org.jboss.netty.handler.codec.http.HttpRequestDecoder;
 import org.jboss.netty.handler.codec.http.HttpResponseEncoder;
 import org.jboss.netty.handler.stream.ChunkedWriteHandler;
+import org.jboss.netty.handler.timeout.IdleStateHandler;
+import org.jboss.netty.util.HashedWheelTimer;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.heliosapm.tsdb.grapi.client.http.HttpClient;
+import com.heliosapm.tsdb.grapi.index.MetricNamespace;
+import com.heliosapm.tsdb.grapi.netty.DirectBufferPool;
+import com.heliosapm.tsdb.grapi.netty.DirectMemoryBudget;
 import com.heliosapm.tsdb.grapi.netty.DynamicByteBufferBackedChannelBufferFactory;
+import com.heliosapm.tsdb.grapi.netty.SegmentedChannelBufferFactory;
 import com.heliosapm.utils.concurrency.ExtendedThreadManager;
 import com.heliosapm.utils.config.ConfigurationHelper;
 import com.heliosapm.utils.io.StdInCommandHandler;
@@ -96,6 +108,18 @@ public class HttpServer implements ChannelPipelineFactory {
 	protected final Channel serverChannel;
 	/** The graphite request handler */
 	protected final GraphiteRequestHandler graphiteRequestHandler;
+	/** The number of pipelined requests in progress on one connection at which reads on it are paused */
+	protected final int maxPipelined;
+	/** The compressor of response content */
+	protected final ContentCompressor compressor;
+	/** The number of body bytes at which a streamed response body is cut into a chunk */
+	protected final int chunkSize;
+	/** The idle persistent connection timeout in seconds, zero if idle connections are kept open */
+	protected final int keepAliveTimeout;
+	/** The timer of the idle connection handler, null if idle connections are kept open */
+	protected final HashedWheelTimer idleTimer;
+	/** Signals idle connections to the response sequencer, null if idle connections are kept open */
+	protected final IdleStateHandler idleHandler;
 	
 	
 	private final Thread keepAliveThread;
@@ -103,11 +127,40 @@ public class HttpServer implements ChannelPipelineFactory {
 	
 	/** The open channel group */
 	protected final ChannelGroup channelGroup = new DefaultChannelGroup("GraphiteAPIServer");
+	/** Adds client channels to the channel group */
+	protected final ChannelTracker channelTracker = new ChannelTracker();
+	/** Indicates if reads are paused, guarded by the backpressure listener's monitor */
+	protected volatile boolean readsPaused = false;
+	/** The budget response buffers are charged to */
+	protected final DirectMemoryBudget budget;
+	/** Pauses reads on the connected client channels while any direct memory budget is under pressure. 
+	 * Channels that connect in the meantime are read, and their requests that need upstream or TSDB work rejected with a 503 by the adapters. 
+	 * Channels whose reads are paused by their {@link ResponseSequencer} are left paused when the pressure lifts. 
+	 * Notifications of concurrent changes can arrive out of order, so the passed state is ignored and the current one read under the monitor: 
+	 * whichever notification comes last acts on the latest state. */
+	protected final DirectMemoryBudget.Listener backpressure = new DirectMemoryBudget.Listener() {
+		@Override
+		public synchronized void onPressureChange(final DirectMemoryBudget changed, final boolean notifiedPressure) {
+			final boolean anyPressure = DirectMemoryBudget.isAnyUnderPressure();
+			if(anyPressure==readsPaused) return;
+			readsPaused = anyPressure;
+			log.warn("{} reads on client channels: budget [{}]", anyPressure ? "Pausing" : "Resuming", changed);
+			for(Channel channel: channelGroup) {
+				if(channel==serverChannel || !channel.isOpen()) continue;
+				final ResponseSequencer sequencer = channel.getPipeline().get(ResponseSequencer.class);
+				if(sequencer!=null) {
+					sequencer.onBudgetPressure(channel, anyPressure);
+				} else {
+					channel.setReadable(!anyPressure);
+				}
+			}
+		}
+	};
 	
 	
 	
-	/** The buffer factory for handling async responses */
-	protected DynamicByteBufferBackedChannelBufferFactory bufferFactory = new DynamicByteBufferBackedChannelBufferFactory(1024, .5f);
+	/** The pooled buffer factory for response content. Big endian since the HTTP encoder composes content with big endian header buffers. */
+	protected final SegmentedChannelBufferFactory bufferFactory;
 	
 	/** The ObjectName of the server boss thread pool */
 	public static final ObjectName BOSS_THREADPOOL_OBJECTNAME = JMXHelper.objectName("com.heliosapm.tsdb.grapi:service=HttpServerThreadPool,type=Boss");
@@ -137,14 +190,11 @@ public class HttpServer implements ChannelPipelineFactory {
 	 * @return the HttpClient singleton instance
 	 */
 	public static HttpServer getInstance() {
-		if(instance==null) {
-			synchronized(instance) {
-				if(instance==null) {
-					throw new IllegalStateException("The HttpServer singleton has not been initialized. Please call getInstance(Properties) first");
-				}
-			}
+		final HttpServer server = instance;
+		if(server==null) {
+			throw new IllegalStateException("The HttpServer singleton has not been initialized. Please call getInstance(Properties) first");
 		}
-		return instance;
+		return server;
 	}
 	
 	
@@ -165,6 +215,9 @@ public class HttpServer implements ChannelPipelineFactory {
 				channelFactory.shutdown();
 				log.info("Channel Factory stopped");
 				HttpClient.getInstance().shutdown();				
+				graphiteRequestHandler.shutdown();
+				MetricNamespace.stopShared();
+				if(idleTimer!=null) idleTimer.stop();
 				keepAliveThread.interrupt();
 			}
 		});
@@ -180,11 +233,33 @@ public class HttpServer implements ChannelPipelineFactory {
 		if(config!=null) {
 			this.config.putAll(config);
 		}
+		// the pool and the global budget are configured first so the adapters and the http client share them
+		budget = DirectMemoryBudget.getGlobal(this.config).newChild("HttpServer", ConfigurationHelper.getLongSystemThenEnvProperty(PROPERTY_BUFFER_BUDGET_SERVER, DEFAULT_BUFFER_BUDGET_SERVER, this.config));
+		bufferFactory = new SegmentedChannelBufferFactory(ConfigurationHelper.getIntSystemThenEnvProperty(PROPERTY_BUFFER_SEGMENT_SIZE, DEFAULT_BUFFER_SEGMENT_SIZE, this.config), ByteOrder.BIG_ENDIAN, DirectBufferPool.getInstance(this.config), budget);
+		DirectMemoryBudget.addListener(backpressure);
+		compressor = ContentCompressor.getInstance(this.config);
+		chunkSize = ConfigurationHelper.getIntSystemThenEnvProperty(PROPERTY_HTTP_CHUNK_SIZE, DEFAULT_HTTP_CHUNK_SIZE, this.config);
 		graphiteRequestHandler = new GraphiteRequestHandler(this.config);
 		ExtendedThreadManager.install();
 		port = ConfigurationHelper.getIntSystemThenEnvProperty(PROPERTY_HTTP_LISTEN_PORT, DEFAULT_HTTP_LISTEN_PORT);
 		iface = ConfigurationHelper.getSystemThenEnvProperty(PROPERTY_HTTP_LISTEN_IFACE, DEFAULT_HTTP_LISTEN_IFACE);
 		serverSocket = new InetSocketAddress(iface, port);
+		maxPipelined = ConfigurationHelper.getIntSystemThenEnvProperty(PROPERTY_HTTP_PIPELINE_MAXPENDING, DEFAULT_HTTP_PIPELINE_MAXPENDING, this.config);
+		keepAliveTimeout = ConfigurationHelper.getIntSystemThenEnvProperty(PROPERTY_HTTP_KEEPALIVE_TIMEOUT, DEFAULT_HTTP_KEEPALIVE_TIMEOUT, this.config);
+		if(keepAliveTimeout > 0) {
+			idleTimer = new HashedWheelTimer(new ThreadFactory() {
+				@Override
+				public Thread newThread(final Runnable r) {
+					final Thread t = new Thread(r, "HttpIdleTimer");
+					t.setDaemon(true);
+					return t;
+				}
+			});
+			idleHandler = new IdleStateHandler(idleTimer, 0, 0, keepAliveTimeout);
+		} else {
+			idleTimer = null;
+			idleHandler = null;
+		}
 		int cores = Runtime.getRuntime().availableProcessors();
 		bossPool = new JMXManagedThreadPool(BOSS_THREADPOOL_OBJECTNAME, "ServerBossThreadPool", cores*2, cores*4, 240, 60000, 100, 99);
 		bossPool.prestartAllCoreThreads();
@@ -193,7 +268,8 @@ public class HttpServer implements ChannelPipelineFactory {
 		channelFactory = new NioServerSocketChannelFactory(bossPool, workerPool);
 		bootstrap = new ServerBootstrap(channelFactory);
 		bootstrap.setPipelineFactory(this);
-		bootstrap.setOption("bufferFactory", bufferFactory);
+		// inbound request buffers are consumed by the decoder without a release point, so they are not pooled
+		bootstrap.setOption("bufferFactory", new DynamicByteBufferBackedChannelBufferFactory(1024, .5f, ByteOrder.BIG_ENDIAN));
 		
 		// ===== Child Channel Options =======
 		bootstrap.setOption("child.tcpNoDelay", true);
@@ -205,7 +281,8 @@ public class HttpServer implements ChannelPipelineFactory {
 		
 		 
 		serverChannel = bootstrap.bind(serverSocket);
-		log.info("Started HTTP Server on [{}]", serverSocket);
+		channelGroup.add(serverChannel);
+		log.info("Started HTTP Server on [{}], max pipelined requests per connection [{}], keep-alive timeout [{}] s, chunk size [{}] bytes", serverSocket, maxPipelined, keepAliveTimeout, chunkSize);
 		keepAliveThread = new Thread("KeepAliveThread"){
 			public void run() {
 				try {
@@ -222,6 +299,38 @@ public class HttpServer implements ChannelPipelineFactory {
 
 
 
+	/**
+	 * Returns the buffer factory that response content is written into
+	 * @return the response buffer factory
+	 */
+	public SegmentedChannelBufferFactory getBufferFactory() {
+		return bufferFactory;
+	}
+
+	/**
+	 * Returns the compressor that response content is compressed with
+	 * @return the response compressor
+	 */
+	public ContentCompressor getCompressor() {
+		return compressor;
+	}
+
+	/**
+	 * Returns the number of body bytes at which a streamed response body is cut into a chunk
+	 * @return the chunk size in bytes
+	 */
+	public int getChunkSize() {
+		return chunkSize;
+	}
+
+	/**
+	 * Returns the request handler that routes requests to the adapters
+	 * @return the request handler
+	 */
+	public GraphiteRequestHandler getRequestHandler() {
+		return graphiteRequestHandler;
+	}
+
 	/**
 	 * {@inheritDoc}
 	 * @see org.jboss.netty.channel.ChannelPipelineFactory#getPipeline()
@@ -229,14 +338,38 @@ public class HttpServer implements ChannelPipelineFactory {
 	@Override
 	public ChannelPipeline getPipeline() throws Exception {
 		final ChannelPipeline pipeline = Channels.pipeline();
-//		pipeline.addLast("group", this);
+		pipeline.addLast("group", channelTracker);
+		if(idleHandler!=null) pipeline.addLast("idle", idleHandler);
+		pipeline.addLast("decodeTimer", DecodeTimer.INSTANCE);
         pipeline.addLast("decoder", new HttpRequestDecoder());
         pipeline.addLast("aggregator", new HttpChunkAggregator(65536));
         pipeline.addLast("encoder", new HttpResponseEncoder());
         pipeline.addLast("chunkedWriter", new ChunkedWriteHandler());		
+        pipeline.addLast("sequencer", new ResponseSequencer(maxPipelined));
         pipeline.addLast("graphiteHandler", graphiteRequestHandler);
 		return pipeline;
 	}
+	
+	/**
+	 * <p>Title: ChannelTracker</p>
+	 * <p>Description: Adds client channels to the channel group</p> 
+	 * <p>Company: Helios Development Group LLC</p>
+	 * @author Whitehead (nwhitehead AT heliosdev DOT org)
+	 * <p><code>com.heliosapm.tsdb.grapi.server.http.HttpServer.ChannelTracker</code></p>
+	 */
+	@ChannelHandler.Sharable
+	protected class ChannelTracker extends SimpleChannelUpstreamHandler {
+		/**
+		 * {@inheritDoc}
+		 * @see org.jboss.netty.channel.SimpleChannelUpstreamHandler#channelOpen(org.jboss.netty.channel.ChannelHandlerContext, org.jboss.netty.channel.ChannelStateEvent)
+		 */
+		@Override
+		public void channelOpen(final ChannelHandlerContext ctx, final ChannelStateEvent e) throws Exception {
+			channelGroup.add(e.getChannel());
+			super.channelOpen(ctx, e);
+		}
+
+	}
 
 
 
@@ -0,0 +1,142 @@
+/**
+Licensed to the Apache Software Foundation (ASF) under one
+or more contributor license agreements.  See the NOTICE file
+distributed with this work for additional information
+regarding copyright ownership.  The ASF licenses this file
+to you under the Apache License, Version 2.0 (the
+"License"); you may not use this file except in compliance
+with the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an
+"AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+KIND, either express or implied.  See the License for the
+specific language governing permissions and limitations
+under the License.
+ */
+package com.heliosapm.tsdb.grapi.server.http;
+
+import org.jboss.netty.channel.Channel;
+import org.jboss.netty.channel.ChannelEvent;
+import org.jboss.netty.channel.ChannelHandler;
+import org.jboss.netty.channel.ChannelHandlerContext;
+import org.jboss.netty.channel.ChannelPipeline;
+
+/**
+ * <p>Title: RequestContext</p>
+ * <p>Description: The request handler's context as seen by the adapter processing one request. Events are sent through the 
+ * handler's context, but the attachment, the request's {@link ResponseSequencer.Exchange exchange} or dispatch time, belongs to 
+ * the request, so pipelined requests on one connection can be processed on different threads at the same time.</p> 
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>com.heliosapm.tsdb.grapi.server.http.RequestContext</code></p>
+ */
+
+class RequestContext implements ChannelHandlerContext {
+	/** The request handler's context */
+	private final ChannelHandlerContext ctx;
+	/** The request's attachment */
+	private volatile Object attachment;
+	
+	/**
+	 * Creates a new RequestContext
+	 * @param ctx The request handler's context
+	 * @param attachment The request's attachment
+	 */
+	RequestContext(final ChannelHandlerContext ctx, final Object attachment) {
+		this.ctx = ctx;
+		this.attachment = attachment;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see org.jboss.netty.channel.ChannelHandlerContext#getChannel()
+	 */
+	@Override
+	public Channel getChannel() {
+		return ctx.getChannel();
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see org.jboss.netty.channel.ChannelHandlerContext#getPipeline()
+	 */
+	@Override
+	public ChannelPipeline getPipeline() {
+		return ctx.getPipeline();
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see org.jboss.netty.channel.ChannelHandlerContext#getName()
+	 */
+	@Override
+	public String getName() {
+		return ctx.getName();
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see org.jboss.netty.channel.ChannelHandlerContext#getHandler()
+	 */
+	@Override
+	public ChannelHandler getHandler() {
+		return ctx.getHandler();
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see org.jboss.netty.channel.ChannelHandlerContext#canHandleUpstream()
+	 */
+	@Override
+	public boolean canHandleUpstream() {
+		return ctx.canHandleUpstream();
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see org.jboss.netty.channel.ChannelHandlerContext#canHandleDownstream()
+	 */
+	@Override
+	public boolean canHandleDownstream() {
+		return ctx.canHandleDownstream();
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see org.jboss.netty.channel.ChannelHandlerContext#sendUpstream(org.jboss.netty.channel.ChannelEvent)
+	 */
+	@Override
+	public void sendUpstream(final ChannelEvent e) {
+		ctx.sendUpstream(e);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see org.jboss.netty.channel.ChannelHandlerContext#sendDownstream(org.jboss.netty.channel.ChannelEvent)
+	 */
+	@Override
+	public void sendDownstream(final ChannelEvent e) {
+		ctx.sendDownstream(e);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see org.jboss.netty.channel.ChannelHandlerContext#getAttachment()
+	 */
+	@Override
+	public Object getAttachment() {
+		return attachment;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see org.jboss.netty.channel.ChannelHandlerContext#setAttachment(java.lang.Object)
+	 */
+	@Override
+	public void setAttachment(final Object attachment) {
+		this.attachment = attachment;
+	}
+}
@@ -0,0 +1,524 @@
+/**
+Licensed to the Apache Software Foundation (ASF) under one
+or more contributor license agreements.  See the NOTICE file
+distributed with this work for additional information
+regarding copyright ownership.  The ASF licenses this file
+to you under the Apache License, Version 2.0 (the
+"License"); you may not use this file except in compliance
+with the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an
+"AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+KIND, either express or implied.  See the License for the
+specific language governing permissions and limitations
+under the License.
+ */
+package com.heliosapm.tsdb.grapi.server.http;
+
+import java.nio.channels.ClosedChannelException;
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+
+import org.jboss.netty.buffer.ChannelBuffers;
+import org.jboss.netty.channel.Channel;
+import org.jboss.netty.channel.ChannelEvent;
+import org.jboss.netty.channel.ChannelFuture;
+import org.jboss.netty.channel.ChannelFutureListener;
+import org.jboss.netty.channel.ChannelHandlerContext;
+import org.jboss.netty.channel.ChannelStateEvent;
+import org.jboss.netty.channel.Channels;
+import org.jboss.netty.channel.DownstreamMessageEvent;
+import org.jboss.netty.channel.MessageEvent;
+import org.jboss.netty.channel.SimpleChannelHandler;
+import org.jboss.netty.channel.UpstreamMessageEvent;
+import org.jboss.netty.handler.codec.http.HttpHeaders;
+import org.jboss.netty.handler.codec.http.HttpRequest;
+import org.jboss.netty.handler.codec.http.HttpResponse;
+import org.jboss.netty.handler.codec.http.HttpVersion;
+import org.jboss.netty.handler.timeout.IdleStateEvent;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.heliosapm.tsdb.grapi.netty.DirectMemoryBudget;
+
+/**
+ * <p>Title: ResponseSequencer</p>
+ * <p>Description: Keeps HTTP/1.1 connections alive and returns the responses to pipelined requests in request order.
+ * Each request passed up to the request handler is tagged with an {@link Exchange}, and the response writers send every part of
+ * the response through {@link #sendDownstream(ChannelHandlerContext, Exchange, ChannelFuture, Object, boolean)} tagged with the same exchange. 
+ * Requests are still processed concurrently: the parts of the oldest outstanding response are written as they arrive, 
+ * and the parts of later responses are held back until all the responses ahead of them have been written in full.</p>
+ * <p>The sequencer sets the <b><code>Connection</code></b> header of each response, and closes the connection once a response is written 
+ * if the caller asked for that, if the request was HTTP/1.0 without keep-alive, or if the response can only be delimited by closing the connection.
+ * Reads are paused while too many requests are outstanding on the connection, and idle connections are closed when an {@link IdleStateEvent} arrives
+ * with no requests outstanding.</p>
+ * <p>Parts are put in order under the sequencer's monitor and sent downstream outside it, by one thread at a time, 
+ * since a write on the I/O thread completes its future inline, and the future's listeners release buffers, write further parts 
+ * and change the direct memory budget's pressure, which takes the locks of other connections.</p>
+ * <p>One instance is created per connection, and the request handler must respond to every request it is passed exactly once, or later responses stall.</p> 
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>com.heliosapm.tsdb.grapi.server.http.ResponseSequencer</code></p>
+ */
+
+public class ResponseSequencer extends SimpleChannelHandler {
+	/** Static class logger */
+	private static final Logger LOG = LoggerFactory.getLogger(ResponseSequencer.class);
+	
+	/** The outstanding exchanges in request order. The head is the exchange whose response is being written. Guarded by this sequencer's monitor. */
+	private final LinkedList<Exchange> pending = new LinkedList<Exchange>();
+	/** The number of outstanding requests at which reads are paused */
+	private final int maxPending;
+	/** The sequence of the next request */
+	private long nextSequence = 0L;
+	/** Indicates if reads were paused by this sequencer */
+	private boolean paused = false;
+	/** Indicates if the connection is closing, after which requests are dropped and responses discarded */
+	private boolean closing = false;
+	/** Indicates if a request asked for the connection to be closed after its response, after which requests are dropped */
+	private boolean draining = false;
+	/** The parts put in order to be sent downstream. Guarded by this sequencer's monitor. */
+	private final LinkedList<SequencedMessageEvent> outbox = new LinkedList<SequencedMessageEvent>();
+	/** Indicates if a thread is sending the parts in the outbox downstream. Guarded by this sequencer's monitor. */
+	private boolean flushing = false;
+	
+	/**
+	 * Creates a new ResponseSequencer
+	 * @param maxPending The number of outstanding requests on the connection at which reads are paused
+	 */
+	public ResponseSequencer(final int maxPending) {
+		this.maxPending = Math.max(1, maxPending);
+	}
+	
+	/**
+	 * Sends one part of the response to the passed exchange downstream from the passed context. 
+	 * When the exchange is null, as it is when there is no sequencer in the pipeline, the part is sent as is.
+	 * @param ctx The context to send from
+	 * @param exchange The exchange the part belongs to, or null
+	 * @param future The write future of the part
+	 * @param message The part, a response, a chunk or a buffer
+	 * @param last true if this is the last part of the response
+	 */
+	public static void sendDownstream(final ChannelHandlerContext ctx, final Exchange exchange, final ChannelFuture future, final Object message, final boolean last) {
+		final Channel channel = ctx.getChannel();
+		if(exchange==null) {
+			ctx.sendDownstream(new DownstreamMessageEvent(channel, future, message, channel.getRemoteAddress()));
+		} else {
+			ctx.sendDownstream(new SequencedMessageEvent(exchange, channel, future, message, last, false, false));
+		}
+	}
+	
+	/**
+	 * Sends a complete response to the passed exchange downstream from the passed context, unless part of another response 
+	 * to it has already been sent, in which case the exchange is {@link #abort(ChannelHandlerContext, Exchange) aborted} instead,
+	 * since a response can not follow the partly written one. The check and the send are atomic with respect to the other parts of the exchange.
+	 * When the exchange is null, the response is sent as is.
+	 * @param ctx The context to send from
+	 * @param exchange The exchange the response belongs to, or null
+	 * @param future The write future of the response
+	 * @param response The complete response
+	 */
+	public static void sendOrAbort(final ChannelHandlerContext ctx, final Exchange exchange, final ChannelFuture future, final HttpResponse response) {
+		final Channel channel = ctx.getChannel();
+		if(exchange==null) {
+			ctx.sendDownstream(new DownstreamMessageEvent(channel, future, response, channel.getRemoteAddress()));
+		} else {
+			ctx.sendDownstream(new SequencedMessageEvent(exchange, channel, future, response, true, false, true));
+		}
+	}
+	
+	/**
+	 * Abandons the response to the passed exchange, after part of it may already have been written.
+	 * The connection is closed once the responses ahead of it have been written, which signals the truncated response to the caller.
+	 * When the exchange is null, the connection is closed immediately.
+	 * @param ctx The context to send from
+	 * @param exchange The exchange to abandon, or null
+	 * @return the close future
+	 */
+	public static ChannelFuture abort(final ChannelHandlerContext ctx, final Exchange exchange) {
+		final Channel channel = ctx.getChannel();
+		if(exchange==null) return channel.close();
+		ctx.sendDownstream(new SequencedMessageEvent(exchange, channel, Channels.future(channel), ChannelBuffers.EMPTY_BUFFER, true, true, false));
+		return channel.getCloseFuture();
+	}
+	
+	/**
+	 * Indicates if reads on the connection are paused by this sequencer because too many requests are outstanding
+	 * @return true if reads are paused by this sequencer
+	 */
+	public synchronized boolean isPaused() {
+		return paused;
+	}
+	
+	/**
+	 * Pauses or resumes reads on the passed channel for a change of direct memory budget pressure. 
+	 * Reads are not resumed while this sequencer has them paused; it resumes them itself once the outstanding requests drain.
+	 * Called under this sequencer's monitor so a change cannot interleave with the sequencer's own pause or resume.
+	 * @param channel The channel of this sequencer's connection
+	 * @param pressure true if any budget is under pressure
+	 */
+	public synchronized void onBudgetPressure(final Channel channel, final boolean pressure) {
+		if(pressure) {
+			channel.setReadable(false);
+		} else if(!paused) {
+			channel.setReadable(true);
+		}
+	}
+	
+	/**
+	 * Tags an incoming request with a new exchange and passes it on, unless the connection is closing
+	 * {@inheritDoc}
+	 * @see org.jboss.netty.channel.SimpleChannelHandler#messageReceived(org.jboss.netty.channel.ChannelHandlerContext, org.jboss.netty.channel.MessageEvent)
+	 */
+	@Override
+	public void messageReceived(final ChannelHandlerContext ctx, final MessageEvent e) throws Exception {
+		if(!(e.getMessage() instanceof HttpRequest)) {
+			super.messageReceived(ctx, e);
+			return;
+		}
+		final HttpRequest request = (HttpRequest)e.getMessage();
+		final Exchange exchange;
+		synchronized(this) {
+			if(closing || draining) {
+				LOG.debug("Dropping request [{}] pipelined after a request to close channel [{}]", request.getUri(), e.getChannel());
+				return;
+			}
+			exchange = new Exchange(nextSequence++, request);
+			pending.add(exchange);
+			draining = !exchange.keepAlive;
+			if(pending.size() >= maxPending && !paused) {
+				paused = true;
+				e.getChannel().setReadable(false);
+			}
+		}
+		ctx.sendUpstream(new RequestEvent(exchange, e));
+	}
+	
+	/**
+	 * Closes the connection if it is idle with no requests outstanding
+	 * {@inheritDoc}
+	 * @see org.jboss.netty.channel.SimpleChannelHandler#handleUpstream(org.jboss.netty.channel.ChannelHandlerContext, org.jboss.netty.channel.ChannelEvent)
+	 */
+	@Override
+	public void handleUpstream(final ChannelHandlerContext ctx, final ChannelEvent e) throws Exception {
+		if(e instanceof IdleStateEvent) {
+			synchronized(this) {
+				if(!pending.isEmpty() || closing) return;
+				closing = true;
+			}
+			LOG.debug("Closing idle channel [{}]", e.getChannel());
+			e.getChannel().close();
+			return;
+		}
+		super.handleUpstream(ctx, e);
+	}
+	
+	/**
+	 * Discards the responses still outstanding, failing the write futures of any parts held back so their buffers are released
+	 * {@inheritDoc}
+	 * @see org.jboss.netty.channel.SimpleChannelHandler#channelClosed(org.jboss.netty.channel.ChannelHandlerContext, org.jboss.netty.channel.ChannelStateEvent)
+	 */
+	@Override
+	public void channelClosed(final ChannelHandlerContext ctx, final ChannelStateEvent e) throws Exception {
+		final List<SequencedMessageEvent> held = new ArrayList<SequencedMessageEvent>();
+		synchronized(this) {
+			closing = true;
+			discardPending(held);
+		}
+		fail(held);
+		super.channelClosed(ctx, e);
+	}
+	
+	/**
+	 * Writes the parts of the response being written and holds back the parts of later responses
+	 * {@inheritDoc}
+	 * @see org.jboss.netty.channel.SimpleChannelHandler#handleDownstream(org.jboss.netty.channel.ChannelHandlerContext, org.jboss.netty.channel.ChannelEvent)
+	 */
+	@Override
+	public void handleDownstream(final ChannelHandlerContext ctx, final ChannelEvent e) throws Exception {
+		if(!(e instanceof SequencedMessageEvent)) {
+			super.handleDownstream(ctx, e);
+			return;
+		}
+		SequencedMessageEvent part = (SequencedMessageEvent)e;
+		final Exchange exchange = part.exchange;
+		final List<SequencedMessageEvent> discarded = new ArrayList<SequencedMessageEvent>();
+		final boolean flush;
+		synchronized(this) {
+			if(exchange.finished || exchange.discarded) {
+				discarded.add(part);
+			} else {
+				if(part.replacesUnstarted && exchange.started) {
+					// a complete response can not follow a partly sent one, so the exchange is aborted in its place
+					part = new SequencedMessageEvent(exchange, part.getChannel(), part.getFuture(), ChannelBuffers.EMPTY_BUFFER, true, true, false);
+				}
+				exchange.started = true;
+				if(part.last) exchange.finished = true;
+				if(pending.peek()!=exchange) {
+					exchange.held.add(part);
+					return;
+				}
+				// parts are put in the outbox under the monitor so concurrent writers cannot reorder them
+				stage(part);
+				if(part.last) {
+					pending.poll();
+					if(closing) {
+						discardPending(discarded);
+					} else {
+						advance(ctx, discarded);
+					}
+				}
+			}
+			flush = !flushing && !outbox.isEmpty();
+			if(flush) flushing = true;
+		}
+		if(flush) flush(ctx);
+		fail(discarded);
+	}
+	
+	/**
+	 * Sends the parts in the outbox downstream until it is empty, including the parts added by other threads, 
+	 * and by the listeners of the written parts' futures, in the meantime. Called without the monitor held, by the thread that set the flushing flag.
+	 * @param ctx The context to write from
+	 */
+	private void flush(final ChannelHandlerContext ctx) {
+		while(true) {
+			final SequencedMessageEvent part;
+			synchronized(this) {
+				part = outbox.poll();
+				if(part==null) {
+					flushing = false;
+					return;
+				}
+			}
+			ctx.sendDownstream(part);
+		}
+	}
+	
+	/**
+	 * Puts the held back parts of the exchanges following the one just written in the outbox, in order, for as long as their responses are complete.
+	 * Called with the monitor held, after the head exchange has been removed.
+	 * @param ctx The context to write from
+	 * @param discarded A list to add the parts discarded because the connection is closing to
+	 */
+	private void advance(final ChannelHandlerContext ctx, final List<SequencedMessageEvent> discarded) {
+		Exchange next;
+		while((next = pending.peek())!=null) {
+			SequencedMessageEvent part;
+			while((part = next.held.poll())!=null) {
+				stage(part);
+			}
+			if(closing) {
+				pending.poll();
+				discardPending(discarded);
+				return;
+			}
+			if(!next.finished) break;
+			pending.poll();
+		}
+		if(paused && pending.size() < maxPending) {
+			paused = false;
+			// reads paused by the direct memory budget stay paused until the budget resumes them
+			if(!DirectMemoryBudget.isAnyUnderPressure()) {
+				ctx.getChannel().setReadable(true);
+			}
+		}
+	}
+	
+	/**
+	 * Puts one part in the outbox, setting the <b><code>Connection</code></b> header of a response and
+	 * closing the connection after the last part if the exchange requires it. Called with the monitor held.
+	 * @param part The part to send
+	 */
+	private void stage(final SequencedMessageEvent part) {
+		final Exchange exchange = part.exchange;
+		final Object message = part.getMessage();
+		if(message instanceof HttpResponse) {
+			final HttpHeaders headers = ((HttpResponse)message).headers();
+			if(HttpHeaders.Values.CLOSE.equalsIgnoreCase(headers.get(HttpHeaders.Names.CONNECTION))) {
+				// the writer can only delimit this response by closing the connection
+				exchange.keepAlive = false;
+			} else if(!exchange.keepAlive) {
+				headers.set(HttpHeaders.Names.CONNECTION, HttpHeaders.Values.CLOSE);
+			} else if(exchange.http10) {
+				headers.set(HttpHeaders.Names.CONNECTION, HttpHeaders.Values.KEEP_ALIVE);
+			}
+		}
+		if(part.last && (part.close || !exchange.keepAlive)) {
+			closing = true;
+			part.getFuture().addListener(ChannelFutureListener.CLOSE);
+		}
+		outbox.add(part);
+	}
+	
+	/**
+	 * Discards all the outstanding exchanges, adding their held back parts to the passed list. Called with the monitor held.
+	 * @param discarded The list to add the held back parts to
+	 */
+	private void discardPending(final List<SequencedMessageEvent> discarded) {
+		for(Exchange exchange: pending) {
+			exchange.discarded = true;
+			discarded.addAll(exchange.held);
+			exchange.held.clear();
+		}
+		pending.clear();
+	}
+	
+	/**
+	 * Fails the write futures of the passed discarded parts, outside the monitor since the futures' listeners release buffers and record stats
+	 * @param discarded The discarded parts
+	 */
+	private static void fail(final List<SequencedMessageEvent> discarded) {
+		for(SequencedMessageEvent part: discarded) {
+			part.getFuture().setFailure(new ClosedChannelException());
+		}
+	}
+	
+	/**
+	 * Returns the number of requests outstanding on the connection
+	 * @return the number of outstanding requests
+	 */
+	public synchronized int getPending() {
+		return pending.size();
+	}
+	
+	/**
+	 * <p>Title: Exchange</p>
+	 * <p>Description: One request on a connection and the response to it, which the response writers tag each part of the response with</p> 
+	 * <p>Company: Helios Development Group LLC</p>
+	 * @author Whitehead (nwhitehead AT heliosdev DOT org)
+	 * <p><code>com.heliosapm.tsdb.grapi.server.http.ResponseSequencer.Exchange</code></p>
+	 */
+	public static class Exchange {
+		/** The sequence of the request on its connection */
+		private final long sequence;
+		/** Indicates if the request was HTTP/1.0 */
+		private final boolean http10;
+		/** Indicates if the connection is kept open after the response. Guarded by the sequencer's monitor. */
+		private boolean keepAlive;
+		/** Indicates if any part of the response has been sent. Guarded by the sequencer's monitor. */
+		private boolean started = false;
+		/** Indicates if the last part of the response has been sent. Guarded by the sequencer's monitor. */
+		private boolean finished = false;
+		/** Indicates if the response was discarded because the connection is closing. Guarded by the sequencer's monitor. */
+		private boolean discarded = false;
+		/** The parts of the response held back until the responses ahead of it are written. Guarded by the sequencer's monitor. */
+		private final LinkedList<SequencedMessageEvent> held = new LinkedList<SequencedMessageEvent>();
+		/** The {@link System#nanoTime()} at which the request was dispatched to an adapter, or -1 if not dispatched */
+		private volatile long dispatchNanos = -1L;
+		
+		/**
+		 * Creates a new Exchange
+		 * @param sequence The sequence of the request on its connection
+		 * @param request The request
+		 */
+		Exchange(final long sequence, final HttpRequest request) {
+			this.sequence = sequence;
+			http10 = HttpVersion.HTTP_1_0.equals(request.getProtocolVersion());
+			keepAlive = HttpHeaders.isKeepAlive(request);
+		}
+		
+		/**
+		 * Returns the sequence of the request on its connection
+		 * @return the request sequence
+		 */
+		public long getSequence() {
+			return sequence;
+		}
+		
+		/**
+		 * Returns the {@link System#nanoTime()} at which the request was dispatched to an adapter
+		 * @return the dispatch time, or -1 if the request has not been dispatched
+		 */
+		public long getDispatchNanos() {
+			return dispatchNanos;
+		}
+		
+		/**
+		 * Marks the time the request was dispatched to an adapter
+		 * @param nanos The {@link System#nanoTime()} of the dispatch
+		 */
+		public void dispatched(final long nanos) {
+			dispatchNanos = nanos;
+		}
+		
+		/**
+		 * {@inheritDoc}
+		 * @see java.lang.Object#toString()
+		 */
+		@Override
+		public String toString() {
+			return "Exchange [sequence=" + sequence + "]";
+		}
+	}
+	
+	/**
+	 * <p>Title: RequestEvent</p>
+	 * <p>Description: A received request tagged with its exchange</p> 
+	 * <p>Company: Helios Development Group LLC</p>
+	 * @author Whitehead (nwhitehead AT heliosdev DOT org)
+	 * <p><code>com.heliosapm.tsdb.grapi.server.http.ResponseSequencer.RequestEvent</code></p>
+	 */
+	public static class RequestEvent extends UpstreamMessageEvent {
+		/** The exchange of the request */
+		private final Exchange exchange;
+		
+		/**
+		 * Creates a new RequestEvent
+		 * @param exchange The exchange of the request
+		 * @param e The event the request was received with
+		 */
+		RequestEvent(final Exchange exchange, final MessageEvent e) {
+			super(e.getChannel(), e.getMessage(), e.getRemoteAddress());
+			this.exchange = exchange;
+		}
+		
+		/**
+		 * Returns the exchange of the request
+		 * @return the exchange
+		 */
+		public Exchange getExchange() {
+			return exchange;
+		}
+	}
+	
+	/**
+	 * <p>Title: SequencedMessageEvent</p>
+	 * <p>Description: One part of a response tagged with its exchange</p> 
+	 * <p>Company: Helios Development Group LLC</p>
+	 * @author Whitehead (nwhitehead AT heliosdev DOT org)
+	 * <p><code>com.heliosapm.tsdb.grapi.server.http.ResponseSequencer.SequencedMessageEvent</code></p>
+	 */
+	static class SequencedMessageEvent extends DownstreamMessageEvent {
+		/** The exchange the part belongs to */
+		final Exchange exchange;
+		/** Indicates if this is the last part of the response */
+		final boolean last;
+		/** Indicates if the connection is closed after this part */
+		final boolean close;
+		/** Indicates if this is a complete response that is replaced by an abort if part of the response has already been sent */
+		final boolean replacesUnstarted;
+		
+		/**
+		 * Creates a new SequencedMessageEvent
+		 * @param exchange The exchange the part belongs to
+		 * @param channel The channel to write to
+		 * @param future The write future
+		 * @param message The part
+		 * @param last true if this is the last part of the response
+		 * @param close true to close the connection after this part
+		 * @param replacesUnstarted true if this is a complete response to send only if no part of the response has been sent
+		 */
+		SequencedMessageEvent(final Exchange exchange, final Channel channel, final ChannelFuture future, final Object message, final boolean last, final boolean close, final boolean replacesUnstarted) {
+			super(channel, future, message, channel.getRemoteAddress());
+			this.exchange = exchange;
+			this.last = last;
+			this.close = close;
+			this.replacesUnstarted = replacesUnstarted;
+		}
+	}
+}
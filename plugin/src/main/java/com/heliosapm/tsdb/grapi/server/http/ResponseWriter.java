@@ -0,0 +1,437 @@
+/**
+Licensed to the Apache Software Foundation (ASF) under one
+or more contributor license agreements.  See the NOTICE file
+distributed with this work for additional information
+regarding copyright ownership.  The ASF licenses this file
+to you under the Apache License, Version 2.0 (the
+"License"); you may not use this file except in compliance
+with the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an
+"AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+KIND, either express or implied.  See the License for the
+specific language governing permissions and limitations
+under the License.
+ */
+package com.heliosapm.tsdb.grapi.server.http;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.buffer.ChannelBufferOutputStream;
+import org.jboss.netty.buffer.ChannelBuffers;
+import org.jboss.netty.channel.Channel;
+import org.jboss.netty.channel.ChannelFuture;
+import org.jboss.netty.channel.ChannelFutureListener;
+import org.jboss.netty.channel.ChannelHandlerContext;
+import org.jboss.netty.channel.Channels;
+import org.jboss.netty.handler.codec.http.HttpHeaders;
+import org.jboss.netty.handler.codec.http.HttpRequest;
+import org.jboss.netty.handler.codec.http.HttpResponse;
+import org.jboss.netty.handler.codec.http.HttpResponseStatus;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.heliosapm.tsdb.grapi.cache.CachedResponse;
+import com.heliosapm.tsdb.grapi.cache.EntityTags;
+import com.heliosapm.tsdb.grapi.netty.SegmentedChannelBuffer;
+import com.heliosapm.tsdb.grapi.netty.SegmentedChannelBufferFactory;
+import com.heliosapm.tsdb.grapi.stats.PipelineStage;
+import com.heliosapm.tsdb.grapi.stats.RequestStats;
+
+/**
+ * <p>Title: ResponseWriter</p>
+ * <p>Description: Writes one HTTP response. Adapters encode the response body straight into a buffer
+ * allocated from the server's buffer factory, through {@link #getJsonGenerator()}, {@link #getOutputStream()} 
+ * or {@link #getBuffer()}, and {@link #send()} hands that same buffer to the channel as the response content, 
+ * with the Content-Length taken from its writer index. The body is never copied on the way: content that fits in one
+ * segment goes out with the header, and larger content follows the header as one gathering write of its segments.</p>
+ * <p>When created with {@link RequestStats}, the response's size, outcome and latency since the request was dispatched are recorded once the write completes.</p>
+ * <p>When the request was tagged by a {@link ResponseSequencer}, the response is sent in request order with the responses to the other requests pipelined on the connection.</p>
+ * <p>When created with a {@link ContentCompressor}, content large enough to be worth it is compressed with the encoding the caller accepts 
+ * before it is sent, and {@link #send(CachedResponse)} sends cached content that was compressed once when it was cached.</p>
+ * <p>Successful responses are tagged with the {@link EntityTags entity tag} of their content, unless the adapter already set one, 
+ * and a caller whose <b><code>If-None-Match</code></b> header matches it gets a 304 with no content. Adapters that can tag a response 
+ * by the version of its source data call {@link #notModified(String)} before producing it, and skip producing it when the caller already holds it.</p>
+ * <p>A body too large to build in memory is handed over to a {@link #toChunked(int) chunked writer} instead.</p>
+ * <p>A writer is not thread safe and sends exactly once.</p> 
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>com.heliosapm.tsdb.grapi.server.http.ResponseWriter</code></p>
+ */
+
+public class ResponseWriter {
+	/** Static class logger */
+	private static final Logger LOG = LoggerFactory.getLogger(ResponseWriter.class);
+	
+	/** The shared JSON factory */
+	public static final JsonFactory JSON_FACTORY = new JsonFactory();
+	
+	/** The request being responded to */
+	protected final HttpRequest request;
+	/** The channel to respond on */
+	protected final Channel channel;
+	/** The channel handler context to send the response from */
+	protected final ChannelHandlerContext ctx;
+	/** The response */
+	protected final HttpResponse response;
+	/** The factory the content buffer is allocated from */
+	protected final SegmentedChannelBufferFactory bufferFactory;
+	/** The content buffer, allocated on first use and released when the response write completes */
+	protected SegmentedChannelBuffer buffer = null;
+	/** The output stream over the content buffer, created on first use */
+	protected OutputStream outputStream = null;
+	/** The JSON generator over the content buffer, created on first use */
+	protected JsonGenerator generator = null;
+	/** Indicates if the response has been sent */
+	protected boolean sent = false;
+	/** The stats to record the response with, or null */
+	protected final RequestStats stats;
+	/** The {@link System#nanoTime()} at which the request was dispatched, or -1 if not known */
+	protected final long startNanos;
+	/** The exchange of the request being responded to, or null if responses are not sequenced */
+	protected final ResponseSequencer.Exchange exchange;
+	/** The compressor of the response content, or null if the content is not compressed */
+	protected final ContentCompressor compressor;
+	
+	/**
+	 * Creates a new ResponseWriter
+	 * @param request The request being responded to
+	 * @param channel The channel to respond on
+	 * @param ctx The channel handler context to send the response from
+	 * @param response The response to send, with the status and headers already set
+	 * @param bufferFactory The factory to allocate the content buffer from
+	 */
+	public ResponseWriter(final HttpRequest request, final Channel channel, final ChannelHandlerContext ctx, final HttpResponse response, final SegmentedChannelBufferFactory bufferFactory) {
+		this(request, channel, ctx, response, bufferFactory, null);
+	}
+	
+	/**
+	 * Creates a new ResponseWriter that records the response with the passed stats
+	 * @param request The request being responded to
+	 * @param channel The channel to respond on
+	 * @param ctx The channel handler context to send the response from
+	 * @param response The response to send, with the status and headers already set
+	 * @param bufferFactory The factory to allocate the content buffer from
+	 * @param stats The stats to record the response with, or null
+	 */
+	public ResponseWriter(final HttpRequest request, final Channel channel, final ChannelHandlerContext ctx, final HttpResponse response, final SegmentedChannelBufferFactory bufferFactory, final RequestStats stats) {
+		this(request, channel, ctx, response, bufferFactory, stats, null);
+	}
+	
+	/**
+	 * Creates a new ResponseWriter that records the response with the passed stats and compresses its content with the passed compressor
+	 * @param request The request being responded to
+	 * @param channel The channel to respond on
+	 * @param ctx The channel handler context to send the response from
+	 * @param response The response to send, with the status and headers already set
+	 * @param bufferFactory The factory to allocate the content buffer from
+	 * @param stats The stats to record the response with, or null
+	 * @param compressor The compressor of the response content, or null
+	 */
+	public ResponseWriter(final HttpRequest request, final Channel channel, final ChannelHandlerContext ctx, final HttpResponse response, final SegmentedChannelBufferFactory bufferFactory, final RequestStats stats, final ContentCompressor compressor) {
+		this.request = request;
+		this.compressor = compressor;
+		this.channel = channel;
+		this.ctx = ctx;
+		this.response = response;
+		this.bufferFactory = bufferFactory;
+		this.stats = stats;
+		final Object attachment = ctx.getAttachment();
+		if(attachment instanceof ResponseSequencer.Exchange) {
+			exchange = (ResponseSequencer.Exchange)attachment;
+			startNanos = exchange.getDispatchNanos();
+		} else {
+			exchange = null;
+			startNanos = attachment instanceof Long ? (Long)attachment : -1L;
+		}
+	}
+	
+	/**
+	 * Returns the content buffer, allocating it on first call
+	 * @return the content buffer
+	 */
+	public ChannelBuffer getBuffer() {
+		if(buffer==null) {
+			buffer = bufferFactory.getBuffer();
+		}
+		return buffer;
+	}
+	
+	/**
+	 * Returns an output stream writing into the content buffer
+	 * @return the output stream
+	 */
+	public OutputStream getOutputStream() {
+		if(outputStream==null) {
+			outputStream = new ChannelBufferOutputStream(getBuffer());
+		}
+		return outputStream;
+	}
+	
+	/**
+	 * Returns a UTF8 JSON generator writing into the content buffer
+	 * @return the JSON generator
+	 */
+	public JsonGenerator getJsonGenerator() {
+		if(generator==null) {
+			try {
+				generator = JSON_FACTORY.createGenerator(getOutputStream(), JsonEncoding.UTF8);
+			} catch (IOException iex) {
+				throw new RuntimeException("Failed to create JSON generator", iex);
+			}
+		}
+		return generator;
+	}
+	
+	/**
+	 * Returns the response, so adapters can adjust the status and headers before sending
+	 * @return the response
+	 */
+	public HttpResponse getResponse() {
+		return response;
+	}
+	
+	/**
+	 * Returns the request being responded to
+	 * @return the request
+	 */
+	public HttpRequest getRequest() {
+		return request;
+	}
+	
+	/**
+	 * Indicates if the response has been sent
+	 * @return true if sent, false otherwise
+	 */
+	public boolean isSent() {
+		return sent;
+	}
+	
+	/**
+	 * Flushes the JSON generator, if one was used, and sends the response with the content buffer as its content
+	 * @return the write future
+	 */
+	public ChannelFuture send() {
+		markSent();
+		if(generator!=null) {
+			try {
+				generator.close();
+			} catch (IOException iex) {
+				throw new RuntimeException("Failed to flush JSON generator", iex);
+			}
+		}
+		if(response.getStatus().getCode()==HttpResponseStatus.OK.getCode()) {
+			if(!response.headers().contains(HttpHeaders.Names.ETAG)) {
+				response.headers().set(HttpHeaders.Names.ETAG, buffer==null ? EntityTags.of(ChannelBuffers.EMPTY_BUFFER) : EntityTags.of(buffer));
+			}
+			if(isHeld()) {
+				negotiate(buffer==null ? 0 : buffer.writerIndex());
+				return writeNotModified();
+			}
+		}
+		if(buffer!=null) compress();
+		final ChannelBuffer content = buffer==null ? ChannelBuffers.EMPTY_BUFFER : buffer;
+		// the reader index of the content buffer is never moved, so the writer index is the content length
+		HttpHeaders.setContentLength(response, content.writerIndex());
+		if(buffer!=null && buffer.getSegmentCount() > 1) {
+			// the HTTP encoder would copy a composite of the header and the content, so the segments follow the header instead
+			response.setContent(ChannelBuffers.EMPTY_BUFFER);
+			ResponseSequencer.sendDownstream(ctx, exchange, Channels.future(channel), response, false);
+			return write(buffer.toGatheringBuffer());
+		}
+		response.setContent(content);
+		return write(response);
+	}
+	
+	/**
+	 * Discards any content written so far and sends the passed cached content, compressed with gzip when the caller accepts it 
+	 * and it was cached compressed. Otherwise the content is compressed like any other content.
+	 * @param cached The cached content
+	 * @return the write future
+	 */
+	public ChannelFuture send(final CachedResponse cached) {
+		if(sent) throw new IllegalStateException("Response already sent");
+		discard();
+		if(response.getStatus().getCode()==HttpResponseStatus.OK.getCode()) {
+			response.headers().set(HttpHeaders.Names.ETAG, cached.getETag());
+			if(isHeld()) {
+				markSent();
+				negotiate(cached.size());
+				return writeNotModified();
+			}
+		}
+		final String encoding = negotiate(cached.size());
+		if(encoding!=null && !(ContentCompressor.GZIP.equals(encoding) && cached.isGzipped())) {
+			getBuffer().writeBytes(cached.asChannelBuffer());
+			return send();
+		}
+		markSent();
+		final ChannelBuffer content;
+		if(encoding==null) {
+			content = cached.asChannelBuffer();
+		} else {
+			content = cached.asGzippedChannelBuffer();
+			response.headers().set(HttpHeaders.Names.CONTENT_ENCODING, encoding);
+		}
+		HttpHeaders.setContentLength(response, content.readableBytes());
+		response.setContent(content);
+		return write(response);
+	}
+	
+	/**
+	 * Discards any content written so far and sends an empty response with the passed status
+	 * @param status The response status
+	 * @return the write future
+	 */
+	public ChannelFuture sendError(final HttpResponseStatus status) {
+		markSent();
+		discard();
+		response.headers().remove(HttpHeaders.Names.ETAG);
+		response.headers().set(HttpHeaders.Names.CACHE_CONTROL, HttpHeaders.Values.NO_CACHE);
+		response.setStatus(status);
+		response.setContent(ChannelBuffers.EMPTY_BUFFER);
+		HttpHeaders.setContentLength(response, 0);
+		return write(response);
+	}
+	
+	/**
+	 * Tags the response with the passed entity tag and, if the caller already holds the entity it tags, sends a 304 with no content.
+	 * Adapters that can tag a response by the version of its source data call this before producing the response, and skip producing it when this returns true.
+	 * @param etag The entity tag of the response, such as {@link EntityTags#ofVersion(long)}
+	 * @return true if the 304 was sent, false if the response should be produced and sent
+	 */
+	public boolean notModified(final String etag) {
+		if(sent) throw new IllegalStateException("Response already sent");
+		response.headers().set(HttpHeaders.Names.ETAG, etag);
+		if(!isHeld()) return false;
+		markSent();
+		discard();
+		writeNotModified();
+		return true;
+	}
+	
+	/**
+	 * Indicates if the caller already holds the entity tagged by the response's entity tag
+	 * @return true if the request's If-None-Match header matches the response's entity tag
+	 */
+	protected boolean isHeld() {
+		return EntityTags.matches(request.headers().get(HttpHeaders.Names.IF_NONE_MATCH), response.headers().get(HttpHeaders.Names.ETAG));
+	}
+	
+	/**
+	 * Discards any content written so far and writes a 304 response, which keeps the entity tag and cache headers of the response
+	 * @return the write future
+	 */
+	private ChannelFuture writeNotModified() {
+		discard();
+		response.setStatus(HttpResponseStatus.NOT_MODIFIED);
+		response.setContent(ChannelBuffers.EMPTY_BUFFER);
+		response.headers().remove(HttpHeaders.Names.CONTENT_LENGTH);
+		return write(response);
+	}
+	
+	/**
+	 * Discards any content written so far, releasing the content buffer
+	 */
+	private void discard() {
+		generator = null;
+		outputStream = null;
+		if(buffer!=null) {
+			buffer.release();
+			buffer = null;
+		}
+	}
+	
+	/**
+	 * Returns the encoding to compress content of the passed size with, and marks the response as varying by the accepted encodings
+	 * if content of that size is compressed at all
+	 * @param length The size of the content in bytes
+	 * @return the content encoding, or null if the content is sent as is
+	 */
+	protected String negotiate(final long length) {
+		if(compressor==null || !compressor.isCompressible(length) || response.headers().contains(HttpHeaders.Names.CONTENT_ENCODING)) return null;
+		response.headers().set(HttpHeaders.Names.VARY, HttpHeaders.Names.ACCEPT_ENCODING);
+		return compressor.negotiate(request);
+	}
+	
+	/**
+	 * Replaces the content buffer with its compressed form if the caller accepts compressed content and the content is large enough.
+	 * Content that fails to compress is sent as is.
+	 */
+	protected void compress() {
+		final String encoding = negotiate(buffer.writerIndex());
+		if(encoding==null) return;
+		final SegmentedChannelBuffer compressed = bufferFactory.getBuffer();
+		try {
+			compressor.compress(encoding, buffer, compressed);
+		} catch (Exception ex) {
+			LOG.warn("Failed to compress response content, sending it uncompressed", ex);
+			compressed.release();
+			return;
+		}
+		buffer.release();
+		buffer = compressed;
+		response.headers().set(HttpHeaders.Names.CONTENT_ENCODING, encoding);
+	}
+	
+	/**
+	 * Hands the response over to a chunked writer, for a body too large to build in memory. The chunked writer sends the response 
+	 * with the status and headers set so far, including an entity tag set by {@link #notModified(String)}, and this writer is marked sent.
+	 * Any content written so far is discarded.
+	 * @param chunkSize The number of body bytes at which the chunked writer cuts a streamed body into a chunk
+	 * @return the chunked writer to send the body with
+	 */
+	public ChunkedResponseWriter toChunked(final int chunkSize) {
+		markSent();
+		discard();
+		return new ChunkedResponseWriter(request, channel, ctx, response, bufferFactory, stats, compressor, chunkSize);
+	}
+	
+	/**
+	 * Marks the response as sent
+	 * @throws IllegalStateException if the response has already been sent
+	 */
+	private void markSent() {
+		if(sent) throw new IllegalStateException("Response already sent");
+		sent = true;
+	}
+	
+	/**
+	 * Writes the last part of the response to the channel. The content buffer is released when the write completes, successfully or not,
+	 * and the response is recorded with the stats if there are any, and with the {@link PipelineStage#WRITE write} pipeline stage.
+	 * @param message The response, or the content following an already written header
+	 * @return the write future
+	 */
+	protected ChannelFuture write(final Object message) {
+		final SegmentedChannelBuffer content = buffer;
+		final ChannelFuture cf = Channels.future(channel);
+		final long writeStart = System.nanoTime();
+		cf.addListener(new ChannelFutureListener() {
+			@Override
+			public void operationComplete(final ChannelFuture f) throws Exception {
+				PipelineStage.WRITE.recordSince(writeStart);
+				if(content!=null) content.release();
+				if(stats!=null) {
+					stats.recordResponse(HttpHeaders.getContentLength(response, 0L), startNanos < 0 ? -1L : System.nanoTime() - startNanos, 
+							!f.isSuccess() || response.getStatus().getCode() >= 500);
+				}
+				if(f.isSuccess()) {
+					LOG.debug("Completed Response Write [{}]", response);
+				} else {
+					LOG.error("Response Write Failed", f.getCause());
+				}
+			}
+		});
+		ResponseSequencer.sendDownstream(ctx, exchange, cf, message, true);
+		return cf;
+	}
+
+}
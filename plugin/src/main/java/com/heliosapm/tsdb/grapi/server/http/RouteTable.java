@@ -0,0 +1,117 @@
+/**
+Licensed to the Apache Software Foundation (ASF) under one
+or more contributor license agreements.  See the NOTICE file
+distributed with this work for additional information
+regarding copyright ownership.  The ASF licenses this file
+to you under the Apache License, Version 2.0 (the
+"License"); you may not use this file except in compliance
+with the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an
+"AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+KIND, either express or implied.  See the License for the
+specific language governing permissions and limitations
+under the License.
+ */
+package com.heliosapm.tsdb.grapi.server.http;
+
+/**
+ * <p>Title: RouteTable</p>
+ * <p>Description: A case-insensitive prefix trie mapping URI route prefixes to handlers. 
+ * Built once at startup, a lookup walks the URI one character at a time, costs time proportional to the
+ * length of the longest matching route regardless of the number of routes, and allocates nothing.
+ * The longest matching route wins. Routes must be ASCII.</p> 
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>com.heliosapm.tsdb.grapi.server.http.RouteTable</code></p>
+ * @param <T> The type of the route handlers
+ */
+
+public class RouteTable<T> {
+	/** The root node */
+	private final Node<T> root = new Node<T>();
+	/** The number of routes */
+	private int size = 0;
+	
+	/** The width of the node transition arrays */
+	private static final int WIDTH = 128;
+	/** ASCII lower case lookup */
+	private static final char[] LOWER = new char[WIDTH];
+	
+	static {
+		for(int i = 0; i < WIDTH; i++) {
+			LOWER[i] = Character.toLowerCase((char)i);
+		}
+	}
+	
+	/**
+	 * Adds a route
+	 * @param prefix The URI prefix of the route
+	 * @param handler The handler for the route
+	 * @return the handler previously registered for the same prefix, or null
+	 */
+	public T add(final String prefix, final T handler) {
+		if(prefix==null || prefix.isEmpty()) throw new IllegalArgumentException("The passed prefix was null or empty");
+		if(handler==null) throw new IllegalArgumentException("The passed handler was null");
+		Node<T> node = root;
+		for(int i = 0; i < prefix.length(); i++) {
+			final char c = prefix.charAt(i);
+			if(c >= WIDTH) throw new IllegalArgumentException("Route prefix [" + prefix + "] is not ASCII");
+			final int index = LOWER[c];
+			if(node.next[index]==null) node.next[index] = new Node<T>();
+			node = node.next[index];
+		}
+		final T prior = node.handler;
+		node.handler = handler;
+		if(prior==null) size++;
+		return prior;
+	}
+	
+	/**
+	 * Returns the handler with the longest route prefix matching the start of the passed URI
+	 * @param uri The URI to route
+	 * @return the handler or null if no route matched
+	 */
+	public T route(final String uri) {
+		if(uri==null) return null;
+		Node<T> node = root;
+		T match = null;
+		final int len = uri.length();
+		for(int i = 0; i < len; i++) {
+			final char c = uri.charAt(i);
+			if(c >= WIDTH) break;
+			node = node.next[LOWER[c]];
+			if(node==null) break;
+			if(node.handler!=null) match = node.handler;
+		}
+		return match;
+	}
+	
+	/**
+	 * Returns the number of routes
+	 * @return the number of routes
+	 */
+	public int size() {
+		return size;
+	}
+	
+	/**
+	 * <p>Title: Node</p>
+	 * <p>Description: A route trie node</p> 
+	 * <p>Company: Helios Development Group LLC</p>
+	 * @author Whitehead (nwhitehead AT heliosdev DOT org)
+	 * <p><code>com.heliosapm.tsdb.grapi.server.http.RouteTable.Node</code></p>
+	 * @param <T> The type of the route handlers
+	 */
+	private static class Node<T> {
+		/** The next nodes indexed by lower case ASCII character */
+		@SuppressWarnings("unchecked")
+		final Node<T>[] next = new Node[WIDTH];
+		/** The handler of the route ending at this node */
+		T handler = null;
+	}
+
+}
@@ -0,0 +1,302 @@
+/**
+Licensed to the Apache Software Foundation (ASF) under one
+or more contributor license agreements.  See the NOTICE file
+distributed with this work for additional information
+regarding copyright ownership.  The ASF licenses this file
+to you under the Apache License, Version 2.0 (the
+"License"); you may not use this file except in compliance
+with the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an
+"AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+KIND, either express or implied.  See the License for the
+specific language governing permissions and limitations
+under the License.
+ */
+package com.heliosapm.tsdb.grapi.stats;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * <p>Title: LatencyHistogram</p>
+ * <p>Description: A fixed memory, log-linear histogram of latencies in microseconds. Values below 32 get a bucket each,
+ * and every power of two above that is split into 16 linear sub-buckets, so a percentile read back is never more than 
+ * 1/16th above the recorded value. Values over {@link #MAX_VALUE} are counted in the last bucket.</p>
+ * <p>Recording is lock free and never allocates: the buckets are striped by the recording thread's id, 
+ * so concurrent threads rarely contend on the same counter, and the stripes are merged when a {@link Snapshot} is taken.
+ * Each of the management attribute reads takes its own snapshot.</p> 
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>com.heliosapm.tsdb.grapi.stats.LatencyHistogram</code></p>
+ */
+
+public class LatencyHistogram implements LatencyHistogramMBean {
+	/** The number of linear sub-buckets per power of two */
+	public static final int SUB_BUCKETS = 16;
+	/** The highest power of two tracked with sub-buckets */
+	public static final int MAX_EXPONENT = 35;
+	/** The largest value, in microseconds (about 19 hours), recorded in its own bucket */
+	public static final long MAX_VALUE = (1L << (MAX_EXPONENT + 1)) - 1;
+	/** The number of buckets */
+	public static final int BUCKETS = 32 + (MAX_EXPONENT - 4) * SUB_BUCKETS;
+	/** The default number of stripes, the number of cores rounded up to a power of two, capped at 8 */
+	public static final int DEFAULT_STRIPES = Math.min(8, Integer.highestOneBit(Runtime.getRuntime().availableProcessors() * 2 - 1));
+
+	/** The per stripe bucket counts, stripe major */
+	private final AtomicLongArray buckets;
+	/** The per stripe totals, a sum and a max for each stripe */
+	private final AtomicLongArray totals;
+	/** The stripe mask */
+	private final int mask;
+	
+	/**
+	 * Creates a new LatencyHistogram with the {@link #DEFAULT_STRIPES default} number of stripes
+	 */
+	public LatencyHistogram() {
+		this(DEFAULT_STRIPES);
+	}
+	
+	/**
+	 * Creates a new LatencyHistogram
+	 * @param stripes The number of stripes, rounded up to a power of two
+	 */
+	public LatencyHistogram(final int stripes) {
+		if(stripes < 1) throw new IllegalArgumentException("Invalid number of stripes [" + stripes + "]");
+		final int s = Integer.bitCount(stripes)==1 ? stripes : Integer.highestOneBit(stripes) << 1;
+		mask = s - 1;
+		buckets = new AtomicLongArray(s * BUCKETS);
+		totals = new AtomicLongArray(s * 2);
+	}
+	
+	/**
+	 * Returns the bucket index for the passed value
+	 * @param micros The value in microseconds
+	 * @return the bucket index
+	 */
+	static int bucketFor(final long micros) {
+		if(micros < 32) return micros < 0 ? 0 : (int)micros;
+		if(micros > MAX_VALUE) return BUCKETS - 1;
+		final int exp = 63 - Long.numberOfLeadingZeros(micros);
+		final int top = (int)(micros >>> (exp - 4));
+		return 32 + (exp - 5) * SUB_BUCKETS + (top - SUB_BUCKETS);
+	}
+	
+	/**
+	 * Returns the largest value counted in the passed bucket
+	 * @param index The bucket index
+	 * @return the bucket's upper bound in microseconds
+	 */
+	static long upperBound(final int index) {
+		if(index < 32) return index;
+		final int exp = (index - 32) / SUB_BUCKETS + 5;
+		final long sub = (index - 32) % SUB_BUCKETS + SUB_BUCKETS;
+		return ((sub + 1) << (exp - 4)) - 1;
+	}
+	
+	/**
+	 * Records a latency
+	 * @param micros The latency in microseconds
+	 */
+	public void record(final long micros) {
+		final long v = micros < 0 ? 0 : micros;
+		final int stripe = (int)Thread.currentThread().getId() & mask;
+		buckets.incrementAndGet(stripe * BUCKETS + bucketFor(v));
+		totals.addAndGet(stripe * 2, v);
+		final int mx = stripe * 2 + 1;
+		long prior;
+		while((prior = totals.get(mx)) < v) {
+			if(totals.compareAndSet(mx, prior, v)) break;
+		}
+	}
+	
+	/**
+	 * Records a latency
+	 * @param nanos The latency in nanoseconds
+	 */
+	public void recordNanos(final long nanos) {
+		record(nanos / 1000L);
+	}
+	
+	/**
+	 * Records the time elapsed since the passed start time
+	 * @param startNanos The start time as returned by {@link System#nanoTime()}
+	 */
+	public void recordSince(final long startNanos) {
+		recordNanos(System.nanoTime() - startNanos);
+	}
+	
+	/**
+	 * Merges the stripes into a point in time snapshot. 
+	 * Concurrent recording is not blocked, so the snapshot may include part of a concurrently recorded value.
+	 * @return the snapshot
+	 */
+	public Snapshot snapshot() {
+		final long[] counts = new long[BUCKETS];
+		long count = 0, sum = 0, max = 0;
+		for(int s = 0; s <= mask; s++) {
+			final int base = s * BUCKETS;
+			for(int i = 0; i < BUCKETS; i++) {
+				final long c = buckets.get(base + i);
+				counts[i] += c;
+				count += c;
+			}
+			sum += totals.get(s * 2);
+			max = Math.max(max, totals.get(s * 2 + 1));
+		}
+		return new Snapshot(counts, count, sum, max);
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 * @see com.heliosapm.tsdb.grapi.stats.LatencyHistogramMBean#getCount()
+	 */
+	@Override
+	public long getCount() {
+		return snapshot().getCount();
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 * @see com.heliosapm.tsdb.grapi.stats.LatencyHistogramMBean#getMean()
+	 */
+	@Override
+	public long getMean() {
+		return snapshot().getMean();
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 * @see com.heliosapm.tsdb.grapi.stats.LatencyHistogramMBean#getMax()
+	 */
+	@Override
+	public long getMax() {
+		return snapshot().getMax();
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 * @see com.heliosapm.tsdb.grapi.stats.LatencyHistogramMBean#getP50()
+	 */
+	@Override
+	public long getP50() {
+		return snapshot().percentile(50d);
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 * @see com.heliosapm.tsdb.grapi.stats.LatencyHistogramMBean#getP90()
+	 */
+	@Override
+	public long getP90() {
+		return snapshot().percentile(90d);
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 * @see com.heliosapm.tsdb.grapi.stats.LatencyHistogramMBean#getP99()
+	 */
+	@Override
+	public long getP99() {
+		return snapshot().percentile(99d);
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 * @see com.heliosapm.tsdb.grapi.stats.LatencyHistogramMBean#getP999()
+	 */
+	@Override
+	public long getP999() {
+		return snapshot().percentile(99.9d);
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 * @see com.heliosapm.tsdb.grapi.stats.LatencyHistogramMBean#reset()
+	 */
+	@Override
+	public void reset() {
+		for(int i = 0; i < buckets.length(); i++) {
+			buckets.set(i, 0L);
+		}
+		for(int i = 0; i < totals.length(); i++) {
+			totals.set(i, 0L);
+		}
+	}
+	
+	/**
+	 * <p>Title: Snapshot</p>
+	 * <p>Description: An immutable, merged view of a histogram's buckets</p> 
+	 * <p>Company: Helios Development Group LLC</p>
+	 * @author Whitehead (nwhitehead AT heliosdev DOT org)
+	 * <p><code>com.heliosapm.tsdb.grapi.stats.LatencyHistogram.Snapshot</code></p>
+	 */
+	public static class Snapshot {
+		/** The merged bucket counts */
+		private final long[] counts;
+		/** The number of recorded values */
+		private final long count;
+		/** The sum of the recorded values */
+		private final long sum;
+		/** The largest recorded value */
+		private final long max;
+		
+		/**
+		 * Creates a new Snapshot
+		 * @param counts The merged bucket counts
+		 * @param count The number of recorded values
+		 * @param sum The sum of the recorded values
+		 * @param max The largest recorded value
+		 */
+		Snapshot(final long[] counts, final long count, final long sum, final long max) {
+			this.counts = counts;
+			this.count = count;
+			this.sum = sum;
+			this.max = max;
+		}
+		
+		/**
+		 * Returns the value at the passed percentile, as the upper bound of the bucket it falls in, 
+		 * capped at the largest recorded value
+		 * @param pct The percentile, from 0 to 100
+		 * @return the value in microseconds, or zero if nothing was recorded
+		 */
+		public long percentile(final double pct) {
+			if(count==0) return 0L;
+			final long rank = Math.max(1L, (long)Math.ceil(count * Math.min(100d, Math.max(0d, pct)) / 100d));
+			long seen = 0;
+			for(int i = 0; i < counts.length; i++) {
+				seen += counts[i];
+				if(seen >= rank) return Math.min(upperBound(i), max);
+			}
+			return max;
+		}
+		
+		/**
+		 * Returns the number of recorded values
+		 * @return the number of recorded values
+		 */
+		public long getCount() {
+			return count;
+		}
+		
+		/**
+		 * Returns the largest recorded value
+		 * @return the largest recorded value in microseconds
+		 */
+		public long getMax() {
+			return max;
+		}
+		
+		/**
+		 * Returns the mean of the recorded values
+		 * @return the mean in microseconds, or zero if nothing was recorded
+		 */
+		public long getMean() {
+			return count==0 ? 0L : sum / count;
+		}
+	}
+
+}
@@ -0,0 +1,76 @@
+/**
+Licensed to the Apache Software Foundation (ASF) under one
+or more contributor license agreements.  See the NOTICE file
+distributed with this work for additional information
+regarding copyright ownership.  The ASF licenses this file
+to you under the Apache License, Version 2.0 (the
+"License"); you may not use this file except in compliance
+with the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an
+"AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+KIND, either express or implied.  See the License for the
+specific language governing permissions and limitations
+under the License.
+ */
+package com.heliosapm.tsdb.grapi.stats;
+
+/**
+ * <p>Title: LatencyHistogramMBean</p>
+ * <p>Description: JMX management interface for a {@link LatencyHistogram}. All values are in microseconds.</p> 
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>com.heliosapm.tsdb.grapi.stats.LatencyHistogramMBean</code></p>
+ */
+
+public interface LatencyHistogramMBean {
+	/**
+	 * Returns the number of recorded values
+	 * @return the number of recorded values
+	 */
+	public long getCount();
+	
+	/**
+	 * Returns the mean of the recorded values
+	 * @return the mean in microseconds
+	 */
+	public long getMean();
+	
+	/**
+	 * Returns the largest recorded value
+	 * @return the largest value in microseconds
+	 */
+	public long getMax();
+	
+	/**
+	 * Returns the median
+	 * @return the 50th percentile in microseconds
+	 */
+	public long getP50();
+	
+	/**
+	 * Returns the 90th percentile
+	 * @return the 90th percentile in microseconds
+	 */
+	public long getP90();
+	
+	/**
+	 * Returns the 99th percentile
+	 * @return the 99th percentile in microseconds
+	 */
+	public long getP99();
+	
+	/**
+	 * Returns the 99.9th percentile
+	 * @return the 99.9th percentile in microseconds
+	 */
+	public long getP999();
+	
+	/**
+	 * Clears all recorded values
+	 */
+	public void reset();
+}
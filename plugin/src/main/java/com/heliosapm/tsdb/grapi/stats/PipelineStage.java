@@ -0,0 +1,127 @@
+/**
+Licensed to the Apache Software Foundation (ASF) under one
+or more contributor license agreements.  See the NOTICE file
+distributed with this work for additional information
+regarding copyright ownership.  The ASF licenses this file
+to you under the Apache License, Version 2.0 (the
+"License"); you may not use this file except in compliance
+with the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an
+"AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+KIND, either express or implied.  See the License for the
+specific language governing permissions and limitations
+under the License.
+ */
+package com.heliosapm.tsdb.grapi.stats;
+
+import java.lang.management.ManagementFactory;
+
+import javax.management.ObjectName;
+
+import net.opentsdb.stats.StatsCollector;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.heliosapm.utils.jmx.JMXHelper;
+
+/**
+ * <p>Title: PipelineStage</p>
+ * <p>Description: The stages of the request pipeline, each with a process wide {@link LatencyHistogram} so the time 
+ * spent in a slow request can be attributed to a stage. Each stage's histogram is registered with the platform MBeanServer as 
+ * <b><code>com.heliosapm.tsdb.grapi:service=PipelineLatency,stage=&lt;stage&gt;</code></b> and reported with the TSDB's stats.</p> 
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>com.heliosapm.tsdb.grapi.stats.PipelineStage</code></p>
+ */
+
+public enum PipelineStage {
+	/** From the first bytes of a request being read until the HTTP request has been decoded and aggregated */
+	DECODE("decode"),
+	/** From the decoded request reaching the request handler until the adapter's processQuery returns */
+	DISPATCH("dispatch"),
+	/** From the request being queued in its adapter's bulkhead until a bulkhead thread picks it up */
+	ADAPTER_QUEUE("adapterqueue"),
+	/** From an upstream response completing until the HTTP client's thread pool runs its handlers */
+	CLIENT_QUEUE("clientqueue"),
+	/** From an upstream request being issued until its response status is received */
+	UPSTREAM_FIRST_BYTE("upstreamfirstbyte"),
+	/** From an upstream request being issued until its response is complete */
+	UPSTREAM_COMPLETE("upstreamcomplete"),
+	/** Encoding a result into the response */
+	TRANSFORM("transform"),
+	/** From the response being handed to the channel until the write completes */
+	WRITE("write");
+	
+	/** The stage name used in the JMX ObjectName and the stats tag */
+	public final String stageName;
+	/** The stage's latency histogram */
+	private final LatencyHistogram histogram = new LatencyHistogram();
+	
+	/** Static class logger */
+	private static final Logger LOG = LoggerFactory.getLogger(PipelineStage.class);
+	
+	static {
+		for(PipelineStage stage: values()) {
+			final ObjectName on = JMXHelper.objectName("com.heliosapm.tsdb.grapi:service=PipelineLatency,stage=" + stage.stageName);
+			try {
+				if(!ManagementFactory.getPlatformMBeanServer().isRegistered(on)) {
+					ManagementFactory.getPlatformMBeanServer().registerMBean(stage.histogram, on);
+				}
+			} catch (Exception ex) {
+				LOG.warn("Failed to register management interface for pipeline stage [{}]", stage.stageName, ex);
+			}
+		}
+	}
+	
+	/**
+	 * Creates a new PipelineStage
+	 * @param stageName The stage name used in the JMX ObjectName and the stats tag
+	 */
+	private PipelineStage(final String stageName) {
+		this.stageName = stageName;
+	}
+	
+	/**
+	 * Records a latency for this stage
+	 * @param nanos The latency in nanoseconds
+	 */
+	public void recordNanos(final long nanos) {
+		histogram.recordNanos(nanos);
+	}
+	
+	/**
+	 * Records the time elapsed in this stage since the passed start time
+	 * @param startNanos The start time as returned by {@link System#nanoTime()}
+	 */
+	public void recordSince(final long startNanos) {
+		histogram.recordSince(startNanos);
+	}
+	
+	/**
+	 * Returns this stage's latency histogram
+	 * @return the latency histogram
+	 */
+	public LatencyHistogram getHistogram() {
+		return histogram;
+	}
+	
+	/**
+	 * Records the latency percentiles of every stage, in microseconds, with the passed collector, tagged with <b><code>stage=&lt;stage&gt;</code></b>
+	 * @param collector The collector to record with
+	 */
+	public static void collectStats(final StatsCollector collector) {
+		for(PipelineStage stage: values()) {
+			collector.addExtraTag("stage", stage.stageName);
+			try {
+				RequestStats.record(collector, "graphite.pipeline.latency", stage.histogram);
+			} finally {
+				collector.clearExtraTag("stage");
+			}
+		}
+	}
+}
@@ -0,0 +1,195 @@
+/**
+Licensed to the Apache Software Foundation (ASF) under one
+or more contributor license agreements.  See the NOTICE file
+distributed with this work for additional information
+regarding copyright ownership.  The ASF licenses this file
+to you under the Apache License, Version 2.0 (the
+"License"); you may not use this file except in compliance
+with the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an
+"AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+KIND, either express or implied.  See the License for the
+specific language governing permissions and limitations
+under the License.
+ */
+package com.heliosapm.tsdb.grapi.stats;
+
+import net.opentsdb.stats.StatsCollector;
+
+import org.cliffc.high_scale_lib.Counter;
+
+/**
+ * <p>Title: RequestStats</p>
+ * <p>Description: The request counters and latency histograms of one adapter. Counters are striped, so the 
+ * I/O and client threads recording responses concurrently do not contend on a single cache line.
+ * Latencies are recorded in microseconds:<ul>
+ * 	<li><b>latency</b>: from the request being dispatched to the adapter until the response write completes</li>
+ * 	<li><b>upstream</b>: time spent waiting on the adapter's data source (the upstream HTTP call or the index lookup)</li>
+ * 	<li><b>transform</b>: time spent encoding the result into the response</li>
+ * </ul></p> 
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>com.heliosapm.tsdb.grapi.stats.RequestStats</code></p>
+ */
+
+public class RequestStats {
+	/** The number of responses sent */
+	protected final Counter requests = new Counter();
+	/** The number of responses that were server errors or failed to write */
+	protected final Counter errors = new Counter();
+	/** The number of response content bytes written */
+	protected final Counter bytesOut = new Counter();
+	/** The number of requests shed while direct memory was under pressure */
+	protected final Counter rejected = new Counter();
+	/** The end to end request latency */
+	protected final LatencyHistogram latency = new LatencyHistogram();
+	/** The time spent waiting on the data source */
+	protected final LatencyHistogram upstream = new LatencyHistogram();
+	/** The time spent encoding responses */
+	protected final LatencyHistogram transform = new LatencyHistogram();
+	
+	/** The percentiles reported for each histogram */
+	private static final double[] PERCENTILES = {50d, 75d, 90d, 95d, 99d, 99.9d};
+	/** The metric name suffixes of the reported percentiles, matching those of the TSDB's own histograms */
+	private static final String[] PERCENTILE_SUFFIXES = {"_50pct", "_75pct", "_90pct", "_95pct", "_99pct", "_999pct"};
+	
+	/**
+	 * Records a completed response
+	 * @param bytes The number of content bytes written
+	 * @param elapsedNanos The elapsed time since the request was dispatched in nanos, or a negative number if not known
+	 * @param error true if the response was a server error or failed to write
+	 */
+	public void recordResponse(final long bytes, final long elapsedNanos, final boolean error) {
+		requests.increment();
+		if(error) errors.increment();
+		if(bytes > 0) bytesOut.add(bytes);
+		if(elapsedNanos >= 0) latency.recordNanos(elapsedNanos);
+	}
+	
+	/**
+	 * Records a failed request that never produced a response
+	 */
+	public void recordError() {
+		errors.increment();
+	}
+	
+	/**
+	 * Records a request shed while direct memory was under pressure
+	 */
+	public void recordRejection() {
+		rejected.increment();
+	}
+	
+	/**
+	 * Records the time spent waiting on the data source since the passed start time
+	 * @param startNanos The start time as returned by {@link System#nanoTime()}
+	 */
+	public void recordUpstream(final long startNanos) {
+		upstream.recordSince(startNanos);
+	}
+	
+	/**
+	 * Records the time spent encoding a response since the passed start time, 
+	 * with this adapter's stats and the {@link PipelineStage#TRANSFORM transform} pipeline stage
+	 * @param startNanos The start time as returned by {@link System#nanoTime()}
+	 */
+	public void recordTransform(final long startNanos) {
+		final long elapsed = System.nanoTime() - startNanos;
+		transform.recordNanos(elapsed);
+		PipelineStage.TRANSFORM.recordNanos(elapsed);
+	}
+	
+	/**
+	 * Returns the number of responses sent
+	 * @return the number of responses sent
+	 */
+	public long getRequests() {
+		return requests.get();
+	}
+	
+	/**
+	 * Returns the number of errors
+	 * @return the number of errors
+	 */
+	public long getErrors() {
+		return errors.get();
+	}
+	
+	/**
+	 * Returns the number of response content bytes written
+	 * @return the number of bytes written
+	 */
+	public long getBytesOut() {
+		return bytesOut.get();
+	}
+	
+	/**
+	 * Returns the number of requests shed while direct memory was under pressure
+	 * @return the number of requests shed
+	 */
+	public long getRejected() {
+		return rejected.get();
+	}
+	
+	/**
+	 * Returns the end to end latency histogram
+	 * @return the latency histogram
+	 */
+	public LatencyHistogram getLatency() {
+		return latency;
+	}
+	
+	/**
+	 * Returns the data source latency histogram
+	 * @return the upstream histogram
+	 */
+	public LatencyHistogram getUpstream() {
+		return upstream;
+	}
+	
+	/**
+	 * Returns the encoding latency histogram
+	 * @return the transform histogram
+	 */
+	public LatencyHistogram getTransform() {
+		return transform;
+	}
+	
+	/**
+	 * Records these stats with the passed collector, tagged with <b><code>adapter=&lt;adapterName&gt;</code></b>
+	 * @param collector The collector to record with
+	 * @param adapterName The adapter name to tag the stats with
+	 */
+	public void collectStats(final StatsCollector collector, final String adapterName) {
+		collector.addExtraTag("adapter", adapterName);
+		try {
+			collector.record("graphite.adapter.requests", requests.get());
+			collector.record("graphite.adapter.errors", errors.get());
+			collector.record("graphite.adapter.bytes", bytesOut.get());
+			collector.record("graphite.adapter.rejected", rejected.get());
+			record(collector, "graphite.adapter.latency", latency);
+			record(collector, "graphite.adapter.upstream", upstream);
+			record(collector, "graphite.adapter.transform", transform);
+		} finally {
+			collector.clearExtraTag("adapter");
+		}
+	}
+	
+	/**
+	 * Records the percentiles of the passed histogram, in microseconds, with the passed collector
+	 * @param collector The collector to record with
+	 * @param name The metric name
+	 * @param histogram The histogram to record
+	 */
+	public static void record(final StatsCollector collector, final String name, final LatencyHistogram histogram) {
+		final LatencyHistogram.Snapshot snapshot = histogram.snapshot();
+		for(int i = 0; i < PERCENTILES.length; i++) {
+			collector.record(name + PERCENTILE_SUFFIXES[i], snapshot.percentile(PERCENTILES[i]));
+		}
+	}
+
+}
@@ -0,0 +1,115 @@
+/**
+Licensed to the Apache Software Foundation (ASF) under one
+or more contributor license agreements.  See the NOTICE file
+distributed with this work for additional information
+regarding copyright ownership.  The ASF licenses this file
+to you under the Apache License, Version 2.0 (the
+"License"); you may not use this file except in compliance
+with the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an
+"AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+KIND, either express or implied.  See the License for the
+specific language governing permissions and limitations
+under the License.
+ */
+package com.heliosapm.tsdb.grapi.cache;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.util.Arrays;
+
+import org.junit.Test;
+
+import com.heliosapm.tsdb.grapi.render.Series;
+
+/**
+ * <p>Title: CachedSeriesTest</p>
+ * <p>Description: Tests for splicing fetched tails onto a {@link CachedSeries}</p> 
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>com.heliosapm.tsdb.grapi.cache.CachedSeriesTest</code></p>
+ */
+
+public class CachedSeriesTest {
+	/** The step of the test series in seconds */
+	private static final int STEP = 60;
+	
+	/**
+	 * Creates a series with a point every step in the passed window, valued at the passed offset plus the timestamp
+	 * @param from The first timestamp in unix epoch seconds
+	 * @param until The last timestamp in unix epoch seconds
+	 * @param offset The offset added to each timestamp to make its value
+	 * @return the series
+	 */
+	private static Series series(final long from, final long until, final double offset) {
+		final Series series = new Series("a.b", 16);
+		for(long t = from; t <= until; t += STEP) {
+			series.add(t, t + offset);
+		}
+		return series;
+	}
+	
+	/**
+	 * Asserts that the passed cached series holds a point every step in the passed window, valued from the passed series
+	 * @param cached The cached series
+	 * @param from The expected first timestamp
+	 * @param until The expected last timestamp
+	 * @param expected The series holding the expected value of each timestamp
+	 */
+	private static void assertPoints(final CachedSeries cached, final long from, final long until, final Series expected) {
+		final Series slice = cached.slice(Long.MIN_VALUE + 1, Long.MAX_VALUE - 1);
+		final Series want = expected.align(from, STEP, (int)((until - from) / STEP) + 1);
+		assertEquals(want.size(), slice.size());
+		assertArrayEquals(Arrays.copyOf(want.getTimestamps(), want.size()), Arrays.copyOf(slice.getTimestamps(), slice.size()));
+		assertArrayEquals(Arrays.copyOf(want.getValues(), want.size()), Arrays.copyOf(slice.getValues(), slice.size()), 0d);
+	}
+	
+	/**
+	 * Tests that a tail fetched for a later end replaces the cached points from its start, and drops the points that aged out
+	 */
+	@Test
+	public void testAdvancingTail() {
+		final CachedSeries cached = new CachedSeries(series(6000, 9000, 0), 6000, 9000);
+		final CachedSeries spliced = cached.splice(series(8400, 9600, 1), 8400, 9600);
+		assertEquals(6600, spliced.getFrom());
+		assertEquals(9600, spliced.getUntil());
+		final Series expected = series(6600, 8340, 0);
+		for(long t = 8400; t <= 9600; t += STEP) expected.add(t, t + 1);
+		assertPoints(spliced, 6600, 9600, expected);
+	}
+	
+	/**
+	 * Tests that a tail fetched for an earlier end than the cached series keeps the cached points after the tail end
+	 */
+	@Test
+	public void testTailEndingBeforeCachedEnd() {
+		final CachedSeries cached = new CachedSeries(series(6000, 9000, 0), 6000, 9000);
+		final CachedSeries spliced = cached.splice(series(7200, 8400, 1), 7200, 8400);
+		assertEquals(6000, spliced.getFrom());
+		assertEquals(9000, spliced.getUntil());
+		final Series expected = series(6000, 7140, 0);
+		for(long t = 7200; t <= 8400; t += STEP) expected.add(t, t + 1);
+		for(long t = 8460; t <= 9000; t += STEP) expected.add(t, t);
+		assertPoints(spliced, 6000, 9000, expected);
+	}
+	
+	/**
+	 * Tests that an empty tail leaves the cached points before and after its window, and drops those inside it
+	 */
+	@Test
+	public void testEmptyTail() {
+		final CachedSeries cached = new CachedSeries(series(6000, 9000, 0), 6000, 9000);
+		final CachedSeries spliced = cached.splice(new Series("a.b", 1), 7200, 8400);
+		assertEquals(cached.size() - 21, spliced.size());
+		final Series slice = spliced.slice(6000, 9000);
+		assertEquals(7140, slice.getTimestamps()[19]);
+		assertEquals(8460, slice.getTimestamps()[20]);
+		final CachedSeries same = cached.splice(new Series("a.b", 1), 9060, 9000);
+		assertEquals(cached.size(), same.size());
+	}
+}
@@ -0,0 +1,171 @@
+/**
+Licensed to the Apache Software Foundation (ASF) under one
+or more contributor license agreements.  See the NOTICE file
+distributed with this work for additional information
+regarding copyright ownership.  The ASF licenses this file
+to you under the Apache License, Version 2.0 (the
+"License"); you may not use this file except in compliance
+with the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an
+"AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+KIND, either express or implied.  See the License for the
+specific language governing permissions and limitations
+under the License.
+ */
+package com.heliosapm.tsdb.grapi.functions;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.heliosapm.tsdb.grapi.render.Series;
+
+/**
+ * <p>Title: BuiltinFunctionsTest</p>
+ * <p>Description: Tests for the missing value semantics of the {@link BuiltinFunctions}, evaluated on a {@link FunctionEngine} 
+ * over hand built series already on the grid</p> 
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>com.heliosapm.tsdb.grapi.functions.BuiltinFunctionsTest</code></p>
+ */
+
+public class BuiltinFunctionsTest implements FunctionEngine.SeriesSource {
+	/** The engine under test */
+	private static FunctionEngine engine;
+	/** Shorthand for a missing value */
+	private static final double NaN = Double.NaN;
+	/** The grid step in seconds */
+	private static final int STEP = 10;
+	/** The grid start in unix epoch seconds */
+	private static final long START = 1000000L;
+	
+	/** The series fetched for each path */
+	private final Map<String, List<Series>> sources = new HashMap<String, List<Series>>();
+	
+	/**
+	 * Creates the engine with all the builtins registered
+	 */
+	@BeforeClass
+	public static void startEngine() {
+		final FunctionRegistry registry = new FunctionRegistry();
+		registry.register(BuiltinFunctions.all());
+		engine = new FunctionEngine(2, Integer.MAX_VALUE, registry);
+	}
+	
+	/**
+	 * Stops the engine
+	 */
+	@AfterClass
+	public static void stopEngine() {
+		engine.shutdown();
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 * @see com.heliosapm.tsdb.grapi.functions.FunctionEngine.SeriesSource#getSeries(java.lang.String)
+	 */
+	@Override
+	public List<Series> getSeries(final String path) {
+		final List<Series> series = sources.get(path);
+		return series==null ? new ArrayList<Series>() : series;
+	}
+	
+	/**
+	 * Adds a series on the grid to those fetched for the passed path
+	 * @param path The path
+	 * @param values The value at each step
+	 */
+	private void source(final String path, final double... values) {
+		final long[] ts = new long[values.length];
+		for(int i = 0; i < values.length; i++) {
+			ts[i] = START + (long)i * STEP;
+		}
+		List<Series> series = sources.get(path);
+		if(series==null) {
+			series = new ArrayList<Series>();
+			sources.put(path, series);
+		}
+		series.add(new Series(path, ts, values.clone(), values.length));
+	}
+	
+	/**
+	 * Evaluates the passed target over a window of the passed number of steps and returns the values of its single result
+	 * @param target The target
+	 * @param steps The number of steps in the window
+	 * @return the result values
+	 */
+	private double[] evaluate(final Target target, final int steps) {
+		final List<Series> result = engine.evaluate(target, this, engine.newContext(START, START + (long)(steps - 1) * STEP, STEP));
+		assertEquals(target.toString(), 1, result.size());
+		final Series series = result.get(0);
+		assertEquals(target.toString(), steps, series.size());
+		final double[] values = new double[steps];
+		System.arraycopy(series.getValues(), 0, values, 0, steps);
+		return values;
+	}
+	
+	/**
+	 * Tests that diffSeries subtracts the later present values from the first present one at each step, 
+	 * skipping missing values, and is missing only where every series is
+	 */
+	@Test
+	public void testDiffSeries() {
+		source("a", 10, NaN, 10, NaN, 10);
+		source("b", 3, 4, NaN, NaN, 1);
+		source("c", 2, 1, 5, NaN, NaN);
+		final double[] values = evaluate(Target.call("diffSeries", Target.path("a"), Target.path("b"), Target.path("c")), 5);
+		assertArrayEquals(new double[]{5, 3, 5, NaN, 9}, values, 0d);
+		final double[] single = evaluate(Target.call("diffSeries", Target.path("b")), 5);
+		assertArrayEquals(new double[]{3, 4, NaN, NaN, 1}, single, 0d);
+	}
+	
+	/**
+	 * Tests that nonNegativeDerivative without a maximum value is missing at the first step, 
+	 * next to a missing value and where the counter decreases
+	 */
+	@Test
+	public void testNonNegativeDerivative() {
+		source("c", 1, 3, 3, 10, 2, 5, NaN, 8, 9);
+		final double[] values = evaluate(Target.call("nonNegativeDerivative", Target.path("c")), 9);
+		assertArrayEquals(new double[]{NaN, 2, 0, 7, NaN, 3, NaN, NaN, 1}, values, 0d);
+	}
+	
+	/**
+	 * Tests that nonNegativeDerivative with a maximum value treats a decrease to at most the maximum as a counter wrap, 
+	 * and a decrease to above it, or a change next to a missing value, as missing
+	 */
+	@Test
+	public void testNonNegativeDerivativeMaxValue() {
+		source("c", 250, 253, 2, 5, NaN, 7, 200, 4);
+		final double[] values = evaluate(Target.call("nonNegativeDerivative", Target.path("c"), Target.literal(255)), 8);
+		assertArrayEquals(new double[]{NaN, 3, 5, 3, NaN, NaN, 193, 60}, values, 0d);
+		sources.clear();
+		source("d", 10, 8);
+		final double[] above = evaluate(Target.call("nonNegativeDerivative", Target.path("d"), Target.literal(5)), 2);
+		assertArrayEquals(new double[]{NaN, NaN}, above, 0d);
+	}
+	
+	/**
+	 * Tests that perSecond divides the non negative change by the step, with the same missing values as nonNegativeDerivative
+	 */
+	@Test
+	public void testPerSecond() {
+		source("c", 100, 150, NaN, 200, 230, 20, 60);
+		final double[] values = evaluate(Target.call("perSecond", Target.path("c")), 7);
+		assertArrayEquals(new double[]{NaN, 5, NaN, NaN, 3, NaN, 4}, values, 0d);
+		final double[] wrapped = evaluate(Target.call("perSecond", Target.path("c"), Target.literal(249)), 7);
+		assertArrayEquals(new double[]{NaN, 5, NaN, NaN, 3, 4, 4}, wrapped, 0d);
+	}
+}
@@ -0,0 +1,170 @@
+/**
+Licensed to the Apache Software Foundation (ASF) under one
+or more contributor license agreements.  See the NOTICE file
+distributed with this work for additional information
+regarding copyright ownership.  The ASF licenses this file
+to you under the Apache License, Version 2.0 (the
+"License"); you may not use this file except in compliance
+with the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an
+"AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+KIND, either express or implied.  See the License for the
+specific language governing permissions and limitations
+under the License.
+ */
+package com.heliosapm.tsdb.grapi.functions;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.heliosapm.tsdb.grapi.render.Series;
+
+/**
+ * <p>Title: FunctionBenchmark</p>
+ * <p>Description: Times the evaluation of representative render targets over synthetic series, 
+ * on a single threaded engine and on an engine with one thread per core, and logs the mean time per evaluation and the speedup.
+ * The raw series are fetched with jittered timestamps, so each evaluation also resamples them onto the grid, as a render request would.</p> 
+ * <p>Usage: <b><code>FunctionBenchmark [series (200)] [points per series (10080)] [iterations (20)]</code></b></p>
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>com.heliosapm.tsdb.grapi.functions.FunctionBenchmark</code></p>
+ */
+
+public class FunctionBenchmark implements FunctionEngine.SeriesSource {
+	/** Instance logger */
+	protected final Logger log = LoggerFactory.getLogger(getClass());
+	/** The synthetic series, all fetched for the benchmark path */
+	protected final List<Series> series;
+	/** The window start in unix epoch seconds */
+	protected final long from;
+	/** The window end in unix epoch seconds */
+	protected final long until;
+	/** The number of timed evaluations per target and engine */
+	protected final int iterations;
+	/** Accumulates a value of every result so evaluations cannot be optimized away */
+	protected double sink = 0d;
+	
+	/** The step of the synthetic series in seconds */
+	public static final int STEP = 60;
+	/** The path every target fetches */
+	public static final String PATH = "bench.host*.cpu";
+	/** The benchmarked targets */
+	public static final Target[] TARGETS = {
+		Target.call("sumSeries", Target.path(PATH)),
+		Target.call("averageSeries", Target.path(PATH)),
+		Target.call("maxSeries", Target.path(PATH)),
+		Target.call("scale", Target.path(PATH), Target.literal(2)),
+		Target.call("derivative", Target.path(PATH)),
+		Target.call("sumSeries", Target.call("perSecond", Target.path(PATH))),
+		Target.call("diffSeries", Target.call("sumSeries", Target.path(PATH)), Target.call("scale", Target.call("maxSeries", Target.path(PATH)), Target.literal(0.5)))
+	};
+	
+	/**
+	 * Creates a new FunctionBenchmark
+	 * @param seriesCount The number of synthetic series
+	 * @param points The number of points per series
+	 * @param iterations The number of timed evaluations per target and engine
+	 */
+	public FunctionBenchmark(final int seriesCount, final int points, final int iterations) {
+		this.iterations = iterations;
+		until = System.currentTimeMillis() / 1000L;
+		from = until - (long)points * STEP;
+		final Random random = new Random(seriesCount * 31L + points);
+		series = new ArrayList<Series>(seriesCount);
+		for(int s = 0; s < seriesCount; s++) {
+			final Series raw = new Series("bench.host" + s + ".cpu", points);
+			double counter = 0d;
+			for(int i = 0; i < points; i++) {
+				counter += random.nextInt(1000);
+				// timestamps jitter within their step and about one point in fifty is missing
+				raw.add(from + (long)i * STEP + random.nextInt(STEP), random.nextInt(50)==0 ? Double.NaN : counter);
+			}
+			series.add(raw);
+		}
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see com.heliosapm.tsdb.grapi.functions.FunctionEngine.SeriesSource#getSeries(java.lang.String)
+	 */
+	@Override
+	public List<Series> getSeries(final String path) {
+		return series;
+	}
+	
+	/**
+	 * Times each target on the passed engine
+	 * @param engine The engine to evaluate on
+	 * @return the mean milliseconds per evaluation keyed by target
+	 */
+	public Map<String, Double> run(final FunctionEngine engine) {
+		final Map<String, Double> means = new LinkedHashMap<String, Double>();
+		for(Target target: TARGETS) {
+			// warm up
+			for(int i = 0; i < Math.max(3, iterations / 4); i++) {
+				evaluate(engine, target);
+			}
+			final long start = System.nanoTime();
+			for(int i = 0; i < iterations; i++) {
+				evaluate(engine, target);
+			}
+			means.put(target.toString(), (System.nanoTime() - start) / 1e6 / iterations);
+		}
+		return means;
+	}
+	
+	/**
+	 * Evaluates one target over the whole window
+	 * @param engine The engine to evaluate on
+	 * @param target The target to evaluate
+	 */
+	protected void evaluate(final FunctionEngine engine, final Target target) {
+		final List<Series> result = engine.evaluate(target, this, engine.newContext(from, until, STEP));
+		for(Series s: result) {
+			sink += s.getValues()[s.size() / 2];
+		}
+	}
+
+	/**
+	 * Runs the benchmark
+	 * @param args As described in the class usage
+	 */
+	public static void main(final String[] args) {
+		final int seriesCount = args.length > 0 ? Integer.parseInt(args[0]) : 200;
+		final int points = args.length > 1 ? Integer.parseInt(args[1]) : 10080;
+		final int iterations = args.length > 2 ? Integer.parseInt(args[2]) : 20;
+		final int cores = Runtime.getRuntime().availableProcessors();
+		final FunctionRegistry registry = new FunctionRegistry();
+		registry.register(BuiltinFunctions.all());
+		final FunctionBenchmark bench = new FunctionBenchmark(seriesCount, points, iterations);
+		final FunctionEngine single = new FunctionEngine(1, Integer.MAX_VALUE, registry);
+		final FunctionEngine parallel = new FunctionEngine(cores, 4096, registry);
+		try {
+			final Map<String, Double> singleMeans = bench.run(single);
+			final Map<String, Double> parallelMeans = bench.run(parallel);
+			final StringBuilder b = new StringBuilder();
+			b.append(String.format("FunctionBenchmark: %s series x %s points, %s iterations, %s cores", seriesCount, points, iterations, cores));
+			b.append(String.format("%n\t%10s %10s %8s   %s", "1 thread", cores + " threads", "speedup", "target"));
+			for(Map.Entry<String, Double> entry: singleMeans.entrySet()) {
+				final double s = entry.getValue();
+				final double p = parallelMeans.get(entry.getKey());
+				b.append(String.format("%n\t%8.2fms %8.2fms %7.2fx   %s", s, p, s / p, entry.getKey()));
+			}
+			bench.log.info(b.toString());
+			bench.log.debug("Sink: {}", bench.sink);
+		} finally {
+			single.shutdown();
+			parallel.shutdown();
+		}
+	}
+}
@@ -0,0 +1,206 @@
+/**
+Licensed to the Apache Software Foundation (ASF) under one
+or more contributor license agreements.  See the NOTICE file
+distributed with this work for additional information
+regarding copyright ownership.  The ASF licenses this file
+to you under the Apache License, Version 2.0 (the
+"License"); you may not use this file except in compliance
+with the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an
+"AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+KIND, either express or implied.  See the License for the
+specific language governing permissions and limitations
+under the License.
+ */
+package com.heliosapm.tsdb.grapi.functions;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.List;
+
+import org.junit.Test;
+
+/**
+ * <p>Title: TargetParserTest</p>
+ * <p>Description: Tests for {@link TargetParser} and the canonical form of the parsed {@link Target} trees</p> 
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>com.heliosapm.tsdb.grapi.functions.TargetParserTest</code></p>
+ */
+
+public class TargetParserTest {
+	
+	/**
+	 * Parses the passed target, which must be a call, and returns its arguments
+	 * @param target The target
+	 * @return the arguments of the call
+	 */
+	private static List<Target> args(final String target) {
+		final Target parsed = TargetParser.parse(target);
+		assertTrue(target + " parsed to " + parsed.getClass().getSimpleName(), parsed instanceof Target.Call);
+		return ((Target.Call)parsed).getArgs();
+	}
+	
+	/**
+	 * Asserts that the passed target fails to parse
+	 * @param target The target
+	 */
+	private static void assertInvalid(final String target) {
+		try {
+			final Target parsed = TargetParser.parse(target);
+			fail("[" + target + "] parsed to [" + parsed + "]");
+		} catch (IllegalArgumentException expected) {
+			/* expected */
+		}
+	}
+	
+	/**
+	 * Asserts that the passed target parses to a path
+	 * @param target The target
+	 */
+	private static void assertPath(final String target) {
+		final Target parsed = TargetParser.parse(target);
+		assertTrue(target + " parsed to " + parsed.getClass().getSimpleName(), parsed instanceof Target.Path);
+		assertEquals(target, ((Target.Path)parsed).getPath());
+	}
+	
+	/**
+	 * Asserts that the passed target parses to a literal with the passed value
+	 * @param target The target
+	 * @param value The expected value
+	 */
+	private static void assertLiteral(final String target, final Object value) {
+		final Target parsed = TargetParser.parse(target);
+		assertTrue(target + " parsed to " + parsed.getClass().getSimpleName(), parsed instanceof Target.Literal);
+		assertEquals(target, value, ((Target.Literal)parsed).getValue());
+	}
+	
+	/**
+	 * Tests that commas and parentheses inside braces and brackets belong to the path, and not to the argument list
+	 */
+	@Test
+	public void testGlobsWithCommas() {
+		final List<Target> args = args("sumSeries(a.{b,c}.d, x.[1,2].y,z.{p,{q,r}}.*)");
+		assertEquals(3, args.size());
+		assertEquals(Target.path("a.{b,c}.d"), args.get(0));
+		assertEquals(Target.path("x.[1,2].y"), args.get(1));
+		assertEquals(Target.path("z.{p,{q,r}}.*"), args.get(2));
+		assertPath("a.{b,c(d)}");
+		assertInvalid("sumSeries(a.{b,c)");
+		assertInvalid("a.[1,2");
+		assertInvalid("a.b}");
+	}
+	
+	/**
+	 * Tests that quoted strings of either quote keep commas, parentheses and the other quote, 
+	 * that a backslash escapes the next character, and that the canonical form parses back to the same value
+	 */
+	@Test
+	public void testQuotedStrings() {
+		final List<Target> args = args("alias(a.b, \"x, (\\\"y\\\") \\\\ 'z'\")");
+		assertEquals(2, args.size());
+		assertEquals("x, (\"y\") \\ 'z'", ((Target.Literal)args.get(1)).getValue());
+		assertLiteral("'it\\'s'", "it's");
+		assertLiteral("\"\"", "");
+		final Target parsed = TargetParser.parse("alias(a.b, 'say \"hi\" \\\\')");
+		assertEquals("alias(a.b,\"say \\\"hi\\\" \\\\\")", parsed.toString());
+		assertEquals(parsed, TargetParser.parse(parsed.toString()));
+		assertInvalid("alias(a.b, \"unterminated)");
+		assertInvalid("alias(a.b, 'trailing backslash\\')");
+	}
+	
+	/**
+	 * Tests that tokens that look like numbers parse to numbers, booleans to booleans, and everything else to paths
+	 */
+	@Test
+	public void testNumbersAndPaths() {
+		assertLiteral("1e5", 100000d);
+		assertLiteral("1.5E-3", 0.0015d);
+		assertLiteral("-2", -2d);
+		assertLiteral("+.5", 0.5d);
+		assertLiteral("2.", 2d);
+		assertLiteral("true", Boolean.TRUE);
+		assertLiteral("FALSE", Boolean.FALSE);
+		assertPath("a.1");
+		assertPath("1.a");
+		assertPath("1.2.3");
+		assertPath("1e");
+		assertPath("1e+");
+		assertPath("e5");
+		assertPath("-");
+		assertPath("trueish");
+		final List<Target> args = args("scale(a.1, 1e5)");
+		assertEquals(Target.path("a.1"), args.get(0));
+		assertEquals(Target.literal(100000), args.get(1));
+	}
+	
+	/**
+	 * Tests that calls nest up to the maximum depth and no further
+	 */
+	@Test
+	public void testNestingDepth() {
+		Target target = nested(TargetParser.MAX_DEPTH);
+		for(int i = 0; i < TargetParser.MAX_DEPTH; i++) {
+			target = ((Target.Call)target).getArgs().get(0);
+		}
+		assertEquals(Target.path("a.b"), target);
+		try {
+			nested(TargetParser.MAX_DEPTH + 1);
+			fail("Parsed a target nested deeper than " + TargetParser.MAX_DEPTH);
+		} catch (IllegalArgumentException expected) {
+			assertTrue(expected.getMessage(), expected.getMessage().contains("deeper"));
+		}
+	}
+	
+	/**
+	 * Parses a path wrapped in the passed number of nested calls
+	 * @param calls The number of calls
+	 * @return the parsed target
+	 */
+	private static Target nested(final int calls) {
+		final StringBuilder b = new StringBuilder();
+		for(int i = 0; i < calls; i++) b.append("abs(");
+		b.append("a.b");
+		for(int i = 0; i < calls; i++) b.append(')');
+		return TargetParser.parse(b.toString());
+	}
+	
+	/**
+	 * Tests that targets differing only in spacing and number formatting parse to equal trees with the same hash code and canonical form, 
+	 * and that targets differing otherwise do not
+	 */
+	@Test
+	public void testCanonicalEquality() {
+		final Target spaced = TargetParser.parse("scale( a.b , 2.0 )");
+		final Target compact = TargetParser.parse("scale(a.b,2)");
+		assertEquals(spaced, compact);
+		assertEquals(spaced.hashCode(), compact.hashCode());
+		assertEquals("scale(a.b,2)", spaced.toString());
+		assertEquals(compact, Target.call("scale", Target.path("a.b"), Target.literal(2)));
+		assertEquals(TargetParser.parse(" sumSeries ( a.* ,scale(b.{c,d}, 2e0) ) "), TargetParser.parse("sumSeries(a.*,scale(b.{c,d},2))"));
+		assertEquals(TargetParser.parse("alias(a, 'x')"), TargetParser.parse("alias(a,\"x\")"));
+		assertEquals("scale(a.b,0.5)", TargetParser.parse("scale(a.b, 5e-1)").toString());
+		assertFalse(compact.equals(TargetParser.parse("scale(a.b,\"2\")")));
+		assertFalse(compact.equals(TargetParser.parse("scale(a.b,2.5)")));
+		assertFalse(TargetParser.parse("a.b").equals(TargetParser.parse("'a.b'")));
+	}
+	
+	/**
+	 * Tests that malformed targets are rejected
+	 */
+	@Test
+	public void testMalformed() {
+		for(String target: new String[]{"", "   ", "f(", "f(a,", "f(a b)", "f(a,)", "f(,a)", "a)", "f(a))", "1f(a)", "a.b(c)", "f(a)g"}) {
+			assertInvalid(target);
+		}
+		assertEquals(0, args("f()").size());
+		assertEquals(0, args(" f ( ) ").size());
+	}
+}
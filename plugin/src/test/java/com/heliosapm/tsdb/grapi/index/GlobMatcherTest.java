@@ -0,0 +1,259 @@
+/**
+Licensed to the Apache Software Foundation (ASF) under one
+or more contributor license agreements.  See the NOTICE file
+distributed with this work for additional information
+regarding copyright ownership.  The ASF licenses this file
+to you under the Apache License, Version 2.0 (the
+"License"); you may not use this file except in compliance
+with the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an
+"AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+KIND, either express or implied.  See the License for the
+specific language governing permissions and limitations
+under the License.
+ */
+package com.heliosapm.tsdb.grapi.index;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.charset.Charset;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * <p>Title: GlobMatcherTest</p>
+ * <p>Description: Tests for {@link GlobMatcher}</p> 
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>com.heliosapm.tsdb.grapi.index.GlobMatcherTest</code></p>
+ */
+
+public class GlobMatcherTest {
+	/** The UTF-8 charset */
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+	/** The code points random names are built from */
+	private static final int[] ALPHABET = {'a', 'b', 'c', 'z', '.', '-', '_', ',', 'x', 0xE9, 0x4E2D, 0x1F600};
+	
+	/**
+	 * Tests the star wildcard
+	 */
+	@Test
+	public void testStar() {
+		assertMatches("*", "", "a", "cpu", "\u00E9\u4E2D");
+		assertNotMatches("*", "a.b", ".");
+		assertMatches("cpu*", "cpu", "cpu0", "cpu_total");
+		assertNotMatches("cpu*", "cp", "xcpu", "cpu.0");
+		assertMatches("*load*", "load", "sysload", "loadavg", "sysloadavg");
+		assertNotMatches("*load*", "lod", "sys.load");
+		assertMatches("a*b*c", "abc", "aXbYc", "abbbc", "acbc");
+		assertNotMatches("a*b*c", "ab", "acb", "abcd");
+	}
+	
+	/**
+	 * Tests the question mark wildcard
+	 */
+	@Test
+	public void testQuestionMark() {
+		assertMatches("cpu?", "cpu0", "cpuX", "cpu\u00E9", "cpu\u4E2D", "cpu\uD83D\uDE00");
+		assertNotMatches("cpu?", "cpu", "cpu01", "cpu.");
+		assertMatches("??", "ab", "\u00E9\u4E2D");
+		assertNotMatches("??", "a", "abc", "\uD83D\uDE00");
+	}
+	
+	/**
+	 * Tests character classes and ranges
+	 */
+	@Test
+	public void testCharacterClasses() {
+		assertMatches("host[a-z]", "hosta", "hostm", "hostz");
+		assertNotMatches("host[a-z]", "hostA", "host0", "host", "hostab");
+		assertMatches("[abc0-9]x", "ax", "cx", "5x");
+		assertNotMatches("[abc0-9]x", "dx", "x", "a.x");
+		assertMatches("[!a-z]", "A", "0", "\u00E9");
+		assertNotMatches("[!a-z]", "a", "q", ".", "");
+		assertMatches("[^0-9]", "x");
+		assertNotMatches("[^0-9]", "7");
+		assertMatches("[]a]", "]", "a");
+		assertMatches("[a-]", "a", "-");
+		assertNotMatches("[a-]", "b");
+	}
+	
+	/**
+	 * Tests alternatives, including nested and empty ones
+	 */
+	@Test
+	public void testAlternatives() {
+		assertMatches("{cpu,mem}", "cpu", "mem");
+		assertNotMatches("{cpu,mem}", "cp", "cpumem", "disk");
+		assertMatches("sys{,tem}", "sys", "system");
+		assertMatches("{a{b,c},d}x", "abx", "acx", "dx");
+		assertNotMatches("{a{b,c},d}x", "ax", "adx", "bx");
+		assertMatches("{web,db}[0-9]*", "web1", "db22", "web9x");
+		assertNotMatches("{web,db}[0-9]*", "web", "dbx");
+	}
+	
+	/**
+	 * Tests code points that encode to multiple UTF-8 bytes, in the glob and in names
+	 */
+	@Test
+	public void testMultibyte() {
+		assertMatches("\u4E2D*", "\u4E2D", "\u4E2D\u6587", "\u4E2D\u00E9");
+		assertNotMatches("\u4E2D*", "\u6587\u4E2D");
+		assertMatches("[\u00E0-\u00FF]", "\u00E9", "\u00E0", "\u00FF");
+		assertNotMatches("[\u00E0-\u00FF]", "e", "\u0100", "\u4E2D");
+		assertMatches("[\u4E00-\u9FA5]x", "\u4E2Dx", "\u6587x");
+		assertNotMatches("[\u4E00-\u9FA5]x", "ax", "\u00E9x");
+		assertMatches("{\u00E9,\uD83D\uDE00}", "\u00E9", "\uD83D\uDE00");
+		assertNotMatches("{\u00E9,\uD83D\uDE00}", "e", "\uD83D\uDE01");
+		// a range spanning every UTF-8 encoding length
+		assertMatches("[a-\uD83D\uDE00]", "a", "\u00E9", "\u4E2D", "\uD83D\uDE00");
+		assertNotMatches("[a-\uD83D\uDE00]", "A", "\uD83D\uDE01");
+	}
+	
+	/**
+	 * Tests the dot handling of dot separated and free globs
+	 */
+	@Test
+	public void testDotSeparation() {
+		final GlobMatcher free = GlobMatcher.compile("a*", false);
+		assertTrue(free.matches("a.b.c"));
+		assertTrue(GlobMatcher.compile("[!x]", false).matches("."));
+		assertTrue(GlobMatcher.compile("a.*", true).matches("a.b"));
+		assertFalse(GlobMatcher.compile("a.*", true).matches("a.b.c"));
+	}
+	
+	/**
+	 * Tests the literal prefix and literal detection
+	 */
+	@Test
+	public void testLiteral() {
+		assertTrue(GlobMatcher.compile("cpu").isLiteral());
+		assertFalse(GlobMatcher.compile("cpu*").isLiteral());
+		assertEquals("cpu", GlobMatcher.compile("cpu{0,1}").getLiteralPrefix());
+		assertEquals("", GlobMatcher.compile("*cpu").getLiteralPrefix());
+	}
+	
+	/**
+	 * Tests that malformed globs are rejected
+	 */
+	@Test
+	public void testMalformed() {
+		for(String glob: new String[]{"{a,b", "[ab", "[z-a]", "x{"}) {
+			try {
+				GlobMatcher.compile(glob);
+				throw new AssertionError("The glob [" + glob + "] should have been rejected");
+			} catch (IllegalArgumentException expected) {
+				/* No Op */
+			}
+		}
+	}
+	
+	/**
+	 * Tests that the automaton agrees with the equivalent regex fallback on random names
+	 */
+	@Test
+	public void testAgreesWithRegex() {
+		final String[] globs = {
+			"*", "a*", "*z", "a?c", "[a-c]*", "[!a-c]?", "{ab,c}*", "*{\u00E9,\u4E2D}*", "a{b,{c,x}}?",
+			"?\u00E9*", "[\u00E9-\u4E2D]*", "*-*_*", "[\uD83D\uDE00]", "*.*", "{,a}{,b}", "[,.]*"
+		};
+		final Random random = new Random(42);
+		for(String glob: globs) {
+			for(boolean dotSeparated: new boolean[]{true, false}) {
+				final GlobMatcher dfa = GlobMatcher.compile(glob, dotSeparated);
+				final RegexNameMatcher regex = new RegexNameMatcher(toRegex(glob, dotSeparated));
+				for(int i = 0; i < 2000; i++) {
+					final String name = randomName(random);
+					final boolean expected = regex.matches(name);
+					assertEquals(glob + " on [" + name + "]", expected, dfa.matches(name));
+					assertEquals(glob + " on chars [" + name + "]", expected, dfa.matches(name.toCharArray(), 0, name.length()));
+					final byte[] bytes = ("#" + name + "#").getBytes(UTF8);
+					assertEquals(glob + " on bytes [" + name + "]", expected, dfa.matches(bytes, 1, bytes.length - 2));
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Asserts that a glob matches each of the passed names as a string, char array and UTF-8 bytes
+	 * @param glob The glob
+	 * @param names The names that should match
+	 */
+	private static void assertMatches(final String glob, final String...names) {
+		final GlobMatcher matcher = GlobMatcher.compile(glob);
+		for(String name: names) {
+			assertTrue(glob + " should match [" + name + "]", matcher.matches(name));
+			assertTrue(glob + " should match chars [" + name + "]", matcher.matches(name.toCharArray(), 0, name.length()));
+			final byte[] bytes = name.getBytes(UTF8);
+			assertTrue(glob + " should match bytes [" + name + "]", matcher.matches(bytes, 0, bytes.length));
+		}
+	}
+	
+	/**
+	 * Asserts that a glob matches none of the passed names as a string, char array and UTF-8 bytes
+	 * @param glob The glob
+	 * @param names The names that should not match
+	 */
+	private static void assertNotMatches(final String glob, final String...names) {
+		final GlobMatcher matcher = GlobMatcher.compile(glob);
+		for(String name: names) {
+			assertFalse(glob + " should not match [" + name + "]", matcher.matches(name));
+			assertFalse(glob + " should not match chars [" + name + "]", matcher.matches(name.toCharArray(), 0, name.length()));
+			final byte[] bytes = name.getBytes(UTF8);
+			assertFalse(glob + " should not match bytes [" + name + "]", matcher.matches(bytes, 0, bytes.length));
+		}
+	}
+	
+	/**
+	 * Builds a random name of up to 6 code points from {@link #ALPHABET}
+	 * @param random The random to use
+	 * @return the name
+	 */
+	private static String randomName(final Random random) {
+		final StringBuilder b = new StringBuilder();
+		final int len = random.nextInt(7);
+		for(int i = 0; i < len; i++) {
+			b.appendCodePoint(ALPHABET[random.nextInt(ALPHABET.length)]);
+		}
+		return b.toString();
+	}
+	
+	/**
+	 * Translates a glob to the equivalent java regular expression
+	 * @param glob The glob
+	 * @param dotSeparated true if wildcards and negated classes should not match dots
+	 * @return the regular expression
+	 */
+	private static String toRegex(final String glob, final boolean dotSeparated) {
+		final String any = dotSeparated ? "[^.]" : ".";
+		final StringBuilder b = new StringBuilder();
+		int depth = 0;
+		for(int i = 0; i < glob.length(); i++) {
+			final char c = glob.charAt(i);
+			switch(c) {
+				case '*': b.append(any).append('*'); break;
+				case '?': b.append(any); break;
+				case '{': b.append("(?:"); depth++; break;
+				case '}': b.append(')'); depth--; break;
+				case ',': b.append(depth > 0 ? "|" : ","); break;
+				case '[': {
+					final int close = glob.indexOf(']', i + 2);
+					String body = glob.substring(i + 1, close);
+					if(body.startsWith("!")) body = "^" + body.substring(1) + (dotSeparated ? "." : "");
+					b.append('[').append(body.replace("\\", "\\\\").replace("[", "\\[")).append(']');
+					i = close;
+					break;
+				}
+				default: b.append(java.util.regex.Pattern.quote(String.valueOf(c)));
+			}
+		}
+		return "(?s)" + b;
+	}
+}
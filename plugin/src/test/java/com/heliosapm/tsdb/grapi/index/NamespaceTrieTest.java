@@ -0,0 +1,172 @@
+/**
+Licensed to the Apache Software Foundation (ASF) under one
+or more contributor license agreements.  See the NOTICE file
+distributed with this work for additional information
+regarding copyright ownership.  The ASF licenses this file
+to you under the Apache License, Version 2.0 (the
+"License"); you may not use this file except in compliance
+with the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an
+"AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+KIND, either express or implied.  See the License for the
+specific language governing permissions and limitations
+under the License.
+ */
+package com.heliosapm.tsdb.grapi.index;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Random;
+import java.util.TreeMap;
+
+import org.junit.Test;
+
+/**
+ * <p>Title: NamespaceTrieTest</p>
+ * <p>Description: Tests for {@link NamespaceTrie}</p> 
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>com.heliosapm.tsdb.grapi.index.NamespaceTrieTest</code></p>
+ */
+
+public class NamespaceTrieTest {
+	/** The segments random names are built from, with shared prefixes and characters sorting either side of the dot */
+	private static final String[] SEGMENTS = {"a", "ab", "abc", "a-b", "a/b", "b", "cpu", "cpu0", "cpu12", "web-1", "web-12", "x_y", "\u00E9t\u00E9", "\u4E2D"};
+	
+	/**
+	 * Tests that leaves, branches and nodes that are both are flagged
+	 */
+	@Test
+	public void testFlags() {
+		final NamespaceTrie trie = NamespaceTrie.build(Arrays.asList("sys.cpu", "sys.cpu.idle", "sys.mem.free", "app"));
+		final Map<String, Integer> nodes = trie.find("sys.*");
+		assertEquals(2, nodes.size());
+		assertEquals(NamespaceTrie.LEAF | NamespaceTrie.BRANCH, nodes.get("sys.cpu").intValue());
+		assertEquals(NamespaceTrie.BRANCH, nodes.get("sys.mem").intValue());
+		assertEquals(NamespaceTrie.LEAF, trie.find("app").get("app").intValue());
+		assertEquals(NamespaceTrie.LEAF, trie.find("sys.cpu.idle").get("sys.cpu.idle").intValue());
+		assertTrue(trie.find("sys.cpu.idle.x").isEmpty());
+		assertTrue(trie.find("nope.*").isEmpty());
+		assertTrue(trie.find("").isEmpty());
+		assertEquals(4, trie.getLeafCount());
+		assertEquals(6, trie.getNodeCount());
+	}
+	
+	/**
+	 * Tests that a frozen trie rejects additions
+	 */
+	@Test(expected=IllegalStateException.class)
+	public void testFrozen() {
+		final NamespaceTrie trie = NamespaceTrie.build(Arrays.asList("a.b"));
+		assertTrue(trie.isFrozen());
+		trie.add("a.c");
+	}
+	
+	/**
+	 * Tests that a cursor returns the nodes of {@link NamespaceTrie#find(String)} in the same order, each once, and then ends
+	 */
+	@Test
+	public void testCursor() {
+		final NamespaceTrie trie = NamespaceTrie.build(randomNames(new Random(7), 2000));
+		final NamespaceTrie.Cursor cursor = trie.cursor("*.*.*");
+		final List<String> walked = new ArrayList<String>();
+		while(cursor.hasNext()) {
+			walked.add(cursor.next().getKey());
+		}
+		assertFalse(walked.isEmpty());
+		assertEquals(new ArrayList<String>(trie.find("*.*.*").keySet()), walked);
+		assertEquals(walked.size(), new HashSet<String>(walked).size());
+		assertFalse(cursor.hasNext());
+		try {
+			cursor.next();
+			throw new AssertionError("An exhausted cursor returned a node");
+		} catch (NoSuchElementException expected) {
+			/* No Op */
+		}
+	}
+	
+	/**
+	 * Tests that finds agree with a brute force scan of every name with per segment matchers
+	 */
+	@Test
+	public void testAgreesWithScan() {
+		final String[] queries = {
+			"*", "a", "a*", "a.*", "*.*", "*.*.*", "*.*.*.*", "a*.b", "{a,b}.cpu*", "cpu?", "*.cpu[0-9]*", "web-*.{cpu,x_y}.*",
+			"a-b.*", "a/b.*", "ab.a-b.*.*", "\u00E9*.*", "*.\u4E2D", "[!a]*.*", "nope.*", "a.b.c.d.e"
+		};
+		final Random random = new Random(42);
+		for(int round = 0; round < 5; round++) {
+			final List<String> names = randomNames(random, 3000);
+			final NamespaceTrie trie = NamespaceTrie.build(names);
+			assertEquals(new HashSet<String>(names).size(), trie.getLeafCount());
+			for(String query: queries) {
+				assertEquals(query, scan(names, query), trie.find(query));
+			}
+		}
+	}
+	
+	/**
+	 * Finds the nodes matching the passed query by matching each name's leading segments
+	 * @param names The metric names
+	 * @param query The graphite path expression
+	 * @return the node flags keyed by node path
+	 */
+	private static Map<String, Integer> scan(final List<String> names, final String query) {
+		final String[] segments = GraphitePaths.splitPath(query);
+		final GlobMatcher[] matchers = new GlobMatcher[segments.length];
+		for(int i = 0; i < segments.length; i++) {
+			matchers[i] = GlobMatcher.compile(segments[i]);
+		}
+		final Map<String, Integer> nodes = new TreeMap<String, Integer>();
+		for(String name: names) {
+			final String[] parts = name.split("\\.");
+			if(parts.length < segments.length) continue;
+			boolean matched = true;
+			for(int i = 0; i < segments.length && matched; i++) {
+				matched = matchers[i].matches(parts[i]);
+			}
+			if(!matched) continue;
+			final StringBuilder id = new StringBuilder(parts[0]);
+			for(int i = 1; i < segments.length; i++) {
+				id.append('.').append(parts[i]);
+			}
+			final int flag = parts.length==segments.length ? NamespaceTrie.LEAF : NamespaceTrie.BRANCH;
+			final Integer prior = nodes.get(id.toString());
+			nodes.put(id.toString(), prior==null ? flag : (prior | flag));
+		}
+		return nodes;
+	}
+	
+	/**
+	 * Builds random dotted names of one to five segments
+	 * @param random The random to use
+	 * @param count The number of names
+	 * @return the names, which may contain duplicates
+	 */
+	private static List<String> randomNames(final Random random, final int count) {
+		final List<String> names = new ArrayList<String>(count);
+		for(int i = 0; i < count; i++) {
+			final int depth = 1 + random.nextInt(5);
+			final StringBuilder b = new StringBuilder();
+			for(int j = 0; j < depth; j++) {
+				if(j > 0) b.append('.');
+				b.append(SEGMENTS[random.nextInt(SEGMENTS.length)]);
+			}
+			names.add(b.toString());
+		}
+		return names;
+	}
+
+}
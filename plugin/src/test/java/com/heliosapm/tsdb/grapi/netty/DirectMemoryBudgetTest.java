@@ -0,0 +1,110 @@
+/**
+Licensed to the Apache Software Foundation (ASF) under one
+or more contributor license agreements.  See the NOTICE file
+distributed with this work for additional information
+regarding copyright ownership.  The ASF licenses this file
+to you under the Apache License, Version 2.0 (the
+"License"); you may not use this file except in compliance
+with the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an
+"AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+KIND, either express or implied.  See the License for the
+specific language governing permissions and limitations
+under the License.
+ */
+package com.heliosapm.tsdb.grapi.netty;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+/**
+ * <p>Title: DirectMemoryBudgetTest</p>
+ * <p>Description: Tests for {@link DirectMemoryBudget} pressure transitions. Each test uses its own child of the global budget.</p> 
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>com.heliosapm.tsdb.grapi.netty.DirectMemoryBudgetTest</code></p>
+ */
+
+public class DirectMemoryBudgetTest {
+	/** The limit of the child budgets */
+	private static final long LIMIT = 1000L;
+	
+	/**
+	 * Tests that pressure is applied at the high water threshold and only lifted at the low water threshold
+	 */
+	@Test
+	public void testThresholds() {
+		final DirectMemoryBudget budget = DirectMemoryBudget.getGlobal().newChild("testThresholds", LIMIT);
+		final long high = budget.getPressureThreshold(), low = budget.getReliefThreshold();
+		assertTrue(low < high);
+		budget.reserve(high - 1);
+		assertFalse(budget.isUnderPressure());
+		budget.reserve(1);
+		assertTrue(budget.isUnderPressure());
+		assertTrue(DirectMemoryBudget.isAnyUnderPressure());
+		assertEquals(1L, budget.getPressureEvents());
+		budget.release(high - low - 1);
+		assertTrue(budget.isUnderPressure());
+		budget.release(1);
+		assertFalse(budget.isUnderPressure());
+		budget.release(low);
+		assertEquals(0L, budget.getUsed());
+		assertEquals(high, budget.getHighWaterMark());
+	}
+	
+	/**
+	 * Tests that once concurrent reserves and releases have balanced out, no budget is left under pressure
+	 * @throws Exception thrown on any error
+	 */
+	@Test
+	public void testNoLostLift() throws Exception {
+		final DirectMemoryBudget budget = DirectMemoryBudget.getGlobal().newChild("testNoLostLift", LIMIT);
+		final int threads = 4;
+		// each thread holds a quarter of the limit at most, so usage swings across both thresholds
+		final long chunk = LIMIT / threads;
+		final ExecutorService executor = Executors.newFixedThreadPool(threads);
+		try {
+			for(int round = 0; round < 200; round++) {
+				final CountDownLatch start = new CountDownLatch(1);
+				final Future<?>[] futures = new Future<?>[threads];
+				for(int t = 0; t < threads; t++) {
+					futures[t] = executor.submit(new Runnable() {
+						@Override
+						public void run() {
+							try {
+								start.await();
+							} catch (InterruptedException ex) {
+								throw new RuntimeException(ex);
+							}
+							for(int i = 0; i < 500; i++) {
+								budget.reserve(chunk);
+								budget.release(chunk);
+							}
+						}
+					});
+				}
+				start.countDown();
+				for(Future<?> f : futures) {
+					f.get(30, TimeUnit.SECONDS);
+				}
+				assertEquals(0L, budget.getUsed());
+				assertFalse("Pressure not lifted after round " + round, budget.isUnderPressure());
+			}
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+}
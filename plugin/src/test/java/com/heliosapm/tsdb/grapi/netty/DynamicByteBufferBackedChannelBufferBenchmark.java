@@ -0,0 +1,222 @@
+/**
+Licensed to the Apache Software Foundation (ASF) under one
+or more contributor license agreements.  See the NOTICE file
+distributed with this work for additional information
+regarding copyright ownership.  The ASF licenses this file
+to you under the Apache License, Version 2.0 (the
+"License"); you may not use this file except in compliance
+with the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an
+"AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+KIND, either express or implied.  See the License for the
+specific language governing permissions and limitations
+under the License.
+ */
+package com.heliosapm.tsdb.grapi.netty;
+
+import java.nio.ByteOrder;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * <p>Title: DynamicByteBufferBackedChannelBufferBenchmark</p>
+ * <p>Description: Times writes to a {@link DynamicByteBufferBackedChannelBuffer} against a {@link LockingGrowthBuffer}, 
+ * which puts back the monitor and the atomic capacity that every {@link DynamicByteBufferBackedChannelBuffer#ensureWritableBytes(int)}
+ * call took before growth became lock-free. Both buffers are unpooled and written from one thread. The write loops run on a 
+ * buffer already grown to 1MB so they measure the capacity check, and the growth loop grows a 1KB buffer to 1MB.
+ * The best of the rounds is logged. Run without <b><code>-ea</code></b>, since the owner check is an assertion.</p> 
+ * <p>Usage: <b><code>DynamicByteBufferBackedChannelBufferBenchmark [rounds (10)]</code></b></p>
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>com.heliosapm.tsdb.grapi.netty.DynamicByteBufferBackedChannelBufferBenchmark</code></p>
+ */
+
+public class DynamicByteBufferBackedChannelBufferBenchmark {
+	/** Static class logger */
+	private static final Logger log = LoggerFactory.getLogger(DynamicByteBufferBackedChannelBufferBenchmark.class);
+	/** The size the write loops fill */
+	public static final int SIZE = 1024 * 1024;
+	/** The number of buffers grown per growth round */
+	public static final int GROWTHS = 200;
+	/** The bytes written by each bulk write */
+	private static final byte[] BULK = new byte[16];
+	
+	/** Accumulates a value of every round so writes cannot be optimized away */
+	private long sink = 0L;
+	
+	/**
+	 * Returns the best nanoseconds per byte written of the passed rounds of single byte writes
+	 * @param buffer The buffer to write to
+	 * @param rounds The number of rounds
+	 * @return the best ns/op
+	 */
+	protected double writeByte(final ChannelBuffer buffer, final int rounds) {
+		long best = Long.MAX_VALUE;
+		for(int r = 0; r < rounds; r++) {
+			buffer.clear();
+			final long start = System.nanoTime();
+			for(int i = 0; i < SIZE; i++) {
+				buffer.writeByte(i);
+			}
+			best = Math.min(best, System.nanoTime() - start);
+			sink += buffer.getByte(r);
+		}
+		return (double)best / SIZE;
+	}
+	
+	/**
+	 * Returns the best nanoseconds per int written of the passed rounds of int writes
+	 * @param buffer The buffer to write to
+	 * @param rounds The number of rounds
+	 * @return the best ns/op
+	 */
+	protected double writeInt(final ChannelBuffer buffer, final int rounds) {
+		final int ops = SIZE / 4;
+		long best = Long.MAX_VALUE;
+		for(int r = 0; r < rounds; r++) {
+			buffer.clear();
+			final long start = System.nanoTime();
+			for(int i = 0; i < ops; i++) {
+				buffer.writeInt(i);
+			}
+			best = Math.min(best, System.nanoTime() - start);
+			sink += buffer.getInt(r * 4);
+		}
+		return (double)best / ops;
+	}
+	
+	/**
+	 * Returns the best nanoseconds per bulk write of the passed rounds of 16 byte writes
+	 * @param buffer The buffer to write to
+	 * @param rounds The number of rounds
+	 * @return the best ns/op
+	 */
+	protected double writeBytes(final ChannelBuffer buffer, final int rounds) {
+		final int ops = SIZE / BULK.length;
+		long best = Long.MAX_VALUE;
+		for(int r = 0; r < rounds; r++) {
+			buffer.clear();
+			final long start = System.nanoTime();
+			for(int i = 0; i < ops; i++) {
+				buffer.writeBytes(BULK, 0, BULK.length);
+			}
+			best = Math.min(best, System.nanoTime() - start);
+			sink += buffer.writerIndex();
+		}
+		return (double)best / ops;
+	}
+	
+	/**
+	 * Returns the best milliseconds of the passed rounds of growing {@link #GROWTHS} buffers from 1KB to 1MB
+	 * @param locking true to grow {@link LockingGrowthBuffer}s
+	 * @param rounds The number of rounds
+	 * @return the best ms per round
+	 */
+	protected double grow(final boolean locking, final int rounds) {
+		final byte[] chunk = new byte[8192];
+		long best = Long.MAX_VALUE;
+		for(int r = 0; r < rounds; r++) {
+			final long start = System.nanoTime();
+			for(int g = 0; g < GROWTHS; g++) {
+				final DynamicByteBufferBackedChannelBuffer buffer = newBuffer(locking, DynamicByteBufferBackedChannelBuffer.DEFAULT_INITIAL);
+				for(int i = 0; i < SIZE; i += chunk.length) {
+					buffer.writeBytes(chunk, 0, chunk.length);
+				}
+				sink += buffer.capacity();
+				buffer.release();
+			}
+			best = Math.min(best, System.nanoTime() - start);
+		}
+		return best / 1e6;
+	}
+	
+	/**
+	 * Creates an unpooled buffer
+	 * @param locking true for a {@link LockingGrowthBuffer}
+	 * @param initialSize The initial size
+	 * @return the buffer
+	 */
+	protected static DynamicByteBufferBackedChannelBuffer newBuffer(final boolean locking, final int initialSize) {
+		return locking 
+			? new LockingGrowthBuffer(ByteOrder.BIG_ENDIAN, initialSize, DynamicByteBufferBackedChannelBuffer.DEFAULT_EXTEND) 
+			: new DynamicByteBufferBackedChannelBuffer(ByteOrder.BIG_ENDIAN, initialSize, DynamicByteBufferBackedChannelBuffer.DEFAULT_EXTEND);
+	}
+	
+	/**
+	 * Runs the benchmark
+	 * @param args As described in the class usage
+	 */
+	public static void main(final String[] args) {
+		final int rounds = args.length > 0 ? Integer.parseInt(args[0]) : 10;
+		final DynamicByteBufferBackedChannelBufferBenchmark bench = new DynamicByteBufferBackedChannelBufferBenchmark();
+		final DynamicByteBufferBackedChannelBuffer locking = newBuffer(true, SIZE);
+		final DynamicByteBufferBackedChannelBuffer lockFree = newBuffer(false, SIZE);
+		try {
+			// warm up
+			for(int i = 0; i < 3; i++) {
+				bench.writeByte(locking, rounds); bench.writeByte(lockFree, rounds);
+				bench.writeInt(locking, rounds); bench.writeInt(lockFree, rounds);
+				bench.writeBytes(locking, rounds); bench.writeBytes(lockFree, rounds);
+			}
+			bench.grow(true, 1); bench.grow(false, 1);
+			final StringBuilder b = new StringBuilder();
+			b.append(String.format("DynamicByteBufferBackedChannelBufferBenchmark: best of %s rounds, unpooled, %s", rounds, System.getProperty("java.vm.name") + " " + System.getProperty("java.version")));
+			b.append(String.format("%n\t%-18s %12s %12s", "", "locking", "lock-free"));
+			b.append(String.format("%n\t%-18s %9.1f ns %9.1f ns", "writeByte", bench.writeByte(locking, rounds), bench.writeByte(lockFree, rounds)));
+			b.append(String.format("%n\t%-18s %9.1f ns %9.1f ns", "writeInt", bench.writeInt(locking, rounds), bench.writeInt(lockFree, rounds)));
+			b.append(String.format("%n\t%-18s %9.1f ns %9.1f ns", "writeBytes(16)", bench.writeBytes(locking, rounds), bench.writeBytes(lockFree, rounds)));
+			b.append(String.format("%n\t%-18s %9.0f ms %9.0f ms", "grow 1KB->1MB x" + GROWTHS, bench.grow(true, rounds), bench.grow(false, rounds)));
+			log.info(b.toString());
+			log.debug("Sink: {}", bench.sink);
+		} finally {
+			locking.release();
+			lockFree.release();
+		}
+	}
+	
+	/**
+	 * <p>Title: LockingGrowthBuffer</p>
+	 * <p>Description: The baseline, which checks capacity the way {@link DynamicByteBufferBackedChannelBuffer} did 
+	 * before growth became lock-free: under a monitor, against an atomic capacity that is updated after each growth.</p> 
+	 * <p>Company: Helios Development Group LLC</p>
+	 * @author Whitehead (nwhitehead AT heliosdev DOT org)
+	 * <p><code>com.heliosapm.tsdb.grapi.netty.DynamicByteBufferBackedChannelBufferBenchmark.LockingGrowthBuffer</code></p>
+	 */
+	public static class LockingGrowthBuffer extends DynamicByteBufferBackedChannelBuffer {
+		/** The capacity, guarded the way the previous version guarded it */
+		private final AtomicInteger lockedCapacity;
+
+		/**
+		 * Creates a new LockingGrowthBuffer
+		 * @param order The byte order
+		 * @param initialSize The initial size
+		 * @param extendSize The extend percentage
+		 */
+		public LockingGrowthBuffer(final ByteOrder order, final int initialSize, final float extendSize) {
+			super(order, initialSize, extendSize);
+			lockedCapacity = new AtomicInteger(capacity());
+		}
+		
+		/**
+		 * {@inheritDoc}
+		 * @see com.heliosapm.tsdb.grapi.netty.DynamicByteBufferBackedChannelBuffer#ensureWritableBytes(int)
+		 */
+		@Override
+		public void ensureWritableBytes(final int minWritableBytes) {
+			synchronized(lockedCapacity) {
+				if(minWritableBytes <= lockedCapacity.get() - writerIndex()) {
+					return;
+				}
+				super.ensureWritableBytes(minWritableBytes);
+				lockedCapacity.set(capacity());
+			}
+		}
+	}
+}
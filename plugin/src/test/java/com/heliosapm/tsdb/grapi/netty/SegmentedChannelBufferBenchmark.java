@@ -0,0 +1,150 @@
+/**
+Licensed to the Apache Software Foundation (ASF) under one
+or more contributor license agreements.  See the NOTICE file
+distributed with this work for additional information
+regarding copyright ownership.  The ASF licenses this file
+to you under the Apache License, Version 2.0 (the
+"License"); you may not use this file except in compliance
+with the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an
+"AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+KIND, either express or implied.  See the License for the
+specific language governing permissions and limitations
+under the License.
+ */
+package com.heliosapm.tsdb.grapi.netty;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.heliosapm.tsdb.grapi.server.http.Constants;
+
+/**
+ * <p>Title: SegmentedChannelBufferBenchmark</p>
+ * <p>Description: Times building a response body from fixed size writes in a copy-on-extend 
+ * {@link DynamicByteBufferBackedChannelBuffer} and in a {@link SegmentedChannelBuffer}, unpooled and pooled, and 
+ * logs the best time per body and the bytes moved by growth. Growth is detected as moving content when a view of 
+ * the first byte, taken before the writes, no longer sees the buffer's writes.</p> 
+ * <p>Usage: <b><code>SegmentedChannelBufferBenchmark [body size (4194304)] [write size (8192)] [rounds (10)]</code></b></p>
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>com.heliosapm.tsdb.grapi.netty.SegmentedChannelBufferBenchmark</code></p>
+ */
+
+public class SegmentedChannelBufferBenchmark {
+	/** Static class logger */
+	private static final Logger log = LoggerFactory.getLogger(SegmentedChannelBufferBenchmark.class);
+	/** The size of each body */
+	protected final int bodySize;
+	/** The bytes written by each write */
+	protected final byte[] write;
+	/** The number of timed rounds */
+	protected final int rounds;
+	/** Accumulates a value of every body so writes cannot be optimized away */
+	protected long sink = 0L;
+	
+	/**
+	 * Creates a new SegmentedChannelBufferBenchmark
+	 * @param bodySize The size of each body
+	 * @param writeSize The bytes written by each write
+	 * @param rounds The number of timed rounds
+	 */
+	public SegmentedChannelBufferBenchmark(final int bodySize, final int writeSize, final int rounds) {
+		this.bodySize = bodySize;
+		this.write = new byte[writeSize];
+		this.rounds = rounds;
+	}
+	
+	/**
+	 * Creates an empty buffer
+	 * @param segmented true for a {@link SegmentedChannelBuffer}, false for a copy-on-extend buffer
+	 * @param pool The pool to acquire from, or null
+	 * @return the buffer
+	 */
+	protected static ReleasableChannelBuffer newBuffer(final boolean segmented, final DirectBufferPool pool) {
+		if(segmented) return new SegmentedChannelBuffer(ByteOrder.BIG_ENDIAN, Constants.DEFAULT_BUFFER_SEGMENT_SIZE, pool);
+		return new DynamicByteBufferBackedChannelBuffer(ByteOrder.BIG_ENDIAN, DynamicByteBufferBackedChannelBuffer.DEFAULT_INITIAL, DynamicByteBufferBackedChannelBuffer.DEFAULT_EXTEND, pool);
+	}
+	
+	/**
+	 * Returns the best milliseconds per body over the configured rounds
+	 * @param segmented true for {@link SegmentedChannelBuffer}s
+	 * @param pool The pool to acquire from, or null
+	 * @return the best ms per body
+	 */
+	public double time(final boolean segmented, final DirectBufferPool pool) {
+		long best = Long.MAX_VALUE;
+		for(int r = 0; r < rounds; r++) {
+			final long start = System.nanoTime();
+			final ReleasableChannelBuffer buffer = newBuffer(segmented, pool);
+			for(int i = 0; i < bodySize; i += write.length) {
+				buffer.writeBytes(write, 0, write.length);
+			}
+			sink += buffer.writerIndex();
+			buffer.release();
+			best = Math.min(best, System.nanoTime() - start);
+		}
+		return best / 1e6;
+	}
+	
+	/**
+	 * Builds one body and returns the bytes moved by growth, summing the capacity before each growth that moved the content
+	 * @param segmented true for a {@link SegmentedChannelBuffer}
+	 * @return the bytes moved
+	 */
+	public long moved(final boolean segmented) {
+		final ReleasableChannelBuffer buffer = newBuffer(segmented, null);
+		try {
+			buffer.writeByte(0);
+			ByteBuffer probe = buffer.toByteBuffers(0, 1)[0];
+			long moved = 0L;
+			byte marker = 0;
+			for(int i = 1; i < bodySize; i += write.length) {
+				final int capacity = buffer.capacity();
+				buffer.writeBytes(write, 0, Math.min(write.length, bodySize - i));
+				if(buffer.capacity()!=capacity) {
+					buffer.setByte(0, ++marker);
+					if(probe.get(0)!=marker) {
+						moved += capacity;
+						probe = buffer.toByteBuffers(0, 1)[0];
+					}
+				}
+			}
+			return moved;
+		} finally {
+			buffer.release();
+		}
+	}
+	
+	/**
+	 * Runs the benchmark
+	 * @param args As described in the class usage
+	 */
+	public static void main(final String[] args) {
+		final int bodySize = args.length > 0 ? Integer.parseInt(args[0]) : 4 * 1024 * 1024;
+		final int writeSize = args.length > 1 ? Integer.parseInt(args[1]) : 8192;
+		final int rounds = args.length > 2 ? Integer.parseInt(args[2]) : 10;
+		final DirectBufferPool pool = DirectBufferPool.getInstance();
+		final SegmentedChannelBufferBenchmark bench = new SegmentedChannelBufferBenchmark(bodySize, writeSize, rounds);
+		// warm up
+		for(int i = 0; i < 5; i++) {
+			bench.time(false, null); bench.time(true, null);
+			bench.time(false, pool); bench.time(true, pool);
+		}
+		final StringBuilder b = new StringBuilder();
+		b.append(String.format("SegmentedChannelBufferBenchmark: %s byte bodies from %s byte writes, best of %s rounds", bodySize, writeSize, rounds));
+		b.append(String.format("%n\t%-10s %16s %16s", "", "copy-on-extend", "segmented"));
+		b.append(String.format("%n\t%-10s %13.2f ms %13.2f ms", "unpooled", bench.time(false, null), bench.time(true, null)));
+		b.append(String.format("%n\t%-10s %13.2f ms %13.2f ms", "pooled", bench.time(false, pool), bench.time(true, pool)));
+		b.append(String.format("%n\t%-10s %16s %16s", "moved", bench.moved(false) + " B", bench.moved(true) + " B"));
+		log.info(b.toString());
+		log.debug("Sink: {}", bench.sink);
+	}
+}
@@ -0,0 +1,291 @@
+/**
+Licensed to the Apache Software Foundation (ASF) under one
+or more contributor license agreements.  See the NOTICE file
+distributed with this work for additional information
+regarding copyright ownership.  The ASF licenses this file
+to you under the Apache License, Version 2.0 (the
+"License"); you may not use this file except in compliance
+with the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an
+"AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+KIND, either express or implied.  See the License for the
+specific language governing permissions and limitations
+under the License.
+ */
+package com.heliosapm.tsdb.grapi.netty;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Random;
+
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.buffer.ChannelBuffers;
+import org.junit.Test;
+
+/**
+ * <p>Title: SegmentedChannelBufferTest</p>
+ * <p>Description: Tests for {@link SegmentedChannelBuffer}. Segments are 16 bytes so most values and ranges cross a segment boundary.</p> 
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>com.heliosapm.tsdb.grapi.netty.SegmentedChannelBufferTest</code></p>
+ */
+
+public class SegmentedChannelBufferTest {
+	/** The segment size of the tested buffers */
+	private static final int SEGMENT = 16;
+	
+	/**
+	 * Creates an unpooled buffer with {@link #SEGMENT} sized segments
+	 * @param order The byte order
+	 * @return the buffer
+	 */
+	private static SegmentedChannelBuffer newBuffer(final ByteOrder order) {
+		return new SegmentedChannelBuffer(order, SEGMENT, null);
+	}
+	
+	/**
+	 * Tests that the segment size is rounded up to a power of two and that growth appends segments
+	 */
+	@Test
+	public void testGrowth() {
+		final SegmentedChannelBuffer buffer = new SegmentedChannelBuffer(ByteOrder.BIG_ENDIAN, 10, null);
+		try {
+			assertEquals(SEGMENT, buffer.getSegmentSize());
+			assertEquals(SEGMENT, buffer.capacity());
+			buffer.writeBytes(new byte[SEGMENT + 1]);
+			assertEquals(2, buffer.getSegmentCount());
+			assertEquals(2 * SEGMENT, buffer.capacity());
+			buffer.ensureWritableBytes(5 * SEGMENT);
+			assertTrue(buffer.writableBytes() >= 5 * SEGMENT);
+			assertEquals(7, buffer.getSegmentCount());
+		} finally {
+			buffer.release();
+		}
+	}
+	
+	/**
+	 * Tests that growth does not move content already written: a view taken before growth still sees the buffer's writes
+	 */
+	@Test
+	public void testGrowthDoesNotCopy() {
+		final SegmentedChannelBuffer buffer = newBuffer(ByteOrder.BIG_ENDIAN);
+		try {
+			buffer.writeBytes(new byte[]{1, 2, 3});
+			final ByteBuffer firstSegment = buffer.toByteBuffers(0, 3)[0];
+			for(int i = 0; i < 100; i++) {
+				buffer.writeBytes(new byte[SEGMENT]);
+			}
+			buffer.setByte(1, 42);
+			assertEquals(42, firstSegment.get(1));
+			firstSegment.put(2, (byte)43);
+			assertEquals(43, buffer.getByte(2));
+		} finally {
+			buffer.release();
+		}
+	}
+	
+	/**
+	 * Tests multi-byte values written and read across segment boundaries at every offset, in both byte orders
+	 */
+	@Test
+	public void testValuesAcrossSegments() {
+		for(ByteOrder order: new ByteOrder[]{ByteOrder.BIG_ENDIAN, ByteOrder.LITTLE_ENDIAN}) {
+			for(int offset = 0; offset < SEGMENT; offset++) {
+				final SegmentedChannelBuffer buffer = newBuffer(order);
+				final ChannelBuffer reference = ChannelBuffers.buffer(order, 128);
+				try {
+					buffer.writeZero(offset);
+					reference.writeZero(offset);
+					buffer.writeShort(0x1234); reference.writeShort(0x1234);
+					buffer.writeMedium(0x56789A); reference.writeMedium(0x56789A);
+					buffer.writeInt(0xDEADBEEF); reference.writeInt(0xDEADBEEF);
+					buffer.writeLong(0x0102030405060708L); reference.writeLong(0x0102030405060708L);
+					buffer.writeInt(-2); reference.writeInt(-2);
+					assertEquals(reference.writerIndex(), buffer.writerIndex());
+					assertTrue("Content differs at offset " + offset + " in " + order, ChannelBuffers.equals(reference, buffer));
+					buffer.skipBytes(offset);
+					assertEquals(0x1234, buffer.readShort());
+					assertEquals(0x56789A, buffer.readUnsignedMedium());
+					assertEquals(0xDEADBEEF, buffer.readInt());
+					assertEquals(0x0102030405060708L, buffer.readLong());
+					assertEquals(-2, buffer.readInt());
+				} finally {
+					buffer.release();
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Tests random byte array, buffer and stream transfers against a heap reference
+	 * @throws IOException will not happen
+	 */
+	@Test
+	public void testTransfersAgainstReference() throws IOException {
+		final Random random = new Random(7);
+		final SegmentedChannelBuffer buffer = newBuffer(ByteOrder.BIG_ENDIAN);
+		final ChannelBuffer reference = ChannelBuffers.dynamicBuffer(ByteOrder.BIG_ENDIAN, SEGMENT);
+		try {
+			for(int i = 0; i < 200; i++) {
+				final byte[] bytes = new byte[random.nextInt(3 * SEGMENT)];
+				random.nextBytes(bytes);
+				switch(random.nextInt(4)) {
+					case 0: 
+						buffer.writeBytes(bytes); 
+						break;
+					case 1: 
+						buffer.writeBytes(ByteBuffer.wrap(bytes)); 
+						break;
+					case 2: 
+						buffer.writeBytes(ChannelBuffers.wrappedBuffer(bytes), 0, bytes.length); 
+						break;
+					default:
+						assertEquals(bytes.length, buffer.writeBytes(new ByteArrayInputStream(bytes), bytes.length));
+				}
+				reference.writeBytes(bytes);
+			}
+			assertTrue(ChannelBuffers.equals(reference, buffer));
+			final int length = buffer.readableBytes();
+			for(int i = 0; i < 200; i++) {
+				final int index = random.nextInt(length);
+				final int n = random.nextInt(length - index + 1);
+				final byte[] expected = new byte[n];
+				reference.getBytes(index, expected);
+				final byte[] actual = new byte[n];
+				buffer.getBytes(index, actual);
+				assertArrayEquals(expected, actual);
+				final ByteBuffer direct = ByteBuffer.allocateDirect(n);
+				buffer.getBytes(index, direct);
+				direct.flip();
+				assertEquals(ByteBuffer.wrap(expected), direct);
+				final ChannelBuffer heap = ChannelBuffers.buffer(n);
+				buffer.getBytes(index, heap, 0, n);
+				assertArrayEquals(expected, heap.array());
+				final ByteArrayOutputStream out = new ByteArrayOutputStream();
+				buffer.getBytes(index, out, n);
+				assertArrayEquals(expected, out.toByteArray());
+				assertTrue(ChannelBuffers.equals(reference.slice(index, n), buffer.slice(index, n)));
+				assertTrue(ChannelBuffers.equals(reference.copy(index, n), buffer.copy(index, n)));
+				assertEquals(ByteBuffer.wrap(expected), buffer.toByteBuffer(index, n));
+			}
+		} finally {
+			buffer.release();
+		}
+	}
+	
+	/**
+	 * Tests that sets across segments overwrite exactly the addressed range
+	 */
+	@Test
+	public void testSetsAcrossSegments() {
+		final SegmentedChannelBuffer buffer = newBuffer(ByteOrder.BIG_ENDIAN);
+		final ChannelBuffer reference = ChannelBuffers.buffer(4 * SEGMENT);
+		try {
+			buffer.writeZero(4 * SEGMENT);
+			reference.writeZero(4 * SEGMENT);
+			final byte[] bytes = new byte[2 * SEGMENT + 3];
+			new Random(3).nextBytes(bytes);
+			buffer.setBytes(SEGMENT - 2, bytes);
+			reference.setBytes(SEGMENT - 2, bytes);
+			buffer.setBytes(5, ByteBuffer.wrap(bytes, 0, SEGMENT));
+			reference.setBytes(5, ByteBuffer.wrap(bytes, 0, SEGMENT));
+			buffer.setBytes(3 * SEGMENT - 1, ChannelBuffers.wrappedBuffer(bytes), 4, 9);
+			reference.setBytes(3 * SEGMENT - 1, ChannelBuffers.wrappedBuffer(bytes), 4, 9);
+			assertTrue(ChannelBuffers.equals(reference, buffer));
+		} finally {
+			buffer.release();
+		}
+	}
+	
+	/**
+	 * Tests that <b><code>toByteBuffers(index, length)</code></b> returns one view per spanned segment covering exactly the range
+	 */
+	@Test
+	public void testToByteBuffersSlices() {
+		final SegmentedChannelBuffer buffer = newBuffer(ByteOrder.LITTLE_ENDIAN);
+		try {
+			for(int i = 0; i < 5 * SEGMENT; i++) {
+				buffer.writeByte(i);
+			}
+			for(int index = 0; index < 5 * SEGMENT; index++) {
+				for(int length = 0; index + length <= 5 * SEGMENT; length++) {
+					final ByteBuffer[] views = buffer.toByteBuffers(index, length);
+					final int expectedViews = length==0 ? 1 : ((index + length - 1) / SEGMENT) - (index / SEGMENT) + 1;
+					assertEquals("views for " + index + "/" + length, expectedViews, views.length);
+					int next = index;
+					for(ByteBuffer view: views) {
+						assertSame(ByteOrder.LITTLE_ENDIAN, view.order());
+						assertTrue(view.isDirect());
+						assertEquals(0, view.position());
+						while(view.hasRemaining()) {
+							assertEquals(next++, view.get());
+						}
+					}
+					assertEquals(index + length, next);
+				}
+			}
+			// the views share the buffer's memory
+			final ByteBuffer[] views = buffer.toByteBuffers(SEGMENT - 1, 2);
+			views[1].put(0, (byte)99);
+			assertEquals(99, buffer.getByte(SEGMENT));
+		} finally {
+			buffer.release();
+		}
+	}
+	
+	/**
+	 * Tests that the gathering view holds the readable bytes, in order
+	 */
+	@Test
+	public void testGatheringBuffer() {
+		final SegmentedChannelBuffer buffer = newBuffer(ByteOrder.BIG_ENDIAN);
+		try {
+			assertSame(ChannelBuffers.EMPTY_BUFFER, buffer.toGatheringBuffer());
+			for(int i = 0; i < 3 * SEGMENT + 5; i++) {
+				buffer.writeByte(i);
+			}
+			buffer.skipBytes(7);
+			final ChannelBuffer gathering = buffer.toGatheringBuffer();
+			assertEquals(buffer.readableBytes(), gathering.readableBytes());
+			assertTrue(ChannelBuffers.equals(buffer, gathering));
+		} finally {
+			buffer.release();
+		}
+	}
+	
+	/**
+	 * Tests that ranges outside the capacity are rejected and that a released buffer cannot grow
+	 */
+	@Test
+	public void testBoundsAndRelease() {
+		final SegmentedChannelBuffer buffer = newBuffer(ByteOrder.BIG_ENDIAN);
+		try {
+			buffer.getBytes(SEGMENT - 4, new byte[8]);
+			fail("Read past the capacity");
+		} catch (IndexOutOfBoundsException expected) {
+			/* No Op */
+		}
+		buffer.release();
+		buffer.release();
+		assertEquals(0, buffer.getSegmentCount());
+		try {
+			buffer.writeBytes(new byte[SEGMENT * 2]);
+			fail("Grew a released buffer");
+		} catch (IllegalStateException expected) {
+			/* No Op */
+		}
+	}
+}
@@ -0,0 +1,276 @@
+/**
+Licensed to the Apache Software Foundation (ASF) under one
+or more contributor license agreements.  See the NOTICE file
+distributed with this work for additional information
+regarding copyright ownership.  The ASF licenses this file
+to you under the Apache License, Version 2.0 (the
+"License"); you may not use this file except in compliance
+with the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an
+"AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+KIND, either express or implied.  See the License for the
+specific language governing permissions and limitations
+under the License.
+ */
+package com.heliosapm.tsdb.grapi.render;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * <p>Title: DownsamplerTest</p>
+ * <p>Description: Tests for {@link Downsampler}, comparing its in place passes with naive out of place references</p> 
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>com.heliosapm.tsdb.grapi.render.DownsamplerTest</code></p>
+ */
+
+public class DownsamplerTest {
+	/** The random source of the synthetic series */
+	private final Random random = new Random(17);
+	
+	/**
+	 * Creates a series of one minute points with a random walk of values, about one in <b><code>nanEvery</code></b> of them missing
+	 * @param size The number of points
+	 * @param nanEvery The inverse frequency of missing values, zero for none
+	 * @return the series
+	 */
+	private Series randomSeries(final int size, final int nanEvery) {
+		final Series series = new Series("test", size);
+		double value = 100d;
+		for(int i = 0; i < size; i++) {
+			value += random.nextGaussian() * 5d;
+			series.add(1000000L + i * 60L, nanEvery > 0 && random.nextInt(nanEvery)==0 ? Double.NaN : value);
+		}
+		return series;
+	}
+	
+	/**
+	 * Tests that every mode reduces a series to at most the maximum number of points, and leaves a series that fits untouched
+	 */
+	@Test
+	public void testSizeBound() {
+		for(Consolidation mode: Consolidation.values()) {
+			for(int size: new int[]{1, 2, 3, 10, 99, 100, 101, 1000, 4321}) {
+				for(int maxPoints: new int[]{1, 2, 3, 7, 100, 5000}) {
+					final Series series = randomSeries(size, 10);
+					final long[] ts = Arrays.copyOf(series.getTimestamps(), size);
+					Downsampler.downsample(series, maxPoints, mode);
+					final String label = mode + " " + size + " -> " + maxPoints;
+					if(size <= maxPoints) {
+						assertEquals(label, size, series.size());
+						assertArrayEquals(label, ts, Arrays.copyOf(series.getTimestamps(), size));
+					} else {
+						assertTrue(label + " gave " + series.size(), series.size() <= maxPoints && series.size() > 0);
+						if(mode==Consolidation.LTTB && maxPoints >= 3) assertEquals(label, maxPoints, series.size());
+					}
+					for(int i = 1; i < series.size(); i++) {
+						assertTrue(label + " timestamps out of order", series.getTimestamps()[i] > series.getTimestamps()[i-1]);
+					}
+				}
+			}
+		}
+		final Series series = randomSeries(100, 0);
+		Downsampler.downsample(series, 0, Consolidation.LTTB);
+		assertEquals(100, series.size());
+	}
+	
+	/**
+	 * Tests that LTTB keeps the first and last points and only keeps points of the original series
+	 */
+	@Test
+	public void testLttbKeepsFirstLastAndOriginals() {
+		for(int threshold: new int[]{3, 4, 50, 999}) {
+			final Series series = randomSeries(1000, 20);
+			final long[] ts = Arrays.copyOf(series.getTimestamps(), 1000);
+			final double[] v = Arrays.copyOf(series.getValues(), 1000);
+			Downsampler.downsample(series, threshold, Consolidation.LTTB);
+			final int size = series.size();
+			assertEquals(ts[0], series.getTimestamps()[0]);
+			assertEquals(v[0], series.getValues()[0], 0d);
+			assertEquals(ts[999], series.getTimestamps()[size - 1]);
+			assertEquals(v[999], series.getValues()[size - 1], 0d);
+			for(int i = 0; i < size; i++) {
+				final int original = (int)((series.getTimestamps()[i] - ts[0]) / 60L);
+				assertEquals(ts[original], series.getTimestamps()[i]);
+				assertEquals(v[original], series.getValues()[i], 0d);
+			}
+		}
+	}
+	
+	/**
+	 * Tests that LTTB picks the same points as a naive out of place implementation on series without missing values
+	 */
+	@Test
+	public void testLttbAgainstReference() {
+		for(int size: new int[]{4, 10, 101, 1000, 10080}) {
+			for(int threshold: new int[]{3, 5, 97, 300}) {
+				if(threshold >= size) continue;
+				final Series series = randomSeries(size, 0);
+				final long[][] expected = referenceLttb(series.getTimestamps(), series.getValues(), size, threshold);
+				Downsampler.downsample(series, threshold, Consolidation.LTTB);
+				final String label = size + " -> " + threshold;
+				assertArrayEquals(label, expected[0], Arrays.copyOf(series.getTimestamps(), series.size()));
+				for(int i = 0; i < series.size(); i++) {
+					assertEquals(label, Double.longBitsToDouble(expected[1][i]), series.getValues()[i], 0d);
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Tests that LTTB keeps a missing value for a bucket whose values are all missing, and never keeps a missing value over a present one
+	 */
+	@Test
+	public void testLttbKeepsGaps() {
+		final Series series = randomSeries(1000, 0);
+		// a gap spanning several buckets of 10 points
+		for(int i = 400; i < 450; i++) {
+			series.getValues()[i] = Double.NaN;
+		}
+		// a bucket with a single present value
+		for(int i = 700; i < 720; i++) {
+			if(i!=705) series.getValues()[i] = Double.NaN;
+		}
+		final double lone = series.getValues()[705];
+		Downsampler.downsample(series, 100, Consolidation.LTTB);
+		int gaps = 0;
+		boolean loneKept = false;
+		for(int i = 0; i < series.size(); i++) {
+			final long t = series.getTimestamps()[i];
+			final int original = (int)((t - 1000000L) / 60L);
+			if(Double.isNaN(series.getValues()[i])) {
+				gaps++;
+				assertTrue("Missing value kept outside the gap at " + original, original >= 400 && original < 450);
+			}
+			if(original==705) loneKept = series.getValues()[i]==lone;
+		}
+		assertTrue("The gap was closed", gaps >= 3);
+		assertTrue("The lone present value was not kept", loneKept);
+	}
+	
+	/**
+	 * Tests each consolidation mode against a naive out of place reference, with missing values and all missing groups
+	 */
+	@Test
+	public void testConsolidationAgainstReference() {
+		for(Consolidation mode: new Consolidation[]{Consolidation.AVERAGE, Consolidation.MIN, Consolidation.MAX, Consolidation.SUM}) {
+			for(int size: new int[]{5, 100, 1001, 4321}) {
+				for(int maxPoints: new int[]{1, 2, 3, 10, 333}) {
+					if(maxPoints >= size) continue;
+					final Series series = randomSeries(size, 4);
+					// an all missing group at the start
+					Arrays.fill(series.getValues(), 0, Math.min(size, (size + maxPoints - 1) / maxPoints), Double.NaN);
+					final long[] ts = Arrays.copyOf(series.getTimestamps(), size);
+					final double[] v = Arrays.copyOf(series.getValues(), size);
+					Downsampler.downsample(series, maxPoints, mode);
+					final int per = (size + maxPoints - 1) / maxPoints;
+					final int groups = (size + per - 1) / per;
+					final String label = mode + " " + size + " -> " + maxPoints;
+					assertEquals(label, groups, series.size());
+					assertTrue(label, Double.isNaN(series.getValues()[0]));
+					for(int g = 0; g < groups; g++) {
+						final int start = g * per;
+						assertEquals(label, ts[start], series.getTimestamps()[g]);
+						assertEquals(label + " group " + g, referenceConsolidate(v, start, Math.min(size, start + per), mode), series.getValues()[g], 1e-9);
+					}
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Tests that LTTB falls back to averaging below 3 points
+	 */
+	@Test
+	public void testLttbFallsBackToAverage() {
+		final Series lttb = randomSeries(100, 5);
+		final Series average = new Series("test", Arrays.copyOf(lttb.getTimestamps(), 100), Arrays.copyOf(lttb.getValues(), 100), 100);
+		Downsampler.downsample(lttb, 2, Consolidation.LTTB);
+		Downsampler.downsample(average, 2, Consolidation.AVERAGE);
+		assertEquals(average.size(), lttb.size());
+		for(int i = 0; i < lttb.size(); i++) {
+			assertEquals(average.getTimestamps()[i], lttb.getTimestamps()[i]);
+			assertEquals(average.getValues()[i], lttb.getValues()[i], 0d);
+		}
+	}
+	
+	/**
+	 * Consolidates one group of values the obvious way
+	 * @param v The values
+	 * @param start The start of the group
+	 * @param end The end of the group, exclusive
+	 * @param mode The consolidation function
+	 * @return the consolidated value, NaN if all the values are missing
+	 */
+	private static double referenceConsolidate(final double[] v, final int start, final int end, final Consolidation mode) {
+		double sum = 0d, min = Double.POSITIVE_INFINITY, max = Double.NEGATIVE_INFINITY;
+		int n = 0;
+		for(int i = start; i < end; i++) {
+			if(Double.isNaN(v[i])) continue;
+			sum += v[i];
+			min = Math.min(min, v[i]);
+			max = Math.max(max, v[i]);
+			n++;
+		}
+		if(n==0) return Double.NaN;
+		switch(mode) {
+			case MIN: return min;
+			case MAX: return max;
+			case SUM: return sum;
+			default: return sum / n;
+		}
+	}
+	
+	/**
+	 * Steinarsson's largest-triangle-three-buckets, written out of place as published
+	 * @param ts The timestamps
+	 * @param v The values, none missing
+	 * @param size The number of points
+	 * @param threshold The number of points to keep
+	 * @return the kept timestamps and the raw long bits of the kept values
+	 */
+	private static long[][] referenceLttb(final long[] ts, final double[] v, final int size, final int threshold) {
+		final long[] outT = new long[threshold];
+		final long[] outV = new long[threshold];
+		final double every = (double)(size - 2) / (threshold - 2);
+		int a = 0, kept = 0;
+		outT[kept] = ts[0]; outV[kept++] = Double.doubleToRawLongBits(v[0]);
+		for(int i = 0; i < threshold - 2; i++) {
+			int avgStart = (int)Math.floor((i + 1) * every) + 1;
+			int avgEnd = Math.min((int)Math.floor((i + 2) * every) + 1, size);
+			double avgX = 0, avgY = 0;
+			for(int j = avgStart; j < avgEnd; j++) {
+				avgX += ts[j];
+				avgY += v[j];
+			}
+			avgX /= (avgEnd - avgStart);
+			avgY /= (avgEnd - avgStart);
+			final int rangeStart = (int)Math.floor(i * every) + 1;
+			final int rangeEnd = (int)Math.floor((i + 1) * every) + 1;
+			double maxArea = -1;
+			int next = rangeStart;
+			for(int j = rangeStart; j < rangeEnd; j++) {
+				final double area = Math.abs((ts[a] - avgX) * (v[j] - v[a]) - (ts[a] - ts[j]) * (avgY - v[a])) * 0.5;
+				if(area > maxArea) {
+					maxArea = area;
+					next = j;
+				}
+			}
+			outT[kept] = ts[next]; outV[kept++] = Double.doubleToRawLongBits(v[next]);
+			a = next;
+		}
+		outT[kept] = ts[size - 1]; outV[kept] = Double.doubleToRawLongBits(v[size - 1]);
+		return new long[][]{outT, outV};
+	}
+}
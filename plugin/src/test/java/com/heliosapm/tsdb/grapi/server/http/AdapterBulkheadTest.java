@@ -0,0 +1,244 @@
+/**
+Licensed to the Apache Software Foundation (ASF) under one
+or more contributor license agreements.  See the NOTICE file
+distributed with this work for additional information
+regarding copyright ownership.  The ASF licenses this file
+to you under the Apache License, Version 2.0 (the
+"License"); you may not use this file except in compliance
+with the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an
+"AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+KIND, either express or implied.  See the License for the
+specific language governing permissions and limitations
+under the License.
+ */
+package com.heliosapm.tsdb.grapi.server.http;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.jboss.netty.handler.codec.http.HttpResponseStatus;
+import org.junit.Test;
+
+/**
+ * <p>Title: AdapterBulkheadTest</p>
+ * <p>Description: Tests for {@link AdapterBulkhead} load shedding and failure handling. Each test uses a single thread bulkhead 
+ * whose thread is held by a blocking task, so the state of the queue is known when the next task arrives.</p> 
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>com.heliosapm.tsdb.grapi.server.http.AdapterBulkheadTest</code></p>
+ */
+
+public class AdapterBulkheadTest {
+	/** The time to wait for a task outcome in ms */
+	private static final long TIMEOUT = 5000L;
+	
+	/**
+	 * Tests that a task arriving while the queue is full is rejected with a 429, and that the queued task still runs
+	 * @throws Exception thrown on any error
+	 */
+	@Test
+	public void testQueueFull() throws Exception {
+		final AdapterBulkhead bulkhead = new AdapterBulkhead("testQueueFull", 1, 1, 0L);
+		try {
+			final RecordingTask blocker = occupy(bulkhead);
+			final RecordingTask queued = new RecordingTask();
+			bulkhead.execute(queued);
+			final RecordingTask rejected = new RecordingTask();
+			bulkhead.execute(rejected);
+			assertEquals("The rejection was not immediate", HttpResponseStatus.TOO_MANY_REQUESTS, rejected.shed);
+			assertEquals(1L, bulkhead.getShedFull());
+			blocker.release.countDown();
+			assertTrue(queued.await());
+			assertTrue(queued.processed);
+			assertNull(queued.shed);
+			assertFalse(rejected.processed);
+			assertEquals(2L, bulkhead.getExecuted());
+		} finally {
+			bulkhead.shutdown();
+		}
+	}
+	
+	/**
+	 * Tests that a task arriving while the head of the queue has waited past the deadline is shed with a 503 straight away
+	 * @throws Exception thrown on any error
+	 */
+	@Test
+	public void testHeadPastDeadline() throws Exception {
+		final AdapterBulkhead bulkhead = new AdapterBulkhead("testHeadPastDeadline", 1, 4, 50L);
+		try {
+			final RecordingTask blocker = occupy(bulkhead);
+			bulkhead.execute(new RecordingTask());
+			Thread.sleep(100L);
+			final RecordingTask late = new RecordingTask();
+			bulkhead.execute(late);
+			assertEquals("The shed was not immediate", HttpResponseStatus.SERVICE_UNAVAILABLE, late.shed);
+			assertFalse(late.processed);
+			assertEquals(1L, bulkhead.getShedDeadline());
+			assertEquals(1, bulkhead.getQueueDepth());
+			blocker.release.countDown();
+		} finally {
+			bulkhead.shutdown();
+		}
+	}
+	
+	/**
+	 * Tests that a task that waited past the deadline by the time a thread picks it up is shed with a 503 instead of being run
+	 * @throws Exception thrown on any error
+	 */
+	@Test
+	public void testWaitedPastDeadline() throws Exception {
+		final AdapterBulkhead bulkhead = new AdapterBulkhead("testWaitedPastDeadline", 1, 4, 50L);
+		try {
+			final RecordingTask blocker = occupy(bulkhead);
+			final RecordingTask queued = new RecordingTask();
+			bulkhead.execute(queued);
+			Thread.sleep(100L);
+			blocker.release.countDown();
+			assertTrue(queued.await());
+			assertEquals(HttpResponseStatus.SERVICE_UNAVAILABLE, queued.shed);
+			assertFalse(queued.processed);
+			assertEquals(1L, bulkhead.getShedDeadline());
+			assertEquals(1L, bulkhead.getExecuted());
+		} finally {
+			bulkhead.shutdown();
+		}
+	}
+	
+	/**
+	 * Tests that a task whose processing throws is failed with a 500, 
+	 * and that the bulkhead thread survives a failure to respond as well
+	 * @throws Exception thrown on any error
+	 */
+	@Test
+	public void testFailOnThrow() throws Exception {
+		final AdapterBulkhead bulkhead = new AdapterBulkhead("testFailOnThrow", 1, 4, 0L);
+		try {
+			final RecordingTask throwing = new RecordingTask() {
+				@Override
+				protected void process() {
+					throw new IllegalStateException("Test failure");
+				}
+			};
+			bulkhead.execute(throwing);
+			assertTrue(throwing.await());
+			assertEquals(HttpResponseStatus.INTERNAL_SERVER_ERROR, throwing.failed);
+			assertNull(throwing.shed);
+			assertEquals(1L, bulkhead.getExecuted());
+			final RecordingTask failingToFail = new RecordingTask() {
+				@Override
+				protected void process() {
+					throw new IllegalStateException("Test failure");
+				}
+				@Override
+				protected void fail(final HttpResponseStatus status) {
+					super.fail(status);
+					throw new IllegalStateException("Test failure to respond");
+				}
+			};
+			bulkhead.execute(failingToFail);
+			assertTrue(failingToFail.await());
+			final RecordingTask after = new RecordingTask();
+			bulkhead.execute(after);
+			assertTrue(after.await());
+			assertTrue(after.processed);
+			assertNull(after.failed);
+		} finally {
+			bulkhead.shutdown();
+		}
+	}
+	
+	/**
+	 * Runs a task on the passed single thread bulkhead that holds the thread until released
+	 * @param bulkhead The bulkhead
+	 * @return the running task
+	 * @throws Exception thrown on any error
+	 */
+	private static RecordingTask occupy(final AdapterBulkhead bulkhead) throws Exception {
+		final CountDownLatch running = new CountDownLatch(1);
+		final RecordingTask blocker = new RecordingTask() {
+			@Override
+			protected void process() {
+				running.countDown();
+				try {
+					release.await(TIMEOUT, TimeUnit.MILLISECONDS);
+				} catch (InterruptedException iex) {
+					Thread.currentThread().interrupt();
+				}
+				super.process();
+			}
+		};
+		bulkhead.execute(blocker);
+		assertTrue(running.await(TIMEOUT, TimeUnit.MILLISECONDS));
+		return blocker;
+	}
+	
+	/**
+	 * <p>Title: RecordingTask</p>
+	 * <p>Description: A task that records whether it was processed, shed or failed</p> 
+	 * <p>Company: Helios Development Group LLC</p>
+	 * @author Whitehead (nwhitehead AT heliosdev DOT org)
+	 * <p><code>com.heliosapm.tsdb.grapi.server.http.AdapterBulkheadTest.RecordingTask</code></p>
+	 */
+	private static class RecordingTask extends AdapterBulkhead.Task {
+		/** Released by a test to let a blocking task finish */
+		final CountDownLatch release = new CountDownLatch(1);
+		/** Counted down once the task has an outcome */
+		final CountDownLatch done = new CountDownLatch(1);
+		/** Indicates if the task was processed */
+		volatile boolean processed = false;
+		/** The status the task was shed with, or null */
+		volatile HttpResponseStatus shed = null;
+		/** The status the task was failed with, or null */
+		volatile HttpResponseStatus failed = null;
+		
+		/**
+		 * Waits for the task to have an outcome
+		 * @return true if it had one within the timeout
+		 * @throws InterruptedException thrown if interrupted while waiting
+		 */
+		boolean await() throws InterruptedException {
+			return done.await(TIMEOUT, TimeUnit.MILLISECONDS);
+		}
+
+		/**
+		 * {@inheritDoc}
+		 * @see com.heliosapm.tsdb.grapi.server.http.AdapterBulkhead.Task#process()
+		 */
+		@Override
+		protected void process() {
+			processed = true;
+			done.countDown();
+		}
+
+		/**
+		 * {@inheritDoc}
+		 * @see com.heliosapm.tsdb.grapi.server.http.AdapterBulkhead.Task#shed(org.jboss.netty.handler.codec.http.HttpResponseStatus)
+		 */
+		@Override
+		protected void shed(final HttpResponseStatus status) {
+			shed = status;
+			done.countDown();
+		}
+
+		/**
+		 * {@inheritDoc}
+		 * @see com.heliosapm.tsdb.grapi.server.http.AdapterBulkhead.Task#fail(org.jboss.netty.handler.codec.http.HttpResponseStatus)
+		 */
+		@Override
+		protected void fail(final HttpResponseStatus status) {
+			failed = status;
+			done.countDown();
+		}
+	}
+
+}
@@ -0,0 +1,311 @@
+/**
+Licensed to the Apache Software Foundation (ASF) under one
+or more contributor license agreements.  See the NOTICE file
+distributed with this work for additional information
+regarding copyright ownership.  The ASF licenses this file
+to you under the Apache License, Version 2.0 (the
+"License"); you may not use this file except in compliance
+with the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an
+"AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+KIND, either express or implied.  See the License for the
+specific language governing permissions and limitations
+under the License.
+ */
+package com.heliosapm.tsdb.grapi.server.http;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.buffer.ChannelBuffers;
+import org.jboss.netty.handler.codec.http.DefaultHttpRequest;
+import org.jboss.netty.handler.codec.http.HttpHeaders;
+import org.jboss.netty.handler.codec.http.HttpMethod;
+import org.jboss.netty.handler.codec.http.HttpRequest;
+import org.jboss.netty.handler.codec.http.HttpVersion;
+import org.junit.Test;
+
+/**
+ * <p>Title: ContentCompressorTest</p>
+ * <p>Description: Tests for {@link ContentCompressor} encoding negotiation and compression</p> 
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>com.heliosapm.tsdb.grapi.server.http.ContentCompressorTest</code></p>
+ */
+
+public class ContentCompressorTest {
+	/** The UTF-8 charset */
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+	/** The compressor under test */
+	private final ContentCompressor compressor = new ContentCompressor(6, 64);
+	
+	/**
+	 * Tests the negotiated encoding for accepted encodings with and without qualities
+	 */
+	@Test
+	public void testNegotiate() {
+		assertNull(negotiate(null));
+		assertNull(negotiate(""));
+		assertEquals(ContentCompressor.GZIP, negotiate("gzip"));
+		assertEquals(ContentCompressor.GZIP, negotiate("x-gzip"));
+		assertEquals(ContentCompressor.GZIP, negotiate("GZIP"));
+		assertEquals(ContentCompressor.DEFLATE, negotiate("deflate"));
+		assertEquals(ContentCompressor.GZIP, negotiate("gzip, deflate"));
+		assertEquals(ContentCompressor.GZIP, negotiate("deflate, gzip"));
+		assertEquals(ContentCompressor.GZIP, negotiate("deflate;q=0.5, gzip;q=0.5"));
+		assertEquals(ContentCompressor.DEFLATE, negotiate("gzip;q=0.5, deflate;q=0.8"));
+		assertEquals(ContentCompressor.DEFLATE, negotiate(" gzip ; q=0.2 , deflate ; q=0.3 "));
+		assertNull(negotiate("identity"));
+		assertNull(negotiate("br"));
+	}
+	
+	/**
+	 * Tests that a zero quality refuses an encoding
+	 */
+	@Test
+	public void testNegotiateRefused() {
+		assertNull(negotiate("gzip;q=0"));
+		assertEquals(ContentCompressor.DEFLATE, negotiate("gzip;q=0, deflate"));
+		assertEquals(ContentCompressor.GZIP, negotiate("gzip, deflate;q=0"));
+		assertNull(negotiate("gzip;q=0, deflate;q=0"));
+		assertNull(negotiate("gzip;q=0.0"));
+		// an unparseable quality is taken as a refusal
+		assertNull(negotiate("gzip;q=high"));
+	}
+	
+	/**
+	 * Tests that a wildcard is taken as gzip unless gzip is listed itself
+	 */
+	@Test
+	public void testNegotiateWildcard() {
+		assertEquals(ContentCompressor.GZIP, negotiate("*"));
+		assertNull(negotiate("*;q=0"));
+		assertEquals(ContentCompressor.DEFLATE, negotiate("deflate, *;q=0.1"));
+		assertEquals(ContentCompressor.GZIP, negotiate("deflate;q=0.1, *"));
+		assertEquals(ContentCompressor.DEFLATE, negotiate("gzip;q=0, deflate, *"));
+	}
+	
+	/**
+	 * Tests that a disabled compressor negotiates no encoding
+	 */
+	@Test
+	public void testNegotiateDisabled() {
+		final ContentCompressor disabled = new ContentCompressor(0, 0);
+		assertNull(disabled.negotiate(request("gzip, deflate")));
+		assertNull(disabled.gzip(new byte[1024]));
+	}
+	
+	/**
+	 * Tests that a gzip stream encoding a body in several parts inflates back to the body
+	 * @throws Exception thrown on any error
+	 */
+	@Test
+	public void testGzipStream() throws Exception {
+		final byte[] body = body(new Random(42), 200000);
+		final byte[] compressed = streamed(ContentCompressor.GZIP, body, 7);
+		assertArrayEquals(body, inflate(new GZIPInputStream(new ByteArrayInputStream(compressed))));
+	}
+	
+	/**
+	 * Tests that a deflate stream encoding a body in several parts inflates back to the body, 
+	 * and that each part can be inflated as it arrives
+	 * @throws Exception thrown on any error
+	 */
+	@Test
+	public void testDeflateStream() throws Exception {
+		final byte[] body = body(new Random(43), 200000);
+		final int[] bounds = bounds(body.length, 7);
+		final ContentCompressor.Stream stream = compressor.newStream(ContentCompressor.DEFLATE);
+		final Inflater inflater = new Inflater();
+		final ByteArrayOutputStream all = new ByteArrayOutputStream();
+		try {
+			final byte[] out = new byte[body.length];
+			int inflated = 0;
+			for(int i = 1; i < bounds.length; i++) {
+				final ChannelBuffer target = ChannelBuffers.dynamicBuffer();
+				stream.encode(ChannelBuffers.wrappedBuffer(body, bounds[i-1], bounds[i] - bounds[i-1]), target);
+				final byte[] part = bytes(target);
+				all.write(part);
+				inflater.setInput(part);
+				int n;
+				while((n = inflater.inflate(out, inflated, out.length - inflated)) > 0) {
+					inflated += n;
+				}
+				assertEquals("Part " + i + " was not flushed", bounds[i], inflated);
+			}
+			final ChannelBuffer trailer = ChannelBuffers.dynamicBuffer();
+			stream.finish(trailer);
+			all.write(bytes(trailer));
+			assertArrayEquals(body, out);
+		} finally {
+			stream.end();
+			inflater.end();
+		}
+		assertArrayEquals(body, inflate(new InflaterInputStream(new ByteArrayInputStream(all.toByteArray()))));
+	}
+	
+	/**
+	 * Tests that a stream encoding empty parts still produces a valid body
+	 * @throws Exception thrown on any error
+	 */
+	@Test
+	public void testEmptyParts() throws Exception {
+		final byte[] body = "[{\"target\":\"a.b\",\"datapoints\":[]}]".getBytes(UTF8);
+		for(String encoding: new String[]{ContentCompressor.GZIP, ContentCompressor.DEFLATE}) {
+			final ContentCompressor.Stream stream = compressor.newStream(encoding);
+			final ChannelBuffer out = ChannelBuffers.dynamicBuffer();
+			try {
+				stream.encode(ChannelBuffers.EMPTY_BUFFER, out);
+				stream.encode(ChannelBuffers.wrappedBuffer(body), out);
+				stream.encode(ChannelBuffers.EMPTY_BUFFER, out);
+				stream.finish(out);
+			} finally {
+				stream.end();
+				stream.end();
+			}
+			final InputStream in = ContentCompressor.GZIP.equals(encoding) 
+					? new GZIPInputStream(new ByteArrayInputStream(bytes(out))) 
+					: new InflaterInputStream(new ByteArrayInputStream(bytes(out)));
+			assertArrayEquals(encoding, body, inflate(in));
+		}
+	}
+	
+	/**
+	 * Tests the one shot compression of a whole body, and that bodies below the threshold are not gzipped
+	 * @throws Exception thrown on any error
+	 */
+	@Test
+	public void testCompress() throws Exception {
+		final byte[] body = body(new Random(44), 10000);
+		final ChannelBuffer content = ChannelBuffers.wrappedBuffer(body);
+		final ChannelBuffer out = ChannelBuffers.dynamicBuffer();
+		compressor.compress(ContentCompressor.GZIP, content, out);
+		assertEquals("The content's reader index was moved", 0, content.readerIndex());
+		assertArrayEquals(body, inflate(new GZIPInputStream(new ByteArrayInputStream(bytes(out)))));
+		assertArrayEquals(body, inflate(new GZIPInputStream(new ByteArrayInputStream(compressor.gzip(body)))));
+		assertNull(compressor.gzip(new byte[63]));
+	}
+	
+	/**
+	 * Negotiates the encoding of a request accepting the passed encodings
+	 * @param accept The accepted encodings, or null for none
+	 * @return the negotiated encoding
+	 */
+	private String negotiate(final String accept) {
+		return compressor.negotiate(request(accept));
+	}
+	
+	/**
+	 * Creates a request accepting the passed encodings
+	 * @param accept The accepted encodings, or null for none
+	 * @return the request
+	 */
+	private static HttpRequest request(final String accept) {
+		final HttpRequest request = new DefaultHttpRequest(HttpVersion.HTTP_1_1, HttpMethod.GET, "/render");
+		if(accept!=null) request.headers().set(HttpHeaders.Names.ACCEPT_ENCODING, accept);
+		return request;
+	}
+	
+	/**
+	 * Compresses the passed body with a stream, in the passed number of parts of random sizes
+	 * @param encoding The content encoding
+	 * @param body The body
+	 * @param parts The number of parts
+	 * @return the concatenated compressed parts and the end of the body
+	 * @throws Exception thrown on any error
+	 */
+	private byte[] streamed(final String encoding, final byte[] body, final int parts) throws Exception {
+		final int[] bounds = bounds(body.length, parts);
+		final ContentCompressor.Stream stream = compressor.newStream(encoding);
+		final ByteArrayOutputStream all = new ByteArrayOutputStream();
+		try {
+			for(int i = 1; i < bounds.length; i++) {
+				final ChannelBuffer target = ChannelBuffers.dynamicBuffer();
+				stream.encode(ChannelBuffers.wrappedBuffer(body, bounds[i-1], bounds[i] - bounds[i-1]), target);
+				all.write(bytes(target));
+			}
+			final ChannelBuffer trailer = ChannelBuffers.dynamicBuffer();
+			stream.finish(trailer);
+			all.write(bytes(trailer));
+		} finally {
+			stream.end();
+		}
+		return all.toByteArray();
+	}
+	
+	/**
+	 * Splits a length into the passed number of parts of random sizes
+	 * @param length The length
+	 * @param parts The number of parts
+	 * @return the part boundaries, starting with zero and ending with the length
+	 */
+	private static int[] bounds(final int length, final int parts) {
+		final Random random = new Random(length);
+		final int[] bounds = new int[parts + 1];
+		for(int i = 1; i < parts; i++) {
+			bounds[i] = random.nextInt(length + 1);
+		}
+		bounds[parts] = length;
+		Arrays.sort(bounds);
+		return bounds;
+	}
+	
+	/**
+	 * Builds a JSON like body of the passed size, repetitive enough to compress
+	 * @param random The random to use
+	 * @param size The size in bytes
+	 * @return the body
+	 */
+	private static byte[] body(final Random random, final int size) {
+		final StringBuilder b = new StringBuilder(size + 64);
+		while(b.length() < size) {
+			b.append('[').append(random.nextInt(1000) * 0.5).append(',').append(1400000000 + random.nextInt(86400)).append("],");
+		}
+		return Arrays.copyOf(b.toString().getBytes(UTF8), size);
+	}
+	
+	/**
+	 * Returns the readable bytes of the passed buffer
+	 * @param buffer The buffer
+	 * @return the readable bytes
+	 */
+	private static byte[] bytes(final ChannelBuffer buffer) {
+		final byte[] bytes = new byte[buffer.readableBytes()];
+		buffer.getBytes(buffer.readerIndex(), bytes);
+		return bytes;
+	}
+	
+	/**
+	 * Reads the passed decompressing stream to the end
+	 * @param in The stream
+	 * @return the decompressed bytes
+	 * @throws Exception thrown on any error
+	 */
+	private static byte[] inflate(final InputStream in) throws Exception {
+		final ByteArrayOutputStream out = new ByteArrayOutputStream();
+		final byte[] buff = new byte[8192];
+		int read;
+		while((read = in.read(buff)) > 0) {
+			out.write(buff, 0, read);
+		}
+		in.close();
+		return out.toByteArray();
+	}
+
+}
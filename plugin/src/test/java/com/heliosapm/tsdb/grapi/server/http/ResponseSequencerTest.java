@@ -0,0 +1,368 @@
+/**
+Licensed to the Apache Software Foundation (ASF) under one
+or more contributor license agreements.  See the NOTICE file
+distributed with this work for additional information
+regarding copyright ownership.  The ASF licenses this file
+to you under the Apache License, Version 2.0 (the
+"License"); you may not use this file except in compliance
+with the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an
+"AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+KIND, either express or implied.  See the License for the
+specific language governing permissions and limitations
+under the License.
+ */
+package com.heliosapm.tsdb.grapi.server.http;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.nio.channels.ClosedChannelException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.jboss.netty.buffer.ChannelBuffers;
+import org.jboss.netty.channel.Channel;
+import org.jboss.netty.channel.ChannelEvent;
+import org.jboss.netty.channel.ChannelFuture;
+import org.jboss.netty.channel.ChannelHandlerContext;
+import org.jboss.netty.channel.ChannelState;
+import org.jboss.netty.channel.Channels;
+import org.jboss.netty.channel.MessageEvent;
+import org.jboss.netty.channel.UpstreamChannelStateEvent;
+import org.jboss.netty.channel.UpstreamMessageEvent;
+import org.jboss.netty.handler.codec.http.DefaultHttpChunk;
+import org.jboss.netty.handler.codec.http.DefaultHttpRequest;
+import org.jboss.netty.handler.codec.http.DefaultHttpResponse;
+import org.jboss.netty.handler.codec.http.HttpHeaders;
+import org.jboss.netty.handler.codec.http.HttpMethod;
+import org.jboss.netty.handler.codec.http.HttpRequest;
+import org.jboss.netty.handler.codec.http.HttpResponse;
+import org.jboss.netty.handler.codec.http.HttpResponseStatus;
+import org.jboss.netty.handler.codec.http.HttpVersion;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * <p>Title: ResponseSequencerTest</p>
+ * <p>Description: Tests for {@link ResponseSequencer} ordering, read pausing and connection handling. 
+ * The sequencer runs against a fake channel and contexts that record what it sends and how it sets the channel's readability.</p> 
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>com.heliosapm.tsdb.grapi.server.http.ResponseSequencerTest</code></p>
+ */
+
+public class ResponseSequencerTest {
+	/** The events the sequencer sent downstream */
+	private final List<MessageEvent> written = new ArrayList<MessageEvent>();
+	/** The events the sequencer sent upstream */
+	private final List<ChannelEvent> passed = new ArrayList<ChannelEvent>();
+	/** The readability changes of the channel, in order */
+	private final List<Boolean> readable = new ArrayList<Boolean>();
+	/** The number of times the channel was closed */
+	private int closes = 0;
+	/** The fake channel */
+	private Channel channel;
+	/** The sequencer's context */
+	private ChannelHandlerContext sequencerCtx;
+	/** The context of the handler above the sequencer, which the response writers send from */
+	private ChannelHandlerContext handlerCtx;
+	/** The sequencer under test */
+	private ResponseSequencer sequencer;
+	
+	/**
+	 * Creates the fake channel and contexts
+	 */
+	@Before
+	public void setUp() {
+		channel = fake(Channel.class, new InvocationHandler() {
+			@Override
+			public Object invoke(final Object proxy, final Method method, final Object[] args) throws Throwable {
+				final String name = method.getName();
+				if("setReadable".equals(name)) {
+					readable.add((Boolean)args[0]);
+					return Channels.succeededFuture((Channel)proxy);
+				}
+				if("close".equals(name)) {
+					closes++;
+					return Channels.succeededFuture((Channel)proxy);
+				}
+				if("isOpen".equals(name)) return closes==0;
+				return defaultValue(proxy, method, args);
+			}
+		});
+		sequencerCtx = fake(ChannelHandlerContext.class, new InvocationHandler() {
+			@Override
+			public Object invoke(final Object proxy, final Method method, final Object[] args) throws Throwable {
+				final String name = method.getName();
+				if("getChannel".equals(name)) return channel;
+				if("sendDownstream".equals(name)) {
+					written.add((MessageEvent)args[0]);
+					return null;
+				}
+				if("sendUpstream".equals(name)) {
+					passed.add((ChannelEvent)args[0]);
+					return null;
+				}
+				return defaultValue(proxy, method, args);
+			}
+		});
+		handlerCtx = fake(ChannelHandlerContext.class, new InvocationHandler() {
+			@Override
+			public Object invoke(final Object proxy, final Method method, final Object[] args) throws Throwable {
+				final String name = method.getName();
+				if("getChannel".equals(name)) return channel;
+				if("sendDownstream".equals(name)) {
+					sequencer.handleDownstream(sequencerCtx, (ChannelEvent)args[0]);
+					return null;
+				}
+				return defaultValue(proxy, method, args);
+			}
+		});
+	}
+	
+	/**
+	 * Tests that responses completing in reverse order are written in request order, 
+	 * with the parts of a chunked response written together once the responses ahead of it are written
+	 * @throws Exception thrown on any error
+	 */
+	@Test
+	public void testOutOfOrderCompletion() throws Exception {
+		sequencer = new ResponseSequencer(8);
+		final ResponseSequencer.Exchange first = receive(request(HttpVersion.HTTP_1_1));
+		final ResponseSequencer.Exchange second = receive(request(HttpVersion.HTTP_1_1));
+		final ResponseSequencer.Exchange third = receive(request(HttpVersion.HTTP_1_1));
+		assertEquals(3, passed.size());
+		assertEquals(3, sequencer.getPending());
+		final HttpResponse thirdResponse = response();
+		send(third, thirdResponse, true);
+		final HttpResponse secondHeader = response();
+		send(second, secondHeader, false);
+		final DefaultHttpChunk secondChunk = new DefaultHttpChunk(ChannelBuffers.wrappedBuffer(new byte[]{1}));
+		send(second, secondChunk, false);
+		send(second, DefaultHttpChunk.LAST_CHUNK, true);
+		assertTrue("Later responses were written before the first", written.isEmpty());
+		final HttpResponse firstResponse = response();
+		send(first, firstResponse, true);
+		assertEquals(5, written.size());
+		assertSame(firstResponse, written.get(0).getMessage());
+		assertSame(secondHeader, written.get(1).getMessage());
+		assertSame(secondChunk, written.get(2).getMessage());
+		assertSame(DefaultHttpChunk.LAST_CHUNK, written.get(3).getMessage());
+		assertSame(thirdResponse, written.get(4).getMessage());
+		assertEquals(0, sequencer.getPending());
+		assertEquals(0, closes);
+	}
+	
+	/**
+	 * Tests that the parts of the oldest response are written as they are sent, without waiting for the response to complete
+	 * @throws Exception thrown on any error
+	 */
+	@Test
+	public void testHeadWrittenAsSent() throws Exception {
+		sequencer = new ResponseSequencer(8);
+		final ResponseSequencer.Exchange first = receive(request(HttpVersion.HTTP_1_1));
+		final ResponseSequencer.Exchange second = receive(request(HttpVersion.HTTP_1_1));
+		send(first, response(), false);
+		assertEquals(1, written.size());
+		send(second, response(), true);
+		assertEquals(1, written.size());
+		send(first, DefaultHttpChunk.LAST_CHUNK, true);
+		assertEquals(3, written.size());
+	}
+	
+	/**
+	 * Tests that reads are paused when the outstanding requests reach the maximum and resumed once they drain below it
+	 * @throws Exception thrown on any error
+	 */
+	@Test
+	public void testPauseAndResume() throws Exception {
+		sequencer = new ResponseSequencer(2);
+		final ResponseSequencer.Exchange first = receive(request(HttpVersion.HTTP_1_1));
+		assertTrue(readable.isEmpty());
+		final ResponseSequencer.Exchange second = receive(request(HttpVersion.HTTP_1_1));
+		assertEquals(1, readable.size());
+		assertFalse(readable.get(0));
+		assertTrue(sequencer.isPaused());
+		send(second, response(), true);
+		assertEquals("Reads resumed before an outstanding request completed", 1, readable.size());
+		send(first, response(), true);
+		assertEquals(2, readable.size());
+		assertTrue(readable.get(1));
+		assertFalse(sequencer.isPaused());
+	}
+	
+	/**
+	 * Tests that budget pressure pauses reads, and that lifting it does not resume reads the sequencer has paused itself
+	 * @throws Exception thrown on any error
+	 */
+	@Test
+	public void testBudgetPressure() throws Exception {
+		sequencer = new ResponseSequencer(1);
+		sequencer.onBudgetPressure(channel, true);
+		sequencer.onBudgetPressure(channel, false);
+		assertEquals(2, readable.size());
+		assertFalse(readable.get(0));
+		assertTrue(readable.get(1));
+		receive(request(HttpVersion.HTTP_1_1));
+		assertTrue(sequencer.isPaused());
+		sequencer.onBudgetPressure(channel, false);
+		assertEquals(3, readable.size());
+		assertFalse(readable.get(2));
+	}
+	
+	/**
+	 * Tests that a request asking to close the connection has its response marked to close, that the connection is closed 
+	 * once the response is written, and that requests pipelined after it are dropped
+	 * @throws Exception thrown on any error
+	 */
+	@Test
+	public void testConnectionClose() throws Exception {
+		sequencer = new ResponseSequencer(8);
+		final HttpRequest request = request(HttpVersion.HTTP_1_1);
+		request.headers().set(HttpHeaders.Names.CONNECTION, HttpHeaders.Values.CLOSE);
+		final ResponseSequencer.Exchange exchange = receive(request);
+		assertNull("A request pipelined after a close was passed on", receive(request(HttpVersion.HTTP_1_1)));
+		final HttpResponse response = response();
+		final ChannelFuture future = send(exchange, response, true);
+		assertEquals(HttpHeaders.Values.CLOSE, response.headers().get(HttpHeaders.Names.CONNECTION));
+		assertEquals(0, closes);
+		future.setSuccess();
+		assertEquals(1, closes);
+	}
+	
+	/**
+	 * Tests that an HTTP/1.0 request without keep-alive gets a response marked to close and the connection closed after it
+	 * @throws Exception thrown on any error
+	 */
+	@Test
+	public void testHttp10() throws Exception {
+		sequencer = new ResponseSequencer(8);
+		final HttpResponse response = response();
+		send(receive(request(HttpVersion.HTTP_1_0)), response, true).setSuccess();
+		assertEquals(HttpHeaders.Values.CLOSE, response.headers().get(HttpHeaders.Names.CONNECTION));
+		assertEquals(1, closes);
+	}
+	
+	/**
+	 * Tests that an HTTP/1.0 request with keep-alive gets a response marked to keep the connection alive, and the connection stays open
+	 * @throws Exception thrown on any error
+	 */
+	@Test
+	public void testHttp10KeepAlive() throws Exception {
+		sequencer = new ResponseSequencer(8);
+		final HttpRequest request = request(HttpVersion.HTTP_1_0);
+		request.headers().set(HttpHeaders.Names.CONNECTION, HttpHeaders.Values.KEEP_ALIVE);
+		final HttpResponse response = response();
+		send(receive(request), response, true).setSuccess();
+		assertEquals(HttpHeaders.Values.KEEP_ALIVE, response.headers().get(HttpHeaders.Names.CONNECTION));
+		assertEquals(0, closes);
+		assertTrue(receive(request(HttpVersion.HTTP_1_0))!=null);
+	}
+	
+	/**
+	 * Tests that the parts held back when the connection closes have their write futures failed, 
+	 * and that parts sent after the close are failed too
+	 * @throws Exception thrown on any error
+	 */
+	@Test
+	public void testHeldPartsFailedOnClose() throws Exception {
+		sequencer = new ResponseSequencer(8);
+		final ResponseSequencer.Exchange first = receive(request(HttpVersion.HTTP_1_1));
+		final ResponseSequencer.Exchange second = receive(request(HttpVersion.HTTP_1_1));
+		final ChannelFuture held = send(second, response(), true);
+		assertFalse(held.isDone());
+		sequencer.handleUpstream(sequencerCtx, new UpstreamChannelStateEvent(channel, ChannelState.OPEN, Boolean.FALSE));
+		assertTrue(held.isDone());
+		assertFalse(held.isSuccess());
+		assertTrue(held.getCause() instanceof ClosedChannelException);
+		final ChannelFuture late = send(first, response(), true);
+		assertTrue(late.isDone());
+		assertFalse(late.isSuccess());
+		assertTrue(written.isEmpty());
+		assertEquals(0, sequencer.getPending());
+	}
+	
+	/**
+	 * Passes a request up through the sequencer
+	 * @param request The request
+	 * @return the exchange the request was tagged with, or null if the sequencer dropped it
+	 * @throws Exception thrown on any error
+	 */
+	private ResponseSequencer.Exchange receive(final HttpRequest request) throws Exception {
+		final int before = passed.size();
+		sequencer.handleUpstream(sequencerCtx, new UpstreamMessageEvent(channel, request, null));
+		if(passed.size()==before) return null;
+		return ((ResponseSequencer.RequestEvent)passed.get(passed.size()-1)).getExchange();
+	}
+	
+	/**
+	 * Sends a part of the response to the passed exchange down through the sequencer
+	 * @param exchange The exchange
+	 * @param message The part
+	 * @param last true if this is the last part of the response
+	 * @return the write future of the part
+	 */
+	private ChannelFuture send(final ResponseSequencer.Exchange exchange, final Object message, final boolean last) {
+		final ChannelFuture future = Channels.future(channel);
+		ResponseSequencer.sendDownstream(handlerCtx, exchange, future, message, last);
+		return future;
+	}
+	
+	/**
+	 * Creates a GET request
+	 * @param version The HTTP version of the request
+	 * @return the request
+	 */
+	private static HttpRequest request(final HttpVersion version) {
+		return new DefaultHttpRequest(version, HttpMethod.GET, "/render");
+	}
+	
+	/**
+	 * Creates an OK response
+	 * @return the response
+	 */
+	private static HttpResponse response() {
+		return new DefaultHttpResponse(HttpVersion.HTTP_1_1, HttpResponseStatus.OK);
+	}
+	
+	/**
+	 * Creates a fake implementation of the passed interface
+	 * @param iface The interface
+	 * @param handler The handler implementing the interface
+	 * @return the fake
+	 */
+	private static <T> T fake(final Class<T> iface, final InvocationHandler handler) {
+		return iface.cast(Proxy.newProxyInstance(iface.getClassLoader(), new Class<?>[]{iface}, handler));
+	}
+	
+	/**
+	 * Implements the methods of a fake that the test does not care about, with identity semantics for the object methods
+	 * @param proxy The fake
+	 * @param method The method called
+	 * @param args The arguments
+	 * @return the identity result of an object method, or the default value of the method's return type
+	 */
+	private static Object defaultValue(final Object proxy, final Method method, final Object[] args) {
+		final String name = method.getName();
+		if("equals".equals(name)) return proxy==args[0];
+		if("hashCode".equals(name)) return System.identityHashCode(proxy);
+		if("toString".equals(name)) return "Fake" + method.getDeclaringClass().getSimpleName();
+		final Class<?> type = method.getReturnType();
+		if(type==boolean.class) return false;
+		if(type==int.class) return 0;
+		if(type==long.class) return 0L;
+		return null;
+	}
+
+}